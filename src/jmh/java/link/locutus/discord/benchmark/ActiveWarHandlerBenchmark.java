@@ -0,0 +1,79 @@
+package link.locutus.discord.benchmark;
+
+import link.locutus.discord.db.entities.DBWar;
+import link.locutus.discord.db.handlers.ActiveWarHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups on {@link ActiveWarHandler} from several threads while one thread keeps declaring and ending wars,
+ * as the attack ingest thread does during a blitz while commands read the active wars
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ActiveWarHandlerBenchmark {
+    private static final int WARS = 20_000;
+
+    private ActiveWarHandler handler;
+    private DBWar[] wars;
+
+    @Setup
+    public void setup() {
+        handler = new ActiveWarHandler(null);
+        List<DBWar> list = new SyntheticAttackData(1, 5_000, 100).createWars(WARS, 1, true);
+        wars = list.toArray(new DBWar[0]);
+        for (DBWar war : wars) {
+            handler.addActiveWar(war);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        final SplittableRandom random = new SplittableRandom(Thread.currentThread().getId());
+        int index;
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public void write(Cursor cursor) {
+        DBWar war = wars[cursor.index++ % WARS];
+        handler.makeWarInactive(war);
+        handler.addActiveWar(war);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public DBWar readWarByNation(Cursor cursor) {
+        DBWar war = wars[cursor.random.nextInt(WARS)];
+        return handler.getWar(war.getAttacker_id(), war.getWarId());
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public int readNationWars(Cursor cursor) {
+        DBWar war = wars[cursor.random.nextInt(WARS)];
+        return handler.getActiveWars(war.getDefender_id()).size();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public DBWar readWarById(Cursor cursor) {
+        return handler.getWar(1 + cursor.random.nextInt(WARS));
+    }
+}
@@ -0,0 +1,79 @@
+package link.locutus.discord.benchmark;
+
+import link.locutus.discord.apiv1.domains.subdomains.attack.DBAttack;
+import link.locutus.discord.apiv1.domains.subdomains.attack.v3.AbstractCursor;
+import link.locutus.discord.apiv1.domains.subdomains.attack.v3.AttackCursorFactory;
+import link.locutus.discord.apiv1.enums.AttackType;
+import link.locutus.discord.db.entities.DBWar;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialize and load of each {@link AttackType} through the {@link AttackCursorFactory}, per attack
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AttackCodecBenchmark {
+    private static final int ATTACKS = 1024;
+
+    @Param
+    public AttackType type;
+
+    private AttackCursorFactory factory;
+    private DBWar war;
+    private AbstractCursor[] cursors;
+    private byte[][] serialized;
+
+    @Setup
+    public void setup() {
+        SyntheticAttackData data = new SyntheticAttackData(type.ordinal());
+        factory = new AttackCursorFactory(null);
+        war = data.createWars(1, 1, true).get(0);
+        List<DBAttack> attacks = new ArrayList<>(ATTACKS);
+        for (int i = 0; i < ATTACKS; i++) {
+            attacks.add(data.createAttack(war, i + 1, type, war.getDate() + i * 1000L));
+        }
+        cursors = SyntheticAttackData.toCursors(factory, attacks).toArray(new AbstractCursor[0]);
+        serialized = new byte[ATTACKS][];
+        for (int i = 0; i < ATTACKS; i++) {
+            serialized[i] = factory.toBytes(cursors[i]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ATTACKS)
+    public void serialize(Blackhole bh) {
+        for (AbstractCursor cursor : cursors) {
+            bh.consume(factory.toBytes(cursor));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ATTACKS)
+    public void load(Blackhole bh) {
+        for (byte[] data : serialized) {
+            bh.consume(factory.load(war, data, false));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ATTACKS)
+    public void loadNewCursor(Blackhole bh) {
+        for (byte[] data : serialized) {
+            bh.consume(factory.load(war, data, true));
+        }
+    }
+}
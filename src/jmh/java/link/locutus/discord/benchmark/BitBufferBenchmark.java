@@ -0,0 +1,102 @@
+package link.locutus.discord.benchmark;
+
+import link.locutus.discord.util.io.BitBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BitBuffer} fixed width and variable length read/write, per value
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BitBufferBenchmark {
+    private static final int VALUES = 4096;
+
+    @Param({"1", "5", "13", "32", "64"})
+    public int bits;
+
+    private long[] values;
+    private int[] varInts;
+    private BitBuffer writer;
+    private BitBuffer reader;
+    private BitBuffer varIntReader;
+    private byte[] written;
+    private byte[] writtenVarInts;
+
+    @Setup
+    public void setup() {
+        SplittableRandom random = new SplittableRandom(bits);
+        values = new long[VALUES];
+        varInts = new int[VALUES];
+        long mask = bits == 64 ? -1L : (1L << bits) - 1;
+        for (int i = 0; i < VALUES; i++) {
+            values[i] = random.nextLong() & mask;
+            // mostly small values, as for casualties and loot cents
+            varInts[i] = random.nextInt(1 << Math.min(30, bits));
+        }
+        int capacity = VALUES * (Long.BYTES + 2) + Long.BYTES;
+        writer = new BitBuffer(capacity);
+        reader = new BitBuffer(capacity);
+        varIntReader = new BitBuffer(capacity);
+
+        for (long value : values) writer.writeBits(value, bits);
+        written = writer.getWrittenBytes();
+        writer.reset();
+        for (int value : varInts) writer.writeVarInt(value);
+        writtenVarInts = writer.getWrittenBytes();
+        writer.reset();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public byte[] writeBits() {
+        BitBuffer buffer = writer.reset();
+        for (long value : values) {
+            buffer.writeBits(value, bits);
+        }
+        return buffer.getWrittenBytes();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public long readBits() {
+        reader.setBytes(written);
+        long sum = 0;
+        for (int i = 0; i < VALUES; i++) {
+            sum += reader.readBits(bits);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public byte[] writeVarInt() {
+        BitBuffer buffer = writer.reset();
+        for (int value : varInts) {
+            buffer.writeVarInt(value);
+        }
+        return buffer.getWrittenBytes();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public long readVarInt() {
+        varIntReader.setBytes(writtenVarInts);
+        long sum = 0;
+        for (int i = 0; i < VALUES; i++) {
+            sum += varIntReader.readVarInt();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,103 @@
+package link.locutus.discord.benchmark;
+
+import link.locutus.discord.apiv3.csv.ColumnInfo;
+import link.locutus.discord.apiv3.csv.column.ByteColumn;
+import link.locutus.discord.apiv3.csv.column.DoubleColumn;
+import link.locutus.discord.apiv3.csv.column.DoubleIntColumn;
+import link.locutus.discord.apiv3.csv.column.IntColumn;
+import link.locutus.discord.apiv3.csv.column.LongColumn;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per row cost of decoding data dump columns as {@link link.locutus.discord.apiv3.csv.file.DataFile.Builder#read} does,
+ * boxing each cell through {@link ColumnInfo#setCachedValue(Object)} against {@link ColumnInfo#readCached(byte[], int)} with the primitive getters.
+ * Run with `-prof gc` to see the allocation per row
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DumpColumnDecodeBenchmark {
+    private static final int ROWS = 65_536;
+    // nation_id, alliance_id, score, soldiers, date_created, cities, infrastructure
+    private static final int ROW_BYTES = 4 + 4 + 8 + 4 + 8 + 1 + 4;
+
+    private byte[] data;
+    private IntColumn<Object> nationId;
+    private IntColumn<Object> allianceId;
+    private DoubleColumn<Object> score;
+    private IntColumn<Object> soldiers;
+    private LongColumn<Object> dateCreated;
+    private ByteColumn<Object> cities;
+    private DoubleIntColumn<Object> infra;
+
+    @Setup
+    public void setup() {
+        SplittableRandom random = new SplittableRandom(7);
+        ByteBuffer buf = ByteBuffer.allocate(ROWS * ROW_BYTES);
+        for (int i = 0; i < ROWS; i++) {
+            buf.putInt(1 + i);
+            buf.putInt(random.nextInt(12_000));
+            buf.putDouble(random.nextDouble(10, 20_000));
+            buf.putInt(random.nextInt(500_000));
+            buf.putLong(SyntheticAttackData.BASE_DATE - random.nextLong(1L << 36));
+            buf.put((byte) random.nextInt(1, 70));
+            buf.putInt(random.nextInt(300_000));
+        }
+        data = buf.array();
+        nationId = new IntColumn<>(null, null);
+        allianceId = new IntColumn<>(null, null);
+        score = new DoubleColumn<>(null, null);
+        soldiers = new IntColumn<>(null, null);
+        dateCreated = new LongColumn<>(null, null);
+        cities = new ByteColumn<>(null, null);
+        infra = new DoubleIntColumn<>(null, null);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public double boxed() throws IOException {
+        double total = 0;
+        for (int i = 0, offset = 0; i < ROWS; i++, offset += ROW_BYTES) {
+            nationId.setCachedValue(nationId.read(data, offset));
+            allianceId.setCachedValue(allianceId.read(data, offset + 4));
+            score.setCachedValue(score.read(data, offset + 8));
+            soldiers.setCachedValue(soldiers.read(data, offset + 16));
+            dateCreated.setCachedValue(dateCreated.read(data, offset + 20));
+            cities.setCachedValue(cities.read(data, offset + 28));
+            infra.setCachedValue(infra.read(data, offset + 29));
+
+            total += nationId.get() + allianceId.get() + score.get() + soldiers.get() + (dateCreated.get() >> 20) + cities.get() + infra.get();
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public double primitive() {
+        double total = 0;
+        for (int i = 0, offset = 0; i < ROWS; i++, offset += ROW_BYTES) {
+            nationId.readCached(data, offset);
+            allianceId.readCached(data, offset + 4);
+            score.readCached(data, offset + 8);
+            soldiers.readCached(data, offset + 16);
+            dateCreated.readCached(data, offset + 20);
+            cities.readCached(data, offset + 28);
+            infra.readCached(data, offset + 29);
+
+            total += nationId.getInt() + allianceId.getInt() + score.getDouble() + soldiers.getInt() + (dateCreated.getLong() >> 20) + cities.getInt() + infra.getDouble();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,63 @@
+package link.locutus.discord.benchmark;
+
+import link.locutus.discord.apiv1.domains.subdomains.attack.v3.AbstractCursor;
+import link.locutus.discord.apiv1.domains.subdomains.attack.v3.AttackCursorFactory;
+import link.locutus.discord.db.entities.DBWar;
+import link.locutus.discord.util.math.ArrayUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ArrayUtil#compressLZ4(byte[], int)} and {@link ArrayUtil#decompressLZ4(byte[])} over serialized attacks
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LZ4Benchmark {
+    @Param({"4096", "65536", "1048576"})
+    public int size;
+
+    private byte[] raw;
+    private byte[] compressed;
+
+    @Setup
+    public void setup() {
+        SyntheticAttackData data = new SyntheticAttackData(42);
+        AttackCursorFactory factory = new AttackCursorFactory(null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        int warId = 1;
+        int attackId = 1;
+        while (out.size() < size) {
+            DBWar war = data.createWars(1, warId++, false).get(0);
+            for (AbstractCursor cursor : SyntheticAttackData.toCursors(factory, data.createAttacks(war, attackId, 12))) {
+                byte[] bytes = factory.toBytes(cursor);
+                out.write(bytes.length >>> 8);
+                out.write(bytes.length);
+                out.write(bytes, 0, bytes.length);
+                attackId++;
+            }
+        }
+        raw = out.toByteArray();
+        compressed = ArrayUtil.compressLZ4(raw, size);
+    }
+
+    @Benchmark
+    public byte[] compress() {
+        return ArrayUtil.compressLZ4(raw, size);
+    }
+
+    @Benchmark
+    public byte[] decompress() throws IOException {
+        return ArrayUtil.decompressLZ4(compressed);
+    }
+}
@@ -0,0 +1,206 @@
+package link.locutus.discord.benchmark;
+
+import link.locutus.discord.apiv1.domains.subdomains.attack.DBAttack;
+import link.locutus.discord.apiv1.domains.subdomains.attack.v3.AbstractCursor;
+import link.locutus.discord.apiv1.domains.subdomains.attack.v3.AttackCursorFactory;
+import link.locutus.discord.apiv1.enums.AttackType;
+import link.locutus.discord.apiv1.enums.ResourceType;
+import link.locutus.discord.apiv1.enums.WarType;
+import link.locutus.discord.db.entities.DBWar;
+import link.locutus.discord.db.entities.WarStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reproducible synthetic wars and attacks, so the attack codec can be measured without live data.
+ * The same seed always produces the same corpus. Values are rounded the same way as the `attacks2` columns,
+ * and only the fields stored for each attack type are set (see WarDB#createAttack)
+ */
+public class SyntheticAttackData {
+    /**
+     * Fixed base date so the corpus does not change with the current time
+     */
+    public static final long BASE_DATE = 1_700_000_000_000L;
+    public static final long TURN_MS = TimeUnit.HOURS.toMillis(2);
+
+    private static final AttackType[] WEIGHTED_TYPES;
+    static {
+        List<AttackType> types = new ArrayList<>();
+        addWeighted(types, AttackType.GROUND, 30);
+        addWeighted(types, AttackType.AIRSTRIKE_INFRA, 6);
+        addWeighted(types, AttackType.AIRSTRIKE_SOLDIER, 6);
+        addWeighted(types, AttackType.AIRSTRIKE_TANK, 6);
+        addWeighted(types, AttackType.AIRSTRIKE_MONEY, 2);
+        addWeighted(types, AttackType.AIRSTRIKE_SHIP, 3);
+        addWeighted(types, AttackType.AIRSTRIKE_AIRCRAFT, 8);
+        addWeighted(types, AttackType.NAVAL, 8);
+        addWeighted(types, AttackType.NAVAL_INFRA, 2);
+        addWeighted(types, AttackType.NAVAL_AIR, 2);
+        addWeighted(types, AttackType.NAVAL_GROUND, 2);
+        addWeighted(types, AttackType.MISSILE, 4);
+        addWeighted(types, AttackType.NUKE, 2);
+        addWeighted(types, AttackType.FORTIFY, 5);
+        WEIGHTED_TYPES = types.toArray(new AttackType[0]);
+    }
+
+    private static void addWeighted(List<AttackType> types, AttackType type, int weight) {
+        for (int i = 0; i < weight; i++) types.add(type);
+    }
+
+    private final SplittableRandom random;
+    private final int numNations;
+    private final int numAlliances;
+
+    public SyntheticAttackData(long seed) {
+        this(seed, 50_000, 500);
+    }
+
+    public SyntheticAttackData(long seed, int numNations, int numAlliances) {
+        this.random = new SplittableRandom(seed);
+        this.numNations = numNations;
+        this.numAlliances = numAlliances;
+    }
+
+    /**
+     * @param active if the wars are still active, otherwise each ends in victory, peace or expiry
+     * @return wars with consecutive ids, declared one after another over the last 5 days before {@link #BASE_DATE}
+     */
+    public List<DBWar> createWars(int count, int firstWarId, boolean active) {
+        List<DBWar> wars = new ArrayList<>(count);
+        long span = TimeUnit.DAYS.toMillis(5);
+        for (int i = 0; i < count; i++) {
+            int attackerId = 1 + random.nextInt(numNations);
+            int defenderId = 1 + random.nextInt(numNations - 1);
+            if (defenderId >= attackerId) defenderId++;
+            int attackerAA = random.nextInt(4) == 0 ? 0 : 1 + random.nextInt(numAlliances);
+            int defenderAA = random.nextInt(4) == 0 ? 0 : 1 + random.nextInt(numAlliances);
+            WarType warType = WarType.values()[random.nextInt(WarType.values().length)];
+            WarStatus status = active ? WarStatus.ACTIVE : switch (random.nextInt(4)) {
+                case 0 -> WarStatus.ATTACKER_VICTORY;
+                case 1 -> WarStatus.DEFENDER_VICTORY;
+                case 2 -> WarStatus.PEACE;
+                default -> WarStatus.EXPIRED;
+            };
+            long date = BASE_DATE - span + (span * i) / Math.max(1, count);
+            int attCities = 1 + random.nextInt(40);
+            int defCities = 1 + random.nextInt(40);
+            wars.add(new DBWar(firstWarId + i, attackerId, defenderId, attackerAA, defenderAA, warType, status, date, attCities, defCities, 0));
+        }
+        return wars;
+    }
+
+    /**
+     * @return between 1 and 2 * averageAttacks attacks on the war, ending in a victory (and alliance loot) when the war was won
+     */
+    public List<DBAttack> createAttacks(DBWar war, int firstAttackId, int averageAttacks) {
+        int count = 1 + random.nextInt(Math.max(1, averageAttacks * 2));
+        List<DBAttack> attacks = new ArrayList<>(count + 2);
+        long date = war.getDate();
+        int attackId = firstAttackId;
+        for (int i = 0; i < count; i++) {
+            date += 1 + random.nextLong(TURN_MS);
+            attacks.add(createAttack(war, attackId++, WEIGHTED_TYPES[random.nextInt(WEIGHTED_TYPES.length)], date));
+        }
+        boolean attackerWon = war.getStatus() == WarStatus.ATTACKER_VICTORY;
+        if (attackerWon || war.getStatus() == WarStatus.DEFENDER_VICTORY) {
+            date += 1;
+            attacks.add(createAttack(war, attackId++, AttackType.VICTORY, date, attackerWon));
+            int loserAA = attackerWon ? war.getDefender_aa() : war.getAttacker_aa();
+            if (loserAA != 0) {
+                attacks.add(createAttack(war, attackId, AttackType.A_LOOT, date, attackerWon));
+            }
+        } else if (war.getStatus() == WarStatus.PEACE) {
+            attacks.add(createAttack(war, attackId, AttackType.PEACE, date + 1));
+        }
+        return attacks;
+    }
+
+    public DBAttack createAttack(DBWar war, int attackId, AttackType type, long date) {
+        return createAttack(war, attackId, type, date, random.nextBoolean());
+    }
+
+    /**
+     * @param byAttacker if the war's attacker made the attack
+     */
+    public DBAttack createAttack(DBWar war, int attackId, AttackType type, long date, boolean byAttacker) {
+        DBAttack attack = new DBAttack();
+        attack.setWar_attack_id(attackId);
+        attack.setDate(date);
+        attack.setWar_id(war.getWarId());
+        attack.setAttacker_nation_id(byAttacker ? war.getAttacker_id() : war.getDefender_id());
+        attack.setDefender_nation_id(byAttacker ? war.getDefender_id() : war.getAttacker_id());
+        attack.setAttack_type(type);
+        attack.setSuccess(switch (type) {
+            case VICTORY, A_LOOT, PEACE, FORTIFY -> 0;
+            default -> random.nextInt(4);
+        });
+
+        if (attack.getSuccess() > 0 || type == AttackType.VICTORY) {
+            attack.setInfra_destroyed(cents(random.nextDouble() * 400));
+            if (attack.getInfra_destroyed() > 0) {
+                attack.setImprovements_destroyed(random.nextInt(3));
+                attack.setCity_infra_before(cents(attack.getInfra_destroyed() + random.nextDouble() * 3000));
+                attack.setInfra_destroyed_value(cents(attack.getInfra_destroyed() * (200 + random.nextDouble() * 800)));
+            }
+        }
+
+        switch (type) {
+            case GROUND:
+                if (attack.getSuccess() == 0) break;
+            case VICTORY:
+            case A_LOOT:
+                attack.setMoney_looted(cents(random.nextDouble() * 5_000_000));
+        }
+
+        if (type == AttackType.VICTORY || type == AttackType.A_LOOT) {
+            int loserAA = byAttacker ? war.getDefender_aa() : war.getAttacker_aa();
+            attack.setLooted(type == AttackType.A_LOOT ? loserAA : attack.getDefender_id());
+            double[] loot = ResourceType.getBuffer();
+            for (int i = 0; i < loot.length; i++) {
+                loot[i] = cents(random.nextDouble() * (i == ResourceType.MONEY.ordinal() ? 10_000_000 : 20_000));
+            }
+            attack.setLoot(loot);
+            attack.setLootPercent(Math.round(random.nextDouble() * 1000) * 0.0001);
+        }
+
+        switch (type) {
+            case VICTORY:
+            case FORTIFY:
+            case A_LOOT:
+            case PEACE:
+                break;
+            default:
+                attack.setAtt_gas_used(cents(random.nextDouble() * 2000));
+                attack.setAtt_mun_used(cents(random.nextDouble() * 2000));
+                attack.setDef_gas_used(cents(random.nextDouble() * 2000));
+                attack.setDef_mun_used(cents(random.nextDouble() * 2000));
+            case MISSILE:
+            case NUKE:
+                attack.setAttcas1(random.nextInt(20_000));
+                attack.setAttcas2(random.nextInt(500));
+                attack.setDefcas1(random.nextInt(20_000));
+                attack.setDefcas2(random.nextInt(500));
+                attack.setDefcas3(random.nextInt(100));
+                break;
+        }
+        return attack;
+    }
+
+    private static double cents(double value) {
+        return Math.round(value * 100) * 0.01;
+    }
+
+    /**
+     * Convert to cursors, each a new instance
+     */
+    public static List<AbstractCursor> toCursors(AttackCursorFactory factory, List<DBAttack> attacks) {
+        List<AbstractCursor> cursors = new ArrayList<>(attacks.size());
+        for (DBAttack attack : attacks) {
+            cursors.add(factory.load(attack, true));
+        }
+        return cursors;
+    }
+}
@@ -0,0 +1,102 @@
+package link.locutus.discord.benchmark;
+
+import link.locutus.discord.apiv1.domains.subdomains.attack.v3.AbstractCursor;
+import link.locutus.discord.apiv1.domains.subdomains.attack.v3.AttackCursorFactory;
+import link.locutus.discord.apiv1.enums.AttackType;
+import link.locutus.discord.config.Settings;
+import link.locutus.discord.db.WarDB;
+import link.locutus.discord.db.entities.DBWar;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * {@link WarDB#iterateAttacks(Iterable, java.util.function.Predicate, java.util.function.Predicate, java.util.function.BiConsumer)}
+ * over a synthetic corpus held in memory, in a throwaway database
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class WarDBIterateAttacksBenchmark {
+    @Param({"1000", "20000"})
+    public int wars;
+
+    @Param({"12"})
+    public int attacksPerWar;
+
+    private File directory;
+    private WarDB db;
+    private List<DBWar> corpus;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, SQLException {
+        directory = Files.createTempDirectory("locutus-jmh").toFile();
+        Settings.INSTANCE.reload(new File(directory, "config.yaml"));
+        Settings.INSTANCE.DATABASE.SQLITE.DIRECTORY = directory.getAbsolutePath();
+        // keep every attack in memory, so nothing is read from the database during the benchmark
+        Settings.INSTANCE.TASKS.LOAD_INACTIVE_ATTACKS = true;
+        Settings.INSTANCE.TASKS.USE_ATTACK_LOG = false;
+
+        db = new WarDB("war_jmh");
+        SyntheticAttackData data = new SyntheticAttackData(wars);
+        AttackCursorFactory factory = new AttackCursorFactory(db);
+        corpus = data.createWars(wars, 1, false);
+        db.saveWars(corpus, true);
+
+        List<AbstractCursor> attacks = new ArrayList<>(wars * (attacksPerWar + 1));
+        int attackId = 1;
+        for (DBWar war : corpus) {
+            List<AbstractCursor> warAttacks = SyntheticAttackData.toCursors(factory, data.createAttacks(war, attackId, attacksPerWar));
+            attackId += warAttacks.size();
+            attacks.addAll(warAttacks);
+        }
+        db.saveAttacks(attacks, null, false, false);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        db.close();
+        try (Stream<Path> files = Files.walk(directory.toPath())) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public long iterateAll() {
+        long[] count = {0};
+        db.iterateAttacks(corpus, null, null, (war, attack) -> count[0] += attack.getWar_attack_id());
+        return count[0];
+    }
+
+    @Benchmark
+    public long iterateGround() {
+        long[] count = {0};
+        db.iterateAttacks(corpus, type -> type == AttackType.GROUND, null, (war, attack) -> count[0] += attack.getWar_attack_id());
+        return count[0];
+    }
+
+    @Benchmark
+    public long iterateVictories() {
+        long[] count = {0};
+        db.iterateAttacks(corpus, type -> type == AttackType.VICTORY, f -> f.getAttacker_id() > f.getDefender_id(), (war, attack) -> count[0] += attack.getWar_attack_id());
+        return count[0];
+    }
+}
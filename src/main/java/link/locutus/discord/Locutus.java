@@ -621,6 +621,27 @@ public final class Locutus extends ListenerAdapter {
                     NationUpdateProcessor.onActivityCheck();
                 }
             }, 60, TimeUnit.SECONDS);
+            taskTrack.addTask("Activity Journal", new CaughtTask() {
+                @Override
+                public void runUnsafe() throws Exception {
+                    getNationDB().getActivityStore().flushJournal();
+                }
+            }, 5, TimeUnit.SECONDS);
+            taskTrack.addTask("Activity Save", new CaughtTask() {
+                @Override
+                public void runUnsafe() throws Exception {
+                    getNationDB().getActivityStore().save();
+                }
+            }, 15, TimeUnit.MINUTES);
+        }
+        if (Settings.INSTANCE.DATABASE.DATA_DUMP.ENABLED && Settings.INSTANCE.DATABASE.DATA_DUMP.SYNC_INTERVAL_MINUTES > 0) {
+            taskTrack.addTask("Data Dump", new CaughtTask() {
+                @Override
+                public void runUnsafe() throws Exception {
+                    DataDumpParser parser = getDataDumper(false);
+                    if (parser != null) parser.load();
+                }
+            }, Settings.INSTANCE.DATABASE.DATA_DUMP.SYNC_INTERVAL_MINUTES, TimeUnit.MINUTES);
         }
         if (Settings.USE_FALLBACK) {
             taskTrack.addTask("Update Nations V2", () -> {
@@ -1453,6 +1474,21 @@ public final class Locutus extends ListenerAdapter {
             CommandManager cmdManager = getCommandManager();
             if (cmdManager != null) cmdManager.getExecutor().shutdownNow();
 
+            // write queued nations, cities and activity before the writer threads are interrupted
+            NationDB nationDB = loader == null ? null : loader.getCachedNationDB();
+            if (nationDB != null) {
+                try {
+                    nationDB.flushWrites();
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                }
+                try {
+                    nationDB.saveActivity();
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                }
+            }
+
             // join all threads
             for (Thread thread : Thread.getAllStackTraces().keySet()) {
                 if (thread != Thread.currentThread()) {
@@ -10,6 +10,7 @@ import link.locutus.discord.db.entities.AttackEntry;
 import link.locutus.discord.db.entities.DBWar;
 import link.locutus.discord.util.io.BitBuffer;
 
+import java.nio.ByteBuffer;
 import java.util.function.Predicate;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -268,6 +269,15 @@ public class AttackCursorFactory {
 
     public synchronized AbstractCursor load(DBWar war, byte[] data, boolean create) {
         buffer.setBytes(data);
+        return loadBuffered(war, create);
+    }
+
+    public synchronized AbstractCursor load(DBWar war, ByteBuffer data, int offset, int length, boolean create) {
+        buffer.setBytes(data, offset, length);
+        return loadBuffered(war, create);
+    }
+
+    private AbstractCursor loadBuffered(DBWar war, boolean create) {
         AttackType type = AttackType.values[(int) buffer.readBits(5)];
         AbstractCursor cursor = create ? create(type) : getCursor(type);
         if (cursor == null) {
@@ -280,6 +290,15 @@ public class AttackCursorFactory {
 
     public synchronized AbstractCursor loadWithType(DBWar war, byte[] data, boolean create, Predicate<AttackType> testType) {
         buffer.setBytes(data);
+        return loadBufferedWithType(war, create, testType);
+    }
+
+    public synchronized AbstractCursor loadWithType(DBWar war, ByteBuffer data, int offset, int length, boolean create, Predicate<AttackType> testType) {
+        buffer.setBytes(data, offset, length);
+        return loadBufferedWithType(war, create, testType);
+    }
+
+    private AbstractCursor loadBufferedWithType(DBWar war, boolean create, Predicate<AttackType> testType) {
         AttackType type = AttackType.values[(int) buffer.readBits(5)];
         if (!testType.test(type)) {
             return null;
@@ -314,6 +333,12 @@ public class AttackCursorFactory {
         return buffer.readInt();
     }
 
+    public synchronized int getId(ByteBuffer data, int offset, int length) {
+        buffer.setBytes(data, offset, length);
+        buffer.readBits(4);
+        return buffer.readInt();
+    }
+
     public synchronized byte[] reEncode5(DBWar dummyWar, byte[] data) {
         buffer.setBytes(data);
         AttackType type = AttackType.values[(int) buffer.readBits(4)];
@@ -346,7 +371,15 @@ public class AttackCursorFactory {
 
     public synchronized AbstractCursor loadWithPretest(DBWar war, byte[] data, boolean create, Predicate<AbstractCursor> testInitial) {
         buffer.setBytes(data);
+        return loadBufferedWithPretest(war, create, testInitial);
+    }
+
+    public synchronized AbstractCursor loadWithPretest(DBWar war, ByteBuffer data, int offset, int length, boolean create, Predicate<AbstractCursor> testInitial) {
+        buffer.setBytes(data, offset, length);
+        return loadBufferedWithPretest(war, create, testInitial);
+    }
 
+    private AbstractCursor loadBufferedWithPretest(DBWar war, boolean create, Predicate<AbstractCursor> testInitial) {
         AttackType type = AttackType.values[(int) buffer.readBits(5)];
         AbstractCursor cursor = create ? create(type) : getCursor(type);
         if (cursor == null) {
@@ -362,6 +395,15 @@ public class AttackCursorFactory {
 
     public synchronized AbstractCursor loadWithTypePretest(DBWar war, byte[] data, boolean create, Predicate<AttackType> testType, Predicate<AbstractCursor> testInitial) {
         buffer.setBytes(data);
+        return loadBufferedWithTypePretest(war, create, testType, testInitial);
+    }
+
+    public synchronized AbstractCursor loadWithTypePretest(DBWar war, ByteBuffer data, int offset, int length, boolean create, Predicate<AttackType> testType, Predicate<AbstractCursor> testInitial) {
+        buffer.setBytes(data, offset, length);
+        return loadBufferedWithTypePretest(war, create, testType, testInitial);
+    }
+
+    private AbstractCursor loadBufferedWithTypePretest(DBWar war, boolean create, Predicate<AttackType> testType, Predicate<AbstractCursor> testInitial) {
         AttackType type = AttackType.values[(int) buffer.readBits(5)];
         if (!testType.test(type)) {
             return null;
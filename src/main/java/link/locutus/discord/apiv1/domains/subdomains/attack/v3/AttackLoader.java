@@ -0,0 +1,18 @@
+package link.locutus.discord.apiv1.domains.subdomains.attack.v3;
+
+import link.locutus.discord.db.entities.DBWar;
+
+import java.nio.ByteBuffer;
+
+@FunctionalInterface
+public interface AttackLoader {
+    /**
+     * Decode the serialized attack at data[offset, offset + length)
+     * @return the cursor, or null if the attack was filtered out
+     */
+    AbstractCursor load(DBWar war, ByteBuffer data, int offset, int length);
+
+    default AbstractCursor load(DBWar war, byte[] data) {
+        return load(war, ByteBuffer.wrap(data), 0, data.length);
+    }
+}
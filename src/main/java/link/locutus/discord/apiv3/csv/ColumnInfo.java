@@ -14,6 +14,10 @@ public abstract class ColumnInfo<P, V> {
     private int offset;
     private final BiConsumer<P, V> setter;
     protected V cacheValue;
+    /**
+     * If the value of the current row is held unboxed by the column, and boxed by {@link #box()} on the first {@link #get()}
+     */
+    protected boolean unboxed;
     private String[] aliases;
     private String name;
 
@@ -51,9 +55,21 @@ public abstract class ColumnInfo<P, V> {
 
     public final void setCachedValue(V value) {
         this.cacheValue = value;
+        this.unboxed = false;
     }
 
     public V get() {
+        if (unboxed) {
+            cacheValue = box();
+            unboxed = false;
+        }
+        return cacheValue;
+    }
+
+    /**
+     * @return the unboxed value of the current row as an object, see {@link #unboxed}
+     */
+    protected V box() {
         return cacheValue;
     }
 
@@ -63,6 +79,14 @@ public abstract class ColumnInfo<P, V> {
 
     public abstract V read(byte[] buffer, int offset) throws IOException;
 
+    /**
+     * Read the value of the current row into this column, see {@link #get()}
+     * Primitive columns override this to keep the value unboxed, so reading a row does not allocate
+     */
+    public void readCached(byte[] buffer, int offset) throws IOException {
+        setCachedValue(read(buffer, offset));
+    }
+
     public final void skip(DataInputStream dis) throws IOException {
         dis.skipBytes(getBytes());
     }
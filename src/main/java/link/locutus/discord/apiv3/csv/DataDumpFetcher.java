@@ -0,0 +1,239 @@
+package link.locutus.discord.apiv3.csv;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import link.locutus.discord.Logg;
+import link.locutus.discord.apiv3.csv.file.DataFile;
+import link.locutus.discord.config.Settings;
+import link.locutus.discord.util.FileUtil;
+import link.locutus.discord.util.io.PagePriority;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Downloads the daily dumps missing from the dump directories, a few files at once, and converts new files to their `.bin` file on a background pool,
+ * so reading a day does not wait for the conversion (unless it is read while still being converted).
+ * Files are written to a `.tmp` file and moved into place, so a failed download never leaves a partial csv file
+ */
+public class DataDumpFetcher {
+    /**
+     * Where the zipped dumps are downloaded from, see {@link #of(String)}
+     */
+    public interface DumpSource {
+        /**
+         * @param type `nations` or `cities`
+         * @return the names of the zip files of the type
+         */
+        List<String> list(String type) throws IOException;
+
+        /**
+         * @return the contents of the zip file
+         */
+        InputStream open(String type, String name) throws IOException;
+
+        /**
+         * @param location an http url, a local directory, or empty for the game's data dumps.
+         *                 Either must contain a `nations` and `cities` folder of zip files
+         */
+        static DumpSource of(String location) {
+            if (location == null || location.isEmpty()) return http(Settings.PNW_URL() + "/data/");
+            if (location.startsWith("http://") || location.startsWith("https://")) {
+                return http(location.endsWith("/") ? location : location + "/");
+            }
+            return directory(new File(location));
+        }
+
+        /**
+         * A directory index served over http, with links to each zip file
+         */
+        static DumpSource http(String baseUrl) {
+            return new DumpSource() {
+                @Override
+                public List<String> list(String type) throws IOException {
+                    String html = FileUtil.readStringFromURL(PagePriority.DATA_DUMP, baseUrl + type + "/");
+                    List<String> names = new ArrayList<>();
+                    for (Element a : Jsoup.parse(html).select("a")) {
+                        String href = a.attr("href");
+                        if (href != null && href.contains(".zip")) names.add(href);
+                    }
+                    return names;
+                }
+
+                @Override
+                public InputStream open(String type, String name) throws IOException {
+                    byte[] bytes = FileUtil.readBytesFromUrl(PagePriority.DATA_DUMP, baseUrl + type + "/" + name);
+                    if (bytes == null) throw new IOException("Failed to download " + baseUrl + type + "/" + name);
+                    return new ByteArrayInputStream(bytes);
+                }
+            };
+        }
+
+        static DumpSource directory(File dir) {
+            return new DumpSource() {
+                @Override
+                public List<String> list(String type) {
+                    File[] files = new File(dir, type).listFiles((f, name) -> name.endsWith(".zip"));
+                    List<String> names = new ArrayList<>();
+                    if (files != null) {
+                        for (File file : files) names.add(file.getName());
+                    }
+                    return names;
+                }
+
+                @Override
+                public InputStream open(String type, String name) throws IOException {
+                    return new FileInputStream(new File(new File(dir, type), name));
+                }
+            };
+        }
+    }
+
+    public record Progress(int queued, int downloaded, int converting, int converted, int failed, long bytes) {
+        @Override
+        public String toString() {
+            return "queued: " + queued + ", downloaded: " + downloaded + " (" + (bytes >> 20) + "MB), converting: " + converting + ", converted: " + converted + ", failed: " + failed;
+        }
+    }
+
+    private final DumpSource source;
+    private final int downloadThreads;
+    private final ExecutorService converter;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger downloaded = new AtomicInteger();
+    private final AtomicInteger converting = new AtomicInteger();
+    private final AtomicInteger converted = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+
+    public DataDumpFetcher(DumpSource source, int downloadThreads, int convertThreads) {
+        this.source = source;
+        this.downloadThreads = Math.max(1, downloadThreads);
+        this.converter = Executors.newFixedThreadPool(Math.max(1, convertThreads), daemon("Data Dump Convert"));
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicInteger id = new AtomicInteger();
+        return job -> {
+            Thread thread = new Thread(job);
+            thread.setName(name + " " + id.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public DumpSource getSource() {
+        return source;
+    }
+
+    /**
+     * @return the totals since this fetcher was created
+     */
+    public Progress getProgress() {
+        return new Progress(queued.get(), downloaded.get(), converting.get(), converted.get(), failed.get(), bytes.get());
+    }
+
+    /**
+     * Download the files of the type which are not in the directory, with at most `downloadThreads` downloads at once.
+     * A file which fails to download is logged and left out, and is tried again on the next call
+     * @param type `nations` or `cities`
+     * @return the csv file of each listed day by date, including files which were already downloaded
+     */
+    public Map<Long, File> download(String type, File dir) throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Could not create directory " + dir);
+        }
+        List<String> names = source.list(type);
+        Map<Long, File> filesByDate = new Long2ObjectLinkedOpenHashMap<>();
+        Map<Long, Future<?>> pending = new Long2ObjectLinkedOpenHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(downloadThreads, daemon("Data Dump Download"));
+        try {
+            for (String name : names) {
+                String fileName = name.replace(".zip", "");
+                File saveAs = new File(dir, fileName);
+                long date = DataFile.parseDateFromFile(fileName);
+                filesByDate.put(date, saveAs);
+                if (saveAs.exists() || new File(dir, fileName.replace(".csv", ".bin")).exists()) continue;
+                queued.incrementAndGet();
+                pending.put(date, executor.submit(() -> {
+                    fetch(type, name, saveAs);
+                    return null;
+                }));
+            }
+            for (Map.Entry<Long, Future<?>> entry : pending.entrySet()) {
+                try {
+                    entry.getValue().get();
+                    downloaded.incrementAndGet();
+                } catch (ExecutionException e) {
+                    failed.incrementAndGet();
+                    File file = filesByDate.remove(entry.getKey());
+                    Logg.text("Failed to download " + type + " dump " + file.getName() + ": " + e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        if (!pending.isEmpty()) {
+            Logg.text("Downloaded " + type + " dumps | " + getProgress());
+        }
+        return filesByDate;
+    }
+
+    private void fetch(String type, String name, File saveAs) throws IOException {
+        File tmp = new File(saveAs.getParentFile(), saveAs.getName() + ".tmp");
+        try (ZipInputStream in = new ZipInputStream(source.open(type, name))) {
+            ZipEntry entry = in.getNextEntry();
+            if (entry == null) throw new IOException("Empty zip file " + name);
+            bytes.addAndGet(Files.copy(in, tmp.toPath(), StandardCopyOption.REPLACE_EXISTING));
+        } catch (IOException | RuntimeException e) {
+            tmp.delete();
+            throw e;
+        }
+        Files.move(tmp.toPath(), saveAs.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Convert the files without a `.bin` file on the background pool, in the given order, see {@link DataFile#getCompressedFile(boolean, boolean)}.
+     * The dictionary of each file is updated and saved as part of its conversion
+     */
+    public void convertInBackground(Collection<? extends DataFile<?, ?, ?>> files) {
+        for (DataFile<?, ?, ?> file : files) {
+            if (file.getBinFile().exists() || !file.getCsvFile().exists()) continue;
+            converting.incrementAndGet();
+            converter.submit(() -> {
+                try {
+                    file.getCompressedFile(true, false);
+                    converted.incrementAndGet();
+                } catch (Throwable e) {
+                    failed.incrementAndGet();
+                    Logg.text("Failed to convert " + file.getFilePart() + ": " + e);
+                } finally {
+                    converting.decrementAndGet();
+                }
+            });
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package link.locutus.discord.apiv3.csv;
 
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import link.locutus.discord.Logg;
@@ -9,26 +10,22 @@ import link.locutus.discord.apiv3.csv.header.*;
 import link.locutus.discord.config.Settings;
 import link.locutus.discord.db.entities.nation.DBNationSnapshot;
 import link.locutus.discord.db.entities.*;
-import link.locutus.discord.util.FileUtil;
 import link.locutus.discord.util.TimeUtil;
-import link.locutus.discord.util.io.PagePriority;
 import link.locutus.discord.util.scheduler.TriConsumer;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 public class DataDumpParser {
 
@@ -38,12 +35,28 @@ public class DataDumpParser {
     private long lastUpdatedCities = 0;
     private final File cityDir, nationDir;
     private final Dictionary nationDict, cityDict;
+    private final Object nationSeriesLock = new Object();
+    private NationSeriesIndex nationSeries;
+    private final DataDumpFetcher fetcher;
 
     public DataDumpParser() {
-        this.cityDir = new File(Settings.INSTANCE.DATABASE.DATA_DUMP.CITIES);
-        this.nationDir = new File(Settings.INSTANCE.DATABASE.DATA_DUMP.NATIONS);
+        this(new File(Settings.INSTANCE.DATABASE.DATA_DUMP.NATIONS), new File(Settings.INSTANCE.DATABASE.DATA_DUMP.CITIES),
+                DataDumpFetcher.DumpSource.of(Settings.INSTANCE.DATABASE.DATA_DUMP.SOURCE));
+    }
+
+    /**
+     * @param source where missing days are downloaded from, e.g. a local directory of sample dumps
+     */
+    public DataDumpParser(File nationDir, File cityDir, DataDumpFetcher.DumpSource source) {
+        this.cityDir = cityDir;
+        this.nationDir = nationDir;
         this.nationDict = new Dictionary(nationDir);
         this.cityDict = new Dictionary(cityDir);
+        this.fetcher = new DataDumpFetcher(source, Settings.INSTANCE.DATABASE.DATA_DUMP.DOWNLOAD_THREADS, DataUtil.PARALLELISM);
+    }
+
+    public DataDumpFetcher getFetcher() {
+        return fetcher;
     }
 
     public File getNationDir() {
@@ -158,6 +171,158 @@ public class DataDumpParser {
         }
     }
 
+    @FunctionalInterface
+    public interface DayTask<V> {
+        /**
+         * @param nationFile the nation file of the day, or null if not required and missing
+         * @param cityFile the city file of the day, or null if not required and missing
+         */
+        V apply(long day, NationsFile nationFile, CitiesFile cityFile) throws IOException;
+    }
+
+    private List<Long> getDays(boolean requireNations, boolean requireCities, Predicate<Long> acceptDay) throws IOException, ParseException {
+        if (requireNations || !requireCities) downloadNationFilesByDay();
+        if (requireCities) downloadCityFilesByDay();
+        List<Long> days = new ArrayList<>(getDays(requireNations || !requireCities, requireCities));
+        days.removeIf(day -> !acceptDay.test(day));
+        return days;
+    }
+
+    /**
+     * Run a task for each day on a pool of `parallelism` threads, and receive the results on the calling thread in order of day.
+     * At most `parallelism` days are being read or waiting to be received at once, so that many days are held in memory at most.
+     * The files of a day can be read from several threads at once, see {@link DataFile.Builder#read(Consumer)}
+     * @param reverse if the days are received from newest to oldest
+     * @param onResult receives each day and its result, in order
+     */
+    public <V> void iterateFilesParallel(boolean requireNations, boolean requireCities, Predicate<Long> acceptDay, boolean reverse, int parallelism, DayTask<V> task, BiConsumer<Long, V> onResult) throws IOException, ParseException {
+        List<Long> days = getDays(requireNations, requireCities, acceptDay);
+        if (reverse) days = days.reversed();
+        Map<Long, NationsFile> nationFiles = getNationFilesByDay();
+        Map<Long, CitiesFile> cityFiles = getCityFilesByDay();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism));
+        try {
+            ArrayDeque<Future<V>> inFlight = new ArrayDeque<>(parallelism);
+            Iterator<Long> iter = days.iterator();
+            for (long day : days) {
+                while (iter.hasNext() && inFlight.size() < Math.max(1, parallelism)) {
+                    long next = iter.next();
+                    inFlight.add(executor.submit(() -> task.apply(next, nationFiles.get(next), cityFiles.get(next))));
+                }
+                onResult.accept(day, await(inFlight.poll()));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static <V> V await(Future<V> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) throw io;
+            if (cause instanceof RuntimeException re) throw re;
+            if (cause instanceof Error err) throw err;
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Convert the binary files still in the row major layout to the columnar layout
+     * Files are otherwise converted the first time they are read
+     * @return the number of files converted
+     */
+    public int migrateToColumnar() throws IOException, ParseException {
+        load();
+        int converted = 0;
+        List<DataFile<?, ?, ?>> files = new ArrayList<>();
+        files.addAll(getNationFilesByDay().values());
+        files.addAll(getCityFilesByDay().values());
+        for (DataFile<?, ?, ?> file : files) {
+            if (file.migrateToColumnar()) {
+                converted++;
+            }
+        }
+        Logg.text("Converted " + converted + "/" + files.size() + " data dump files to the columnar layout");
+        return converted;
+    }
+
+    /**
+     * Rewrite the days which are not keyframes as the changes from the previous day, see {@link Settings.DATABASE.DATA_DUMP#DELTA_KEYFRAME_INTERVAL}
+     * Days are converted oldest first, each one is rebuilt from the previous day when read
+     * @return the number of files converted
+     */
+    public int convertToDeltas() throws IOException, ParseException {
+        load();
+        int converted = 0;
+        List<DataFile<?, ?, ?>> files = new ArrayList<>();
+        files.addAll(new TreeMap<>(getNationFilesByDay()).values());
+        files.addAll(new TreeMap<>(getCityFilesByDay()).values());
+        for (DataFile<?, ?, ?> file : files) {
+            if (file.convertToDelta()) {
+                converted++;
+            }
+        }
+        Logg.text("Converted " + converted + "/" + files.size() + " data dump files to deltas");
+        return converted;
+    }
+
+    /**
+     * @return the ids of the nations added, changed or removed after `startDay` up to and including `endDay`
+     */
+    public Set<Integer> getChangedNations(long startDay, long endDay) throws IOException, ParseException {
+        downloadNationFilesByDay();
+        return getChangedKeys(getNationFilesByDay(), startDay, endDay);
+    }
+
+    /**
+     * @return the ids of the cities added, changed or removed after `startDay` up to and including `endDay`
+     */
+    public Set<Integer> getChangedCities(long startDay, long endDay) throws IOException, ParseException {
+        downloadCityFilesByDay();
+        return getChangedKeys(getCityFilesByDay(), startDay, endDay);
+    }
+
+    private <T, H extends DataHeader<T>, R extends DataReader<H>, F extends DataFile<T, H, R>> Set<Integer> getChangedKeys(Map<Long, F> filesByDay, long startDay, long endDay) throws IOException {
+        Set<Integer> changed = new IntOpenHashSet();
+        F previous = null;
+        for (Map.Entry<Long, F> entry : new TreeMap<>(filesByDay).entrySet()) {
+            long day = entry.getKey();
+            if (day > endDay) break;
+            if (day >= startDay && previous != null) {
+                changed.addAll(entry.getValue().getChangedKeys(previous));
+            }
+            previous = entry.getValue();
+        }
+        return changed;
+    }
+
+    /**
+     * The per nation time series of the main nation columns, for point in time and range lookups without reading the daily files
+     * The index is loaded from disk on first use, and the days downloaded since it was last updated are added to it
+     */
+    public NationSeriesIndex getNationSeries() throws IOException, ParseException {
+        synchronized (nationSeriesLock) {
+            if (nationSeries == null) {
+                NationSeriesIndex index = new NationSeriesIndex(new File(nationDir, "nation_series.bin"));
+                if (!index.load()) {
+                    index = new NationSeriesIndex(new File(nationDir, "nation_series.bin"));
+                }
+                nationSeries = index;
+            }
+            downloadNationFilesByDay();
+            long latestDay = getDays(true, false).stream().mapToLong(Long::longValue).max().orElse(-1);
+            if (latestDay > nationSeries.getLastDay()) {
+                nationSeries.update(this);
+            }
+            return nationSeries;
+        }
+    }
+
     public void iterateAll(Predicate<Long> acceptDay,
                             BiConsumer<NationHeader, DataFile<DBNation, NationHeader, NationHeaderReader>.Builder> nationColumns,
                             BiConsumer<CityHeader, DataFile<DBCity, CityHeader, CityHeaderReader>.Builder> cityColumns,
@@ -221,40 +386,6 @@ public class DataDumpParser {
 
     // private functions
 
-    private Map<Long, File> load(String url, File savePath) throws IOException, ParseException {
-        Map<Long, File> filesByDate = new Long2ObjectLinkedOpenHashMap<>();
-        Document dom = Jsoup.parse(FileUtil.readStringFromURL(PagePriority.DATA_DUMP, url));
-        for (Element a : dom.select("a")) {
-            String subUrl = a.attr("href");
-            if (subUrl != null && subUrl.contains(".zip")) {
-                synchronized (this) {
-                    String fileUrl = url + subUrl;
-                    File saveAs = new File(savePath, subUrl.replace(".zip", ""));
-                    filesByDate.put(DataFile.parseDateFromFile(saveAs.getName()), saveAs);
-                    if (saveAs.exists()) continue;
-                    download(fileUrl, saveAs);
-                }
-            }
-        }
-        return filesByDate;
-    }
-
-    private void download(String fileUrl, File savePath) throws IOException {
-        File parent = savePath.getParentFile();
-        if (!parent.exists()) {
-            if (!parent.mkdirs()) {
-                throw new IOException("Could not create directory " + parent);
-            }
-        }
-        byte[] bytes = FileUtil.readBytesFromUrl(PagePriority.DATA_DUMP, fileUrl);
-        assert bytes != null;
-        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(bytes))) {
-            ZipEntry entry = in.getNextEntry();
-            byte[] data = in.readNBytes((int) Objects.requireNonNull(entry).getSize());
-            Files.write(savePath.toPath(), data);
-        }
-    }
-
     private <T, H extends DataHeader<T>, U extends DataReader<H>, F extends DataFile<T, H, U>> F getNearest(Map<Long, F> map, long day) {
         if (map == null) return null;
         F exact;
@@ -276,6 +407,22 @@ public class DataDumpParser {
         return nearest;
     }
 
+    private NationsFile getNationFile(long day) {
+        Map<Long, NationsFile> map = nationFilesByDay;
+        if (map == null) return null;
+        synchronized (map) {
+            return map.get(day);
+        }
+    }
+
+    private CitiesFile getCityFile(long day) {
+        Map<Long, CitiesFile> map = cityFilesByDay;
+        if (map == null) return null;
+        synchronized (map) {
+            return map.get(day);
+        }
+    }
+
     private NationsFile getNearestNationFile(long day) {
         return getNearest(nationFilesByDay, day);
     }
@@ -297,10 +444,13 @@ public class DataDumpParser {
                     for (File file : nationDir.listFiles()) {
                         if (!DataFile.isValidName(file, prefix)) continue;
                         NationsFile natFile = new NationsFile(file, nationDict);
+                        natFile.setDayResolver(this::getNationFile);
                         long day = natFile.getDay();
                         nationFilesByDay.putIfAbsent(day, natFile);
                     }
                     lastUpdatedNations = nationFilesByDay.keySet().stream().max(Long::compareTo).orElse(0L);
+                    // csv files left unconverted by a previous run
+                    fetcher.convertInBackground(new TreeMap<>(nationFilesByDay).values());
                 }
                 }
             }
@@ -308,12 +458,17 @@ public class DataDumpParser {
         if (currentDay > lastUpdatedNations) {
             synchronized (this) {
                 if (currentDay > lastUpdatedNations) {
-                    Map<Long, File> downloaded = load(Settings.PNW_URL() + "/data/nations/", new File(Settings.INSTANCE.DATABASE.DATA_DUMP.NATIONS));
+                    Map<Long, File> downloaded = fetcher.download("nations", nationDir);
+                    List<NationsFile> added = new ArrayList<>();
                     downloaded.forEach((time, file) -> {
                         long day = TimeUtil.getDay(time);
                         NationsFile natFile = new NationsFile(file, nationDict);
-                        nationFilesByDay.putIfAbsent(day, natFile);
+                        natFile.setDayResolver(this::getNationFile);
+                        synchronized (nationFilesByDay) {
+                            if (nationFilesByDay.putIfAbsent(day, natFile) == null) added.add(natFile);
+                        }
                     });
+                    fetcher.convertInBackground(added);
                     lastUpdatedNations = currentDay;
                 }
             }
@@ -334,10 +489,13 @@ public class DataDumpParser {
                     for (File file : cityDir.listFiles()) {
                         if (!DataFile.isValidName(file, prefix)) continue;
                         CitiesFile cityFile = new CitiesFile(file, cityDict);
+                        cityFile.setDayResolver(this::getCityFile);
                         long day = cityFile.getDay();
                         cityFilesByDay.putIfAbsent(day, cityFile);
                     }
                     lastUpdatedCities = cityFilesByDay.keySet().stream().max(Long::compareTo).orElse(0L);
+                    // csv files left unconverted by a previous run
+                    fetcher.convertInBackground(new TreeMap<>(cityFilesByDay).values());
                 }
             }
         }
@@ -345,12 +503,17 @@ public class DataDumpParser {
         if (currentDay > lastUpdatedCities) {
             synchronized (this) {
                 if (currentDay > lastUpdatedCities) {
-                    Map<Long, File> downloaded = load(Settings.PNW_URL() + "/data/cities/", new File(Settings.INSTANCE.DATABASE.DATA_DUMP.CITIES));
+                    Map<Long, File> downloaded = fetcher.download("cities", cityDir);
+                    List<CitiesFile> added = new ArrayList<>();
                     downloaded.forEach((time, file) -> {
                         long day = TimeUtil.getDay(time);
                         CitiesFile cityFile = new CitiesFile(file, cityDict);
-                        cityFilesByDay.putIfAbsent(day, cityFile);
+                        cityFile.setDayResolver(this::getCityFile);
+                        synchronized (cityFilesByDay) {
+                            if (cityFilesByDay.putIfAbsent(day, cityFile) == null) added.add(cityFile);
+                        }
                     });
+                    fetcher.convertInBackground(added);
                     lastUpdatedCities = currentDay;
                 }
             }
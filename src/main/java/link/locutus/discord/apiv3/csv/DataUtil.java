@@ -2,6 +2,7 @@ package link.locutus.discord.apiv3.csv;
 
 import com.google.common.base.Predicates;
 import com.politicsandwar.graphql.model.WarAttack;
+import it.unimi.dsi.fastutil.ints.Int2ByteOpenHashMap;
 import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
@@ -17,7 +18,6 @@ import link.locutus.discord.apiv1.domains.subdomains.attack.v3.cursors.VictoryCu
 import link.locutus.discord.apiv1.enums.AttackType;
 import link.locutus.discord.apiv3.csv.file.CitiesFile;
 import link.locutus.discord.apiv3.csv.header.CityHeaderReader;
-import link.locutus.discord.apiv3.csv.header.NationHeaderReader;
 import link.locutus.discord.db.entities.DBNation;
 import link.locutus.discord.db.entities.DBWar;
 import link.locutus.discord.db.entities.WarStatus;
@@ -31,6 +31,7 @@ import net.jpountz.lz4.LZ4BlockOutputStream;
 
 import java.io.*;
 import java.text.ParseException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -42,6 +43,7 @@ import java.util.function.Consumer;
 import java.util.function.Predicate;
 
 public class DataUtil {
+
     private final DataDumpParser parser;
 
     public DataUtil(DataDumpParser parser) {
@@ -148,91 +150,90 @@ public class DataUtil {
         return result;
     }
 
-    public Map<Integer, List<Map.Entry<Integer, Integer>>> getVMRanges(Predicate<Long> allowDays, Predicate<Integer> nationIds, boolean addCurrentStatus) throws IOException, ParseException {
-        List<Long> days = parser.getDays(true, false).reversed();
-        Map<Integer, Long> dateCreated = new Int2LongOpenHashMap();
+    /**
+     * @return the days with a nation file (and a city file, if required), in ascending order
+     */
+    private long[] getSortedDays(boolean requireCities, Predicate<Long> allowDays) throws IOException, ParseException {
+        parser.load();
+        return parser.getDays(true, requireCities).stream().filter(allowDays).mapToLong(Long::longValue).sorted().toArray();
+    }
 
-        Set<Integer> lastPresentIds = new IntOpenHashSet();
-        Set<Integer> newPresentIds = new IntOpenHashSet();
-        Map<Integer, Long> missing = new Int2LongOpenHashMap();
+    /**
+     * @return the first index of the sorted days at or after the day
+     */
+    private static int lowerBound(long[] days, long day) {
+        int index = Arrays.binarySearch(days, day);
+        return index < 0 ? -index - 1 : index;
+    }
 
+    /**
+     * The ranges each nation was missing from the dumps (e.g. in VM), read from the {@link NationSeriesIndex}
+     * A nation has no run before it first appears in the dumps, so new nations are not counted as missing
+     * @return the ranges of each nation, newest first, from the last day present before the gap to the first day present after it
+     * (or Integer.MAX_VALUE if `addCurrentStatus` and the nation is in VM now)
+     */
+    public Map<Integer, List<Map.Entry<Integer, Integer>>> getVMRanges(Predicate<Long> allowDays, Predicate<Integer> nationIds, boolean addCurrentStatus) throws IOException, ParseException {
+        Set<Integer> inVm = new IntOpenHashSet();
         if (addCurrentStatus) {
             for (DBNation nation : Locutus.imp().getNationDB().getAllNations()) {
                 if (nation.getVm_turns() > 0) {
-                    missing.put(nation.getNation_id(), Long.MAX_VALUE);
-                    dateCreated.put(nation.getNation_id(), nation.getDate());
+                    inVm.add(nation.getNation_id());
                 }
             }
         }
 
-        long twoDays = TimeUnit.DAYS.toMillis(2);
-
+        NationSeriesIndex series = parser.getNationSeries();
+        long[] days = getSortedDays(false, allowDays);
         Map<Integer, List<Map.Entry<Integer, Integer>>> vmRanges = new Int2ObjectOpenHashMap<>();
-
-        long lastDay = Long.MAX_VALUE;
-        for (long day : days) {
-            if (!allowDays.test(day)) continue;
-
-            Set<Integer> newFinal = newPresentIds;
-
-            long timestamp = TimeUtil.getTimeFromDay(day);
-
-            parser.withNationFile(day, file -> {
-                try {
-                    file.reader().required(f -> List.of(f.nation_id, f.date_created)).read(new Consumer<NationHeaderReader>() {
-                        @Override
-                        public void accept(NationHeaderReader r) {
-                            int nationId = r.header.nation_id.get();
-                            if (nationIds.test(nationId)) {
-                                newFinal.add(nationId);
-                                if (!dateCreated.containsKey(nationId)) {
-                                    dateCreated.put(nationId, r.header.date_created.get());
-                                }
-                            }
-                        }
-                    });
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
+        if (days.length == 0) return vmRanges;
+
+        // the indexes of the first and last day of each span of days the nation is present
+        IntArrayList spans = new IntArrayList();
+        for (int nationId : series.getNationIds()) {
+            if (!nationIds.test(nationId)) continue;
+            spans.clear();
+            series.forEachRun(nationId, NationSeriesIndex.Field.ALLIANCE_ID, days[0], days[days.length - 1], (start, end, value) -> {
+                if (value == NationSeriesIndex.ABSENT) return;
+                int from = lowerBound(days, start);
+                int to = lowerBound(days, end) - 1;
+                if (from > to) return;
+                if (!spans.isEmpty() && spans.getInt(spans.size() - 1) + 1 >= from) {
+                    spans.set(spans.size() - 1, to);
+                } else {
+                    spans.add(from);
+                    spans.add(to);
                 }
             });
-
-            for (int id : lastPresentIds) {
-                if (!newPresentIds.contains(id)) {
-                    long created = dateCreated.get(id);
-                    if (created >= timestamp - twoDays || lastDay == Long.MAX_VALUE) continue;
-                    missing.put(id, lastDay);
-                }
+            if (spans.isEmpty()) continue;
+            List<Map.Entry<Integer, Integer>> ranges = new ObjectArrayList<>();
+            if (inVm.contains(nationId)) {
+                ranges.add(KeyValue.of((int) days[spans.getInt(spans.size() - 1)], Integer.MAX_VALUE));
             }
-
-            for (int id : newPresentIds) {
-                Long missingDay = missing.remove(id);
-                if (missingDay != null) {
-                    Map.Entry<Integer, Integer> range = KeyValue.of((int) day, (int) Math.min(Integer.MAX_VALUE, missingDay));
-                    vmRanges.computeIfAbsent(id, k -> new ObjectArrayList<>()).add(range);
-                }
+            for (int i = spans.size() - 2; i >= 2; i -= 2) {
+                ranges.add(KeyValue.of((int) days[spans.getInt(i - 1)], (int) days[spans.getInt(i)]));
             }
-
-            Set<Integer> tmp = lastPresentIds;
-            lastPresentIds = newPresentIds;
-            newPresentIds = tmp;
-            newPresentIds.clear();
-
-            lastDay = day;
+            if (!ranges.isEmpty()) vmRanges.put(nationId, ranges);
         }
-
         return vmRanges;
     }
 
+    /**
+     * The city count of each nation on each day with a nation and city file, read from the {@link NationSeriesIndex}
+     */
     public Map<Long, Map<Integer, Byte>> backCalculateCityCounts() throws IOException, ParseException {
+        NationSeriesIndex series = parser.getNationSeries();
+        long[] days = getSortedDays(true, Predicates.alwaysTrue());
         Map<Long, Map<Integer, Byte>> cityCountsByDay = new Long2ObjectOpenHashMap<>();
-        parser.iterateAll(Predicates.alwaysTrue(),
-                (h, r) -> r.required(h.nation_id, h.cities),
-                null,
-                (day, r) -> {
-                    int nationId = r.header.nation_id.get();
-                    int cities = r.header.cities.get();
-                    cityCountsByDay.computeIfAbsent(day, k -> new Int2ObjectOpenHashMap<>()).put(nationId, (byte) cities);
-                }, null, f -> Logg.text("backCalculateCityCounts @ day=" + f));
+        if (days.length == 0) return cityCountsByDay;
+        for (int nationId : series.getNationIds()) {
+            series.forEachRun(nationId, NationSeriesIndex.Field.CITIES, days[0], days[days.length - 1], (start, end, value) -> {
+                if (!NationSeriesIndex.hasValue(value)) return;
+                int to = lowerBound(days, end);
+                for (int i = lowerBound(days, start); i < to; i++) {
+                    cityCountsByDay.computeIfAbsent(days[i], f -> new Int2ByteOpenHashMap()).put(nationId, (byte) value);
+                }
+            });
+        }
         return cityCountsByDay;
     }
 
@@ -343,7 +344,7 @@ public class DataUtil {
             cities.reader().required(header -> List.of(header.nation_id, header.city_id, header.infrastructure)).read(new Consumer<CityHeaderReader>() {
                 @Override
                 public void accept(CityHeaderReader r) {
-                    int nationId = r.header.nation_id.get();
+                    int nationId = r.header.nation_id.getInt();
                     if (!dateNationFilter.test(day, nationId)) return;
                     int cityId = r.header.city_id.get();
                     double infra = r.header.infrastructure.get();
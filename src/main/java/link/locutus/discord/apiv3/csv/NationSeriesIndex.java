@@ -0,0 +1,322 @@
+package link.locutus.discord.apiv3.csv;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
+import it.unimi.dsi.fastutil.io.FastByteArrayInputStream;
+import it.unimi.dsi.fastutil.io.FastByteArrayOutputStream;
+import link.locutus.discord.Logg;
+import link.locutus.discord.apiv3.csv.header.NationHeader;
+import link.locutus.discord.util.IOUtil;
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.jpountz.lz4.LZ4BlockOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Run length time series of the main nation columns, per nation, derived from the daily nation dumps.
+ * A run starts on the day a value changes and lasts until the next run, so a lookup for a day is the last run starting on or before it,
+ * and days without a dump continue the previous run. A nation missing from a day's dump has the value {@link #ABSENT} from that day,
+ * and a field whose column is not in a day's dump has the value {@link #UNKNOWN}.
+ * <p>
+ * Kept in `nation_series.bin` in the nation dump directory, and updated with only the days added since it was last saved.
+ * Thread safe
+ */
+public class NationSeriesIndex {
+    /** The nation is not in the dump, or the value is empty */
+    public static final long ABSENT = Long.MIN_VALUE;
+    /** The dump does not have the column */
+    public static final long UNKNOWN = Long.MIN_VALUE + 1;
+    private static final int VERSION = 2;
+
+    public enum Field {
+        ALLIANCE_ID(h -> h.alliance_id, h -> h.alliance_id.getInt()),
+        ALLIANCE_POSITION(h -> h.alliance_position, h -> ordinal(h.alliance_position.get())),
+        COLOR(h -> h.color, h -> ordinal(h.color.get())),
+        CITIES(h -> h.cities, h -> h.cities.getInt()),
+        /** score multiplied by 100 */
+        SCORE(h -> h.score, h -> Math.round(h.score.getDouble() * 100)),
+        VM_TURNS(h -> h.vm_turns, h -> h.vm_turns.getInt()),
+        SOLDIERS(h -> h.soldiers, h -> h.soldiers.getInt()),
+        TANKS(h -> h.tanks, h -> h.tanks.getInt()),
+        AIRCRAFT(h -> h.aircraft, h -> h.aircraft.getInt()),
+        SHIPS(h -> h.ships, h -> h.ships.getInt()),
+        MISSILES(h -> h.missiles, h -> h.missiles.getInt()),
+        NUKES(h -> h.nukes, h -> h.nukes.getInt()),
+        ;
+
+        public static final Field[] values = values();
+
+        private final Function<NationHeader, ColumnInfo<?, ?>> column;
+        private final ToLongFunction<NationHeader> read;
+
+        Field(Function<NationHeader, ColumnInfo<?, ?>> column, ToLongFunction<NationHeader> read) {
+            this.column = column;
+            this.read = read;
+        }
+
+        public ColumnInfo<?, ?> getColumn(NationHeader header) {
+            return column.apply(header);
+        }
+    }
+
+    private static long ordinal(Enum<?> value) {
+        return value == null ? ABSENT : value.ordinal();
+    }
+
+    /**
+     * @return if the value is a value of the field, rather than {@link #ABSENT} or {@link #UNKNOWN}
+     */
+    public static boolean hasValue(long value) {
+        return value != ABSENT && value != UNKNOWN;
+    }
+
+    @FunctionalInterface
+    public interface RunConsumer {
+        /**
+         * @param startDay the first day of the run
+         * @param endDay the day after the run ends, or Long.MAX_VALUE for the current run
+         * @param value the value, {@link #ABSENT} or {@link #UNKNOWN}
+         */
+        void accept(long startDay, long endDay, long value);
+    }
+
+    /**
+     * Runs of each field, as varints of the day since the previous run and the zigzag difference from the previous value
+     */
+    private static final class Series {
+        private final FastByteArrayOutputStream[] runs = new FastByteArrayOutputStream[Field.values.length];
+        private final int[] lastDay = new int[Field.values.length];
+        private final long[] lastValue = new long[Field.values.length];
+
+        private Series() {
+            for (int i = 0; i < runs.length; i++) {
+                runs[i] = new FastByteArrayOutputStream(8);
+                lastValue[i] = ABSENT;
+            }
+        }
+
+        private void append(int field, int day, long value) throws IOException {
+            if (value == lastValue[field] && runs[field].length > 0) return;
+            IOUtil.writeVarInt(runs[field], day - lastDay[field]);
+            long delta = value - (runs[field].length == 0 ? 0 : lastValue[field]);
+            IOUtil.writeVarLong(runs[field], (delta << 1) ^ (delta >> 63));
+            lastDay[field] = day;
+            lastValue[field] = value;
+        }
+
+        private void forEachRun(int field, RunConsumer consumer) throws IOException {
+            FastByteArrayOutputStream out = runs[field];
+            FastByteArrayInputStream in = new FastByteArrayInputStream(out.array, 0, out.length);
+            long day = 0;
+            long value = 0;
+            boolean first = true;
+            long runDay = 0;
+            long runValue = 0;
+            while (in.available() > 0) {
+                day += IOUtil.readVarInt(in);
+                long zigzag = IOUtil.readVarLong(in);
+                value += (zigzag >>> 1) ^ -(zigzag & 1);
+                if (!first) consumer.accept(runDay, day, runValue);
+                first = false;
+                runDay = day;
+                runValue = value;
+            }
+            if (!first) consumer.accept(runDay, Long.MAX_VALUE, runValue);
+        }
+
+        private void load(int field, byte[] bytes) throws IOException {
+            runs[field] = new FastByteArrayOutputStream(bytes);
+            runs[field].length = bytes.length;
+            runs[field].position(bytes.length);
+            long[] last = {0, ABSENT};
+            forEachRun(field, (startDay, endDay, value) -> {
+                last[0] = startDay;
+                last[1] = value;
+            });
+            lastDay[field] = (int) last[0];
+            lastValue[field] = last[1];
+        }
+    }
+
+    private final File file;
+    private final Int2ObjectOpenHashMap<Series> seriesByNation = new Int2ObjectOpenHashMap<>();
+    private long lastDay = -1;
+
+    public NationSeriesIndex(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return the last day added to the index, or -1 if it is empty
+     */
+    public synchronized long getLastDay() {
+        return lastDay;
+    }
+
+    /**
+     * @return the value of the field for the nation on the day, {@link #ABSENT} if the nation was not in the dump, or {@link #UNKNOWN} if the dump did not have the column
+     */
+    public synchronized long get(int nationId, Field field, long day) {
+        Series series = seriesByNation.get(nationId);
+        if (series == null) return ABSENT;
+        long[] result = {ABSENT};
+        try {
+            series.forEachRun(field.ordinal(), (startDay, endDay, value) -> {
+                if (startDay <= day && day < endDay) result[0] = value;
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return result[0];
+    }
+
+    /**
+     * Visit the runs of the field for the nation which overlap the days from `startDay` to `endDay` (inclusive), in order
+     */
+    public synchronized void forEachRun(int nationId, Field field, long startDay, long endDay, RunConsumer consumer) {
+        Series series = seriesByNation.get(nationId);
+        if (series == null) return;
+        try {
+            series.forEachRun(field.ordinal(), (runStart, runEnd, value) -> {
+                if (runStart <= endDay && runEnd > startDay) consumer.accept(runStart, runEnd, value);
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the ids of the nations in the index
+     */
+    public synchronized IntArrayList getNationIds() {
+        return new IntArrayList(seriesByNation.keySet());
+    }
+
+    /**
+     * Add the days of the parser newer than the last day of the index, and save it if any were added
+     * @return the number of days added
+     */
+    public synchronized int update(DataDumpParser parser) throws IOException, ParseException {
+        long from = lastDay;
+        int[] added = {0};
+        parser.iterateFilesParallel(true, false, day -> day > from, false, Math.max(1, Runtime.getRuntime().availableProcessors() - 1), (day, nationFile, cityFile) -> {
+            Int2ObjectOpenHashMap<long[]> rows = new Int2ObjectOpenHashMap<>();
+            nationFile.reader().required(h -> List.of(h.nation_id)).optional(h -> {
+                List<ColumnInfo> columns = new ArrayList<>(Field.values.length);
+                for (Field field : Field.values) columns.add(field.getColumn(h));
+                return columns;
+            }).read(r -> {
+                long[] values = new long[Field.values.length];
+                for (Field field : Field.values) {
+                    values[field.ordinal()] = field.getColumn(r.header).getIndex() == -1 ? UNKNOWN : field.read.applyAsLong(r.header);
+                }
+                rows.put(r.header.nation_id.getInt(), values);
+            });
+            return rows;
+        }, (day, rows) -> {
+            try {
+                addDay((int) (long) day, rows);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            added[0]++;
+        });
+        if (added[0] > 0) {
+            save();
+            Logg.text("Added " + added[0] + " days to the nation series index, up to day " + lastDay);
+        }
+        return added[0];
+    }
+
+    private void addDay(int day, Int2ObjectOpenHashMap<long[]> rows) throws IOException {
+        for (Int2ObjectOpenHashMap.Entry<long[]> entry : rows.int2ObjectEntrySet()) {
+            Series series = seriesByNation.get(entry.getIntKey());
+            if (series == null) seriesByNation.put(entry.getIntKey(), series = new Series());
+            long[] values = entry.getValue();
+            for (int field = 0; field < values.length; field++) {
+                series.append(field, day, values[field]);
+            }
+        }
+        for (Int2ObjectOpenHashMap.Entry<Series> entry : seriesByNation.int2ObjectEntrySet()) {
+            if (rows.containsKey(entry.getIntKey())) continue;
+            Series series = entry.getValue();
+            for (int field = 0; field < Field.values.length; field++) {
+                series.append(field, day, ABSENT);
+            }
+        }
+        lastDay = day;
+    }
+
+    /**
+     * Load the saved index, if it exists and has the same fields
+     * @return if the index was loaded
+     */
+    public synchronized boolean load() throws IOException {
+        if (!file.exists()) return false;
+        try (FastBufferedInputStream fbis = new FastBufferedInputStream(new FileInputStream(file), Character.MAX_VALUE)) {
+            DataInputStream header = new DataInputStream(fbis);
+            if (header.readInt() != VERSION) return false;
+            long savedDay = header.readLong();
+            try (DataInputStream dis = new DataInputStream(new LZ4BlockInputStream(fbis))) {
+                int numFields = IOUtil.readVarInt(dis);
+                if (numFields != Field.values.length) return false;
+                for (Field field : Field.values) {
+                    if (!dis.readUTF().equals(field.name())) return false;
+                }
+                seriesByNation.clear();
+                int numNations = IOUtil.readVarInt(dis);
+                for (int i = 0; i < numNations; i++) {
+                    int nationId = IOUtil.readVarInt(dis);
+                    Series series = new Series();
+                    for (int field = 0; field < numFields; field++) {
+                        byte[] bytes = new byte[IOUtil.readVarInt(dis)];
+                        dis.readFully(bytes);
+                        series.load(field, bytes);
+                    }
+                    seriesByNation.put(nationId, series);
+                }
+            }
+            lastDay = savedDay;
+            return true;
+        }
+    }
+
+    private void save() throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(tmp), Character.MAX_VALUE)) {
+            DataOutputStream header = new DataOutputStream(bos);
+            header.writeInt(VERSION);
+            header.writeLong(lastDay);
+            header.flush();
+            try (DataOutputStream dos = new DataOutputStream(new LZ4BlockOutputStream(bos))) {
+                IOUtil.writeVarInt(dos, Field.values.length);
+                for (Field field : Field.values) {
+                    dos.writeUTF(field.name());
+                }
+                IOUtil.writeVarInt(dos, seriesByNation.size());
+                for (Int2ObjectOpenHashMap.Entry<Series> entry : seriesByNation.int2ObjectEntrySet()) {
+                    IOUtil.writeVarInt(dos, entry.getIntKey());
+                    for (FastByteArrayOutputStream runs : entry.getValue().runs) {
+                        IOUtil.writeVarInt(dos, runs.length);
+                        dos.write(runs.array, 0, runs.length);
+                    }
+                }
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -8,6 +8,8 @@ import java.io.IOException;
 import java.util.function.BiConsumer;
 
 public class BooleanColumn<P> extends ColumnInfo<P, Boolean> {
+    private boolean value;
+
     public BooleanColumn(DataHeader<P> header, BiConsumer<P, Boolean> setter) {
         super(header, setter);
     }
@@ -17,6 +19,26 @@ public class BooleanColumn<P> extends ColumnInfo<P, Boolean> {
         return buffer[offset] != 0;
     }
 
+    @Override
+    public void readCached(byte[] buffer, int offset) {
+        value = buffer[offset] != 0;
+        unboxed = true;
+    }
+
+    @Override
+    protected Boolean box() {
+        return value;
+    }
+
+    /**
+     * @return the value of the current row
+     */
+    public boolean getBoolean() {
+        if (unboxed) return value;
+        Boolean cached = cacheValue;
+        return cached != null && cached;
+    }
+
     @Override
     public Boolean getDefault() {
         return false;
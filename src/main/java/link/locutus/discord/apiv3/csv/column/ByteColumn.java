@@ -7,6 +7,8 @@ import java.io.IOException;
 import java.util.function.BiConsumer;
 
 public class ByteColumn<P> extends NumberColumn<P, Integer> {
+    private int value;
+
     public ByteColumn(DataHeader<P> header, BiConsumer<P, Integer> setter) {
         super(header, setter);
     }
@@ -16,6 +18,31 @@ public class ByteColumn<P> extends NumberColumn<P, Integer> {
         return buffer[offset] & 0xFF;
     }
 
+    @Override
+    public void readCached(byte[] buffer, int offset) {
+        value = buffer[offset] & 0xFF;
+        unboxed = true;
+    }
+
+    @Override
+    protected Integer box() {
+        return value;
+    }
+
+    /**
+     * @return the value of the current row, without boxing
+     */
+    public int getInt() {
+        if (unboxed) return value;
+        Integer cached = cacheValue;
+        return cached == null ? 0 : cached;
+    }
+
+    @Override
+    public double getDouble() {
+        return getInt();
+    }
+
     @Override
     public Integer getDefault() {
         return 0;
@@ -9,16 +9,47 @@ import java.text.ParseException;
 import java.util.function.BiConsumer;
 
 public class DayColumn<P> extends NumberColumn<P, Long> {
+    private long value;
+
     public DayColumn(DataHeader<P> header, BiConsumer<P, Long> setter) {
         super(header, setter);
     }
 
-    @Override
-    public Long read(byte[] buffer, int offset) throws IOException {
+    private static long readDay(byte[] buffer, int offset) {
         int day = (((buffer[offset] & 255) << 8) | ((buffer[offset + 1] & 255)));
         return day == 0 ? 0 : TimeUtil.getTimeFromDay(day + TimeUtil.getDay(TimeUtil.getOrigin()));
     }
 
+    @Override
+    public Long read(byte[] buffer, int offset) throws IOException {
+        return readDay(buffer, offset);
+    }
+
+    @Override
+    public void readCached(byte[] buffer, int offset) {
+        value = readDay(buffer, offset);
+        unboxed = true;
+    }
+
+    @Override
+    protected Long box() {
+        return value;
+    }
+
+    /**
+     * @return the value of the current row, without boxing
+     */
+    public long getLong() {
+        if (unboxed) return value;
+        Long cached = cacheValue;
+        return cached == null ? 0 : cached;
+    }
+
+    @Override
+    public double getDouble() {
+        return getLong();
+    }
+
     @Override
     public Long getDefault() {
         return 0L;
@@ -7,6 +7,8 @@ import java.io.IOException;
 import java.util.function.BiConsumer;
 
 public class DoubleColumn<P> extends NumberColumn<P, Double> {
+    private double value;
+
     public DoubleColumn(DataHeader<P> header, BiConsumer<P, Double> setter) {
         super(header, setter);
     }
@@ -23,15 +25,28 @@ public class DoubleColumn<P> extends NumberColumn<P, Double> {
 
     @Override
     public Double read(byte[] buffer, int offset) throws IOException {
-        long l = ((long)buffer[offset] << 56) |
-                ((long)(buffer[offset + 1] & 255) << 48) |
-                ((long)(buffer[offset + 2] & 255) << 40) |
-                ((long)(buffer[offset + 3] & 255) << 32) |
-                ((long)(buffer[offset + 4] & 255) << 24) |
-                ((buffer[offset + 5] & 255) << 16) |
-                ((buffer[offset + 6] & 255) << 8) |
-                ((buffer[offset + 7] & 255));
-        return Double.longBitsToDouble(l);
+        return Double.longBitsToDouble(LongColumn.readLong(buffer, offset));
+    }
+
+    @Override
+    public void readCached(byte[] buffer, int offset) {
+        value = Double.longBitsToDouble(LongColumn.readLong(buffer, offset));
+        unboxed = true;
+    }
+
+    @Override
+    protected Double box() {
+        return value;
+    }
+
+    /**
+     * @return the value of the current row, without boxing
+     */
+    @Override
+    public double getDouble() {
+        if (unboxed) return value;
+        Double cached = cacheValue;
+        return cached == null ? 0 : cached;
     }
 
     @Override
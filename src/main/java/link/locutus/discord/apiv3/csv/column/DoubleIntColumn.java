@@ -7,13 +7,36 @@ import java.io.IOException;
 import java.util.function.BiConsumer;
 
 public class DoubleIntColumn<P> extends NumberColumn<P, Double> {
+    private double value;
+
     public DoubleIntColumn(DataHeader<P> header, BiConsumer<P, Double> setter) {
         super(header, setter);
     }
 
     @Override
     public Double read(byte[] buffer, int offset) throws IOException {
-        return 0.01 * (buffer[offset] << 24 | (buffer[offset + 1] & 0xFF) << 16 | (buffer[offset + 2] & 0xFF) << 8 | (buffer[offset + 3] & 0xFF));
+        return 0.01 * IntColumn.readInt(buffer, offset);
+    }
+
+    @Override
+    public void readCached(byte[] buffer, int offset) {
+        value = 0.01 * IntColumn.readInt(buffer, offset);
+        unboxed = true;
+    }
+
+    @Override
+    protected Double box() {
+        return value;
+    }
+
+    /**
+     * @return the value of the current row, without boxing
+     */
+    @Override
+    public double getDouble() {
+        if (unboxed) return value;
+        Double cached = cacheValue;
+        return cached == null ? 0 : cached;
     }
 
     @Override
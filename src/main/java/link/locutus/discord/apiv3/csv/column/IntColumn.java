@@ -7,13 +7,44 @@ import java.io.IOException;
 import java.util.function.BiConsumer;
 
 public class IntColumn<P> extends NumberColumn<P, Integer> {
+    private int value;
+
     public IntColumn(DataHeader<P> header, BiConsumer<P, Integer> setter) {
         super(header, setter);
     }
 
+    public static int readInt(byte[] buffer, int offset) {
+        return buffer[offset] << 24 | (buffer[offset + 1] & 0xFF) << 16 | (buffer[offset + 2] & 0xFF) << 8 | (buffer[offset + 3] & 0xFF);
+    }
+
     @Override
     public Integer read(byte[] buffer, int offset) throws IOException {
-        return buffer[offset] << 24 | (buffer[offset + 1] & 0xFF) << 16 | (buffer[offset + 2] & 0xFF) << 8 | (buffer[offset + 3] & 0xFF);
+        return readInt(buffer, offset);
+    }
+
+    @Override
+    public void readCached(byte[] buffer, int offset) {
+        value = readInt(buffer, offset);
+        unboxed = true;
+    }
+
+    @Override
+    protected Integer box() {
+        return value;
+    }
+
+    /**
+     * @return the value of the current row, without boxing
+     */
+    public int getInt() {
+        if (unboxed) return value;
+        Integer cached = cacheValue;
+        return cached == null ? 0 : cached;
+    }
+
+    @Override
+    public double getDouble() {
+        return getInt();
     }
 
     @Override
@@ -7,12 +7,43 @@ import java.io.IOException;
 import java.util.function.BiConsumer;
 
 public class LongColumn<P> extends NumberColumn<P, Long> {
+    private long value;
+
     public LongColumn(DataHeader<P> header, BiConsumer<P, Long> setter) {
         super(header, setter);
     }
 
     @Override
     public Long read(byte[] buffer, int offset) throws IOException {
+        return readLong(buffer, offset);
+    }
+
+    @Override
+    public void readCached(byte[] buffer, int offset) {
+        value = readLong(buffer, offset);
+        unboxed = true;
+    }
+
+    @Override
+    protected Long box() {
+        return value;
+    }
+
+    /**
+     * @return the value of the current row, without boxing
+     */
+    public long getLong() {
+        if (unboxed) return value;
+        Long cached = cacheValue;
+        return cached == null ? 0 : cached;
+    }
+
+    @Override
+    public double getDouble() {
+        return getLong();
+    }
+
+    public static long readLong(byte[] buffer, int offset) {
         return ((long)buffer[offset] << 56) |
                 ((long)(buffer[offset + 1] & 255) << 48) |
                 ((long)(buffer[offset + 2] & 255) << 40) |
@@ -9,4 +9,12 @@ public abstract class NumberColumn<P, V extends Number> extends ColumnInfo<P, V>
     public NumberColumn(DataHeader<P> header, BiConsumer<P, V> setter) {
         super(header, setter);
     }
+
+    /**
+     * @return the value of the current row as a double, without boxing for the primitive columns
+     */
+    public double getDouble() {
+        V value = get();
+        return value == null ? 0 : value.doubleValue();
+    }
 }
@@ -22,6 +22,16 @@ public class StringColumn<P> extends ColumnInfo<P, String> {
         return getHeader().getDictionary().get(id);
     }
 
+    /**
+     * Only the dictionary id is read, the string is looked up on the first {@link #get()}
+     */
+    @Override
+    public void readCached(byte[] buffer, int offset) {
+        this.id = SafeUtils.readIntBE(buffer, offset);
+        cacheValue = null;
+        unboxed = false;
+    }
+
     @Override
     public String getDefault() {
         return "";
@@ -0,0 +1,573 @@
+package link.locutus.discord.apiv3.csv.file;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Column major layout of a data dump day, stored as the `.bin` file.
+ * The file holds the same header as the row major layout (see {@link link.locutus.discord.apiv3.csv.header.DataHeader#readIndexes(byte[])}),
+ * followed by one chunk per present column, each with its own encoding and LZ4 compression, so a reader only decompresses the columns it needs.
+ * A decoded column is the fixed width big endian values the row major layout has for that column, so {@link link.locutus.discord.apiv3.csv.ColumnInfo#read(byte[], int)}
+ * works on it at offset `row * width`.
+ * <p>
+ * Layout: MAGIC, VERSION, header length, header, number of columns, then per column (width, encoding, encoded length, stored length),
+ * the block size, the min and max of each block of each numeric column (the zone map, see {@link #getBlockMin(int, int)}), then the chunks.
+ * Version 1 files have no zone map, it is computed from the decoded column when first used.
+ * Row major files written before this format start with their positive uncompressed length instead of the (negative) magic.
+ */
+public class ColumnarFile {
+    public static final int MAGIC = 0xC01A_B1E5;
+    private static final byte VERSION = 2;
+    public static final int BLOCK_ROWS = 4096;
+    private static final int MAX_DICTIONARY = 4096;
+    private static final int COMPRESSED = 0x80;
+
+    public enum Encoding {
+        /** values as is */
+        RAW,
+        /** sorted distinct values, then bit packed indexes into them */
+        DICTIONARY,
+        /** first value, then bit packed zigzag deltas between consecutive values */
+        DELTA,
+        /** minimum, then bit packed offsets from it */
+        FRAME_OF_REFERENCE,
+        ;
+
+        public static final Encoding[] values = values();
+    }
+
+    private final byte[] header;
+    private final int numRows;
+    private final byte[] widths;
+    private final byte[] encodings;
+    private final int[] encodedLengths;
+    private final int[] storedLengths;
+    private final int[] chunkOffsets;
+    private final byte[] data;
+    private final byte[][] decoded;
+    // min then max of each block, per column, null for non numeric columns or if not yet computed
+    private final long[][] zoneMaps;
+
+    private ColumnarFile(byte[] data) {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        if (buf.getInt() != MAGIC) throw new IllegalArgumentException("Not a columnar file");
+        byte version = buf.get();
+        if (version != VERSION && version != 1) throw new IllegalArgumentException("Unsupported columnar file version: " + version);
+        this.header = new byte[buf.getInt()];
+        buf.get(header);
+        this.numRows = ByteBuffer.wrap(header, header.length - 4, 4).getInt();
+        int numColumns = buf.getInt();
+        this.widths = new byte[numColumns];
+        this.encodings = new byte[numColumns];
+        this.encodedLengths = new int[numColumns];
+        this.storedLengths = new int[numColumns];
+        this.chunkOffsets = new int[numColumns];
+        for (int i = 0; i < numColumns; i++) {
+            widths[i] = buf.get();
+            encodings[i] = buf.get();
+            encodedLengths[i] = buf.getInt();
+            storedLengths[i] = buf.getInt();
+        }
+        this.zoneMaps = new long[numColumns][];
+        if (version >= 2) {
+            int blockRows = buf.getInt();
+            if (blockRows != BLOCK_ROWS) throw new IllegalArgumentException("Unsupported block size: " + blockRows);
+            int numBlocks = getNumBlocks();
+            for (int i = 0; i < numColumns; i++) {
+                if (!isNumeric(widths[i])) continue;
+                long[] zoneMap = new long[numBlocks * 2];
+                for (int j = 0; j < zoneMap.length; j++) zoneMap[j] = buf.getLong();
+                zoneMaps[i] = zoneMap;
+            }
+        }
+        int offset = buf.position();
+        for (int i = 0; i < numColumns; i++) {
+            chunkOffsets[i] = offset;
+            offset += storedLengths[i];
+        }
+        if (offset != data.length) {
+            throw new IllegalStateException("Columnar file length mismatch, expected " + offset + " but got " + data.length);
+        }
+        this.data = data;
+        this.decoded = new byte[numColumns][];
+    }
+
+    private ColumnarFile(byte[] header, int numRows, byte[] widths, byte[][] decoded) {
+        this.header = header;
+        this.numRows = numRows;
+        this.widths = widths;
+        this.encodings = new byte[widths.length];
+        this.encodedLengths = null;
+        this.storedLengths = null;
+        this.chunkOffsets = null;
+        this.data = null;
+        this.decoded = decoded;
+        this.zoneMaps = new long[widths.length][];
+    }
+
+    /**
+     * Split the row major layout into its columns without encoding them, for days rebuilt in memory (see {@link DeltaFile})
+     * @param rowMajor the header followed by the rows
+     * @param headerLength the length of the header
+     * @param widths the width of each present column, in row order
+     */
+    public static ColumnarFile ofRowMajor(byte[] rowMajor, int headerLength, int[] widths) {
+        int bytesPerRow = 0;
+        for (int width : widths) bytesPerRow += width;
+        int numRows = ByteBuffer.wrap(rowMajor, headerLength - 4, 4).getInt();
+        byte[] widthBytes = new byte[widths.length];
+        byte[][] columns = new byte[widths.length][];
+        int columnOffset = headerLength;
+        for (int c = 0; c < widths.length; c++) {
+            int width = widths[c];
+            widthBytes[c] = (byte) width;
+            byte[] values = new byte[numRows * width];
+            for (int row = 0, src = columnOffset, dst = 0; row < numRows; row++, src += bytesPerRow, dst += width) {
+                System.arraycopy(rowMajor, src, values, dst, width);
+            }
+            columns[c] = values;
+            columnOffset += width;
+        }
+        return new ColumnarFile(Arrays.copyOf(rowMajor, headerLength), numRows, widthBytes, columns);
+    }
+
+    /**
+     * @return if the bytes of a `.bin` file are in this format, rather than the LZ4 compressed row major layout
+     */
+    public static boolean isColumnar(byte[] fileBytes) {
+        return fileBytes.length >= 4 && ByteBuffer.wrap(fileBytes).getInt() == MAGIC;
+    }
+
+    public static ColumnarFile read(byte[] fileBytes) {
+        return new ColumnarFile(fileBytes);
+    }
+
+    /**
+     * The row major header: number of columns defined, a presence flag for each, then the number of rows
+     */
+    public byte[] getHeader() {
+        return header;
+    }
+
+    public int getNumRows() {
+        return numRows;
+    }
+
+    public int getNumColumns() {
+        return widths.length;
+    }
+
+    public int getWidth(int column) {
+        return widths[column];
+    }
+
+    public Encoding getEncoding(int column) {
+        return Encoding.values[encodings[column] & ~COMPRESSED];
+    }
+
+    /**
+     * @return the number of blocks of {@link #BLOCK_ROWS} rows, the last block may be partial
+     */
+    public int getNumBlocks() {
+        return (numRows + BLOCK_ROWS - 1) / BLOCK_ROWS;
+    }
+
+    /**
+     * @return if the column has a zone map, i.e. it is 1, 2, 4 or 8 bytes wide
+     */
+    public boolean hasZoneMap(int column) {
+        return isNumeric(widths[column]);
+    }
+
+    /**
+     * The smallest stored value of the column in the block, see {@link #hasZoneMap(int)}.
+     * Values are compared as stored: 1 and 2 byte columns unsigned, 4 and 8 byte columns signed (so doubles only order correctly when not negative)
+     */
+    public long getBlockMin(int column, int block) {
+        return getZoneMap(column)[block * 2];
+    }
+
+    /**
+     * The largest stored value of the column in the block, see {@link #getBlockMin(int, int)}
+     */
+    public long getBlockMax(int column, int block) {
+        return getZoneMap(column)[block * 2 + 1];
+    }
+
+    private synchronized long[] getZoneMap(int column) {
+        long[] zoneMap = zoneMaps[column];
+        if (zoneMap == null) {
+            if (!hasZoneMap(column)) throw new IllegalArgumentException("Column " + column + " of width " + widths[column] + " has no zone map");
+            zoneMaps[column] = zoneMap = computeZoneMap(getColumn(column), widths[column], numRows);
+        }
+        return zoneMap;
+    }
+
+    private static long[] computeZoneMap(byte[] values, int width, int numRows) {
+        int numBlocks = (numRows + BLOCK_ROWS - 1) / BLOCK_ROWS;
+        long[] zoneMap = new long[numBlocks * 2];
+        for (int block = 0; block < numBlocks; block++) {
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            int end = Math.min(numRows, (block + 1) * BLOCK_ROWS);
+            for (int row = block * BLOCK_ROWS; row < end; row++) {
+                long value = getValue(values, row * width, width);
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            zoneMap[block * 2] = min;
+            zoneMap[block * 2 + 1] = max;
+        }
+        return zoneMap;
+    }
+
+    /**
+     * @return the stored value of the column at the row, as compared by the zone map
+     */
+    public static long getStoredValue(byte[] values, int row, int width) {
+        return getValue(values, row * width, width);
+    }
+
+    /**
+     * @param column the index of the column among the present columns, i.e. {@link link.locutus.discord.apiv3.csv.ColumnInfo#getIndex()}
+     * @return the fixed width values of the column, decoded on first use
+     */
+    public synchronized byte[] getColumn(int column) {
+        byte[] values = decoded[column];
+        if (values == null) {
+            byte[] encoded;
+            if ((encodings[column] & COMPRESSED) != 0) {
+                encoded = new byte[encodedLengths[column]];
+                LZ4FastDecompressor decompressor = LZ4Factory.fastestInstance().fastDecompressor();
+                decompressor.decompress(data, chunkOffsets[column], encoded, 0, encoded.length);
+            } else {
+                encoded = Arrays.copyOfRange(data, chunkOffsets[column], chunkOffsets[column] + storedLengths[column]);
+            }
+            decoded[column] = values = decode(getEncoding(column), encoded, widths[column], numRows);
+        }
+        return values;
+    }
+
+    /**
+     * @return the row major layout, as the file was before it was converted
+     */
+    public byte[] toRowMajor() {
+        int bytesPerRow = 0;
+        for (byte width : widths) bytesPerRow += width;
+        byte[] result = new byte[header.length + numRows * bytesPerRow];
+        System.arraycopy(header, 0, result, 0, header.length);
+        int columnOffset = header.length;
+        for (int c = 0; c < widths.length; c++) {
+            byte[] values = getColumn(c);
+            int width = widths[c];
+            for (int row = 0, src = 0, dst = columnOffset; row < numRows; row++, src += width, dst += bytesPerRow) {
+                System.arraycopy(values, src, result, dst, width);
+            }
+            columnOffset += width;
+        }
+        return result;
+    }
+
+    /**
+     * Convert the row major layout to this format
+     * @param rowMajor the header followed by the rows
+     * @param headerLength the length of the header
+     * @param widths the width of each present column, in row order
+     */
+    public static byte[] fromRowMajor(byte[] rowMajor, int headerLength, int[] widths) {
+        int bytesPerRow = 0;
+        for (int width : widths) bytesPerRow += width;
+        int numRows = ByteBuffer.wrap(rowMajor, headerLength - 4, 4).getInt();
+        if (headerLength + (long) numRows * bytesPerRow != rowMajor.length) {
+            throw new IllegalStateException("Expected " + (headerLength + (long) numRows * bytesPerRow) + " bytes, but got " + rowMajor.length);
+        }
+        LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+        byte[][] chunks = new byte[widths.length][];
+        long[][] zoneMaps = new long[widths.length][];
+        byte[] encodingFlags = new byte[widths.length];
+        int[] encodedLengths = new int[widths.length];
+        int columnOffset = headerLength;
+        for (int c = 0; c < widths.length; c++) {
+            int width = widths[c];
+            byte[] values = new byte[numRows * width];
+            for (int row = 0, src = columnOffset, dst = 0; row < numRows; row++, src += bytesPerRow, dst += width) {
+                System.arraycopy(rowMajor, src, values, dst, width);
+            }
+            columnOffset += width;
+            if (isNumeric(width)) zoneMaps[c] = computeZoneMap(values, width, numRows);
+
+            Encoding encoding = chooseEncoding(values, width, numRows);
+            byte[] encoded = encode(encoding, values, width, numRows);
+            encodedLengths[c] = encoded.length;
+            byte[] compressed = new byte[compressor.maxCompressedLength(encoded.length)];
+            int compressedLength = compressor.compress(encoded, 0, encoded.length, compressed, 0, compressed.length);
+            if (compressedLength < encoded.length) {
+                chunks[c] = Arrays.copyOf(compressed, compressedLength);
+                encodingFlags[c] = (byte) (encoding.ordinal() | COMPRESSED);
+            } else {
+                chunks[c] = encoded;
+                encodingFlags[c] = (byte) encoding.ordinal();
+            }
+        }
+
+        int size = 4 + 1 + 4 + headerLength + 4 + widths.length * 10 + 4;
+        for (long[] zoneMap : zoneMaps) if (zoneMap != null) size += zoneMap.length * 8;
+        for (byte[] chunk : chunks) size += chunk.length;
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(MAGIC);
+        out.put(VERSION);
+        out.putInt(headerLength);
+        out.put(rowMajor, 0, headerLength);
+        out.putInt(widths.length);
+        for (int c = 0; c < widths.length; c++) {
+            out.put((byte) widths[c]);
+            out.put(encodingFlags[c]);
+            out.putInt(encodedLengths[c]);
+            out.putInt(chunks[c].length);
+        }
+        out.putInt(BLOCK_ROWS);
+        for (long[] zoneMap : zoneMaps) {
+            if (zoneMap == null) continue;
+            for (long value : zoneMap) out.putLong(value);
+        }
+        for (byte[] chunk : chunks) out.put(chunk);
+        return out.array();
+    }
+
+    // value access, columns of width 1 and 2 are unsigned
+
+    private static boolean isNumeric(int width) {
+        return width == 1 || width == 2 || width == 4 || width == 8;
+    }
+
+    private static long getValue(byte[] values, int offset, int width) {
+        return switch (width) {
+            case 1 -> values[offset] & 0xFFL;
+            case 2 -> ((values[offset] & 0xFFL) << 8) | (values[offset + 1] & 0xFFL);
+            case 4 -> (values[offset] << 24) | ((values[offset + 1] & 0xFF) << 16) | ((values[offset + 2] & 0xFF) << 8) | (values[offset + 3] & 0xFF);
+            default -> {
+                long result = 0;
+                for (int i = 0; i < 8; i++) result = (result << 8) | (values[offset + i] & 0xFFL);
+                yield result;
+            }
+        };
+    }
+
+    private static void setValue(byte[] values, int offset, int width, long value) {
+        for (int i = width - 1; i >= 0; i--) {
+            values[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static int bitsFor(long maxUnsigned) {
+        return 64 - Long.numberOfLeadingZeros(maxUnsigned);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int packedLength(long count, int bits) {
+        return (int) ((count * bits + 7) >>> 3);
+    }
+
+    private static Encoding chooseEncoding(byte[] values, int width, int numRows) {
+        if (!isNumeric(width) || numRows == 0) return Encoding.RAW;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        long maxDelta = 0;
+        long previous = 0;
+        LongOpenHashSet distinct = new LongOpenHashSet();
+        for (int row = 0; row < numRows; row++) {
+            long value = getValue(values, row * width, width);
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            if (row > 0) maxDelta |= zigzag(value - previous);
+            previous = value;
+            if (distinct != null) {
+                distinct.add(value);
+                if (distinct.size() > MAX_DICTIONARY) distinct = null;
+            }
+        }
+        Encoding best = Encoding.RAW;
+        long bestSize = (long) numRows * width;
+        long range = max - min;
+        long frameSize = 9 + packedLength(numRows, range < 0 ? 64 : bitsFor(range));
+        if (frameSize < bestSize) {
+            best = Encoding.FRAME_OF_REFERENCE;
+            bestSize = frameSize;
+        }
+        long deltaSize = 9 + packedLength(numRows - 1, bitsFor(maxDelta));
+        if (deltaSize < bestSize) {
+            best = Encoding.DELTA;
+            bestSize = deltaSize;
+        }
+        if (distinct != null) {
+            long dictionarySize = 5 + (long) distinct.size() * width + packedLength(numRows, bitsFor(distinct.size() - 1));
+            if (dictionarySize < bestSize) {
+                best = Encoding.DICTIONARY;
+            }
+        }
+        return best;
+    }
+
+    private static byte[] encode(Encoding encoding, byte[] values, int width, int numRows) {
+        switch (encoding) {
+            case RAW:
+                return values;
+            case DICTIONARY: {
+                LongOpenHashSet distinct = new LongOpenHashSet();
+                for (int row = 0; row < numRows; row++) distinct.add(getValue(values, row * width, width));
+                long[] dictionary = distinct.toLongArray();
+                Arrays.sort(dictionary);
+                Long2IntOpenHashMap indexes = new Long2IntOpenHashMap(dictionary.length);
+                for (int i = 0; i < dictionary.length; i++) indexes.put(dictionary[i], i);
+                int bits = bitsFor(dictionary.length - 1);
+                ByteBuffer out = ByteBuffer.allocate(5 + dictionary.length * width + packedLength(numRows, bits));
+                out.putInt(dictionary.length);
+                byte[] entry = new byte[width];
+                for (long value : dictionary) {
+                    setValue(entry, 0, width, value);
+                    out.put(entry);
+                }
+                out.put((byte) bits);
+                BitPacker packer = new BitPacker(out.array(), out.position());
+                for (int row = 0; row < numRows; row++) {
+                    packer.write(indexes.get(getValue(values, row * width, width)), bits);
+                }
+                return out.array();
+            }
+            case DELTA: {
+                long maxDelta = 0;
+                for (int row = 1; row < numRows; row++) {
+                    maxDelta |= zigzag(getValue(values, row * width, width) - getValue(values, (row - 1) * width, width));
+                }
+                int bits = bitsFor(maxDelta);
+                ByteBuffer out = ByteBuffer.allocate(9 + packedLength(numRows - 1, bits));
+                out.putLong(getValue(values, 0, width));
+                out.put((byte) bits);
+                BitPacker packer = new BitPacker(out.array(), out.position());
+                for (int row = 1; row < numRows; row++) {
+                    packer.write(zigzag(getValue(values, row * width, width) - getValue(values, (row - 1) * width, width)), bits);
+                }
+                return out.array();
+            }
+            case FRAME_OF_REFERENCE: {
+                long min = Long.MAX_VALUE;
+                long max = Long.MIN_VALUE;
+                for (int row = 0; row < numRows; row++) {
+                    long value = getValue(values, row * width, width);
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                }
+                long range = max - min;
+                int bits = range < 0 ? 64 : bitsFor(range);
+                ByteBuffer out = ByteBuffer.allocate(9 + packedLength(numRows, bits));
+                out.putLong(min);
+                out.put((byte) bits);
+                BitPacker packer = new BitPacker(out.array(), out.position());
+                for (int row = 0; row < numRows; row++) {
+                    packer.write(getValue(values, row * width, width) - min, bits);
+                }
+                return out.array();
+            }
+            default:
+                throw new UnsupportedOperationException("Unknown encoding: " + encoding);
+        }
+    }
+
+    private static byte[] decode(Encoding encoding, byte[] encoded, int width, int numRows) {
+        byte[] values = new byte[numRows * width];
+        switch (encoding) {
+            case RAW:
+                return encoded;
+            case DICTIONARY: {
+                ByteBuffer in = ByteBuffer.wrap(encoded);
+                int size = in.getInt();
+                int dictionaryOffset = in.position();
+                int bits = encoded[dictionaryOffset + size * width];
+                BitPacker packer = new BitPacker(encoded, dictionaryOffset + size * width + 1);
+                for (int row = 0; row < numRows; row++) {
+                    int index = (int) packer.read(bits);
+                    System.arraycopy(encoded, dictionaryOffset + index * width, values, row * width, width);
+                }
+                return values;
+            }
+            case DELTA: {
+                if (numRows == 0) return values;
+                ByteBuffer in = ByteBuffer.wrap(encoded);
+                long value = in.getLong();
+                int bits = in.get();
+                BitPacker packer = new BitPacker(encoded, in.position());
+                setValue(values, 0, width, value);
+                for (int row = 1; row < numRows; row++) {
+                    value += unzigzag(packer.read(bits));
+                    setValue(values, row * width, width, value);
+                }
+                return values;
+            }
+            case FRAME_OF_REFERENCE: {
+                ByteBuffer in = ByteBuffer.wrap(encoded);
+                long min = in.getLong();
+                int bits = in.get();
+                BitPacker packer = new BitPacker(encoded, in.position());
+                for (int row = 0; row < numRows; row++) {
+                    setValue(values, row * width, width, min + packer.read(bits));
+                }
+                return values;
+            }
+            default:
+                throw new UnsupportedOperationException("Unknown encoding: " + encoding);
+        }
+    }
+
+    /**
+     * Little endian bit packing into a byte array, values of up to 64 bits
+     */
+    private static final class BitPacker {
+        private final byte[] buffer;
+        private long bitPosition;
+
+        private BitPacker(byte[] buffer, int offset) {
+            this.buffer = buffer;
+            this.bitPosition = (long) offset << 3;
+        }
+
+        private void write(long value, int bits) {
+            while (bits > 0) {
+                int index = (int) (bitPosition >>> 3);
+                int shift = (int) (bitPosition & 7);
+                int take = Math.min(8 - shift, bits);
+                buffer[index] |= (byte) ((value & ((1 << take) - 1)) << shift);
+                value >>>= take;
+                bits -= take;
+                bitPosition += take;
+            }
+        }
+
+        private long read(int bits) {
+            long result = 0;
+            int read = 0;
+            while (read < bits) {
+                int index = (int) (bitPosition >>> 3);
+                int shift = (int) (bitPosition & 7);
+                int take = Math.min(8 - shift, bits - read);
+                result |= (long) ((buffer[index] >>> shift) & ((1 << take) - 1)) << read;
+                read += take;
+                bitPosition += take;
+            }
+            return result;
+        }
+    }
+}
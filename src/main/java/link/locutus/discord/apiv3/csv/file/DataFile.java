@@ -3,13 +3,19 @@ package link.locutus.discord.apiv3.csv.file;
 import de.siegmar.fastcsv.reader.CloseableIterator;
 import de.siegmar.fastcsv.reader.CsvReader;
 import de.siegmar.fastcsv.reader.CsvRow;
+import it.unimi.dsi.fastutil.ints.IntSet;
 import it.unimi.dsi.fastutil.io.FastByteArrayOutputStream;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectLinkedOpenHashSet;
 import link.locutus.discord.apiv3.PoliticsAndWarV3;
 import link.locutus.discord.apiv3.csv.ColumnInfo;
+import link.locutus.discord.apiv3.csv.column.ByteColumn;
+import link.locutus.discord.apiv3.csv.column.DoubleColumn;
+import link.locutus.discord.apiv3.csv.column.IntColumn;
+import link.locutus.discord.apiv3.csv.column.NumberColumn;
 import link.locutus.discord.apiv3.csv.header.DataHeader;
 import link.locutus.discord.apiv3.csv.header.DataReader;
+import link.locutus.discord.config.Settings;
 import link.locutus.discord.util.MathMan;
 import link.locutus.discord.util.TimeUtil;
 import link.locutus.discord.util.math.ArrayUtil;
@@ -20,23 +26,33 @@ import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.IntSupplier;
+import java.util.function.LongFunction;
 import java.util.function.Supplier;
 
 public class DataFile<T, H extends DataHeader<T>, R extends DataReader<H>> {
     private final File csvFile;
     private final File binFile;
+    private final File rawFile;
     private final BiFunction<H, Long, R> createReader;
     private boolean csvExists = false;
     private boolean binExists = false;
     private final long date;
     private final long day;
     private final String filePart;
-    private SoftReference<byte[]> cachedBytes = new SoftReference<>(null);
+    private volatile SoftReference<byte[]> cachedBytes = new SoftReference<>(null);
+    private volatile SoftReference<ColumnarFile> cachedColumnar = new SoftReference<>(null);
+    private volatile ByteBuffer mapped;
+    private volatile LongFunction<? extends DataFile<T, H, R>> dayResolver;
 
     private final Supplier<H> createHeader;
     private volatile H globalHeader;
@@ -67,6 +83,79 @@ public class DataFile<T, H extends DataHeader<T>, R extends DataReader<H>> {
         public int initialOffset;
     }
 
+    /**
+     * A predicate on a single column, see {@link Builder#where(NumberColumn, double, double)}
+     */
+    private abstract static class RowFilter {
+        private final ColumnInfo<?, ?> column;
+
+        private RowFilter(ColumnInfo<?, ?> column) {
+            this.column = column;
+        }
+
+        /**
+         * @return if a block with the stored values from min to max may have a matching row, see {@link ColumnarFile#getBlockMin(int, int)}
+         */
+        abstract boolean mayMatch(long storedMin, long storedMax);
+
+        /**
+         * @return if the value last read into the column matches
+         */
+        abstract boolean test();
+
+        private static double decode(ColumnInfo<?, ?> column, byte[] bytes, long stored) throws IOException {
+            for (int i = bytes.length - 1; i >= 0; i--) {
+                bytes[i] = (byte) stored;
+                stored >>>= 8;
+            }
+            return ((Number) column.read(bytes, 0)).doubleValue();
+        }
+
+        /**
+         * The stored values of the column read as increasing values, in the order the zone map compares them:
+         * 1 and 2 byte columns unsigned, 4 and 8 byte columns signed, and doubles only when not negative
+         */
+        private static long[] getStoredDomain(ColumnInfo<?, ?> column) {
+            return switch (column.getBytes()) {
+                case 1 -> new long[]{0, 0xFF};
+                case 2 -> new long[]{0, 0xFFFF};
+                case 4 -> new long[]{Integer.MIN_VALUE, Integer.MAX_VALUE};
+                // NaN is stored above infinity
+                default -> column instanceof DoubleColumn ? new long[]{0, Double.doubleToLongBits(Double.POSITIVE_INFINITY)} : new long[]{Long.MIN_VALUE, Long.MAX_VALUE};
+            };
+        }
+
+        /**
+         * Find the stored values which read between min and max (inclusive) with a binary search, so blocks can be compared to the
+         * filter without decoding their zone map
+         * @return the lowest and highest matching stored value, or null if no stored value matches
+         */
+        static long[] getStoredRange(ColumnInfo<?, ?> column, double min, double max) throws IOException {
+            long[] domain = getStoredDomain(column);
+            byte[] bytes = new byte[column.getBytes()];
+            if (decode(column, bytes, domain[1]) < min || decode(column, bytes, domain[0]) > max) return null;
+            // the first stored value reading >= min
+            long low = domain[0];
+            long high = domain[1];
+            while (low < high) {
+                long mid = low + ((high - low) >>> 1);
+                if (decode(column, bytes, mid) >= min) high = mid;
+                else low = mid + 1;
+            }
+            long first = low;
+            // the last stored value reading <= max
+            low = domain[0];
+            high = domain[1];
+            while (low < high) {
+                long mid = high - ((high - low) >>> 1);
+                if (decode(column, bytes, mid) <= max) low = mid;
+                else high = mid - 1;
+            }
+            long last = low;
+            return first <= last ? new long[]{first, last} : null;
+        }
+    }
+
     public String getFilePart() {
         return filePart;
     }
@@ -75,6 +164,7 @@ public class DataFile<T, H extends DataHeader<T>, R extends DataReader<H>> {
         this.filePart = file.getName().split("\\.")[0];
         this.csvFile = new File(file.getParent(), filePart + ".csv");
         this.binFile = new File(file.getParent(), filePart + ".bin");
+        this.rawFile = new File(file.getParent(), filePart + ".raw");
         this.csvExists = csvFile.exists();
         this.binExists = binFile.exists();
         this.createHeader = createHeader;
@@ -119,19 +209,207 @@ public class DataFile<T, H extends DataHeader<T>, R extends DataReader<H>> {
         }
     }
 
-    public synchronized byte[] getBytes() throws IOException {
+    /**
+     * @return the row major layout of the file, see {@link DataHeader#readIndexes(byte[])}
+     */
+    public byte[] getBytes() throws IOException {
         byte[] decompressed = cachedBytes.get();
         if (decompressed == null) {
-            Pair<File, byte[]> binFilePair = getCompressedFile(true, false);
-            decompressed = binFilePair.getSecond();
-            if (decompressed == null) {
-                decompressed = ArrayUtil.decompressLZ4(Files.readAllBytes(binFile.toPath()));
+            synchronized (this) {
+                decompressed = cachedBytes.get();
+                if (decompressed == null) {
+                    ByteBuffer buffer = mapped;
+                    if (buffer != null) {
+                        decompressed = new byte[buffer.capacity()];
+                        buffer.get(0, decompressed);
+                    } else {
+                        ColumnarFile columnar = getColumnar();
+                        // reading a row major or delta file for the first time keeps its decompressed bytes
+                        decompressed = cachedBytes.get();
+                        if (decompressed == null) decompressed = columnar.toRowMajor();
+                    }
+                    cachedBytes = new SoftReference<>(decompressed);
+                }
             }
-            cachedBytes = new SoftReference<>(decompressed);
         }
         return decompressed;
     }
 
+    /**
+     * Files written in the row major layout are converted to the columnar layout the first time they are read
+     * @return the columnar layout of the file
+     */
+    public ColumnarFile getColumnar() throws IOException {
+        ColumnarFile columnar = cachedColumnar.get();
+        if (columnar != null) return columnar;
+        synchronized (this) {
+            columnar = cachedColumnar.get();
+            if (columnar == null) {
+                Pair<File, byte[]> binFilePair = getCompressedFile(true, false);
+                if (binFilePair.getSecond() != null) {
+                    cachedBytes = new SoftReference<>(binFilePair.getSecond());
+                }
+                byte[] fileBytes = Files.readAllBytes(binFile.toPath());
+                if (DeltaFile.isDelta(fileBytes)) {
+                    byte[] rowMajor = applyDelta(DeltaFile.read(fileBytes));
+                    cachedBytes = new SoftReference<>(rowMajor);
+                    Header<T> info = createHeader.get().readIndexes(rowMajor);
+                    columnar = ColumnarFile.ofRowMajor(rowMajor, info.initialOffset, getWidths(info));
+                } else {
+                    if (!ColumnarFile.isColumnar(fileBytes)) {
+                        byte[] decompressed = ArrayUtil.decompressLZ4(fileBytes);
+                        cachedBytes = new SoftReference<>(decompressed);
+                        fileBytes = writeColumnar(decompressed);
+                    }
+                    columnar = ColumnarFile.read(fileBytes);
+                }
+                cachedColumnar = new SoftReference<>(columnar);
+            }
+            return columnar;
+        }
+    }
+
+    /**
+     * The row major layout, decompressed once into a `.raw` file next to the `.bin` file and memory mapped, so it is paged
+     * in and out by the OS rather than decompressed again whenever the heap copy is collected.
+     * The buffer is read only and shared, use absolute reads only
+     * @return the mapped row major layout of the file
+     */
+    public ByteBuffer getMapped() throws IOException {
+        ByteBuffer buffer = mapped;
+        if (buffer != null) return buffer;
+        synchronized (this) {
+            buffer = mapped;
+            if (buffer == null) {
+                if (!rawFile.exists()) {
+                    File tmp = new File(rawFile.getParent(), rawFile.getName() + ".tmp");
+                    Files.write(tmp.toPath(), getBytes());
+                    Files.move(tmp.toPath(), rawFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+                try (FileChannel channel = FileChannel.open(rawFile.toPath(), StandardOpenOption.READ)) {
+                    mapped = buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+            }
+            return buffer;
+        }
+    }
+
+    /**
+     * Convert the file to the columnar layout, if it is still in the row major layout
+     * @return if the file was converted
+     */
+    public synchronized boolean migrateToColumnar() throws IOException {
+        if (!binFile.exists()) return false;
+        byte[] fileBytes = Files.readAllBytes(binFile.toPath());
+        if (ColumnarFile.isColumnar(fileBytes) || DeltaFile.isDelta(fileBytes)) return false;
+        writeColumnar(ArrayUtil.decompressLZ4(fileBytes));
+        cachedColumnar = new SoftReference<>(null);
+        return true;
+    }
+
+    private byte[] writeColumnar(byte[] rowMajor) throws IOException {
+        Header<T> info = createHeader.get().readIndexes(rowMajor);
+        byte[] columnar = ColumnarFile.fromRowMajor(rowMajor, info.initialOffset, getWidths(info));
+        writeBinFile(columnar);
+        return columnar;
+    }
+
+    private void writeBinFile(byte[] bytes) throws IOException {
+        File tmp = new File(binFile.getParent(), binFile.getName() + ".tmp");
+        Files.write(tmp.toPath(), bytes);
+        Files.move(tmp.toPath(), binFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static int[] getWidths(Header<?> info) {
+        int[] widths = new int[info.headers.length];
+        for (int i = 0; i < widths.length; i++) {
+            widths[i] = info.headers[i].getBytes();
+        }
+        return widths;
+    }
+
+    /**
+     * Set how the files of other days are found, for storing and reading this day as a {@link DeltaFile} of the previous day
+     */
+    public void setDayResolver(LongFunction<? extends DataFile<T, H, R>> dayResolver) {
+        this.dayResolver = dayResolver;
+    }
+
+    /**
+     * @return the previous day, if this day should be stored as the changes from it, see {@link Settings.DATABASE.DATA_DUMP#DELTA_KEYFRAME_INTERVAL}
+     */
+    private DataFile<T, H, R> getDeltaBase() {
+        int interval = Settings.INSTANCE.DATABASE.DATA_DUMP.DELTA_KEYFRAME_INTERVAL;
+        LongFunction<? extends DataFile<T, H, R>> resolver = dayResolver;
+        if (interval <= 0 || resolver == null || day % interval == 0) return null;
+        return resolver.apply(day - 1);
+    }
+
+    private byte[] applyDelta(DeltaFile delta) throws IOException {
+        LongFunction<? extends DataFile<T, H, R>> resolver = dayResolver;
+        DataFile<T, H, R> base = resolver == null ? null : resolver.apply(delta.getBaseDay());
+        if (base == null) {
+            throw new IOException("Missing day " + delta.getBaseDay() + " which " + filePart + " is stored as the changes from");
+        }
+        Header<T> info = createHeader.get().readIndexes(delta.getHeader());
+        return delta.apply(base.getBytes(), getWidths(info));
+    }
+
+    /**
+     * Encode a new day for the `.bin` file, as the changes from the previous day when possible
+     */
+    private byte[] encodeBinFile(byte[] rowMajor, int headerLength, int[] widths) throws IOException {
+        DataFile<T, H, R> base = getDeltaBase();
+        if (base != null) {
+            byte[] delta = DeltaFile.encode(base.getDay(), base.getBytes(), rowMajor, headerLength, widths);
+            if (delta != null) return delta;
+        }
+        return ColumnarFile.fromRowMajor(rowMajor, headerLength, widths);
+    }
+
+    /**
+     * Rewrite the file as the changes from the previous day, if it is not a keyframe day and the previous day has the same columns
+     * @return if the file was converted
+     */
+    public synchronized boolean convertToDelta() throws IOException {
+        if (!binFile.exists()) return false;
+        DataFile<T, H, R> base = getDeltaBase();
+        if (base == null || DeltaFile.isDelta(Files.readAllBytes(binFile.toPath()))) return false;
+        byte[] rowMajor = getBytes();
+        Header<T> info = createHeader.get().readIndexes(rowMajor);
+        byte[] delta = DeltaFile.encode(base.getDay(), base.getBytes(), rowMajor, info.initialOffset, getWidths(info));
+        if (delta == null) return false;
+        writeBinFile(delta);
+        cachedColumnar = new SoftReference<>(null);
+        return true;
+    }
+
+    /**
+     * The rows added, changed or removed since an earlier day, read from the stored changes when this day is stored as the changes from it
+     * If the days have different columns, every row of either day is treated as changed
+     * @return the keys (nation or city ids) of the rows
+     */
+    public IntSet getChangedKeys(DataFile<T, H, R> previous) throws IOException {
+        getCompressedFile(true, false);
+        byte[] fileBytes = Files.readAllBytes(binFile.toPath());
+        if (DeltaFile.isDelta(fileBytes)) {
+            DeltaFile delta = DeltaFile.read(fileBytes);
+            if (delta.getBaseDay() == previous.getDay()) {
+                return delta.getChangedKeys(getWidths(createHeader.get().readIndexes(delta.getHeader())));
+            }
+        }
+        byte[] rowMajor = getBytes();
+        Header<T> info = createHeader.get().readIndexes(rowMajor);
+        byte[] previousRowMajor = previous.getBytes();
+        IntSet changed = DeltaFile.changedKeys(previousRowMajor, rowMajor, info.initialOffset, getWidths(info));
+        if (changed == null) {
+            changed = DeltaFile.getKeys(rowMajor, info.initialOffset, getWidths(info));
+            Header<T> previousInfo = createHeader.get().readIndexes(previousRowMajor);
+            changed.addAll(DeltaFile.getKeys(previousRowMajor, previousInfo.initialOffset, getWidths(previousInfo)));
+        }
+        return changed;
+    }
+
     public Pair<File, byte[]> getCompressedFile(boolean create, boolean deleteCsv) throws IOException {
         if (binExists) {
             return Pair.of(binFile, null);
@@ -194,58 +472,41 @@ public class DataFile<T, H extends DataHeader<T>, R extends DataReader<H>> {
                     }
                 }
 
+                int headerSize = 4 + headers.size() + 4;
+                int rowSize = writeOrder.stream().mapToInt(ColumnInfo::getBytes).sum();
                 int numRows = 0;
-                FastByteArrayOutputStream baos = new FastByteArrayOutputStream();
+                // rows are encoded straight into the output as they are parsed, and the row count is filled in at the end
+                FastByteArrayOutputStream baos = new FastByteArrayOutputStream(headerSize + (int) Math.min(Integer.MAX_VALUE - headerSize - 8, csvFile.length() / 2));
                 try (DataOutputStream dos = new DataOutputStream(baos)) {
                     dos.writeInt(headers.size());
                     for (ColumnInfo<T, ?> header : headers.values()) {
                         dos.writeBoolean(header.getIndex() != -1);
                     }
-                    List<List<Object>> all = new ObjectArrayList<>();
+                    dos.writeInt(0);
                     while (rows.hasNext()) {
-                        numRows++;
                         CsvRow csvRow = rows.next();
-                        ObjectArrayList<Object> rowData = new ObjectArrayList<>(columnsInCsv.size());
-                        for (ColumnInfo<T, Object> column : columnsInCsv) {
+                        for (ColumnInfo<T, Object> column : writeOrder) {
                             String cell = csvRow.getField(column.getIndex());
                             Object value;
                             try {
                                 value = column.read(cell);
                             } catch (RuntimeException e) {
-                                System.err.println("Error reading column `" + column.getName() + "/" + column.getIndex() + "` in row " + (all.size() + 1) + ": " + cell + " in file: " + csvFile.getName());
+                                System.err.println("Error reading column `" + column.getName() + "/" + column.getIndex() + "` in row " + (numRows + 1) + ": " + cell + " in file: " + csvFile.getName());
                                 throw e;
                             }
-                            rowData.add(value);
+                            column.write(dos, value);
                         }
-                        all.add(rowData);
-                    }
-                    dos.writeInt(all.size());
-                    for (List<Object> rowData : all) {
-                        for (ColumnInfo<T, Object> column : writeOrder) {
-                            column.write(dos, rowData.get(column.getIndex()));
+                        numRows++;
+                        if (baos.length != headerSize + (long) numRows * rowSize) {
+                            throw new IllegalStateException("Expected " + (headerSize + (long) numRows * rowSize) + " bytes after row " + numRows + ", but got " + baos.length + " in file: " + csvFile.getName());
                         }
                     }
                 }
-                baos.close(); // Unnecessary since it doesn't implement any close logic, but good practice
-
                 baos.trim();
-                {
-                    if (baos.array.length != baos.length) {
-                        throw new IllegalStateException("Byte array length mismatch in file: " + csvFile.getName() + " (expected: " + baos.length + ", actual: " + baos.array.length + ")");
-                    }
-                    int headerSize = 4 + headers.size() + 4;
-                    int rowSize = columnsInCsv.stream().map(ColumnInfo::getBytes).reduce(0, Integer::sum);
-                    int expectedSize = headerSize + (numRows * rowSize);
-                    int remainder = (baos.length - expectedSize) % rowSize;
-                    if (baos.length != expectedSize) {
-                        throw new IllegalStateException("Expected " + expectedSize + " bytes, but got " + baos.length + " in file: " + csvFile.getName() + " (diff: " + (expectedSize - baos.length) + ")");
-                    }
-                    {
-                        System.out.println("Created binary file: " + binFile.getName() + " remainder: " + remainder + " bytes per row: " +  + rowSize + " | columns: " + columnsInCsv.size() + "/" + headers.size() + " | uncompressed size: " + baos.array.length);
-                    }
-                }
-                byte[] compressed = ArrayUtil.compressLZ4(baos.array, baos.length);
-                Files.write(binFile.toPath(), compressed);
+                ByteBuffer.wrap(baos.array).putInt(headerSize - 4, numRows);
+                System.out.println("Created binary file: " + binFile.getName() + " bytes per row: " + rowSize + " | rows: " + numRows + " | columns: " + columnsInCsv.size() + "/" + headers.size() + " | uncompressed size: " + baos.length);
+                int[] widths = writeOrder.stream().mapToInt(ColumnInfo::getBytes).toArray();
+                writeBinFile(encodeBinFile(baos.array, headerSize, widths));
                 output[0] = baos.array;
             });
             parent.getDictionary().save();
@@ -262,6 +523,7 @@ public class DataFile<T, H extends DataHeader<T>, R extends DataReader<H>> {
         private final Map<String, ColumnInfo<T, Object>> headers;
         private final List<ColumnInfo<T, Object>> requiredColumns = new ObjectArrayList<>();
         private final List<ColumnInfo<T, Object>> optionalColumns = new ObjectArrayList<>();
+        private final List<RowFilter> filters = new ObjectArrayList<>();
 
         public Builder() {
             this.header = createHeader.get();
@@ -335,54 +597,224 @@ public class DataFile<T, H extends DataHeader<T>, R extends DataReader<H>> {
             return this;
         }
 
+        /**
+         * Only read the rows where the column is between min and max (inclusive).
+         * The column is required, and is read before the other columns, which are only read for matching rows.
+         * Blocks of rows whose zone map is outside the range are skipped without being read, see {@link ColumnarFile#getBlockMin(int, int)}
+         */
+        public Builder where(NumberColumn<T, ?> column, double min, double max) {
+            required(column);
+            long[] stored;
+            try {
+                stored = RowFilter.getStoredRange(column, min, max);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            filters.add(new RowFilter(column) {
+                @Override
+                boolean mayMatch(long storedMin, long storedMax) {
+                    // negative doubles do not order by their bits
+                    if (column instanceof DoubleColumn && storedMin < 0) return true;
+                    if (stored == null) return false;
+                    return storedMax >= stored[0] && storedMin <= stored[1];
+                }
+
+                @Override
+                boolean test() {
+                    double value = column.getDouble();
+                    return value >= min && value <= max;
+                }
+            });
+            return this;
+        }
+
+        /**
+         * Only read the rows where the column is one of the values, e.g. a set of nation ids, see {@link #where(NumberColumn, double, double)}
+         */
+        public Builder whereIn(IntColumn<T> column, IntSet values) {
+            return whereIn(column, values, column::getInt);
+        }
+
+        public Builder whereIn(ByteColumn<T> column, IntSet values) {
+            return whereIn(column, values, column::getInt);
+        }
+
+        private Builder whereIn(NumberColumn<T, Integer> column, IntSet values, IntSupplier get) {
+            required(column);
+            int[] sorted = values.toIntArray();
+            Arrays.sort(sorted);
+            filters.add(new RowFilter(column) {
+                @Override
+                boolean mayMatch(long storedMin, long storedMax) {
+                    int index = Arrays.binarySearch(sorted, (int) storedMin);
+                    if (index >= 0) return true;
+                    index = -index - 1;
+                    return index < sorted.length && sorted[index] <= storedMax;
+                }
+
+                @Override
+                boolean test() {
+                    return values.contains(get.getAsInt());
+                }
+            });
+            return this;
+        }
+
+        /**
+         * Read the rows of the file, with the values of the specified columns set on the columns of this builder's header.
+         * The column state belongs to this builder, so any number of builders can read the same file at once,
+         * but a single builder must not be read from several threads
+         */
         public void read(Consumer<R> onEachRow) throws IOException {
             try {
-                synchronized (DataFile.this) {
-                    R reader = createReader.apply(header, date);
-                    byte[] decompressed = getBytes();
-                    Header<T> colInfo = header.readIndexes(decompressed);
-                    int bytesOffset = colInfo.initialOffset; // initial offset + header size + number of rows
-                    int remainder = (decompressed.length - bytesOffset) % colInfo.bytesPerRow;
-                    if (remainder != 0) {
-                        throw new IllegalStateException("Data file " + filePart + " has a remainder of " + remainder + " bytes, expected multiple of " + colInfo.bytesPerRow + " | Num columns " + colInfo.headers.length + " | Bytes per row " + colInfo.bytesPerRow + " | Total bytes " + decompressed.length);
-                    } else {
-                        // print same info but no error
-//                        System.out.println("Success: Data file " + filePart + " has no remainder, expected multiple of " + colInfo.bytesPerRow + " | Num columns " + colInfo.headers.length + " | Bytes per row " + colInfo.bytesPerRow + " | Total bytes " + decompressed.length);
+                R reader = createReader.apply(header, date);
+                // use the row major bytes if they are mapped or cached, otherwise only decode the columns being read
+                ByteBuffer buffer = Settings.INSTANCE.DATABASE.DATA_DUMP.MEMORY_MAP_CACHE ? getMapped() : null;
+                byte[] decompressed = buffer == null ? cachedBytes.get() : null;
+                ColumnarFile columnar = null;
+                Header<T> colInfo;
+                if (buffer != null) {
+                    byte[] headerBytes = new byte[4 + buffer.getInt(0) + 4];
+                    buffer.get(0, headerBytes);
+                    colInfo = header.readIndexes(headerBytes);
+                    checkRemainder(colInfo, buffer.capacity());
+                } else if (decompressed != null) {
+                    colInfo = header.readIndexes(decompressed);
+                    checkRemainder(colInfo, decompressed.length);
+                } else {
+                    columnar = getColumnar();
+                    colInfo = header.readIndexes(columnar.getHeader());
+                    if (columnar.getNumColumns() != colInfo.headers.length) {
+                        throw new IllegalStateException("Data file " + filePart + " has " + columnar.getNumColumns() + " columns, expected " + colInfo.headers.length);
                     }
+                }
 
-                    Set<ColumnInfo<T, Object>> presetAndSpecified = new ObjectLinkedOpenHashSet<>();
-                    for (ColumnInfo<T, Object> column : requiredColumns) {
-                        if (column.getIndex() == -1) {
-                            throw new IllegalArgumentException("Required column `" + column.getName() + "` is missing in " + filePart);
-                        }
+                Set<ColumnInfo<T, Object>> presetAndSpecified = new ObjectLinkedOpenHashSet<>();
+                for (ColumnInfo<T, Object> column : requiredColumns) {
+                    if (column.getIndex() == -1) {
+                        throw new IllegalArgumentException("Required column `" + column.getName() + "` is missing in " + filePart);
+                    }
+                    presetAndSpecified.add(column);
+                }
+                for (ColumnInfo<T, Object> column : optionalColumns) {
+                    if (column.getIndex() != -1) {
                         presetAndSpecified.add(column);
                     }
-                    for (ColumnInfo<T, Object> column : optionalColumns) {
-                        if (column.getIndex() != -1) {
-                            presetAndSpecified.add(column);
+                }
+                // the filtered columns are read first, and the rest only for rows which match
+                RowFilter[] rowFilters = filters.toArray(new RowFilter[0]);
+                ColumnInfo<?, ?>[] filterColumns = new ColumnInfo[rowFilters.length];
+                for (int j = 0; j < rowFilters.length; j++) {
+                    filterColumns[j] = rowFilters[j].column;
+                    presetAndSpecified.remove(rowFilters[j].column);
+                }
+                ColumnInfo<T, Object>[] shouldRead = presetAndSpecified.toArray(new ColumnInfo[0]);
+                Arrays.sort(shouldRead, Comparator.comparingInt(ColumnInfo::getIndex));
+
+                int index = colInfo.initialOffset;
+                int rowBytes = colInfo.bytesPerRow;
+                int numLines = colInfo.numLines;
+
+                if (buffer != null) {
+                    byte[] row = new byte[rowBytes];
+                    for (int i = 0; i < numLines; i++, index += rowBytes) {
+                        buffer.get(index, row);
+                        if (!testRow(rowFilters, row, 0)) continue;
+                        header.setOffset(index);
+                        for (ColumnInfo<T, Object> column : shouldRead) {
+                            column.readCached(row, column.getOffset());
                         }
+                        onEachRow.accept(reader);
                     }
-                    ColumnInfo<T, Object>[] shouldRead = presetAndSpecified.toArray(new ColumnInfo[0]);
-                    Arrays.sort(shouldRead, Comparator.comparingInt(ColumnInfo::getIndex));
-
-
-                    int index = colInfo.initialOffset;
-                    int rowBytes = colInfo.bytesPerRow;
-                    int numLines = colInfo.numLines;
-
-                    for (int i = 0; i < numLines; i++) {
+                } else if (columnar == null) {
+                    for (int i = 0; i < numLines; i++, index += rowBytes) {
+                        if (!testRow(rowFilters, decompressed, index)) continue;
                         header.setOffset(index);
                         for (ColumnInfo<T, Object> column : shouldRead) {
-                            column.setCachedValue(column.read(decompressed, index + column.getOffset()));
+                            column.readCached(decompressed, index + column.getOffset());
+                        }
+                        onEachRow.accept(reader);
+                    }
+                } else {
+                    // skip the blocks which cannot match before decoding any column
+                    int numBlocks = columnar.getNumBlocks();
+                    boolean[] skipBlock = new boolean[numBlocks];
+                    boolean anyBlock = false;
+                    for (int block = 0; block < numBlocks; block++) {
+                        for (RowFilter filter : rowFilters) {
+                            int columnIndex = filter.column.getIndex();
+                            if (columnar.hasZoneMap(columnIndex) && !filter.mayMatch(columnar.getBlockMin(columnIndex, block), columnar.getBlockMax(columnIndex, block))) {
+                                skipBlock[block] = true;
+                                break;
+                            }
+                        }
+                        anyBlock |= !skipBlock[block];
+                    }
+                    if (!anyBlock) return;
+
+                    byte[][] filterValues = new byte[filterColumns.length][];
+                    int[] filterWidths = new int[filterColumns.length];
+                    for (int j = 0; j < filterColumns.length; j++) {
+                        filterValues[j] = columnar.getColumn(filterColumns[j].getIndex());
+                        filterWidths[j] = filterColumns[j].getBytes();
+                    }
+                    // decoded on the first matching row
+                    byte[][] values = null;
+                    int[] widths = new int[shouldRead.length];
+                    for (int j = 0; j < shouldRead.length; j++) {
+                        widths[j] = shouldRead[j].getBytes();
+                    }
+                    rows:
+                    for (int i = 0; i < numLines; i++, index += rowBytes) {
+                        if (skipBlock[i / ColumnarFile.BLOCK_ROWS]) {
+                            int skip = Math.min(numLines, (i / ColumnarFile.BLOCK_ROWS + 1) * ColumnarFile.BLOCK_ROWS) - i - 1;
+                            i += skip;
+                            index += skip * rowBytes;
+                            continue;
+                        }
+                        for (int j = 0; j < rowFilters.length; j++) {
+                            filterColumns[j].readCached(filterValues[j], i * filterWidths[j]);
+                            if (!rowFilters[j].test()) continue rows;
+                        }
+                        if (values == null) {
+                            values = new byte[shouldRead.length][];
+                            for (int j = 0; j < shouldRead.length; j++) {
+                                values[j] = columnar.getColumn(shouldRead[j].getIndex());
+                            }
+                        }
+                        // the offset the row would have in the row major layout
+                        header.setOffset(index);
+                        for (int j = 0; j < shouldRead.length; j++) {
+                            ColumnInfo<T, Object> column = shouldRead[j];
+                            column.readCached(values[j], i * widths[j]);
                         }
                         onEachRow.accept(reader);
-                        index += rowBytes;
                     }
                 }
             } catch (IllegalStateException e) {
                 throw new RuntimeException(filePart + ": " + e.getMessage(), e);
             }
         }
+
+        /**
+         * Read the filtered columns of a row major row
+         * @return if the row matches every filter
+         */
+        private boolean testRow(RowFilter[] rowFilters, byte[] rows, int rowOffset) throws IOException {
+            for (RowFilter filter : rowFilters) {
+                filter.column.readCached(rows, rowOffset + filter.column.getOffset());
+                if (!filter.test()) return false;
+            }
+            return true;
+        }
+
+        private void checkRemainder(Header<T> colInfo, int length) {
+            int bytesOffset = colInfo.initialOffset; // initial offset + header size + number of rows
+            int remainder = (length - bytesOffset) % colInfo.bytesPerRow;
+            if (remainder != 0) {
+                throw new IllegalStateException("Data file " + filePart + " has a remainder of " + remainder + " bytes, expected multiple of " + colInfo.bytesPerRow + " | Num columns " + colInfo.headers.length + " | Bytes per row " + colInfo.bytesPerRow + " | Total bytes " + length);
+            }
+        }
     }
 
     public Builder reader() {
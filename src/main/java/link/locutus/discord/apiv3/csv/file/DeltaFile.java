@@ -0,0 +1,296 @@
+package link.locutus.discord.apiv3.csv.file;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.io.FastByteArrayOutputStream;
+import link.locutus.discord.util.math.ArrayUtil;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A day of a data dump stored as the changes from the previous day, stored as the `.bin` file in place of a {@link ColumnarFile}.
+ * Rows are matched between the days by their key, the first column (the nation or city id), which must be 4 bytes wide and unique.
+ * Only the rows added or changed are stored, and only the columns of a row that changed.
+ * <p>
+ * Layout: MAGIC, VERSION, base day, then LZ4 compressed ({@link ArrayUtil#compressLZ4(byte[], int)}):
+ * header length, header, number of rows, the key of each row (as the difference from the previous key),
+ * number of removed keys, the removed keys, number of changed rows, then per changed row: the row index, one bit per column of whether it changed
+ * (as longs), and the values of the changed columns.
+ * A row that is not in the base day is stored with every column changed
+ */
+public class DeltaFile {
+    public static final int MAGIC = 0xDE17_AF11;
+    private static final byte VERSION = 1;
+
+    private final long baseDay;
+    private final byte[] header;
+    private final byte[] payload;
+    private final int keysOffset;
+    private final int numRows;
+
+    private DeltaFile(byte[] fileBytes) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(fileBytes);
+        if (buf.getInt() != MAGIC) throw new IllegalArgumentException("Not a delta file");
+        byte version = buf.get();
+        if (version != VERSION) throw new IllegalArgumentException("Unsupported delta file version: " + version);
+        this.baseDay = buf.getLong();
+        this.payload = ArrayUtil.decompressLZ4(Arrays.copyOfRange(fileBytes, buf.position(), fileBytes.length));
+        ByteBuffer in = ByteBuffer.wrap(payload);
+        this.header = new byte[in.getInt()];
+        in.get(header);
+        this.numRows = in.getInt();
+        this.keysOffset = in.position();
+    }
+
+    public static boolean isDelta(byte[] fileBytes) {
+        return fileBytes.length >= 4 && ByteBuffer.wrap(fileBytes).getInt() == MAGIC;
+    }
+
+    public static DeltaFile read(byte[] fileBytes) throws IOException {
+        return new DeltaFile(fileBytes);
+    }
+
+    /**
+     * @return the day this file stores the changes from
+     */
+    public long getBaseDay() {
+        return baseDay;
+    }
+
+    /**
+     * The row major header of the day, see {@link ColumnarFile#getHeader()}
+     */
+    public byte[] getHeader() {
+        return header;
+    }
+
+    /**
+     * @param widths the width of each present column, in row order
+     * @return the keys of the rows added, changed or removed since the base day
+     */
+    public IntSet getChangedKeys(int[] widths) {
+        ByteBuffer in = ByteBuffer.wrap(payload, keysOffset, payload.length - keysOffset);
+        int[] keys = readKeys(in, numRows);
+        IntSet changed = new IntOpenHashSet();
+        int numRemoved = in.getInt();
+        for (int i = 0; i < numRemoved; i++) {
+            changed.add(in.getInt());
+        }
+        int words = (widths.length + 63) >>> 6;
+        int numChanged = in.getInt();
+        for (int i = 0; i < numChanged; i++) {
+            changed.add(keys[in.getInt()]);
+            int skip = 0;
+            for (int word = 0; word < words; word++) {
+                long mask = in.getLong();
+                for (int bit = 0; bit < 64 && (word << 6) + bit < widths.length; bit++) {
+                    if ((mask & (1L << bit)) != 0) skip += widths[(word << 6) + bit];
+                }
+            }
+            in.position(in.position() + skip);
+        }
+        return changed;
+    }
+
+    /**
+     * Rebuild the row major layout of the day
+     * @param base the row major layout of the base day
+     * @param widths the width of each present column, in row order
+     */
+    public byte[] apply(byte[] base, int[] widths) {
+        int headerLength = header.length;
+        if (base.length < headerLength || !Arrays.equals(base, 0, headerLength - 4, header, 0, headerLength - 4)) {
+            throw new IllegalStateException("The columns of the base day do not match the delta");
+        }
+        int bytesPerRow = 0;
+        for (int width : widths) bytesPerRow += width;
+        int baseRows = (base.length - headerLength) / bytesPerRow;
+        Int2IntOpenHashMap baseRowByKey = indexKeys(base, headerLength, bytesPerRow, baseRows);
+
+        ByteBuffer in = ByteBuffer.wrap(payload, keysOffset, payload.length - keysOffset);
+        int[] keys = readKeys(in, numRows);
+        byte[] result = new byte[headerLength + numRows * bytesPerRow];
+        System.arraycopy(header, 0, result, 0, headerLength);
+        for (int row = 0; row < numRows; row++) {
+            int baseRow = baseRowByKey.get(keys[row]);
+            if (baseRow != -1) {
+                System.arraycopy(base, headerLength + baseRow * bytesPerRow, result, headerLength + row * bytesPerRow, bytesPerRow);
+            }
+        }
+        int numRemoved = in.getInt();
+        in.position(in.position() + numRemoved * 4);
+
+        int words = (widths.length + 63) >>> 6;
+        int numChanged = in.getInt();
+        for (int i = 0; i < numChanged; i++) {
+            int rowOffset = headerLength + in.getInt() * bytesPerRow;
+            int columnOffset = 0;
+            for (int word = 0; word < words; word++) {
+                long mask = in.getLong();
+                for (int bit = 0; bit < 64 && (word << 6) + bit < widths.length; bit++) {
+                    int width = widths[(word << 6) + bit];
+                    if ((mask & (1L << bit)) != 0) {
+                        in.get(result, rowOffset + columnOffset, width);
+                    }
+                    columnOffset += width;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Encode a day as the changes from the base day
+     * @param baseDay the day of `base`
+     * @param base the row major layout of the base day
+     * @param target the row major layout of the day to encode
+     * @param headerLength the length of the header, see {@link link.locutus.discord.apiv3.csv.header.DataHeader#readIndexes(byte[])}
+     * @param widths the width of each present column, in row order
+     * @return the file bytes, or null if the days cannot be stored as a delta (the columns differ, or the keys are not unique)
+     */
+    public static byte[] encode(long baseDay, byte[] base, byte[] target, int headerLength, int[] widths) throws IOException {
+        FastByteArrayOutputStream baos = new FastByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(baos)) {
+            if (!diff(base, target, headerLength, widths, dos, null)) return null;
+        }
+        byte[] compressed = ArrayUtil.compressLZ4(baos.array, baos.length);
+        ByteBuffer out = ByteBuffer.allocate(4 + 1 + 8 + compressed.length);
+        out.putInt(MAGIC);
+        out.put(VERSION);
+        out.putLong(baseDay);
+        out.put(compressed);
+        return out.array();
+    }
+
+    /**
+     * @return the keys of the rows added, changed or removed between the two days, or null if the columns differ or the keys are not unique
+     */
+    public static IntSet changedKeys(byte[] base, byte[] target, int headerLength, int[] widths) throws IOException {
+        IntSet changed = new IntOpenHashSet();
+        if (!diff(base, target, headerLength, widths, null, changed)) return null;
+        return changed;
+    }
+
+    private static boolean diff(byte[] base, byte[] target, int headerLength, int[] widths, DataOutputStream out, IntSet changedKeys) throws IOException {
+        if (widths.length == 0 || widths[0] != 4) return false;
+        if (base.length < headerLength || !Arrays.equals(base, 0, headerLength - 4, target, 0, headerLength - 4)) return false;
+        int bytesPerRow = 0;
+        for (int width : widths) bytesPerRow += width;
+        int baseRows = (base.length - headerLength) / bytesPerRow;
+        int targetRows = (target.length - headerLength) / bytesPerRow;
+        Int2IntOpenHashMap baseRowByKey = indexKeys(base, headerLength, bytesPerRow, baseRows);
+        Int2IntOpenHashMap targetRowByKey = indexKeys(target, headerLength, bytesPerRow, targetRows);
+        if (baseRowByKey == null || targetRowByKey == null) return false;
+
+        if (out != null) {
+            out.writeInt(headerLength);
+            out.write(target, 0, headerLength);
+            out.writeInt(targetRows);
+            int previous = 0;
+            for (int row = 0; row < targetRows; row++) {
+                int key = readKey(target, headerLength + row * bytesPerRow);
+                out.writeInt(key - previous);
+                previous = key;
+            }
+        }
+
+        int numRemoved = 0;
+        for (Int2IntOpenHashMap.Entry entry : baseRowByKey.int2IntEntrySet()) {
+            if (!targetRowByKey.containsKey(entry.getIntKey())) numRemoved++;
+        }
+        if (out != null) out.writeInt(numRemoved);
+        for (Int2IntOpenHashMap.Entry entry : baseRowByKey.int2IntEntrySet()) {
+            if (!targetRowByKey.containsKey(entry.getIntKey())) {
+                if (out != null) out.writeInt(entry.getIntKey());
+                if (changedKeys != null) changedKeys.add(entry.getIntKey());
+            }
+        }
+
+        int words = (widths.length + 63) >>> 6;
+        long[] masks = new long[words];
+        FastByteArrayOutputStream changes = out == null ? null : new FastByteArrayOutputStream();
+        int numChanged = 0;
+        try (DataOutputStream changesOut = changes == null ? null : new DataOutputStream(changes)) {
+            for (int row = 0; row < targetRows; row++) {
+                int targetOffset = headerLength + row * bytesPerRow;
+                int baseRow = baseRowByKey.get(readKey(target, targetOffset));
+                int baseOffset = baseRow == -1 ? -1 : headerLength + baseRow * bytesPerRow;
+                if (baseOffset != -1 && Arrays.equals(base, baseOffset, baseOffset + bytesPerRow, target, targetOffset, targetOffset + bytesPerRow)) {
+                    continue;
+                }
+                numChanged++;
+                if (changedKeys != null) changedKeys.add(readKey(target, targetOffset));
+                if (changesOut == null) continue;
+                Arrays.fill(masks, 0);
+                int columnOffset = 0;
+                for (int column = 0; column < widths.length; column++) {
+                    int width = widths[column];
+                    if (baseOffset == -1 || !Arrays.equals(base, baseOffset + columnOffset, baseOffset + columnOffset + width,
+                            target, targetOffset + columnOffset, targetOffset + columnOffset + width)) {
+                        masks[column >>> 6] |= 1L << (column & 63);
+                    }
+                    columnOffset += width;
+                }
+                changesOut.writeInt(row);
+                for (long mask : masks) changesOut.writeLong(mask);
+                columnOffset = 0;
+                for (int column = 0; column < widths.length; column++) {
+                    int width = widths[column];
+                    if ((masks[column >>> 6] & (1L << (column & 63))) != 0) {
+                        changesOut.write(target, targetOffset + columnOffset, width);
+                    }
+                    columnOffset += width;
+                }
+            }
+        }
+        if (out != null) {
+            out.writeInt(numChanged);
+            out.write(changes.array, 0, changes.length);
+        }
+        return true;
+    }
+
+    /**
+     * @return the key of every row, the value of the first column
+     */
+    public static IntSet getKeys(byte[] rowMajor, int headerLength, int[] widths) {
+        int bytesPerRow = 0;
+        for (int width : widths) bytesPerRow += width;
+        IntSet keys = new IntOpenHashSet();
+        if (widths.length == 0 || widths[0] != 4) return keys;
+        for (int offset = headerLength; offset + bytesPerRow <= rowMajor.length; offset += bytesPerRow) {
+            keys.add(readKey(rowMajor, offset));
+        }
+        return keys;
+    }
+
+    private static int readKey(byte[] data, int offset) {
+        return (data[offset] << 24) | ((data[offset + 1] & 0xFF) << 16) | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    }
+
+    private static int[] readKeys(ByteBuffer in, int numRows) {
+        int[] keys = new int[numRows];
+        int previous = 0;
+        for (int row = 0; row < numRows; row++) {
+            previous += in.getInt();
+            keys[row] = previous;
+        }
+        return keys;
+    }
+
+    /**
+     * @return the row of each key, or null if a key is repeated
+     */
+    private static Int2IntOpenHashMap indexKeys(byte[] data, int headerLength, int bytesPerRow, int numRows) {
+        Int2IntOpenHashMap rowByKey = new Int2IntOpenHashMap(numRows);
+        rowByKey.defaultReturnValue(-1);
+        for (int row = 0; row < numRows; row++) {
+            if (rowByKey.put(readKey(data, headerLength + row * bytesPerRow), row) != -1) return null;
+        }
+        return rowByKey;
+    }
+}
@@ -52,7 +52,10 @@ public class Dictionary {
 
     public String get(int value) {
         if (value == -1) return "";
-        return this.compressed.get(value);
+        // put may be resizing the map from another conversion
+        synchronized (this) {
+            return this.compressed.get(value);
+        }
     }
 
     public synchronized int put(String value) {
@@ -28,7 +28,7 @@ public class NationHeaderReader extends DataReader<NationHeader> {
     }
 
     public DBNationSnapshot getNation(boolean allowVm, boolean allowDeleted) {
-        int nationId = header.nation_id.get();
+        int nationId = header.nation_id.getInt();
         if (cached != null) {
             if (cached.getId() == nationId) {
                 if (!allowVm && (nationLoaded & ALLOW_VM) != 0 && cached.getVm_turns() > 0) return null;
@@ -44,7 +44,7 @@ public class NationHeaderReader extends DataReader<NationHeader> {
     }
 
     public DBNationSnapshot getNation(Predicate<Integer> allowedNationIds, Predicate<Integer> allowedAllianceIds, boolean allowVm, boolean allowNoVmCol, boolean allowDeleted) {
-        int nationId = header.nation_id.get();
+        int nationId = header.nation_id.getInt();
         if (cached != null) {
             if (cached.getId() == nationId) {
                 if (!allowVm && (nationLoaded & ALLOW_VM) != 0 && cached.getVm_turns() > 0) return null;
@@ -74,7 +74,7 @@ public class NationHeaderReader extends DataReader<NationHeader> {
             }
             vm_turns = 0;
         }
-        int aaId = header.alliance_id.get();
+        int aaId = header.alliance_id.getInt();
         if (!allowedAllianceIds.test(aaId)) return null;
         if (!allowDeleted) {
             DBNation existing = DBNation.getById(nationId);
@@ -2087,6 +2087,15 @@ public class AdminCommands {
         return response.toString();
     }
 
+    @NoFormat
+    @Command(desc = "Show how a nation selection is resolved\n" +
+            "The source the nations are read from, and the order the filters are applied in")
+    @Ephemeral
+    @RolePermission(value = Roles.ADMIN, root = true)
+    public String explainNationSelection(NationPlaceholders placeholders, ValueStore store, String nations) {
+        return placeholders.explainSet(store, nations);
+    }
+
     @Command(desc = "Print the usage stats the api for your alliance to console")
     @Ephemeral
     @RolePermission(value = Roles.ADMIN, root = true)
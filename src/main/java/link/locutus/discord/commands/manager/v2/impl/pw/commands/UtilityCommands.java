@@ -4,6 +4,7 @@ import com.google.common.base.Predicates;
 import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
 import link.locutus.discord.Locutus;
@@ -2506,7 +2507,7 @@ public class UtilityCommands {
             minNationAge = Math.min(minNationAge, nation.getDate());
         }
         minNationAge = Math.max(minNationAge, timeframe);
-        Set<Integer> nationIds = new IntOpenHashSet(nations.stream().map(DBNation::getNation_id).collect(Collectors.toSet()));
+        IntSet nationIds = new IntOpenHashSet(nations.stream().map(DBNation::getNation_id).collect(Collectors.toSet()));
 
         DataDumpParser parser = Locutus.imp().getDataDumper(true).load();
         List<Long> validDays = parser.getDays(true, false);
@@ -2518,11 +2519,10 @@ public class UtilityCommands {
         Map<Integer, Long> lastStreak = new Int2ObjectOpenHashMap<>();
         Map<Integer, Integer> countMap = new Int2ObjectOpenHashMap<>();
 
-        parser.iterateAll(f -> f >= finalMinDay, (h, r) -> r.required(h.nation_id).optional(h.vm_turns).required(h.color), null, new BiConsumer<Long, NationHeaderReader>() {
+        parser.iterateAll(f -> f >= finalMinDay, (h, r) -> r.whereIn(h.nation_id, nationIds).optional(h.vm_turns).required(h.color), null, new BiConsumer<Long, NationHeaderReader>() {
             @Override
             public void accept(Long day, NationHeaderReader r) {
-                int nationId = r.header.nation_id.get();
-                if (!nationIds.contains(nationId)) return;
+                int nationId = r.header.nation_id.getInt();
 
                 NationColor color = r.header.color.get();
                 if (color != NationColor.GRAY) {
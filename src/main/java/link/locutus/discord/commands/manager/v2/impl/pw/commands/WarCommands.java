@@ -345,7 +345,7 @@ public class WarCommands {
         double minLoot = Double.NEGATIVE_INFINITY;
         if (numResults == null) numResults = 5;
         if (beigeTurns == null) beigeTurns = -1;
-        if (targets == null) targets = Locutus.imp().getNationDB().getAllNations();
+        if (targets == null) targets = Locutus.imp().getNationDB().getNationsInScoreRange(score * PW.WAR_RANGE_MIN_MODIFIER, score * PW.WAR_RANGE_MAX_MODIFIER, null);
 
         try {
             String result = cmd.onCommand2(channel, user, db, me, targets, weakground, dms, vmTurns, defensiveSlots, beigeTurns != null && beigeTurns > 0, !ignoreDNR, ignoreAlliances, includeAlliances, active, minutesInactive, score, minLoot, beigeTurns, ignoreBankLoot, ignoreCityRevenue, numResults);
@@ -1317,7 +1317,7 @@ public class WarCommands {
     public void findTreasureNations(@Me DBNation me, @Me GuildDB guildDB, @Me IMessageIO channel, @Arg("Only list enemies with less ground than you") @Switch("r") boolean onlyWeaker, @Arg("Ignore the do not raid settings for this server") @Switch("d") boolean ignoreDNR, @Switch("n") @Default("5") Integer numResults) {
 
         StringBuilder response = new StringBuilder("**Results for " + me.getNation() + "**:\n");
-        Set<DBNation> nations = Locutus.imp().getNationDB().getNationsMatching(f -> f.isInWarRange(me));
+        Set<DBNation> nations = Locutus.imp().getNationDB().getNationsInScoreRange(me.getScore() / 1.25, me.getScore() / 0.75, f -> f.isInWarRange(me));
         Function<DBNation, Boolean> canRaid = guildDB.getCanRaid();
         int count = 0;
 
@@ -1368,7 +1368,7 @@ public class WarCommands {
                                   @Switch("n") @Default("5") Integer numResults) {
 
         StringBuilder response = new StringBuilder("**Results for " + me.getNation() + "**:\n");
-        Set<DBNation> nations = Locutus.imp().getNationDB().getNationsMatching(f -> f.isInWarRange(me));
+        Set<DBNation> nations = Locutus.imp().getNationDB().getNationsInScoreRange(me.getScore() / 1.25, me.getScore() / 0.75, f -> f.isInWarRange(me));
         Function<DBNation, Boolean> canRaid = guildDB.getCanRaid();
         int count = 0;
 
@@ -25,8 +25,10 @@ import link.locutus.discord.commands.manager.v2.perm.PermissionHandler;
 import link.locutus.discord.config.Settings;
 import link.locutus.discord.db.GuildDB;
 import link.locutus.discord.db.INationSnapshot;
+import link.locutus.discord.db.NationDB;
 import link.locutus.discord.db.entities.DBNation;
 import link.locutus.discord.db.entities.SheetTemplate;
+import link.locutus.discord.db.entities.nation.NationTable;
 import link.locutus.discord.pnw.PNWUser;
 import link.locutus.discord.user.Roles;
 import link.locutus.discord.util.MathMan;
@@ -288,6 +290,8 @@ public class NationPlaceholders extends Placeholders<DBNation, NationModifier> {
 
     public Set<DBNation> parseSet(ValueStore store2, String input, INationSnapshot snapshot, boolean allowDeleted) {
         input = wrapHashLegacy(store2, input);
+        NationQueryPlan plan = createPlan(store2, input, snapshot, allowDeleted);
+        if (plan != null) return plan.execute();
         return ArrayUtil.resolveQuery(input,
                 f -> {
             long start = System.currentTimeMillis();
@@ -309,6 +313,32 @@ public class NationPlaceholders extends Placeholders<DBNation, NationModifier> {
                 });
     }
 
+    private NationQueryPlan createPlan(ValueStore store2, String input, INationSnapshot snapshot, boolean allowDeleted) {
+        if (!(snapshot instanceof NationDB db)) return null;
+        return NationQueryPlan.create(input, db,
+                f -> parseSingleElem(store2, f, snapshot, allowDeleted),
+                s -> getSingleFilter(store2, s));
+    }
+
+    /**
+     * @return how the selection would be resolved against the live nations, see {@link NationQueryPlan#explain()}
+     */
+    public String explainSet(ValueStore store2, String input) {
+        input = wrapHashLegacy(store2, input);
+        NationQueryPlan plan = createPlan(store2, input, Locutus.imp().getNationDB(), false);
+        if (plan == null) {
+            return "Input: `" + input + "`\nNot planned (requires elements and filters separated by commas). Every filter is tested against the selected nations in the order given";
+        }
+        return plan.explain();
+    }
+
+    @Override
+    protected Predicate<DBNation> getSingleFilter(ValueStore store, String input) {
+        NationTable.Filter filter = NationTable.Filter.parse(input);
+        if (filter != null) return filter;
+        return super.getSingleFilter(store, input);
+    }
+
     @Override
     public Set<DBNation> parseSingleElem(ValueStore store, String name) {
         return parseSingleElem(store, name, Locutus.imp().getNationDB(), true);
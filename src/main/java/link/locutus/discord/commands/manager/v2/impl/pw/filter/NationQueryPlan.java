@@ -0,0 +1,252 @@
+package link.locutus.discord.commands.manager.v2.impl.pw.filter;
+
+import it.unimi.dsi.fastutil.objects.ObjectLinkedOpenHashSet;
+import link.locutus.discord.apiv1.enums.NationColor;
+import link.locutus.discord.commands.manager.v2.binding.bindings.MathOperation;
+import link.locutus.discord.db.NationDB;
+import link.locutus.discord.db.entities.DBNation;
+import link.locutus.discord.db.entities.nation.NationTable;
+import link.locutus.discord.util.MathMan;
+import link.locutus.discord.util.StringMan;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A plan for a nation selection of elements and filters separated by commas, e.g. `AA:Rose,#cities>20,#position>1`,
+ * which selects the elements, and keeps the nations matching every filter.<br>
+ * When an element is `*`, the nations are instead read from the most selective index of the {@link NationDB} (a nation id, alliance, score range or color),
+ * or from a scan of the {@link NationTable} columns, see {@link #create(String, NationDB, Function, Function)}.
+ * The remaining filters are ordered by their cost and pass rate on a sample of the nations, so cheap and selective filters run first.<br>
+ * Selections with `|`, `^` or brackets are not planned
+ */
+public class NationQueryPlan {
+    private static final Pattern COLOR = Pattern.compile("\\{color}\\s*=\\s*([a-zA-Z]+)");
+    private static final int SAMPLE_SIZE = 32;
+    // the cost of comparing a column of every nation, relative to calling a filter once per nation
+    private static final double COLUMN_SCAN_COST = 1 / 16d;
+
+    private record Source(String description, String filter, int estimate, Supplier<Collection<DBNation>> nations) {
+    }
+
+    private static class Step {
+        private final String filter;
+        private final Predicate<DBNation> predicate;
+        private double passRate = Double.NaN;
+        private double nanos = Double.NaN;
+
+        private Step(String filter, Predicate<DBNation> predicate) {
+            this.filter = filter;
+            this.predicate = predicate;
+        }
+
+        private double rank() {
+            if (Double.isNaN(passRate)) return 0;
+            return passRate >= 1 ? Double.POSITIVE_INFINITY : nanos / (1 - passRate);
+        }
+    }
+
+    private final String input;
+    private final String source;
+    private final Collection<DBNation> nations;
+    private final List<Step> steps;
+
+    private NationQueryPlan(String input, String source, Collection<DBNation> nations, List<Step> steps) {
+        this.input = input;
+        this.source = source;
+        this.nations = nations;
+        this.steps = steps;
+    }
+
+    /**
+     * Resolve the nations the selection is driven from, and order the filters
+     * @param parseElem resolve an element, e.g. `AA:Rose`
+     * @param parseFilter resolve a filter, e.g. `{cities}>20`
+     * @return the plan, or null if the selection is not of elements and filters separated by commas
+     */
+    public static NationQueryPlan create(String input, NationDB db, Function<String, Set<DBNation>> parseElem, Function<String, Predicate<DBNation>> parseFilter) {
+        if (input.indexOf('|') != -1 || input.indexOf('^') != -1) return null;
+        List<String> elements = new ArrayList<>();
+        List<String> filters = new ArrayList<>();
+        for (String token : StringMan.split(input, ',')) {
+            String trimmed = token.trim();
+            if (trimmed.isEmpty() || trimmed.charAt(0) == '(') return null;
+            if (trimmed.charAt(0) == '#') {
+                filters.add(trimmed.substring(1));
+            } else if (trimmed.contains("{")) {
+                filters.add(trimmed);
+            } else {
+                elements.add(trimmed);
+            }
+        }
+        // a selection without elements is empty
+        if (elements.isEmpty()) return null;
+
+        List<String> remaining = new ArrayList<>(filters);
+        String sourceInfo;
+        Collection<DBNation> nations;
+        if (elements.contains("*")) {
+            NationTable table = db.getNationTable();
+            Source best = null;
+            for (String filter : filters) {
+                Source index = getIndex(db, table, filter);
+                if (index != null && (best == null || index.estimate < best.estimate)) best = index;
+            }
+            List<String> columnFilters = new ArrayList<>();
+            List<NationTable.Filter> parsed = new ArrayList<>();
+            for (String filter : filters) {
+                NationTable.Filter columnFilter = NationTable.Filter.parse(filter);
+                if (columnFilter != null) {
+                    columnFilters.add(filter);
+                    parsed.add(columnFilter);
+                }
+            }
+            double scanCost = columnFilters.size() * table.size() * COLUMN_SCAN_COST;
+            double indexCost = best == null ? Double.POSITIVE_INFINITY : (double) best.estimate * Math.max(1, filters.size() - 1);
+            if (!parsed.isEmpty() && scanCost < indexCost) {
+                BitSet ids = null;
+                for (NationTable.Filter filter : parsed) {
+                    BitSet selected = filter.select(table);
+                    if (ids == null) ids = selected;
+                    else ids.and(selected);
+                }
+                nations = table.getNations(ids);
+                remaining.removeAll(columnFilters);
+                sourceInfo = "column scan of " + String.join(", ", columnFilters) + " over " + table.size() + " nations";
+            } else if (best != null) {
+                nations = best.nations.get();
+                remaining.remove(best.filter);
+                sourceInfo = best.description + " (estimated " + best.estimate + ")";
+            } else {
+                nations = db.getAllNations();
+                sourceInfo = "all nations";
+            }
+        } else {
+            nations = new ObjectLinkedOpenHashSet<>();
+            for (String element : elements) {
+                nations.addAll(parseElem.apply(element));
+            }
+            sourceInfo = "elements " + String.join(", ", elements);
+        }
+
+        List<Step> steps = new ArrayList<>(remaining.size());
+        for (String filter : remaining) {
+            steps.add(new Step(filter, parseFilter.apply(filter)));
+        }
+        if (steps.size() > 1 && nations.size() > SAMPLE_SIZE * 2) {
+            List<DBNation> sample = new ArrayList<>(SAMPLE_SIZE);
+            int every = nations.size() / SAMPLE_SIZE;
+            int i = 0;
+            for (DBNation nation : nations) {
+                if (i++ % every == 0 && sample.size() < SAMPLE_SIZE) sample.add(nation);
+            }
+            for (Step step : steps) {
+                int passed = 0;
+                long start = System.nanoTime();
+                for (DBNation nation : sample) {
+                    if (step.predicate.test(nation)) passed++;
+                }
+                step.nanos = (System.nanoTime() - start) / (double) sample.size();
+                step.passRate = passed / (double) sample.size();
+            }
+            // cheapest per nation removed first
+            steps.sort(Comparator.comparingDouble(Step::rank));
+        }
+        return new NationQueryPlan(input, sourceInfo, nations, steps);
+    }
+
+    /**
+     * @return the index of a filter which can be read directly, or null
+     */
+    private static Source getIndex(NationDB db, NationTable table, String filter) {
+        NationTable.Filter parsed = NationTable.Filter.parse(filter);
+        if (parsed != null) {
+            double value = parsed.getRange() == null ? Double.NaN : parsed.getRange()[0];
+            if (parsed.getOperation() == MathOperation.EQUAL && value == (int) value) {
+                int id = (int) value;
+                switch (parsed.getColumn()) {
+                    case NATION_ID -> {
+                        return new Source("nation id " + id, filter, 1, () -> {
+                            DBNation nation = db.getNationById(id);
+                            return nation == null ? List.of() : List.of(nation);
+                        });
+                    }
+                    case ALLIANCE_ID -> {
+                        if (id == 0) return null;
+                        Set<DBNation> nations = db.getNationsByAlliance(id);
+                        return new Source("alliance " + id, filter, nations.size(), () -> nations);
+                    }
+                }
+            }
+            if (parsed.getColumn() == NationTable.Column.SCORE) {
+                double[] range = parsed.getRange();
+                if (range == null) return null;
+                return new Source("score range " + MathMan.format(range[0]) + " to " + MathMan.format(range[1]), filter,
+                        table.countInScoreRange(range[0], range[1]),
+                        () -> table.getInScoreRange(range[0], range[1], null));
+            }
+            return null;
+        }
+        Matcher matcher = COLOR.matcher(filter.trim());
+        if (matcher.matches()) {
+            NationColor color;
+            try {
+                color = NationColor.valueOf(matcher.group(1).toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+            BitSet ids = table.select(NationTable.Column.COLOR, MathOperation.EQUAL, color.ordinal());
+            return new Source("color " + color.name().toLowerCase(Locale.ROOT), filter, ids.cardinality(), () -> table.getNations(ids));
+        }
+        return null;
+    }
+
+    /**
+     * @return the nations from the source matching every filter
+     */
+    public Set<DBNation> execute() {
+        Set<DBNation> result = new ObjectLinkedOpenHashSet<>();
+        outer:
+        for (DBNation nation : nations) {
+            for (Step step : steps) {
+                if (!step.predicate.test(nation)) continue outer;
+            }
+            result.add(nation);
+        }
+        return result;
+    }
+
+    /**
+     * @return the source of the nations, and the filters in the order they are applied
+     */
+    public String explain() {
+        StringBuilder response = new StringBuilder();
+        response.append("Input: `").append(input).append("`\n");
+        response.append("Source: ").append(source).append(" | ").append(nations.size()).append(" nations\n");
+        for (int i = 0; i < steps.size(); i++) {
+            Step step = steps.get(i);
+            response.append(i + 1).append(". `").append(step.filter).append("`");
+            if (!Double.isNaN(step.passRate)) {
+                response.append(" | pass: ").append(MathMan.format(step.passRate * 100)).append("%")
+                        .append(" | ").append(MathMan.format(step.nanos)).append("ns/nation");
+            }
+            response.append("\n");
+        }
+        return response.toString();
+    }
+
+    @Override
+    public String toString() {
+        return explain();
+    }
+}
@@ -202,7 +202,8 @@ public class RaidCommand extends Command {
 
         if (beigeTurns > 0) vm = Math.max(vm, beigeTurns);
 
-        Set<DBNation> allNations = new ObjectLinkedOpenHashSet<>(Locutus.imp().getNationDB().getAllNations());
+        // nations out of range are removed by getNations
+        Set<DBNation> allNations = Locutus.imp().getNationDB().getNationsInScoreRange(score * PW.WAR_RANGE_MIN_MODIFIER, score * PW.WAR_RANGE_MAX_MODIFIER, null);
         Set<DBNation> nations;
 
         switch (args.size()) {
@@ -210,6 +210,13 @@ public class Settings extends Config {
         @Comment({"If attacks for completed wars are loaded into memory", "Ignored if load-active-attacks is disabled"})
         public boolean LOAD_ACTIVE_ATTACKS = true;
 
+        @Comment({"Memory (MB) for caching attacks of completed wars read from the database", "Only used if load-inactive-attacks is disabled (0 = no cache)"})
+        public int INACTIVE_ATTACK_CACHE_MB = 256;
+
+        @Comment({"Store attacks in an append only log of compressed blocks (in the `attacks` folder next to the war database)",
+                "instead of the attacks3 table. Existing attacks are copied over on startup, and copied back if this is disabled again"})
+        public boolean USE_ATTACK_LOG = false;
+
         @Comment({
                 "Unload wars after days (-1 = load all wars)",
                 "Minimum = 120 turns (10 days)"
@@ -657,6 +664,13 @@ public class Settings extends Config {
             public boolean USE = true;
             @Comment("The directory to store the database in")
             public String DIRECTORY = "database";
+            @Comment({"How often queued nation and city rows are written to the database (ms)",
+                    "Repeated changes to a nation or city before then are written once. Set to 0 to write immediately"})
+            public long WRITE_BEHIND_INTERVAL_MS = 5000;
+            @Comment("Write the queued rows sooner once this many are waiting")
+            public int WRITE_BEHIND_BATCH_SIZE = 5000;
+            @Comment("Saving waits while this many rows are queued")
+            public int WRITE_BEHIND_MAX_PENDING = 100000;
         }
 
         public static class SYNC {
@@ -685,6 +699,25 @@ public class Settings extends Config {
 
             @Comment({"Allow decompressing each file fully in memory instead of streaming"})
             public boolean DECOMPRESS_FULLY = false;
+
+            @Comment({"Decompress each day once into an uncompressed `.raw` file next to it, and memory map it for reading",
+                    "Uses more disk space, but avoids decompressing a day again whenever memory is low, and lets many readers scan a day at once"})
+            public boolean MEMORY_MAP_CACHE = false;
+
+            @Comment({"Store each day as the changes from the previous day, with a full day every this many days (0 to store every day in full)",
+                    "Consecutive days are mostly identical, so this uses far less disk space. Days are rebuilt from the previous day when read"})
+            public int DELTA_KEYFRAME_INTERVAL = 0;
+
+            @Comment({"Where missing days are downloaded from: an http url or a local directory, containing a `nations` and `cities` folder of zip files",
+                    "Leave empty to download from the game"})
+            public String SOURCE = "";
+
+            @Comment("How many dump files are downloaded at once")
+            public int DOWNLOAD_THREADS = 4;
+
+            @Comment({"How often (in minutes) new days are downloaded and converted in the background (0 = only when a command needs them)",
+                    "Commands otherwise have to wait for the download of any day missing when they are run"})
+            public int SYNC_INTERVAL_MINUTES = 60;
         }
 
 
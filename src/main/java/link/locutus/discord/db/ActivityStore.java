@@ -0,0 +1,437 @@
+package link.locutus.discord.db;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import link.locutus.discord.Logg;
+import link.locutus.discord.util.IOUtil;
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.jpountz.lz4.LZ4BlockOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+import java.util.function.LongConsumer;
+
+/**
+ * The turns each nation was active, as a compressed bitmap per nation over turn numbers.
+ * Turns are split into segments of {@link #SEGMENT_TURNS} turns (about 341 days), each segment holds a container per nation,
+ * which is a sorted array of turns while sparse, and a bitmap once it has more than {@link #MAX_ARRAY} turns.
+ * <p>
+ * Each segment is saved to its own LZ4 compressed file in the directory, and is loaded on first use.
+ * Added turns are appended to a journal, which is replayed on open and cleared once the modified segments are saved, see {@link #save()}.
+ * Thread safe
+ */
+public class ActivityStore {
+    public static final int SEGMENT_BITS = 12;
+    public static final int SEGMENT_TURNS = 1 << SEGMENT_BITS;
+    private static final int MAX_ARRAY = SEGMENT_TURNS / 16;
+    private static final int VERSION = 1;
+
+    @FunctionalInterface
+    public interface TurnConsumer {
+        void accept(int nationId, long turn);
+    }
+
+    /**
+     * The turns of one nation in one segment, as offsets from the start of the segment
+     */
+    private static final class Container {
+        private char[] array = new char[4];
+        private int size;
+        private long[] bits;
+
+        private boolean add(int offset) {
+            if (bits != null) {
+                long mask = 1L << offset;
+                if ((bits[offset >>> 6] & mask) != 0) return false;
+                bits[offset >>> 6] |= mask;
+                size++;
+                return true;
+            }
+            int index = Arrays.binarySearch(array, 0, size, (char) offset);
+            if (index >= 0) return false;
+            index = -index - 1;
+            if (size == MAX_ARRAY) {
+                toBitmap();
+                return add(offset);
+            }
+            if (size == array.length) array = Arrays.copyOf(array, Math.min(MAX_ARRAY, size * 2));
+            System.arraycopy(array, index, array, index + 1, size - index);
+            array[index] = (char) offset;
+            size++;
+            return true;
+        }
+
+        private void toBitmap() {
+            bits = new long[SEGMENT_TURNS / 64];
+            for (int i = 0; i < size; i++) {
+                bits[array[i] >>> 6] |= 1L << array[i];
+            }
+            array = null;
+        }
+
+        private boolean contains(int offset) {
+            if (bits != null) return (bits[offset >>> 6] & (1L << offset)) != 0;
+            return Arrays.binarySearch(array, 0, size, (char) offset) >= 0;
+        }
+
+        /**
+         * Visit the offsets from `from` to `to` (inclusive), in order
+         */
+        private void forEach(int from, int to, long base, LongConsumer consumer) {
+            if (bits != null) {
+                for (int word = from >>> 6; word <= to >>> 6; word++) {
+                    long value = bits[word];
+                    while (value != 0) {
+                        int offset = (word << 6) + Long.numberOfTrailingZeros(value);
+                        if (offset > to) return;
+                        if (offset >= from) consumer.accept(base + offset);
+                        value &= value - 1;
+                    }
+                }
+                return;
+            }
+            int index = Arrays.binarySearch(array, 0, size, (char) from);
+            if (index < 0) index = -index - 1;
+            for (; index < size && array[index] <= to; index++) {
+                consumer.accept(base + array[index]);
+            }
+        }
+
+        /**
+         * @return the last offset at or before `to`, or -1
+         */
+        private int last(int to) {
+            if (bits != null) {
+                for (int word = to >>> 6; word >= 0; word--) {
+                    long value = bits[word];
+                    if (word == to >>> 6 && (to & 63) != 63) value &= (1L << ((to & 63) + 1)) - 1;
+                    if (value != 0) return (word << 6) + 63 - Long.numberOfLeadingZeros(value);
+                }
+                return -1;
+            }
+            int index = Arrays.binarySearch(array, 0, size, (char) to);
+            if (index >= 0) return to;
+            index = -index - 2;
+            return index >= 0 ? array[index] : -1;
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            if (bits != null) {
+                out.writeByte(1);
+                for (long word : bits) out.writeLong(word);
+            } else {
+                out.writeByte(0);
+                IOUtil.writeVarInt(out, size);
+                int previous = 0;
+                for (int i = 0; i < size; i++) {
+                    IOUtil.writeVarInt(out, array[i] - previous);
+                    previous = array[i];
+                }
+            }
+        }
+
+        private static Container read(DataInputStream in) throws IOException {
+            Container container = new Container();
+            if (in.readByte() == 1) {
+                container.array = null;
+                container.bits = new long[SEGMENT_TURNS / 64];
+                for (int i = 0; i < container.bits.length; i++) {
+                    container.bits[i] = in.readLong();
+                    container.size += Long.bitCount(container.bits[i]);
+                }
+            } else {
+                int size = IOUtil.readVarInt(in);
+                container.array = new char[Math.max(4, size)];
+                int value = 0;
+                for (int i = 0; i < size; i++) {
+                    value += IOUtil.readVarInt(in);
+                    container.array[i] = (char) value;
+                }
+                container.size = size;
+            }
+            return container;
+        }
+    }
+
+    private static final class Segment {
+        private final Int2ObjectOpenHashMap<Container> byNation = new Int2ObjectOpenHashMap<>();
+        private boolean dirty;
+    }
+
+    private final File directory;
+    private final File journalFile;
+    private final Int2ObjectOpenHashMap<Segment> segments = new Int2ObjectOpenHashMap<>();
+    // segments saved in the directory, but not yet loaded
+    private final IntOpenHashSet unloaded = new IntOpenHashSet();
+    private DataOutputStream journal;
+
+    public ActivityStore(File directory) throws IOException {
+        this.directory = directory;
+        this.journalFile = new File(directory, "journal.bin");
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+        File[] files = directory.listFiles((dir, name) -> name.startsWith("segment-") && name.endsWith(".bin"));
+        if (files != null) {
+            for (File file : files) {
+                unloaded.add(Integer.parseInt(file.getName().substring("segment-".length(), file.getName().length() - ".bin".length())));
+            }
+        }
+        int replayed = replayJournal();
+        if (replayed > 0) Logg.text("Replayed " + replayed + " activity turns from the journal");
+        this.journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, true)));
+    }
+
+    /**
+     * @return if the store has no turns, e.g. before it is imported from the legacy table
+     */
+    public synchronized boolean isEmpty() {
+        return segments.isEmpty() && unloaded.isEmpty();
+    }
+
+    private int replayJournal() throws IOException {
+        if (!journalFile.exists()) return 0;
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(new FastBufferedInputStream(new FileInputStream(journalFile)))) {
+            while (true) {
+                int nationId;
+                int turn;
+                try {
+                    nationId = in.readInt();
+                    turn = in.readInt();
+                } catch (EOFException ignore) {
+                    // a partial record from an interrupted write
+                    break;
+                }
+                if (addUnlogged(nationId, turn)) count++;
+            }
+        }
+        return count;
+    }
+
+    private Segment getSegment(int key, boolean create) {
+        Segment segment = segments.get(key);
+        if (segment == null && unloaded.remove(key)) {
+            segment = loadSegment(key);
+            segments.put(key, segment);
+        }
+        if (segment == null && create) {
+            segments.put(key, segment = new Segment());
+        }
+        return segment;
+    }
+
+    private File getSegmentFile(int key) {
+        return new File(directory, "segment-" + key + ".bin");
+    }
+
+    private Segment loadSegment(int key) {
+        Segment segment = new Segment();
+        try (FastBufferedInputStream fbis = new FastBufferedInputStream(new FileInputStream(getSegmentFile(key)))) {
+            DataInputStream header = new DataInputStream(fbis);
+            int version = header.readInt();
+            if (version != VERSION) throw new IOException("Unsupported activity segment version: " + version);
+            try (DataInputStream in = new DataInputStream(new LZ4BlockInputStream(fbis))) {
+                int numNations = IOUtil.readVarInt(in);
+                segment.byNation.ensureCapacity(numNations);
+                for (int i = 0; i < numNations; i++) {
+                    int nationId = IOUtil.readVarInt(in);
+                    segment.byNation.put(nationId, Container.read(in));
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to load activity segment " + key, e);
+        }
+        return segment;
+    }
+
+    private boolean addUnlogged(int nationId, long turn) {
+        if (turn < 0 || turn > Integer.MAX_VALUE) throw new IllegalArgumentException("Invalid turn: " + turn);
+        Segment segment = getSegment((int) (turn >>> SEGMENT_BITS), true);
+        Container container = segment.byNation.get(nationId);
+        if (container == null) segment.byNation.put(nationId, container = new Container());
+        if (!container.add((int) (turn & (SEGMENT_TURNS - 1)))) return false;
+        segment.dirty = true;
+        return true;
+    }
+
+    /**
+     * Mark the nation as active on the turn, the turn is written to the journal if it was not already set.
+     * The journal is buffered, see {@link #flushJournal()}
+     * @return if the turn was not already set
+     */
+    public synchronized boolean add(int nationId, long turn) {
+        if (!addUnlogged(nationId, turn)) return false;
+        try {
+            journal.writeInt(nationId);
+            journal.writeInt((int) turn);
+        } catch (IOException e) {
+            Logg.text("Failed to write activity journal: " + e);
+        }
+        return true;
+    }
+
+    /**
+     * Write the buffered journal entries to disk, a truncated tail is ignored when the journal is replayed
+     */
+    public synchronized void flushJournal() {
+        try {
+            journal.flush();
+        } catch (IOException e) {
+            Logg.text("Failed to flush activity journal: " + e);
+        }
+    }
+
+    /**
+     * Add turns without writing each to the journal, e.g. for a bulk import, followed by {@link #save()}
+     */
+    public synchronized void addAll(int[] nationIds, long[] turns, int length) {
+        for (int i = 0; i < length; i++) {
+            addUnlogged(nationIds[i], turns[i]);
+        }
+    }
+
+    public synchronized boolean contains(int nationId, long turn) {
+        if (turn < 0 || turn > Integer.MAX_VALUE) return false;
+        Segment segment = getSegment((int) (turn >>> SEGMENT_BITS), false);
+        if (segment == null) return false;
+        Container container = segment.byNation.get(nationId);
+        return container != null && container.contains((int) (turn & (SEGMENT_TURNS - 1)));
+    }
+
+    /**
+     * Visit the turns the nation was active from minTurn to maxTurn (inclusive), in order
+     */
+    public synchronized void forEach(int nationId, long minTurn, long maxTurn, LongConsumer consumer) {
+        minTurn = Math.max(0, minTurn);
+        maxTurn = Math.min(Integer.MAX_VALUE, maxTurn);
+        if (minTurn > maxTurn) return;
+        int lastKey = (int) (maxTurn >>> SEGMENT_BITS);
+        for (int key = (int) (minTurn >>> SEGMENT_BITS); key <= lastKey; key++) {
+            Segment segment = getSegment(key, false);
+            if (segment == null) continue;
+            Container container = segment.byNation.get(nationId);
+            if (container == null) continue;
+            long base = (long) key << SEGMENT_BITS;
+            int from = (int) Math.max(0, minTurn - base);
+            int to = (int) Math.min(SEGMENT_TURNS - 1, maxTurn - base);
+            container.forEach(from, to, base, consumer);
+        }
+    }
+
+    /**
+     * @return the turns the nation was active from minTurn to maxTurn (inclusive), in order
+     */
+    public LongArrayList getTurns(int nationId, long minTurn, long maxTurn) {
+        LongArrayList turns = new LongArrayList();
+        forEach(nationId, minTurn, maxTurn, turns::add);
+        return turns;
+    }
+
+    /**
+     * Visit the turns of every nation from minTurn to maxTurn (inclusive), in order of turn for each nation
+     * @param includeNation the nations to visit, or null for all
+     */
+    public synchronized void forEach(long minTurn, long maxTurn, IntPredicate includeNation, TurnConsumer consumer) {
+        minTurn = Math.max(0, minTurn);
+        maxTurn = Math.min(Integer.MAX_VALUE, maxTurn);
+        if (minTurn > maxTurn) return;
+        int lastKey = (int) (maxTurn >>> SEGMENT_BITS);
+        for (int key = (int) (minTurn >>> SEGMENT_BITS); key <= lastKey; key++) {
+            Segment segment = getSegment(key, false);
+            if (segment == null) continue;
+            long base = (long) key << SEGMENT_BITS;
+            int from = (int) Math.max(0, minTurn - base);
+            int to = (int) Math.min(SEGMENT_TURNS - 1, maxTurn - base);
+            for (Int2ObjectOpenHashMap.Entry<Container> entry : segment.byNation.int2ObjectEntrySet()) {
+                int nationId = entry.getIntKey();
+                if (includeNation != null && !includeNation.test(nationId)) continue;
+                entry.getValue().forEach(from, to, base, turn -> consumer.accept(nationId, turn));
+            }
+        }
+    }
+
+    /**
+     * @return the nations active on the turn
+     */
+    public synchronized IntSet getNations(long turn) {
+        IntSet result = new IntOpenHashSet();
+        forEach(turn, turn, null, (nationId, t) -> result.add(nationId));
+        return result;
+    }
+
+    /**
+     * @return the last turn at or before maxTurn the nation was active, or 0 if none
+     */
+    public synchronized long getLastTurn(int nationId, long maxTurn) {
+        maxTurn = Math.min(Integer.MAX_VALUE, maxTurn);
+        if (maxTurn < 0) return 0;
+        for (int key = (int) (maxTurn >>> SEGMENT_BITS); key >= 0; key--) {
+            if (!segments.containsKey(key) && !unloaded.contains(key)) {
+                if (!hasSegmentBefore(key)) return 0;
+                continue;
+            }
+            Container container = getSegment(key, false).byNation.get(nationId);
+            if (container == null) continue;
+            long base = (long) key << SEGMENT_BITS;
+            int last = container.last((int) Math.min(SEGMENT_TURNS - 1, maxTurn - base));
+            if (last != -1) return base + last;
+        }
+        return 0;
+    }
+
+    private boolean hasSegmentBefore(int key) {
+        for (int other : segments.keySet()) if (other < key) return true;
+        for (int other : unloaded) if (other < key) return true;
+        return false;
+    }
+
+    /**
+     * Save the modified segments, and clear the journal
+     */
+    public synchronized void save() throws IOException {
+        int saved = 0;
+        for (Int2ObjectOpenHashMap.Entry<Segment> entry : segments.int2ObjectEntrySet()) {
+            Segment segment = entry.getValue();
+            if (!segment.dirty) continue;
+            saveSegment(entry.getIntKey(), segment);
+            segment.dirty = false;
+            saved++;
+        }
+        if (saved > 0 || journalFile.length() > 0) {
+            journal.close();
+            journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, false)));
+        }
+    }
+
+    private void saveSegment(int key, Segment segment) throws IOException {
+        File file = getSegmentFile(key);
+        File tmp = new File(directory, file.getName() + ".tmp");
+        try (BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(tmp), Character.MAX_VALUE)) {
+            DataOutputStream header = new DataOutputStream(bos);
+            header.writeInt(VERSION);
+            header.flush();
+            try (DataOutputStream out = new DataOutputStream(new LZ4BlockOutputStream(bos))) {
+                IOUtil.writeVarInt(out, segment.byNation.size());
+                for (Int2ObjectOpenHashMap.Entry<Container> entry : segment.byNation.int2ObjectEntrySet()) {
+                    IOUtil.writeVarInt(out, entry.getIntKey());
+                    entry.getValue().write(out);
+                }
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -39,8 +39,10 @@ import link.locutus.discord.db.entities.*;
 import link.locutus.discord.db.entities.Treaty;
 import link.locutus.discord.db.entities.city.SimpleDBCity;
 import link.locutus.discord.db.entities.metric.AllianceMetric;
+import link.locutus.discord.db.entities.metric.AllianceMetricValue;
 import link.locutus.discord.db.entities.metric.OrbisMetric;
 import link.locutus.discord.db.entities.nation.DBNationData;
+import link.locutus.discord.db.entities.nation.NationTable;
 import link.locutus.discord.db.entities.nation.SimpleDBNation;
 import link.locutus.discord.db.handlers.SyncableDatabase;
 import link.locutus.discord.event.Event;
@@ -67,6 +69,7 @@ import link.locutus.discord.util.scheduler.ThrowingConsumer;
 import link.locutus.discord.util.scheduler.ThrowingTriConsumer;
 import org.apache.commons.lang3.tuple.Triple;
 
+import java.io.File;
 import java.io.IOException;
 import java.sql.*;
 import java.text.ParseException;
@@ -87,6 +90,11 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 public class NationDB extends DBMainV2 implements SyncableDatabase, INationSnapshot {
     private final Map<Integer, DBNation> nationsById = new Int2ObjectOpenHashMap<>();
+    private final NationTable nationTable = new NationTable();
+    private final WriteBehindQueue<DBNation> nationQueue = new WriteBehindQueue<>("NATIONS2", DBNation::getNation_id, this::writeNations,
+            Settings.INSTANCE.DATABASE.SQLITE.WRITE_BEHIND_INTERVAL_MS, Settings.INSTANCE.DATABASE.SQLITE.WRITE_BEHIND_BATCH_SIZE, Settings.INSTANCE.DATABASE.SQLITE.WRITE_BEHIND_MAX_PENDING);
+    private final WriteBehindQueue<DBCity> cityQueue = new WriteBehindQueue<>("CITY_BUILDS", DBCity::getId, this::writeCities,
+            Settings.INSTANCE.DATABASE.SQLITE.WRITE_BEHIND_INTERVAL_MS, Settings.INSTANCE.DATABASE.SQLITE.WRITE_BEHIND_BATCH_SIZE, Settings.INSTANCE.DATABASE.SQLITE.WRITE_BEHIND_MAX_PENDING);
     private final Map<Integer, Map<Integer, DBNation>> nationsByAlliance = new Int2ObjectOpenHashMap<>();
     private final Map<Integer, DBAlliance> alliancesById = new Int2ObjectOpenHashMap<>();
     private final Int2ObjectOpenHashMap<Object> citiesByNation = new Int2ObjectOpenHashMap<>();
@@ -114,6 +122,13 @@ public class NationDB extends DBMainV2 implements SyncableDatabase, INationSnaps
         }
     }
 
+    /**
+     * The numeric fields of {@link #getAllNations()} by column, for filtering every nation at once
+     */
+    public NationTable getNationTable() {
+        return nationTable;
+    }
+
     public ReportManager getReportManager() {
         return reportManager;
     }
@@ -256,6 +271,7 @@ public class NationDB extends DBMainV2 implements SyncableDatabase, INationSnaps
                     int amt = Math.max(0, nation.getUnits(entry.getKey()) - entry.getValue());
                     DBNation copyOriginal = eventConsumer == null ? null : nation.copy();
                     nation.setUnits(entry.getKey(), amt);
+                    nationTable.markDirty(nationId);
                     if (eventConsumer != null) eventConsumer.accept(new NationChangeUnitEvent(copyOriginal, nation, entry.getKey(), true));
                     return true;
                 }
@@ -272,6 +288,7 @@ public class NationDB extends DBMainV2 implements SyncableDatabase, INationSnaps
                 DBNation previous = eventConsumer == null ? null : nation.copy();
                 long previousLastActive = nation.lastActiveMs();
                 nation.setLastActive(active);
+                nationTable.markDirty(nationId);
 
                 // only call a new event if it's > 1 minute difference
                 if (previousLastActive < active - TimeUnit.MINUTES.toMillis(1)) {
@@ -347,7 +364,7 @@ public class NationDB extends DBMainV2 implements SyncableDatabase, INationSnaps
                 nation.setDc_turn(turn);
             }
         }
-        int[] updates = saveNations(nationsToSave);
+        int[] updates = writeNations(nationsToSave);
         int numUpdates = Arrays.stream(updates).sum();
 
         if (!nationsToSave.isEmpty() && numUpdates > 0) {
@@ -1544,6 +1561,7 @@ public class NationDB extends DBMainV2 implements SyncableDatabase, INationSnaps
     }
 
     private void deleteCitiesInDB(Collection<Integer> ids) {
+        cityQueue.removeAll(ids);
         if (ids.size() == 1) {
             int id = ids.iterator().next();
             executeStmt("DELETE FROM CITY_BUILDS WHERE id = " + id);
@@ -1802,6 +1820,7 @@ public class NationDB extends DBMainV2 implements SyncableDatabase, INationSnaps
             while (rs.next()) {
                 DBNation nation = createNation(rs);
                 nationsById.put(nation.getNation_id(), nation);
+                nationTable.put(nation);
                 if (nation.getAlliance_id() != 0) {
                     nationsByAlliance.computeIfAbsent(nation.getAlliance_id(),
                             f -> new Int2ObjectOpenHashMap<>()).put(nation.getNation_id(), nation);
@@ -1934,6 +1953,7 @@ public class NationDB extends DBMainV2 implements SyncableDatabase, INationSnaps
 
                     synchronized (nationsById) {
                         nationsById.put(existing.getNation_id(), existing);
+                        nationTable.put(existing);
                         if (existing.getAlliance_id() != 0) {
                             synchronized (nationsByAlliance) {
                                 DBNation prev = nationsByAlliance.computeIfAbsent(existing.getAlliance_id(), f -> new Int2ObjectOpenHashMap<>())
@@ -1956,6 +1976,7 @@ public class NationDB extends DBMainV2 implements SyncableDatabase, INationSnaps
                     int oldPosition = existing.getPosition();
                     long oldVm = existing.getLeaving_vm();
                     if (existing.updateNationInfo(nation, eventConsumer)) {
+                        nationTable.markDirty(existing.getNation_id());
                         if (oldAAId != existing.getAlliance_id()) {
                             processNationAllianceChange(oldAAId, existing);
                         }
@@ -2343,6 +2364,7 @@ public class NationDB extends DBMainV2 implements SyncableDatabase, INationSnaps
         }
         DBNation newNation = updateNationInfo(existing, nation, eventHandler, isDirty);
         if (isDirty.get()) {
+            nationTable.markDirty(newNation.getNation_id());
             nationsToSave.accept(existing, newNation);
         }
         if (existing == null && eventConsumer != null) {
@@ -2366,6 +2388,7 @@ public class NationDB extends DBMainV2 implements SyncableDatabase, INationSnaps
             synchronized (nationsById) {
                 nationsById.put(current.getNation_id(), current);
             }
+            nationTable.put(current);
             if (current.getAlliance_id() != 0) {
                 synchronized (nationsByAlliance) {
                     nationsByAlliance.computeIfAbsent(current.getAlliance_id(),
@@ -3260,6 +3283,14 @@ public class NationDB extends DBMainV2 implements SyncableDatabase, INationSnaps
         return null;
     }
 
+    /**
+     * @param filter a test of each nation in the range, or null
+     * @return the nations with a score in [minScore, maxScore] matching the filter, from the score index of the {@link #getNationTable()}
+     */
+    public Set<DBNation> getNationsInScoreRange(double minScore, double maxScore, Predicate<DBNation> filter) {
+        return new ObjectLinkedOpenHashSet<>(nationTable.getInScoreRange(minScore, maxScore, filter));
+    }
+
     public Set<DBNation> getNationsMatching(Predicate<DBNation> findIf) {
         Set<DBNation> result = new ObjectLinkedOpenHashSet<>();
         synchronized (nationsById) {
@@ -3752,6 +3783,24 @@ public class NationDB extends DBMainV2 implements SyncableDatabase, INationSnaps
         });
     }
 
+    /**
+     * Add many metric values in a single batch, see {@link #addAllianceMetric(DBAlliance, AllianceMetric, long, double, boolean)}
+     */
+    public void addAllianceMetrics(Collection<AllianceMetricValue> values, boolean ignore) {
+        List<AllianceMetricValue> finite = new ObjectArrayList<>(values.size());
+        for (AllianceMetricValue value : values) {
+            if (Double.isFinite(value.value)) finite.add(value);
+        }
+        if (finite.isEmpty()) return;
+        String query = "INSERT OR " + (ignore ? "IGNORE" : "REPLACE") + " INTO `ALLIANCE_METRICS`(`alliance_id`, `metric`, `turn`, `value`) VALUES(?, ?, ?, ?)";
+        executeBatch(finite, query, (ThrowingBiConsumer<AllianceMetricValue, PreparedStatement>) (value, stmt) -> {
+            stmt.setInt(1, value.alliance);
+            stmt.setInt(2, value.metric.ordinal());
+            stmt.setLong(3, value.turn);
+            stmt.setDouble(4, value.value);
+        });
+    }
+
     public Map<DBAlliance, Map<AllianceMetric, Map<Long, Double>>> getAllianceMetrics(Set<Integer> allianceIds, AllianceMetric metric, long turn) {
         if (allianceIds.isEmpty()) throw new IllegalArgumentException("No metrics provided");
         List<Integer> alliancesSorted = new ArrayList<>(allianceIds);
@@ -3922,32 +3971,71 @@ public class NationDB extends DBMainV2 implements SyncableDatabase, INationSnaps
         }
     }
 
-    private ConcurrentHashMap<Integer, Long> turnActivityCache = new ConcurrentHashMap<>();
+    private volatile ActivityStore activityStore;
 
-    public void setActivity(int nationId, long turn) {
-        if (turnActivityCache.computeIfAbsent(nationId, f -> 0L) >= turn) return; // already set (or newer
-        update("INSERT OR REPLACE INTO `ACTIVITY` (`nation`, `turn`) VALUES(?, ?)", (ThrowingConsumer<PreparedStatement>) stmt -> {
-            stmt.setInt(1, nationId);
-            stmt.setLong(2, turn);
-        });
+    /**
+     * The turns each nation was active, loaded on first use.
+     * The first time the store is opened, it is imported from the legacy `ACTIVITY` table, which is no longer written to
+     */
+    public ActivityStore getActivityStore() {
+        ActivityStore store = activityStore;
+        if (store != null) return store;
+        synchronized (this) {
+            if (activityStore == null) {
+                try {
+                    store = new ActivityStore(new File(Settings.INSTANCE.DATABASE.SQLITE.DIRECTORY, "activity"));
+                    if (store.isEmpty()) importLegacyActivity(store);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                activityStore = store;
+            }
+            return activityStore;
+        }
     }
 
-    public Set<Integer> getNationsActiveAtTurn(long turn) {
-        Set<Integer> result = new IntOpenHashSet();
-        try (PreparedStatement stmt = prepareQuery("SELECT nation FROM ACTIVITY WHERE turn = ?")) {
-            stmt.setLong(1, turn);
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    result.add(rs.getInt(1));
+    private void importLegacyActivity(ActivityStore store) throws IOException {
+        int batchSize = 1 << 16;
+        int[] nationIds = new int[batchSize];
+        long[] turns = new long[batchSize];
+        int[] count = {0, 0};
+        query("SELECT nation, turn FROM ACTIVITY", f -> {}, (ThrowingConsumer<ResultSet>) rs -> {
+            while (rs.next()) {
+                nationIds[count[0]] = rs.getInt(1);
+                turns[count[0]] = rs.getLong(2);
+                if (++count[0] == batchSize) {
+                    store.addAll(nationIds, turns, count[0]);
+                    count[1] += count[0];
+                    count[0] = 0;
                 }
             }
-            return result;
-        } catch (SQLException e) {
-            e.printStackTrace();
-            throw new RuntimeException(e);
+        });
+        store.addAll(nationIds, turns, count[0]);
+        count[1] += count[0];
+        if (count[1] > 0) {
+            store.save();
+            Logg.text("Imported " + count[1] + " activity turns from the ACTIVITY table");
         }
     }
 
+    /**
+     * Flush the activity journal and save the modified segments, if the store was opened, e.g. before shutting down
+     */
+    public void saveActivity() throws IOException {
+        ActivityStore store = activityStore;
+        if (store == null) return;
+        store.flushJournal();
+        store.save();
+    }
+
+    public void setActivity(int nationId, long turn) {
+        getActivityStore().add(nationId, turn);
+    }
+
+    public Set<Integer> getNationsActiveAtTurn(long turn) {
+        return getActivityStore().getNations(turn);
+    }
+
     public int[] saveLoot(List<LootEntry> entries, Consumer<Event> eventConsumer) {
         if (entries.isEmpty()) return new int[0];
         long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1);
@@ -4099,57 +4187,22 @@ public class NationDB extends DBMainV2 implements SyncableDatabase, INationSnaps
 
     public Map<Integer, Long> getLastActiveTurns(Set<Integer> nationIds, long turn) {
         if (nationIds.isEmpty()) return Collections.emptyMap();
-        if (nationIds.size() == 1) {
-            int nationId = nationIds.iterator().next();
-            return Map.of(nationId, getLastActiveTurn(nationId, turn));
-        }
-
-        String query = "SELECT * " +
-                "FROM Activity " +
-                "WHERE (nation, turn) IN (SELECT nation, MAX(turn) " +
-                "FROM Activity " +
-                "WHERE turn <= CURRENT_TURN " +
-                "AND nation in " + StringMan.getString(nationIds) + " " +
-                "GROUP BY nation)";
+        ActivityStore store = getActivityStore();
         Map<Integer, Long> result = new Int2LongOpenHashMap();
-        query(query, new ThrowingConsumer<PreparedStatement>() {
-            @Override
-            public void acceptThrows(PreparedStatement stmt) throws Exception {
-            }
-        }, new ThrowingConsumer<ResultSet>() {
-            @Override
-            public void acceptThrows(ResultSet rs) throws Exception {
-                while (rs.next()) {
-                    int nationId = rs.getInt("nation");
-                    long turn = rs.getLong("turn");
-                    result.put(nationId, turn);
-                }
-            }
-        });
+        for (int nationId : nationIds) {
+            long lastTurn = store.getLastTurn(nationId, turn);
+            if (lastTurn != 0) result.put(nationId, lastTurn);
+        }
         return result;
     }
 
     public long getLastActiveTurn(int nationId, long turn) {
-        try (PreparedStatement stmt = prepareQuery("SELECT * FROM Activity WHERE nation = ? AND turn <= ? ORDER BY turn DESC LIMIT 1")) {
-            stmt.setInt(1, nationId);
-            stmt.setLong(2, turn);
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getLong("turn");
-                }
-            }
-            return 0;
-        } catch (SQLException e) {
-            e.printStackTrace();
-            throw new RuntimeException(e);
-        }
+        return getActivityStore().getLastTurn(nationId, turn);
     }
 
     public Set<Long> getActivityByDay(int nationId, long minTurn) {
         Set<Long> result = new LongLinkedOpenHashSet();
-        for (long turn : getActivity(nationId, minTurn, Long.MAX_VALUE)) {
-            result.add(turn / 12);
-        }
+        getActivityStore().forEach(nationId, minTurn + 1, Long.MAX_VALUE, turn -> result.add(turn / 12));
         return result;
     }
 
@@ -4161,138 +4214,44 @@ public class NationDB extends DBMainV2 implements SyncableDatabase, INationSnaps
         // dates are inclusive
         long minTurn = TimeUtil.getTurn(minDate);
         long maxTurn = TimeUtil.getTurn(maxDate);
-        try (PreparedStatement stmt = prepareQuery("select nation, (`turn`/12) FROM ACTIVITY WHERE turn >= ? AND turn <= ?")) {
-            stmt.setLong(1, minTurn);
-            stmt.setLong(2, maxTurn);
-
-            Map<Integer, Set<Long>> result = new Int2ObjectOpenHashMap<>();
-            BiConsumer<Integer, Long> applyNation = includeNation == null ?
-                    (nation, day) -> result.computeIfAbsent(nation, f -> new LongOpenHashSet()).add(day) : (nation, day) -> {
-                if (includeNation.test(nation)) {
-                    result.computeIfAbsent(nation, f -> new LongOpenHashSet()).add(day);
-                }
-            };
-
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    int id = rs.getInt(1);
-                    long day = rs.getLong(2);
-                    applyNation.accept(id, day);
-                }
-            }
-            return result;
-        } catch (SQLException e) {
-            e.printStackTrace();
-            throw new RuntimeException(e);
-        }
+        Map<Integer, Set<Long>> result = new Int2ObjectOpenHashMap<>();
+        getActivityStore().forEach(minTurn, maxTurn, includeNation == null ? null : includeNation::test,
+                (nation, turn) -> result.computeIfAbsent(nation, f -> new LongOpenHashSet()).add(turn / 12));
+        return result;
     }
 
     public Map<Integer, Set<Long>> getActivityByTurn(long minTurn, long maxTurn, Predicate<Integer> includeNation) {
-        try (PreparedStatement stmt = prepareQuery("select nation, `turn` FROM ACTIVITY WHERE turn >= ? AND turn <= ?")) {
-            stmt.setLong(1, minTurn);
-            stmt.setLong(2, maxTurn);
-
-            Map<Integer, Set<Long>> result = new Int2ObjectOpenHashMap<>();
-            BiConsumer<Integer, Long> applyNation = includeNation == null ?
-                    (nation, turn) -> result.computeIfAbsent(nation, f -> new LongOpenHashSet()).add(turn) : (nation, turn) -> {
-                if (includeNation.test(nation)) {
-                    result.computeIfAbsent(nation, f -> new LongOpenHashSet()).add(turn);
-                }
-            };
-
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    int id = rs.getInt(1);
-                    long turn = rs.getLong(2);
-                    applyNation.accept(id, turn);
-                }
-            }
-            return result;
-        } catch (SQLException e) {
-            e.printStackTrace();
-            throw new RuntimeException(e);
-        }
+        Map<Integer, Set<Long>> result = new Int2ObjectOpenHashMap<>();
+        getActivityStore().forEach(minTurn, maxTurn, includeNation == null ? null : includeNation::test,
+                (nation, turn) -> result.computeIfAbsent(nation, f -> new LongOpenHashSet()).add(turn));
+        return result;
     }
 
     public Map<Long, Set<Integer>> getActivityByDay(long minDate, Set<Integer> nationIds) {
         if (nationIds == null || nationIds.isEmpty()) {
             return Collections.emptyMap();
         }
-        // If small enough, filter in SQL
-        if (nationIds.size() <= 1000) {
-            long minTurn = TimeUtil.getTurn(minDate);
-            List<Integer> sortedIds = new IntArrayList(nationIds);
-            Collections.sort(sortedIds);
-            String inClause = sortedIds.stream()
-                    .map(String::valueOf)
-                    .collect(Collectors.joining(",", "(", ")"));
-            String sql = "SELECT nation, (`turn`/12) FROM ACTIVITY WHERE turn > ? AND nation IN " + inClause;
-            try (PreparedStatement stmt = prepareQuery(sql)) {
-                stmt.setLong(1, minTurn);
-                Map<Long, Set<Integer>> result = new Long2ObjectOpenHashMap<>();
-                try (ResultSet rs = stmt.executeQuery()) {
-                    while (rs.next()) {
-                        int id = rs.getInt(1);
-                        long day = rs.getLong(2);
-                        result.computeIfAbsent(day, f -> new IntArraySet()).add(id);
-                    }
-                }
-                return result;
-            } catch (SQLException e) {
-                e.printStackTrace();
-                throw new RuntimeException(e);
-            }
+        long minTurn = TimeUtil.getTurn(minDate);
+        ActivityStore store = getActivityStore();
+        Map<Long, Set<Integer>> result = new Long2ObjectOpenHashMap<>();
+        for (int nationId : nationIds) {
+            store.forEach(nationId, minTurn + 1, Long.MAX_VALUE, turn -> result.computeIfAbsent(turn / 12, f -> new IntArraySet()).add(nationId));
         }
-        // Otherwise defer to predicate-based filtering
-        return getActivityByDay(minDate, nationIds::contains);
+        return result;
     }
 
     public Map<Long, Set<Integer>> getActivityByDay(long minDate, Predicate<Integer> allowNation) {
         long minTurn = TimeUtil.getTurn(minDate);
-        try (PreparedStatement stmt = prepareQuery("select nation, (`turn`/12) FROM ACTIVITY WHERE turn > ?")) {
-            stmt.setLong(1, minTurn);
-
-            Map<Long, Set<Integer>> result = new Long2ObjectOpenHashMap<>();
-
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    int id = rs.getInt(1);
-                    if (!allowNation.test(id)) continue;
-                    long day = rs.getLong(2);
-                    result.computeIfAbsent(day, f -> new IntArraySet()).add(id);
-                }
-            }
-            return result;
-        } catch (SQLException e) {
-            e.printStackTrace();
-            throw new RuntimeException(e);
-        }
+        Map<Long, Set<Integer>> result = new Long2ObjectOpenHashMap<>();
+        getActivityStore().forEach(minTurn + 1, Long.MAX_VALUE, allowNation::test,
+                (nation, turn) -> result.computeIfAbsent(turn / 12, f -> new IntArraySet()).add(nation));
+        return result;
     }
 
     public Set<Long> getActivity(int nationId, long minTurn, long maxTurn) {
-        String query = "SELECT * FROM ACTIVITY WHERE nation = ? AND turn > ?";
-        if (maxTurn != Long.MAX_VALUE) {
-            query += " AND turn <= ?";
-        }
-        query += " ORDER BY turn ASC";
-        try (PreparedStatement stmt = prepareQuery(query)) {
-            stmt.setInt(1, nationId);
-            stmt.setLong(2, minTurn);
-            if (maxTurn != Long.MAX_VALUE) stmt.setLong(3, maxTurn);
-
-            Set<Long> set = new LongLinkedOpenHashSet();
-
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    long turn = rs.getLong("turn");
-                    set.add(turn);
-                }
-            }
-            return set;
-        } catch (SQLException e) {
-            e.printStackTrace();
-            throw new RuntimeException(e);
-        }
+        Set<Long> set = new LongLinkedOpenHashSet();
+        getActivityStore().forEach(nationId, minTurn + 1, maxTurn, set::add);
+        return set;
     }
 
     public List<DBSpyUpdate> getSpyActivityByNation(int nationId) {
@@ -5143,7 +5102,14 @@ public class NationDB extends DBMainV2 implements SyncableDatabase, INationSnaps
         saveCities(allCities);
     }
 
+    /**
+     * Queue the cities to be written, see {@link WriteBehindQueue}
+     */
     public void saveCities(List<DBCity> cities) {
+        cityQueue.addAll(cities);
+    }
+
+    private void writeCities(List<DBCity> cities) {
         if (cities.isEmpty()) return;
         executeBatch(cities, "INSERT OR REPLACE INTO `CITY_BUILDS`(`id`, `nation`, `created`, `infra`, `land`, `powered`, `improvements`, `update_flag`, `nuke_date`) VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?)", new ThrowingBiConsumer<DBCity, PreparedStatement>() {
             @Override
@@ -5163,7 +5129,26 @@ public class NationDB extends DBMainV2 implements SyncableDatabase, INationSnaps
     }
 
     public void saveNation(DBNation nations) {
-        saveNations(Collections.singleton(nations));
+        nationTable.markDirty(nations.getNation_id());
+        nationQueue.add(nations);
+    }
+
+    /**
+     * Queue the nations to be written, see {@link WriteBehindQueue}
+     */
+    public void saveNations(Collection<DBNation> nations) {
+        for (DBNation nation : nations) {
+            nationTable.markDirty(nation.getNation_id());
+        }
+        nationQueue.addAll(nations);
+    }
+
+    /**
+     * Write the nations and cities still queued, e.g. before shutting down
+     */
+    public void flushWrites() {
+        nationQueue.close();
+        cityQueue.close();
     }
 
     public Map<Integer, Set<DBNation>> getWarSnapshots(Set<Integer> warIds) {
@@ -5236,7 +5221,7 @@ public class NationDB extends DBMainV2 implements SyncableDatabase, INationSnaps
         };
     }
 
-    public int[] saveNations(Collection<DBNation> nations) {
+    private int[] writeNations(Collection<DBNation> nations) {
         if (nations.isEmpty()) return new int[0];
         String query = "INSERT OR REPLACE INTO `NATIONS2`(nation_id,nation,leader,alliance_id,last_active,score,cities,domestic_policy,war_policy,soldiers,tanks,aircraft,ships,missiles,nukes,spies,entered_vm,leaving_vm,color,`date`,position,alliancePosition,continent,projects,cityTimer,projectTimer,beigeTimer,warPolicyTimer,domesticPolicyTimer,colorTimer,espionageFull,dc_turn,wars_won,wars_lost,tax_id,gdp,discord,city_refund,research) VALUES(?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
         ThrowingBiConsumer<DBNation, PreparedStatement> setNation = setNation();
@@ -5280,6 +5265,7 @@ public class NationDB extends DBMainV2 implements SyncableDatabase, INationSnaps
                 synchronized (nationsById) {
                     nationsById.remove(id);
                 }
+                nationTable.remove(id);
                 if (nation.getAlliance_id() != 0) {
                     synchronized (nationsByAlliance) {
                         nationsByAlliance.getOrDefault(nation.getAlliance_id(), Collections.EMPTY_MAP)
@@ -5296,6 +5282,7 @@ public class NationDB extends DBMainV2 implements SyncableDatabase, INationSnaps
         if (!citiesToDelete.isEmpty()) {
             deleteCitiesInDB(citiesToDelete);
         }
+        nationQueue.removeAll(ids);
         deleteNationsInDB(ids);
     }
 
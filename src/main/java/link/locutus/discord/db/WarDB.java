@@ -12,6 +12,8 @@ import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import it.unimi.dsi.fastutil.io.FastByteArrayOutputStream;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrays;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectLinkedOpenHashSet;
 import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
@@ -23,6 +25,7 @@ import link.locutus.discord.apiv1.domains.subdomains.WarAttacksContainer;
 import link.locutus.discord.apiv1.domains.subdomains.attack.DBAttack;
 import link.locutus.discord.apiv1.domains.subdomains.attack.v3.AbstractCursor;
 import link.locutus.discord.apiv1.domains.subdomains.attack.v3.AttackCursorFactory;
+import link.locutus.discord.apiv1.domains.subdomains.attack.v3.AttackLoader;
 import link.locutus.discord.apiv1.domains.subdomains.attack.v3.cursors.ALootCursor;
 import link.locutus.discord.apiv1.enums.*;
 import link.locutus.discord.apiv1.enums.AttackType;
@@ -35,7 +38,13 @@ import link.locutus.discord.db.conflict.ConflictManager;
 import link.locutus.discord.db.entities.*;
 import link.locutus.discord.db.entities.Treaty;
 import link.locutus.discord.db.handlers.ActiveWarHandler;
+import link.locutus.discord.db.handlers.AttackLog;
 import link.locutus.discord.db.handlers.AttackQuery;
+import link.locutus.discord.db.handlers.AttackTimeIndex;
+import link.locutus.discord.db.handlers.ColdAttackCache;
+import link.locutus.discord.db.handlers.PackedAttackStore;
+import link.locutus.discord.db.handlers.WarCostRollup;
+import link.locutus.discord.db.handlers.WarTimeIndex;
 import link.locutus.discord.event.Event;
 import link.locutus.discord.event.bounty.BountyCreateEvent;
 import link.locutus.discord.event.bounty.BountyRemoveEvent;
@@ -49,6 +58,7 @@ import link.locutus.discord.util.scheduler.KeyValue;
 import link.locutus.discord.util.scheduler.ThrowingBiConsumer;
 import link.locutus.discord.util.scheduler.ThrowingConsumer;
 import link.locutus.discord.util.scheduler.ThrowingFunction;
+import link.locutus.discord.util.scheduler.TriConsumer;
 import link.locutus.discord.util.update.WarUpdateProcessor;
 
 import java.io.File;
@@ -59,6 +69,8 @@ import java.text.ParseException;
 import java.util.*;
 import java.util.Date;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -76,8 +88,17 @@ public class WarDB extends DBMainV2 {
     private final Int2ObjectOpenHashMap<Object> warsByAllianceId = new Int2ObjectOpenHashMap<>();
     private final Int2ObjectOpenHashMap<Object> warsByNationId = new Int2ObjectOpenHashMap<>();
     private final Object warsByNationLock = new Object();
-    private final Int2ObjectOpenHashMap<List<byte[]>> attacksByWarId2 = new Int2ObjectOpenHashMap<>();
+    private final PackedAttackStore attacksByWarId2 = new PackedAttackStore();
+    // guarded by attacksByWarId2
+    private final AttackTimeIndex attackTimeIndex = new AttackTimeIndex();
+    private final WarTimeIndex warTimeIndex = new WarTimeIndex();
+    private static final int PARALLEL_WARS_PER_TASK = 256;
+    private final ForkJoinPool attackPool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    private final ThreadLocal<AttackCursorFactory> attackCursorFactoryByThread = ThreadLocal.withInitial(() -> new AttackCursorFactory(this));
     private ConflictManager conflictManager;
+    private final WarCostRollup warCostRollup = new WarCostRollup(this);
+    private final AttackLog attackLog;
+    private final ColdAttackCache coldAttackCache = new ColdAttackCache(Settings.INSTANCE.TASKS.LOAD_INACTIVE_ATTACKS ? 0 : Settings.INSTANCE.TASKS.INACTIVE_ATTACK_CACHE_MB * 1024L * 1024L);
     public WarDB() throws SQLException {
         this("war");
     }
@@ -88,6 +109,119 @@ public class WarDB extends DBMainV2 {
         executeStmt("CREATE TABLE IF NOT EXISTS war_metadata (key TEXT PRIMARY KEY, value TEXT)");
         update("INSERT OR REPLACE INTO war_metadata (key, value) VALUES (?, ?)",
                 "victory_attacks_reserialized", "true");
+        // created here rather than in createTables, which runs before field initialization
+        warCostRollup.createTables();
+        if (Settings.INSTANCE.TASKS.USE_ATTACK_LOG) {
+            try {
+                attackLog = new AttackLog(getAttackLogDirectory());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            coldAttackCache.setAttackLog(attackLog);
+        } else {
+            attackLog = null;
+        }
+    }
+
+    private File getAttackLogDirectory() {
+        return new File(getFile().getParentFile(), "attacks");
+    }
+
+    /**
+     * @return the attack log, or null if attacks are stored in the `attacks3` table
+     */
+    public AttackLog getAttackLog() {
+        return attackLog;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (attackLog != null) {
+            attackLog.close();
+        }
+        super.close();
+    }
+
+    /**
+     * Copy the attacks missing from whichever of `attacks3` and the attack log is in use, from the other
+     * Attacks are only copied by id, so re-saved attacks are not carried over
+     */
+    private void syncAttackLog() {
+        if (attackLog != null) {
+            int fromId = attackLog.getMaxAttackId();
+            Logg.text("Copying attacks after " + fromId + " from attacks3 to the attack log");
+            List<AttackEntry> batch = new ObjectArrayList<>();
+            long[] total = {0};
+            query("SELECT id, war_id, attacker_nation_id, defender_nation_id, date, data FROM `attacks3` WHERE `id` > ? ORDER BY `id` ASC",
+                    (ThrowingConsumer<PreparedStatement>) stmt -> stmt.setInt(1, fromId),
+                    (ThrowingConsumer<ResultSet>) rs -> {
+                        while (rs.next()) {
+                            batch.add(new AttackEntry(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getInt(4), rs.getLong(5), rs.getBytes(6)));
+                            if (batch.size() >= AttackLog.BLOCK_RECORDS * 16) {
+                                attackLog.append(batch);
+                                total[0] += batch.size();
+                                batch.clear();
+                            }
+                        }
+                    });
+            try {
+                attackLog.append(batch);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            total[0] += batch.size();
+            Logg.text("Copied " + total[0] + " attacks to " + attackLog);
+        } else {
+            File directory = getAttackLogDirectory();
+            if (!directory.exists()) return;
+            int maxId = select("SELECT MAX(id) FROM `attacks3`", stmt -> {},
+                    (ThrowingFunction<ResultSet, Integer>) rs -> rs.next() ? rs.getInt(1) : 0);
+            try (AttackLog log = new AttackLog(directory)) {
+                if (log.getMaxAttackId() <= maxId) return;
+                Logg.text("Copying attacks after " + maxId + " from the attack log to attacks3");
+                List<AttackEntry> batch = new ObjectArrayList<>();
+                log.forEach(maxId, 0, (attackId, warId, attackerId, defenderId, date, data, offset, length) -> {
+                    byte[] bytes = new byte[length];
+                    data.get(offset, bytes);
+                    batch.add(new AttackEntry(attackId, warId, attackerId, defenderId, date, bytes));
+                    if (batch.size() >= 10_000) {
+                        saveAttacksDb(batch);
+                        batch.clear();
+                    }
+                    return true;
+                });
+                saveAttacksDb(batch);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Visit the saved attacks with an id above the given id, in order of id, from `attacks3` or the attack log
+     * @param limit the max number of attacks to visit
+     */
+    public void iterateAttackData(int afterId, int limit, AttackLog.RecordVisitor visitor) {
+        if (attackLog != null) {
+            int[] count = {0};
+            try {
+                attackLog.forEach(afterId, 0, (attackId, warId, attackerId, defenderId, date, data, offset, length) ->
+                        visitor.accept(attackId, warId, attackerId, defenderId, date, data, offset, length) && ++count[0] < limit);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return;
+        }
+        query("SELECT id, war_id, attacker_nation_id, defender_nation_id, date, data FROM `attacks3` WHERE `id` > ? ORDER BY `id` ASC LIMIT " + limit,
+                (ThrowingConsumer<PreparedStatement>) stmt -> stmt.setInt(1, afterId),
+                (ThrowingConsumer<ResultSet>) rs -> {
+                    while (rs.next()) {
+                        byte[] data = rs.getBytes(6);
+                        if (!visitor.accept(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getInt(4), rs.getLong(5), ByteBuffer.wrap(data), 0, data.length)) {
+                            break;
+                        }
+                    }
+                });
     }
 
     public void convertAttackEndian() {
@@ -681,6 +815,7 @@ public class WarDB extends DBMainV2 {
         synchronized (warsById) {
             warsById.add(war);
         }
+        warTimeIndex.add(war);
     }
 
     private void setWars(List<DBWar> allWars, boolean clear, boolean sync) {
@@ -694,6 +829,7 @@ public class WarDB extends DBMainV2 {
             synchronized (warsByNationLock) {
                 warsByNationId.clear();
             }
+            warTimeIndex.clear();
         }
         Int2IntOpenHashMap numWarsByAlliance = new Int2IntOpenHashMap();
         Int2IntOpenHashMap numWarsByNation = new Int2IntOpenHashMap();
@@ -706,6 +842,7 @@ public class WarDB extends DBMainV2 {
         synchronized (warsById) {
             warsById.addAll(allWars);
         }
+        warTimeIndex.addAll(allWars);
         if (sync) {
             synchronized (warsByNationLock) {
                 for (DBWar war : allWars) {
@@ -793,6 +930,9 @@ public class WarDB extends DBMainV2 {
             if (!importLegacyAttacks()) {
                 reserializeAttacks5();
             }
+        }
+        syncAttackLog();
+        if (Settings.INSTANCE.TASKS.LOAD_ACTIVE_ATTACKS) {
             loadAttacks(Settings.INSTANCE.TASKS.LOAD_INACTIVE_ATTACKS, Settings.INSTANCE.TASKS.LOAD_ACTIVE_ATTACKS);
 
             if (Settings.INSTANCE.ENABLED_COMPONENTS.REPEATING_TASKS) {
@@ -841,6 +981,13 @@ public class WarDB extends DBMainV2 {
         if (conflictManager != null) {
             conflictManager.loadConflicts();
         }
+        Locutus.imp().getExecutor().submit(() -> {
+            try {
+                warCostRollup.backfill();
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        });
 
         return this;
     }
@@ -888,7 +1035,7 @@ public class WarDB extends DBMainV2 {
     }
 
     public void iterateAttacks(Collection<DBWar> wars, Predicate<AttackType> attackTypeFilter,  Predicate<AbstractCursor> preliminaryFilter, Predicate<AbstractCursor> attackFilter, BiConsumer<DBWar, AbstractCursor> forEachAttack) {
-        final BiFunction<DBWar, byte[], AbstractCursor> loader = createLoader(attackTypeFilter, preliminaryFilter);
+        final AttackLoader loader = createLoader(attackTypeFilter, preliminaryFilter);
         final BiConsumer<DBWar, AbstractCursor> attackAdder = attackFilter == null ? forEachAttack : (war, attack) -> {
             if (attackFilter.test(attack)) {
                 forEachAttack.accept(war, attack);
@@ -897,35 +1044,39 @@ public class WarDB extends DBMainV2 {
         iterateAttacks(wars, loader, attackAdder);
     }
 
-    public BiFunction<DBWar, byte[], AbstractCursor> createLoader(Predicate<AttackType> attackTypeFilter,  Predicate<AbstractCursor> preliminaryFilter) {
+    public AttackLoader createLoader(Predicate<AttackType> attackTypeFilter,  Predicate<AbstractCursor> preliminaryFilter) {
+        return createLoader(attackCursorFactory, attackTypeFilter, preliminaryFilter);
+    }
+
+    public AttackLoader createLoader(AttackCursorFactory attackCursorFactory, Predicate<AttackType> attackTypeFilter,  Predicate<AbstractCursor> preliminaryFilter) {
         if (attackTypeFilter != null) {
             if (preliminaryFilter != null) {
-                return (war, data) -> attackCursorFactory.loadWithTypePretest(war, data, true, attackTypeFilter, preliminaryFilter);
+                return (war, data, offset, length) -> attackCursorFactory.loadWithTypePretest(war, data, offset, length, true, attackTypeFilter, preliminaryFilter);
             } else {
-                return (war, data) -> attackCursorFactory.loadWithType(war, data, true, attackTypeFilter);
+                return (war, data, offset, length) -> attackCursorFactory.loadWithType(war, data, offset, length, true, attackTypeFilter);
             }
         } else if (preliminaryFilter != null) {
-            return (war, data) -> attackCursorFactory.loadWithPretest(war, data, true, preliminaryFilter);
+            return (war, data, offset, length) -> attackCursorFactory.loadWithPretest(war, data, offset, length, true, preliminaryFilter);
         } else {
-            return (war, data) -> attackCursorFactory.load(war, data, true);
+            return (war, data, offset, length) -> attackCursorFactory.load(war, data, offset, length, true);
         }
     }
 
     public void iterateAttacks(Iterable<DBWar> wars, Predicate<AttackType> attackTypeFilter,  Predicate<AbstractCursor> preliminaryFilter, BiConsumer<DBWar, AbstractCursor> forEachAttack) {
-        BiFunction<DBWar, byte[], AbstractCursor> loader = createLoader(attackTypeFilter, preliminaryFilter);
+        AttackLoader loader = createLoader(attackTypeFilter, preliminaryFilter);
         iterateAttacks(wars, loader, forEachAttack);
     }
 
     public void iterateWarAttacks(Iterable<DBWar> wars, Predicate<AttackType> attackTypeFilter,  Predicate<AbstractCursor> preliminaryFilter, BiConsumer<DBWar, AbstractCursor> forEachAttack) {
-        BiFunction<DBWar, byte[], AbstractCursor> loader = createLoader(attackTypeFilter, preliminaryFilter);
+        AttackLoader loader = createLoader(attackTypeFilter, preliminaryFilter);
         iterateWarAttacks(wars, loader, forEachAttack);
     }
 
-    public void iterateAttacks(Iterable<DBWar> wars, BiFunction<DBWar, byte[], AbstractCursor> loader, BiConsumer<DBWar, AbstractCursor> forEachAttack) {
+    public void iterateAttacks(Iterable<DBWar> wars, AttackLoader loader, BiConsumer<DBWar, AbstractCursor> forEachAttack) {
         if (forEachAttack != null) {
-            BiFunction<DBWar, byte[], AbstractCursor> parent = loader;
-            loader = (war, data) -> {
-                AbstractCursor cursor = parent.apply(war, data);
+            AttackLoader parent = loader;
+            loader = (war, data, offset, length) -> {
+                AbstractCursor cursor = parent.load(war, data, offset, length);
                 if (cursor != null) {
                     forEachAttack.accept(war, cursor);
                 }
@@ -935,11 +1086,11 @@ public class WarDB extends DBMainV2 {
         iterateAttacks(wars, loader);
     }
 
-    public void iterateWarAttacks(Iterable<DBWar> wars, BiFunction<DBWar, byte[], AbstractCursor> loader, BiConsumer<DBWar, AbstractCursor> forEachAttack) {
+    public void iterateWarAttacks(Iterable<DBWar> wars, AttackLoader loader, BiConsumer<DBWar, AbstractCursor> forEachAttack) {
         if (forEachAttack != null) {
-            BiFunction<DBWar, byte[], AbstractCursor> parent = loader;
-            loader = (war, data) -> {
-                AbstractCursor cursor = parent.apply(war, data);
+            AttackLoader parent = loader;
+            loader = (war, data, offset, length) -> {
+                AbstractCursor cursor = parent.load(war, data, offset, length);
                 if (cursor != null) {
                     forEachAttack.accept(war, cursor);
                 }
@@ -958,28 +1109,11 @@ public class WarDB extends DBMainV2 {
     }
 
     public void iterateAttackList(Iterable<DBWar> wars, Predicate<AttackType> attackTypeFilter, Predicate<AbstractCursor> preliminaryFilter, BiConsumer<DBWar, List<AbstractCursor>> onEachWar, boolean load) {
-        BiFunction<DBWar, byte[], AbstractCursor> loader = createLoader(attackTypeFilter, preliminaryFilter);
-
-        BiConsumer<DBWar, List<byte[]>> onEachWarAdapter;
-        if (attackTypeFilter != null || preliminaryFilter != null) {
-            onEachWarAdapter = (war, bytes) -> {
-                List<AbstractCursor> adapted = FluentIterable.from(bytes)
-                        .transform(input -> loader.apply(war, input))
-                        .filter(Objects::nonNull)
-                        .toList();
-                onEachWar.accept(war, adapted);
-            };
-        } else {
-            onEachWarAdapter = (war, bytes) -> {
-                List<AbstractCursor> adapted = Lists.transform(bytes, input -> loader.apply(war, input));
-                onEachWar.accept(war, adapted);
-            };
-        }
-
-        iterateAttackList(wars, onEachWarAdapter, load);
+        AttackLoader loader = createLoader(attackTypeFilter, preliminaryFilter);
+        iterateAttackList(wars, loader, onEachWar, load);
     }
 
-    public void iterateAttackList(Iterable<DBWar> wars, BiConsumer<DBWar, List<byte[]>> onEachWar, boolean load) {
+    private void iterateAttackList(Iterable<DBWar> wars, AttackLoader loader, BiConsumer<DBWar, List<AbstractCursor>> onEachWar, boolean load) {
         List<Integer> warIdsFetch = null;
         boolean fetchFromDB = !Settings.INSTANCE.TASKS.LOAD_INACTIVE_ATTACKS;
 
@@ -987,87 +1121,41 @@ public class WarDB extends DBMainV2 {
             long cutoffDate = TimeUtil.getTimeFromTurn(TimeUtil.getTurn() - 120);
             for (DBWar war : wars) {
                 int warId = war.getWarId();
-                List<byte[]> attacks = attacksByWarId2.get(warId);
+                int size = attacksByWarId2.size(warId);
 
-                if (attacks == null) {
+                if (size == -1) {
                     if (fetchFromDB && war.getDate() < cutoffDate) {
                         if (warIdsFetch == null) warIdsFetch = new IntArrayList();
                         warIdsFetch.add(warId);
                     }
                     continue;
                 }
-                if (attacks.isEmpty()) continue;
+                if (size == 0) continue;
+                List<AbstractCursor> attacks = new ObjectArrayList<>(size);
+                attacksByWarId2.forEach(warId, (data, offset, length) -> {
+                    AbstractCursor cursor = loader.load(war, data, offset, length);
+                    if (cursor != null) attacks.add(cursor);
+                });
                 onEachWar.accept(war, attacks);
             }
         }
         if (!load) return;
 
         if (warIdsFetch != null) {
-            ObjectArrayList<byte[]> attackList = new ObjectArrayList<>();
-            DBWar[] lastWar = {null};
-            Runnable runAndClear = () -> {
-                if (!attackList.isEmpty() && lastWar[0] != null) {
-                    onEachWar.accept(lastWar[0], attackList);
-                    attackList.clear();
-                }
-            };
-            BiConsumer<DBWar, byte[]> addAttack = (war, attack) -> {
-                if (war != lastWar[0]) {
-                    runAndClear.run();
-                    lastWar[0] = war;
-                }
-                attackList.add(attack);
-            };
-
-            String whereClause;
-            if (warIdsFetch.size() == 1) {
-                whereClause = " WHERE `war_id` = " + warIdsFetch.get(0);
-            } else if (warIdsFetch.size() > 100000) {
-                Set<Integer> warIdsSet = new ObjectOpenHashSet<>(warIdsFetch);
-                String query = "SELECT war_id, data FROM `attacks3` ORDER BY `war_id` ASC, `id` ASC;";
-                try (PreparedStatement stmt = prepareQuery(query)) {
-                    try (ResultSet rs = stmt.executeQuery()) {
-                        while (rs.next()) {
-                            int warId = rs.getInt(1);
-                            if (!warIdsSet.contains(warId)) continue;
-                            DBWar war = getWar(warId);
-                            if (war == null) {
-                                continue;
-                            }
-                            byte[] data = rs.getBytes(2);
-                            addAttack.accept(war, data);
-                        }
-                    }
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                }
-                runAndClear.run();
-                return;
-            } else {
-                Collections.sort(warIdsFetch);
-                whereClause = " WHERE `war_id` IN " + StringMan.getString(warIdsFetch);
-            }
-            String query = "SELECT war_id, data FROM `attacks3` " + whereClause + " ORDER BY `war_id` ASC, `id` ASC;";
-            try (PreparedStatement stmt = prepareQuery(query)) {
-                try (ResultSet rs = stmt.executeQuery()) {
-                    while (rs.next()) {
-                        int warId = rs.getInt(1);
-                        DBWar war = getWar(warId);
-                        if (war == null) {
-                            continue;
-                        }
-                        byte[] data = rs.getBytes(2);
-                        addAttack.accept(war, data);
-                    }
-                }
-            } catch (SQLException e) {
-                e.printStackTrace();
-            }
-            runAndClear.run();
+            coldAttackCache.iterate(this, warIdsFetch, (warId, records) -> {
+                DBWar war = getWar(warId);
+                if (war == null) return;
+                List<AbstractCursor> attacks = new ObjectArrayList<>();
+                ColdAttackCache.forEach(records, (data, offset, length) -> {
+                    AbstractCursor cursor = loader.load(war, data, offset, length);
+                    if (cursor != null) attacks.add(cursor);
+                });
+                onEachWar.accept(war, attacks);
+            });
         }
     }
 
-    public void iterateAttacks(Iterable<DBWar> wars, BiFunction<DBWar, byte[], AbstractCursor> loader) {
+    public void iterateAttacks(Iterable<DBWar> wars, AttackLoader loader) {
         List<Integer> warIdsFetch = null;
 
         boolean fetchFromDB = !Settings.INSTANCE.TASKS.LOAD_INACTIVE_ATTACKS;
@@ -1076,66 +1164,132 @@ public class WarDB extends DBMainV2 {
             long cutoffDate = TimeUtil.getTimeFromTurn(TimeUtil.getTurn() - 120);
             for (DBWar war : wars) {
                 int warId = war.getWarId();
-                List<byte[]> attacks = attacksByWarId2.get(warId);
+                boolean loaded = attacksByWarId2.forEach(warId, (data, offset, length) -> loader.load(war, data, offset, length));
 
-                if (attacks == null) {
+                if (!loaded) {
                     if (fetchFromDB && war.getDate() < cutoffDate) {
                         if (warIdsFetch == null) warIdsFetch = new ObjectArrayList<>();
                         warIdsFetch.add(warId);
                     }
-                    continue;
-                }
-                if (attacks.isEmpty()) continue;
-                for (byte[] data : attacks) {
-                    AbstractCursor cursor = loader.apply(war, data);
                 }
             }
         }
 
         if (warIdsFetch != null) {
-            String whereClause;
-            if (warIdsFetch.size() == 1) {
-                whereClause = " WHERE `war_id` = " + warIdsFetch.get(0);
-            } else if (warIdsFetch.size() > 100000) {
-                Set<Integer> warIdsSet = new ObjectOpenHashSet<>(warIdsFetch);
-                String query = "SELECT war_id, data FROM `attacks3` ORDER BY `id` ASC";
-                try (PreparedStatement stmt = prepareQuery(query)) {
-                    try (ResultSet rs = stmt.executeQuery()) {
-                        while (rs.next()) {
-                            int warId = rs.getInt(1);
-                            if (!warIdsSet.contains(warId)) continue;
-                            DBWar war = getWar(warId);
-                            if (war == null) {
-                                continue;
-                            }
-                            byte[] data = rs.getBytes(2);
-                            AbstractCursor cursor = loader.apply(war, data);
-                        }
-                    }
-                } catch (SQLException e) {
-                    e.printStackTrace();
+            // load each batch of wars in order of attack id, as the loader may rely on it, holding only one batch at a time
+            Collections.sort(warIdsFetch);
+            AttackCursorFactory factory = attackCursorFactoryByThread.get();
+            List<DBWar> recordWars = new ObjectArrayList<>();
+            List<ByteBuffer> recordData = new ObjectArrayList<>();
+            IntArrayList recordOffsets = new IntArrayList();
+            IntArrayList recordLengths = new IntArrayList();
+            LongArrayList order = new LongArrayList();
+            for (int start = 0; start < warIdsFetch.size(); start += ColdAttackCache.FETCH_BATCH) {
+                List<Integer> batch = warIdsFetch.subList(start, Math.min(warIdsFetch.size(), start + ColdAttackCache.FETCH_BATCH));
+                coldAttackCache.iterate(this, batch, (warId, records) -> {
+                    DBWar war = getWar(warId);
+                    if (war == null) return;
+                    ColdAttackCache.forEach(records, (data, offset, length) -> {
+                        order.add(((long) factory.getId(data, offset, length) << 32) | recordWars.size());
+                        recordWars.add(war);
+                        recordData.add(data);
+                        recordOffsets.add(offset);
+                        recordLengths.add(length);
+                    });
+                });
+                LongArrays.radixSort(order.elements(), 0, order.size());
+                for (int i = 0; i < order.size(); i++) {
+                    int index = (int) order.getLong(i);
+                    loader.load(recordWars.get(index), recordData.get(index), recordOffsets.getInt(index), recordLengths.getInt(index));
                 }
-                return;
-            } else {
-                Collections.sort(warIdsFetch);
-                whereClause = " WHERE `war_id` IN " + StringMan.getString(warIdsFetch);
+                recordWars.clear();
+                recordData.clear();
+                recordOffsets.clear();
+                recordLengths.clear();
+                order.clear();
             }
-            String query = "SELECT war_id, data FROM `attacks3` " + whereClause + " ORDER BY `id` ASC";
-            try (PreparedStatement stmt = prepareQuery(query)) {
-                try (ResultSet rs = stmt.executeQuery()) {
-                    while (rs.next()) {
-                        int warId = rs.getInt(1);
-                        DBWar war = getWar(warId);
-                        if (war == null) {
-                            continue;
-                        }
-                        byte[] data = rs.getBytes(2);
-                        AbstractCursor cursor = loader.apply(war, data);
-                    }
+        }
+    }
+
+    /**
+     * Decode the attacks of the wars on the attack pool, each task folding into its own result from {@code supplier}.
+     * Results are combined in the iteration order of {@code wars}, and attacks for wars not held in memory are read from
+     * the database on the calling thread and combined last.
+     * The accumulator may run concurrently for different results, so it must not touch shared state.
+     */
+    public <T> T iterateAttacksParallel(Collection<DBWar> wars, Predicate<AttackType> attackTypeFilter, Predicate<AbstractCursor> preliminaryFilter, Supplier<T> supplier, TriConsumer<T, DBWar, AbstractCursor> accumulator, BinaryOperator<T> combiner) {
+        List<DBWar> loaded = new ObjectArrayList<>(wars.size());
+        List<DBWar> notLoaded = new ObjectArrayList<>();
+        synchronized (attacksByWarId2) {
+            for (DBWar war : wars) {
+                (attacksByWarId2.containsWar(war.getWarId()) ? loaded : notLoaded).add(war);
+            }
+        }
+        AttackReduceTask<T> task = new AttackReduceTask<>(loaded, 0, loaded.size(), attackTypeFilter, preliminaryFilter, supplier, accumulator, combiner);
+        T result = loaded.size() <= PARALLEL_WARS_PER_TASK ? task.compute() : attackPool.invoke(task);
+        if (!notLoaded.isEmpty()) {
+            T fromDb = supplier.get();
+            iterateAttacks(notLoaded, createLoader(attackTypeFilter, preliminaryFilter), (war, attack) -> accumulator.accept(fromDb, war, attack));
+            result = combiner.apply(result, fromDb);
+        }
+        return result;
+    }
+
+    private class AttackReduceTask<T> extends RecursiveTask<T> {
+        private final List<DBWar> wars;
+        private final int from, to;
+        private final Predicate<AttackType> attackTypeFilter;
+        private final Predicate<AbstractCursor> preliminaryFilter;
+        private final Supplier<T> supplier;
+        private final TriConsumer<T, DBWar, AbstractCursor> accumulator;
+        private final BinaryOperator<T> combiner;
+
+        private AttackReduceTask(List<DBWar> wars, int from, int to, Predicate<AttackType> attackTypeFilter, Predicate<AbstractCursor> preliminaryFilter, Supplier<T> supplier, TriConsumer<T, DBWar, AbstractCursor> accumulator, BinaryOperator<T> combiner) {
+            this.wars = wars;
+            this.from = from;
+            this.to = to;
+            this.attackTypeFilter = attackTypeFilter;
+            this.preliminaryFilter = preliminaryFilter;
+            this.supplier = supplier;
+            this.accumulator = accumulator;
+            this.combiner = combiner;
+        }
+
+        @Override
+        protected T compute() {
+            if (to - from > PARALLEL_WARS_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                AttackReduceTask<T> left = new AttackReduceTask<>(wars, from, mid, attackTypeFilter, preliminaryFilter, supplier, accumulator, combiner);
+                AttackReduceTask<T> right = new AttackReduceTask<>(wars, mid, to, attackTypeFilter, preliminaryFilter, supplier, accumulator, combiner);
+                right.fork();
+                T leftResult = left.compute();
+                return combiner.apply(leftResult, right.join());
+            }
+            AttackCursorFactory factory = attackCursorFactoryByThread.get();
+            AttackLoader loader = createLoader(factory, attackTypeFilter, preliminaryFilter);
+            PackedAttackStore.WarSlice slice = new PackedAttackStore.WarSlice();
+            T result = supplier.get();
+            for (int i = from; i < to; i++) {
+                DBWar war = wars.get(i);
+                boolean copied;
+                synchronized (attacksByWarId2) {
+                    copied = attacksByWarId2.copyWar(war.getWarId(), slice);
+                }
+                if (copied) {
+                    slice.forEach((data, offset, length) -> {
+                        AbstractCursor cursor = loader.load(war, data, offset, length);
+                        if (cursor != null) accumulator.accept(result, war, cursor);
+                    });
+                } else {
+                    // unloaded after the wars were partitioned
+                    iterateAttacksByWarId(war, factory, true, (w, attack) -> {
+                        if (attackTypeFilter != null && !attackTypeFilter.test(attack.getAttack_type())) return;
+                        if (preliminaryFilter != null && !preliminaryFilter.test(attack)) return;
+                        accumulator.accept(result, w, attack);
+                    });
                 }
-            } catch (SQLException e) {
-                e.printStackTrace();
             }
+            return result;
         }
     }
 
@@ -1144,6 +1298,20 @@ public class WarDB extends DBMainV2 {
         List<Integer> idsSorted = new IntArrayList(ids);
         Collections.sort(idsSorted);
         Set<AbstractCursor> attacks = new ObjectOpenHashSet<>();
+        if (attackLog != null) {
+            try {
+                attackLog.readAttacks(idsSorted, (attackId, warId, attackerId, defenderId, date, data, offset, length) -> {
+                    DBWar war = getWar(warId);
+                    if (war != null) {
+                        attacks.add(attackCursorFactory.load(war, data, offset, length, true));
+                    }
+                    return true;
+                });
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return attacks;
+        }
         String query = "SELECT war_id, data FROM `attacks3` WHERE `id` ";
         if (ids.size() == 1) {
             query += " = " + idsSorted.get(0);
@@ -1177,29 +1345,20 @@ public class WarDB extends DBMainV2 {
     }
 
     public void iterateAttacksByWarId(DBWar war, AttackCursorFactory factory, boolean loadInactive, BiConsumer<DBWar, AbstractCursor> forEachAttack) {
-        List<byte[]> attacks = null;
-        Consumer<byte[]> adapter = data -> {
-            AbstractCursor cursor = factory.load(war, data, true);
-            forEachAttack.accept(war, cursor);
-        };
+        List<AbstractCursor> attacks = null;
         synchronized (attacksByWarId2) {
-            attacks = attacksByWarId2.get(war.warId);
+            int size = attacksByWarId2.size(war.warId);
+            if (size != -1) {
+                List<AbstractCursor> loaded = attacks = new ObjectArrayList<>(size);
+                attacksByWarId2.forEach(war.warId, (data, offset, length) -> loaded.add(factory.load(war, data, offset, length, true)));
+            }
         }
         if (loadInactive && attacks == null && !Settings.INSTANCE.TASKS.LOAD_INACTIVE_ATTACKS && !war.isActive()) {
-            String query = "SELECT data FROM `attacks3` WHERE `war_id` = " + war.warId;
-            try (PreparedStatement stmt = prepareQuery(query)) {
-                try (ResultSet rs = stmt.executeQuery()) {
-                    while (rs.next()) {
-                        byte[] attack = rs.getBytes(1);
-                        adapter.accept(attack);
-                    }
-                }
-            } catch (SQLException e) {
-                e.printStackTrace();
-            }
+            coldAttackCache.iterate(this, List.of(war.warId), (warId, records) -> ColdAttackCache.forEach(records,
+                    (data, offset, length) -> forEachAttack.accept(war, factory.load(war, data, offset, length, true))));
         } else if (attacks != null) {
-            for (byte[] attack : attacks) {
-                adapter.accept(attack);
+            for (AbstractCursor attack : attacks) {
+                forEachAttack.accept(war, attack);
             }
         }
     }
@@ -1294,6 +1453,10 @@ public class WarDB extends DBMainV2 {
     }
 
     public void iterateAttacks(Set<Integer> nationIds, long start, long end, BiConsumer<DBWar, AbstractCursor> forEachAttack) {
+        if (iterateIndexedAttacks(false, nationIds, start, end,
+                war -> nationIds.contains(war.getAttacker_id()) && nationIds.contains(war.getDefender_id()), forEachAttack)) {
+            return;
+        }
         Set<DBWar> allWars = new ObjectOpenHashSet<>();
         long startWithExpire = TimeUtil.getTimeFromTurn(TimeUtil.getTurn(start) - 60);
         synchronized (warsByNationLock) {
@@ -1316,6 +1479,9 @@ public class WarDB extends DBMainV2 {
     }
 
     public void iterateAttacksEither(Set<Integer> nationIds, long start, long end, BiConsumer<DBWar, AbstractCursor> forEachAttack) {
+        if (iterateIndexedAttacks(false, nationIds, start, end, war -> true, forEachAttack)) {
+            return;
+        }
         Set<DBWar> allWars = new ObjectLinkedOpenHashSet<>();
         long startWithExpire = TimeUtil.getTimeFromTurn(TimeUtil.getTurn(start) - 60);
         synchronized (warsByNationLock) {
@@ -1336,6 +1502,9 @@ public class WarDB extends DBMainV2 {
         iterateAttacksAny(nationIds, cuttoffMs, Long.MAX_VALUE, forEachAttack);
     }
     public void iterateAttacksAny(Set<Integer> nationIds, long start, long end, BiConsumer<DBWar, AbstractCursor> forEachAttack) {
+        if (iterateIndexedAttacks(false, nationIds, start, end, war -> true, forEachAttack)) {
+            return;
+        }
         Set<DBWar> allWars = new ObjectLinkedOpenHashSet<>();
         long startWithExpire = TimeUtil.getTimeFromTurn(TimeUtil.getTurn(start) - 60);
         synchronized (warsByNationLock) {
@@ -1352,6 +1521,72 @@ public class WarDB extends DBMainV2 {
         iterateAttacksByWars(allWars, start, end, forEachAttack);
     }
 
+    /**
+     * Iterate the attacks involving any of the alliances (at the time of the war) within the date range
+     */
+    public void iterateAttacksByAlliances(Set<Integer> allianceIds, long start, long end, BiConsumer<DBWar, AbstractCursor> forEachAttack) {
+        if (iterateIndexedAttacks(true, allianceIds, start, end, war -> true, forEachAttack)) {
+            return;
+        }
+        queryAttacks().withWarsForNationOrAlliance(null, allianceIds::contains, null).between(start, end).iterateAttacks(forEachAttack);
+    }
+
+    /**
+     * Whether every attack in [start, end] is held in memory and indexed by {@link #attackTimeIndex}
+     * The index only holds the last {@link AttackTimeIndex#WINDOW_TURNS} turns. Unless inactive attacks are loaded, only wars declared
+     * in the last 120 turns are loaded, and wars last 60 turns, so only attacks from the last 60 turns are all loaded
+     */
+    private boolean isAttackIndexCovering(long start) {
+        if (!Settings.INSTANCE.TASKS.LOAD_ACTIVE_ATTACKS) return false;
+        int turns = Settings.INSTANCE.TASKS.LOAD_INACTIVE_ATTACKS ? AttackTimeIndex.WINDOW_TURNS : 60;
+        return start >= TimeUtil.getTimeFromTurn(TimeUtil.getTurn() - turns);
+    }
+
+    /**
+     * Iterate only the attacks found in the time index, instead of every attack of every matching war
+     * Wars which have since been unloaded from memory are read from the database
+     * @return false if the index does not cover the range, and the caller should scan the wars instead
+     */
+    private boolean iterateIndexedAttacks(boolean byAlliance, Set<Integer> ids, long start, long end, Predicate<DBWar> warFilter, BiConsumer<DBWar, AbstractCursor> forEachAttack) {
+        if (!isAttackIndexCovering(start)) return false;
+        if (ids.isEmpty()) return true;
+        long[] entries;
+        synchronized (attacksByWarId2) {
+            entries = (byAlliance ? attackTimeIndex.getByAlliances(ids, start, end) : attackTimeIndex.getByNations(ids, start, end)).toLongArray();
+        }
+        if (entries.length == 0) return true;
+        // group by war, and keep the attacks of a war in order
+        Arrays.sort(entries);
+        Predicate<AbstractCursor> dateFilter = f -> f.getDate() >= start && f.getDate() <= end;
+        Set<DBWar> notLoaded = new ObjectLinkedOpenHashSet<>();
+        synchronized (attacksByWarId2) {
+            int i = 0;
+            while (i < entries.length) {
+                int warId = AttackTimeIndex.getWarId(entries[i]);
+                int j = i;
+                while (j < entries.length && AttackTimeIndex.getWarId(entries[j]) == warId) j++;
+                DBWar war = getWar(warId);
+                if (war != null && warFilter.test(war)) {
+                    if (!attacksByWarId2.containsWar(warId)) {
+                        notLoaded.add(war);
+                    } else {
+                        for (int k = i; k < j; k++) {
+                            attacksByWarId2.visit(warId, AttackTimeIndex.getIndex(entries[k]), (data, offset, length) -> {
+                                AbstractCursor attack = attackCursorFactory.loadWithPretest(war, data, offset, length, true, dateFilter);
+                                if (attack != null) forEachAttack.accept(war, attack);
+                            });
+                        }
+                    }
+                }
+                i = j;
+            }
+        }
+        if (!notLoaded.isEmpty()) {
+            iterateAttacksByWars(notLoaded, start, end, forEachAttack);
+        }
+        return true;
+    }
+
     public Map<Integer, DBWar> getWars(Predicate<DBWar> filter) {
         return getWarsForNationOrAlliance(null, null, filter);
     }
@@ -1492,6 +1727,14 @@ public class WarDB extends DBMainV2 {
         }
     }
 
+    public ColdAttackCache getColdAttackCache() {
+        return coldAttackCache;
+    }
+
+    public WarCostRollup getWarCostRollup() {
+        return warCostRollup;
+    }
+
     public ConflictManager getConflicts() {
         return conflictManager;
     }
@@ -2374,7 +2617,9 @@ public class WarDB extends DBMainV2 {
     }
 
     public Map<Integer, DBWar> getWarsSince(long date) {
-        return getWars(f -> f.getDate() > date);
+        Map<Integer, DBWar> result = new Int2ObjectOpenHashMap<>();
+        warTimeIndex.forEach(date, Long.MAX_VALUE, war -> result.put(war.warId, war));
+        return result;
     }
 
     public ObjectOpenHashSet<DBWar> getWars() {
@@ -2568,8 +2813,9 @@ public class WarDB extends DBMainV2 {
     }
 
     public Set<DBWar> getWars(Set<Integer> alliances, long start, long end) {
-        Map<Integer, DBWar> wars = getWarsForNationOrAlliance(null, alliances::contains, f -> f.getDate() > start && f.getDate() < end);
-        return new ObjectOpenHashSet<>(wars.values());
+        Set<DBWar> result = new ObjectOpenHashSet<>();
+        warTimeIndex.forEach(alliances, null, start, end, result::add);
+        return result;
     }
 
     public Set<DBWar> getWarsById(Set<Integer> warIds) {
@@ -2585,13 +2831,6 @@ public class WarDB extends DBMainV2 {
     public Map<Integer, DBWar> getWars(Collection<Integer> coal1Alliances, Collection<Integer> coal1Nations, Collection<Integer> coal2Alliances, Collection<Integer> coal2Nations, long start, long end) {
         if (coal1Alliances.isEmpty() && coal1Nations.isEmpty() && coal2Alliances.isEmpty() && coal2Nations.isEmpty()) return Collections.emptyMap();
 
-        Set<Integer> alliances = new IntOpenHashSet();
-        alliances.addAll(coal1Alliances);
-        alliances.addAll(coal2Alliances);
-        Set<Integer> nations = new IntOpenHashSet();
-        nations.addAll(coal1Nations);
-        nations.addAll(coal2Nations);
-
         Predicate<DBWar> datePredicate;
         if (start <= 0 && end >= Long.MAX_VALUE) {
             datePredicate = Predicates.alwaysTrue();
@@ -2652,7 +2891,20 @@ public class WarDB extends DBMainV2 {
             };
         }
 
-        return getWarsForNationOrAlliance(nations.isEmpty() ? null : nations::contains, alliances.isEmpty() ? null : alliances::contains, isAllowed);
+        // each war of a two sided query involves both coalitions, so only the side with fewer wars in the window is visited
+        boolean useCoal1;
+        if (coal1Alliances.isEmpty() && coal1Nations.isEmpty()) {
+            useCoal1 = false;
+        } else if (coal2Alliances.isEmpty() && coal2Nations.isEmpty()) {
+            useCoal1 = true;
+        } else {
+            useCoal1 = warTimeIndex.count(coal1Alliances, coal1Nations, start, end) <= warTimeIndex.count(coal2Alliances, coal2Nations, start, end);
+        }
+        Map<Integer, DBWar> result = new Int2ObjectOpenHashMap<>();
+        warTimeIndex.forEach(useCoal1 ? coal1Alliances : coal2Alliances, useCoal1 ? coal1Nations : coal2Nations, start, end, war -> {
+            if (isAllowed.test(war)) result.put(war.warId, war);
+        });
+        return result;
     }
 
     private Predicate<DBWar> createEntityPredicate(Collection<Integer> alliances, Collection<Integer> nations,
@@ -2783,6 +3035,10 @@ public class WarDB extends DBMainV2 {
         }
 
         List<AttackEntry> toSave = new ObjectArrayList<>(values.size());
+        List<AbstractCursor> added = new ObjectArrayList<>(values.size());
+        List<AbstractCursor> replaced = new ObjectArrayList<>();
+        // re-saved attacks may belong to wars which are not held in memory
+        List<AbstractCursor> notLoaded = replaceAttack ? new ObjectArrayList<>() : null;
 
         // add to attacks map
         synchronized (attacksByWarId2) {
@@ -2790,51 +3046,85 @@ public class WarDB extends DBMainV2 {
             for (AbstractCursor attack : values) {
                 AttackEntry entry = AttackEntry.of(attack, attackCursorFactory);
                 toSave.add(entry);
-                List<byte[]> attacks = attacksByWarId2.get(attack.getWar_id());
-                if (attacks != null && !attacks.isEmpty()) {
-                    for (int i = 0; i < attacks.size(); i++) {
-                        byte[] data = attacks.get(i);
-                        int id = attackCursorFactory.getId(data);
-                        if (id == attack.getId()) {
-                            if (replaceAttack) {
-                                attacks.set(i, entry.data());
-                            }
-                            continue outer;
+                int index = indexOfAttack(attack.getWar_id(), attack.getId());
+                if (index != -1) {
+                    if (replaceAttack) {
+                        DBWar war = getWar(attack.getWar_id());
+                        if (war != null) {
+                            replaced.add(attackCursorFactory.load(war, attacksByWarId2.get(attack.getWar_id(), index), true));
+                            added.add(attack);
                         }
+                        attacksByWarId2.set(attack.getWar_id(), index, entry.data());
                     }
-                } if (attacks == null) {
-                    attacks = new ObjectArrayList<>(1);
-                    attacksByWarId2.put(attack.getWar_id(), attacks);
+                    continue outer;
                 }
-                attacks.add(entry.data());
+                added.add(attack);
+                if (notLoaded != null) notLoaded.add(attack);
+                // drop the entries of a previous load of the war, as its positions start again from 0
+                if (!attacksByWarId2.containsWar(attack.getWar_id())) attackTimeIndex.removeWar(attack.getWar_id());
+                attacksByWarId2.add(attack.getWar_id(), entry.data());
+                attackTimeIndex.add(attack.getWar_id(), attacksByWarId2.size(attack.getWar_id()) - 1, attack.getDate(), attack.getAttacker_id(), attack.getDefender_id(), getWar(attack.getWar_id()));
             }
 
-            if (!Settings.INSTANCE.TASKS.LOAD_INACTIVE_ATTACKS && values.size() > 1) {
+            if (values.size() > 1) {
                 long turn = TimeUtil.getTurn();
                 if (turn > lastUnloadAttacks) {
                     lastUnloadAttacks = turn;
-                    Set<Integer> toRemove = null;
-                    long timeCutoff = TimeUtil.getTimeFromTurn(turn - 120);
-                    for (int warId : attacksByWarId2.keySet()) {
-                        DBWar war = getWar(warId);
-                        if (war != null && !war.isActive() && war.getDate() < timeCutoff) {
-                            if (toRemove == null) toRemove = new IntOpenHashSet();
-                            toRemove.add(warId);
+                    if (!Settings.INSTANCE.TASKS.LOAD_INACTIVE_ATTACKS) {
+                        Set<Integer> toRemove = null;
+                        long timeCutoff = TimeUtil.getTimeFromTurn(turn - 120);
+                        for (int warId : attacksByWarId2.getWarIds()) {
+                            DBWar war = getWar(warId);
+                            if (war != null && !war.isActive() && war.getDate() < timeCutoff) {
+                                if (toRemove == null) toRemove = new IntOpenHashSet();
+                                toRemove.add(warId);
+                            }
                         }
-                    }
-                    if (toRemove != null) {
-                        for (int warId : toRemove) {
-                            attacksByWarId2.remove(warId);
+                        if (toRemove != null) {
+                            for (int warId : toRemove) {
+                                attacksByWarId2.removeWar(warId);
+                                attackTimeIndex.removeWar(warId);
+                            }
+                        }
+                        if (coldAttackCache.isEnabled()) {
+                            Logg.info("Unloaded attacks of " + (toRemove == null ? 0 : toRemove.size()) + " wars, " + coldAttackCache);
                         }
                     }
+                    attackTimeIndex.removeBefore(TimeUtil.getTimeFromTurn(turn - AttackTimeIndex.WINDOW_TURNS));
                 }
             }
         }
 
+        if (notLoaded != null && !notLoaded.isEmpty()) {
+            replaced.addAll(warCostRollup.getSavedVersions(notLoaded));
+        }
         saveAttacksDb(toSave);
+        for (AbstractCursor attack : values) {
+            coldAttackCache.invalidate(attack.getWar_id());
+        }
+        warCostRollup.update(added, replaced);
+    }
+
+    private int indexOfAttack(int warId, int attackId) {
+        int[] index = {0, -1};
+        attacksByWarId2.forEach(warId, (data, offset, length) -> {
+            if (index[1] == -1 && attackCursorFactory.getId(data, offset, length) == attackId) {
+                index[1] = index[0];
+            }
+            index[0]++;
+        });
+        return index[1];
     }
 
     private void saveAttacksDb(Collection<AttackEntry> toSave) {
+        if (attackLog != null) {
+            try {
+                attackLog.append(toSave);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return;
+        }
         // String query = "INSERT OR IGNORE INTO `ATTACKS3` (`war_id`, `attacker_nation_id`, `defender_nation_id`, `date`, `data`) VALUES (?, ?, ?, ?, ?)";
         String query = "INSERT OR REPLACE INTO `ATTACKS3` (`id`, `war_id`, `attacker_nation_id`, `defender_nation_id`, `date`, `data`) VALUES (?, ?, ?, ?, ?, ?)";
         executeBatch(toSave, query, new ThrowingBiConsumer<AttackEntry, PreparedStatement>() {
@@ -2941,11 +3231,7 @@ public class WarDB extends DBMainV2 {
             Set<Integer> existingAttackIds = new IntOpenHashSet();
             synchronized (attacksByWarId2) {
                 for (int warId : warIds) {
-                    List<byte[]> attackData = attacksByWarId2.get(warId);
-                    if (attackData == null || attackData.isEmpty()) continue;
-                    for (byte[] data : attackData) {
-                        existingAttackIds.add(factory.getId(data));
-                    }
+                    attacksByWarId2.forEach(warId, (data, offset, length) -> existingAttackIds.add(factory.getId(data, offset, length)));
                 }
             }
             newAttacks = new ObjectArrayList<>(newAttacks);
@@ -3054,9 +3340,9 @@ public class WarDB extends DBMainV2 {
     public void loadAttacks(boolean loadInactive, boolean loadActive) {
         if (!loadActive) return;
         String whereClause;
+        List<Integer> warIds = new IntArrayList();
         if (!loadInactive) {
             long dateCutoff = TimeUtil.getTimeFromTurn(TimeUtil.getTurn() - 120);
-            List<Integer> warIds = new IntArrayList();
             synchronized (warsById) {
                 for (DBWar war : warsById) {
                     if (war.getDate() < dateCutoff) continue;
@@ -3068,34 +3354,57 @@ public class WarDB extends DBMainV2 {
         } else {
             whereClause = "";
         }
-        String query = "SELECT war_id, data FROM `attacks3` " + whereClause + " ORDER BY `id` ASC";
-
-        IntArrayList warIds = new IntArrayList();
-        List<byte[]> attacks = new ObjectArrayList<>();
-        Int2IntOpenHashMap numAttacksByWarId = new Int2IntOpenHashMap();
+        if (attackLog != null) {
+            loadAttacksFromLog(loadInactive ? null : new IntOpenHashSet(warIds));
+            return;
+        }
+        String query = "SELECT war_id, attacker_nation_id, defender_nation_id, date, data FROM `attacks3` " + whereClause + " ORDER BY `id` ASC";
 
-        try (PreparedStatement stmt = prepareQuery(query)) {
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    int warId = rs.getInt(1);
-                    if (!warsById.contains(new DBWar.DBWarKey(warId))) continue;
-                    byte[] bytes = rs.getBytes(2);
-                    warIds.add(warId);
-                    attacks.add(bytes);
-                    numAttacksByWarId.addTo(warId, 1);
+        int numLoaded = 0;
+        synchronized (attacksByWarId2) {
+            try (PreparedStatement stmt = prepareQuery(query)) {
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        int warId = rs.getInt(1);
+                        DBWar war = getWar(warId);
+                        if (war == null) continue;
+                        byte[] bytes = rs.getBytes(5);
+                        attacksByWarId2.add(warId, bytes);
+                        attackTimeIndex.add(warId, attacksByWarId2.size(warId) - 1, rs.getLong(4), rs.getInt(2), rs.getInt(3), war);
+                        numLoaded++;
+                    }
                 }
+            } catch (SQLException e) {
+                e.printStackTrace();
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
+        Logg.text("Loaded " + numLoaded + " attacks " + attacksByWarId2);
+    }
 
-        for (int i = 0; i < attacks.size(); i++) {
-            byte[] data = attacks.get(i);
-            int warId = warIds.getInt(i);
-            int size = numAttacksByWarId.get(warId);
-            attacksByWarId2.computeIfAbsent(warId, f -> new ObjectArrayList<>(size)).add(data);
+    private void loadAttacksFromLog(IntOpenHashSet warIds) {
+        int minWarId = Integer.MAX_VALUE;
+        if (warIds == null) {
+            minWarId = 0;
+        } else {
+            for (int warId : warIds) minWarId = Math.min(minWarId, warId);
         }
-        Logg.text("Loaded " + attacks.size() + " attacks " + attacksByWarId2.containsKey(2114621));
+        long[] numLoaded = {0};
+        synchronized (attacksByWarId2) {
+            try {
+                attackLog.forEach(0, minWarId, (attackId, warId, attackerId, defenderId, date, data, offset, length) -> {
+                    if (warIds != null && !warIds.contains(warId)) return true;
+                    DBWar war = getWar(warId);
+                    if (war == null) return true;
+                    attacksByWarId2.add(warId, data, offset, length);
+                    attackTimeIndex.add(warId, attacksByWarId2.size(warId) - 1, date, attackerId, defenderId, war);
+                    numLoaded[0]++;
+                    return true;
+                });
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        Logg.text("Loaded " + numLoaded[0] + " attacks from the attack log " + attacksByWarId2);
     }
 
     private void fixAttack(int attackId, Consumer<AbstractCursor> onEach) {
@@ -3511,6 +3820,9 @@ public class WarDB extends DBMainV2 {
             iterateAttacks(nation_id, forEachAttack);
             return;
         }
+        if (iterateIndexedAttacks(false, Set.of(nation_id), start, end, war -> true, forEachAttack)) {
+            return;
+        }
 
         Set<DBWar> wars = getWarsByNation(nation_id);
         // remove wars outside the date
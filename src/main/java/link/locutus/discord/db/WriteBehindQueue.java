@@ -0,0 +1,209 @@
+package link.locutus.discord.db;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectLinkedOpenHashMap;
+import link.locutus.discord.Logg;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Rows waiting to be written to the database, keyed by id, so an id changed many times before a write is only written once.
+ * A daemon thread writes the pending rows every `intervalMs`, or sooner once `batchSize` rows are waiting, as a single batch (one transaction).
+ * Adding blocks while `maxPending` rows are waiting, and {@link #close()} (also run on shutdown) writes everything still pending.
+ * <p>
+ * With an interval of 0, rows are written immediately on the calling thread. Thread safe
+ */
+public class WriteBehindQueue<T> {
+    private final String name;
+    private final ToIntFunction<T> getId;
+    private final Consumer<List<T>> writer;
+    private final long intervalMs;
+    private final int batchSize;
+    private final int maxPending;
+
+    private final Int2ObjectLinkedOpenHashMap<T> pending = new Int2ObjectLinkedOpenHashMap<>();
+    private Thread thread;
+    private boolean writing;
+    private volatile boolean closed;
+
+    public WriteBehindQueue(String name, ToIntFunction<T> getId, Consumer<List<T>> writer, long intervalMs, int batchSize, int maxPending) {
+        this.name = name;
+        this.getId = getId;
+        this.writer = writer;
+        this.intervalMs = intervalMs;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxPending = Math.max(this.batchSize, maxPending);
+    }
+
+    public void add(T value) {
+        addAll(List.of(value));
+    }
+
+    /**
+     * Queue the rows, replacing any pending row with the same id
+     */
+    public void addAll(Collection<T> values) {
+        if (values.isEmpty()) return;
+        if (intervalMs <= 0) {
+            writer.accept(new ArrayList<>(values));
+            return;
+        }
+        boolean write = false;
+        synchronized (pending) {
+            if (closed) {
+                write = true;
+            } else {
+                start();
+                for (T value : values) {
+                    int id = getId.applyAsInt(value);
+                    // back-pressure, unless the row replaces one which is already waiting
+                    while (pending.size() >= maxPending && !closed && !pending.containsKey(id) && Thread.currentThread() != thread) {
+                        pending.notifyAll();
+                        try {
+                            pending.wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            break;
+                        }
+                    }
+                    pending.put(id, value);
+                }
+                if (pending.size() >= batchSize) pending.notifyAll();
+            }
+        }
+        // after shutdown, write on the calling thread so nothing is lost
+        if (write) writer.accept(new ArrayList<>(values));
+    }
+
+    /**
+     * Wait for any batch being written, then drop the pending rows of the ids, so the rows can be deleted without being written again afterwards
+     */
+    public void removeAll(Collection<Integer> ids) {
+        synchronized (pending) {
+            // a failed batch is put back into pending, so wait before removing
+            awaitWrite();
+            for (int id : ids) pending.remove(id);
+        }
+    }
+
+    public int size() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Stop the thread after writing all pending rows. Rows added afterwards are written immediately
+     */
+    public void close() {
+        Thread toJoin;
+        synchronized (pending) {
+            closed = true;
+            pending.notifyAll();
+            toJoin = thread;
+        }
+        if (toJoin != null && toJoin != Thread.currentThread()) {
+            try {
+                toJoin.join(TimeUnit.MINUTES.toMillis(1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // the thread did not finish, write anything left here
+        List<T> remaining = take();
+        if (remaining != null) writer.accept(remaining);
+    }
+
+    private void awaitWrite() {
+        while (writing) {
+            try {
+                pending.wait(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void start() {
+        if (thread != null) return;
+        thread = new Thread(this::run, name + " Writer");
+        thread.setDaemon(true);
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, name + " Flush"));
+    }
+
+    private List<T> take() {
+        synchronized (pending) {
+            awaitWrite();
+            if (pending.isEmpty()) return null;
+            List<T> batch = new ArrayList<>(pending.values());
+            pending.clear();
+            return batch;
+        }
+    }
+
+    private void run() {
+        while (true) {
+            List<T> batch;
+            synchronized (pending) {
+                long end = System.currentTimeMillis() + intervalMs;
+                long wait;
+                while (!closed && pending.size() < batchSize && (wait = end - System.currentTimeMillis()) > 0) {
+                    try {
+                        pending.wait(wait);
+                    } catch (InterruptedException e) {
+                        // interrupted on shutdown, write what is pending and stop
+                        closed = true;
+                    }
+                }
+                if (pending.isEmpty()) {
+                    if (closed) {
+                        pending.notifyAll();
+                        return;
+                    }
+                    continue;
+                }
+                batch = new ArrayList<>(pending.values());
+                pending.clear();
+                writing = true;
+                // release adds waiting on back-pressure
+                pending.notifyAll();
+            }
+            boolean failed = false;
+            try {
+                writer.accept(batch);
+            } catch (Throwable e) {
+                Logg.text("Failed to write " + batch.size() + " rows for " + name + ", retrying next interval: " + e);
+                failed = true;
+            } finally {
+                synchronized (pending) {
+                    if (failed) {
+                        for (T value : batch) {
+                            pending.putIfAbsent(getId.applyAsInt(value), value);
+                        }
+                    }
+                    writing = false;
+                    pending.notifyAll();
+                }
+            }
+            if (failed) {
+                if (closed) {
+                    // left for close() to write on the calling thread, instead of retrying here
+                    return;
+                }
+                try {
+                    Thread.sleep(intervalMs);
+                } catch (InterruptedException ignore) {
+                    synchronized (pending) {
+                        closed = true;
+                    }
+                }
+            }
+        }
+    }
+}
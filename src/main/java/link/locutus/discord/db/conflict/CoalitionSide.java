@@ -29,6 +29,9 @@ import link.locutus.discord.util.TimeUtil;
 import link.locutus.discord.util.scheduler.KeyValue;
 import link.locutus.discord.web.jooby.JteUtil;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashMap;
@@ -63,6 +66,89 @@ public class CoalitionSide {
         damageByDayByAllianceByCity.clear();
     }
 
+    /**
+     * Write the war and attack stats (not the graph data, which is stored separately)
+     */
+    public void writeWarData(DataOutput out) throws IOException {
+        out.writeInt(allianceIdByNation.size());
+        for (Map.Entry<Integer, Integer> entry : allianceIdByNation.entrySet()) {
+            out.writeInt(entry.getKey());
+            out.writeInt(entry.getValue());
+        }
+        inflictedAndOffensiveStats.write(out);
+        lossesAndDefensiveStats.write(out);
+        writeDamagePairs(out, damageByAlliance);
+        writeDamagePairs(out, damageByNation);
+        out.writeInt(damageByDayByAllianceByCity.size());
+        for (Map.Entry<Long, Map<Integer, Map<Byte, Map.Entry<DamageStatGroup, DamageStatGroup>>>> dayEntry : damageByDayByAllianceByCity.entrySet()) {
+            out.writeLong(dayEntry.getKey());
+            out.writeInt(dayEntry.getValue().size());
+            for (Map.Entry<Integer, Map<Byte, Map.Entry<DamageStatGroup, DamageStatGroup>>> aaEntry : dayEntry.getValue().entrySet()) {
+                out.writeInt(aaEntry.getKey());
+                out.writeInt(aaEntry.getValue().size());
+                for (Map.Entry<Byte, Map.Entry<DamageStatGroup, DamageStatGroup>> cityEntry : aaEntry.getValue().entrySet()) {
+                    out.writeByte(cityEntry.getKey());
+                    cityEntry.getValue().getKey().write(out);
+                    cityEntry.getValue().getValue().write(out);
+                }
+            }
+        }
+    }
+
+    public void readWarData(DataInput in) throws IOException {
+        clearWarData();
+        int numNations = in.readInt();
+        for (int i = 0; i < numNations; i++) {
+            allianceIdByNation.put(in.readInt(), in.readInt());
+        }
+        inflictedAndOffensiveStats.read(in);
+        lossesAndDefensiveStats.read(in);
+        readDamagePairs(in, damageByAlliance);
+        readDamagePairs(in, damageByNation);
+        int numDays = in.readInt();
+        for (int i = 0; i < numDays; i++) {
+            long day = in.readLong();
+            int numAlliances = in.readInt();
+            Map<Integer, Map<Byte, Map.Entry<DamageStatGroup, DamageStatGroup>>> byAlliance = new Int2ObjectOpenHashMap<>(numAlliances);
+            for (int j = 0; j < numAlliances; j++) {
+                int allianceId = in.readInt();
+                int numCities = in.readInt();
+                Map<Byte, Map.Entry<DamageStatGroup, DamageStatGroup>> byCity = new Byte2ObjectOpenHashMap<>(numCities);
+                for (int k = 0; k < numCities; k++) {
+                    byte cities = in.readByte();
+                    byCity.put(cities, readDamagePair(in));
+                }
+                byAlliance.put(allianceId, byCity);
+            }
+            damageByDayByAllianceByCity.put(day, byAlliance);
+        }
+    }
+
+    private static void writeDamagePairs(DataOutput out, Map<Integer, Map.Entry<DamageStatGroup, DamageStatGroup>> map) throws IOException {
+        out.writeInt(map.size());
+        for (Map.Entry<Integer, Map.Entry<DamageStatGroup, DamageStatGroup>> entry : map.entrySet()) {
+            out.writeInt(entry.getKey());
+            entry.getValue().getKey().write(out);
+            entry.getValue().getValue().write(out);
+        }
+    }
+
+    private static void readDamagePairs(DataInput in, Map<Integer, Map.Entry<DamageStatGroup, DamageStatGroup>> map) throws IOException {
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            int id = in.readInt();
+            map.put(id, readDamagePair(in));
+        }
+    }
+
+    private static Map.Entry<DamageStatGroup, DamageStatGroup> readDamagePair(DataInput in) throws IOException {
+        DamageStatGroup key = new DamageStatGroup();
+        key.read(in);
+        DamageStatGroup value = new DamageStatGroup();
+        value.read(in);
+        return KeyValue.of(key, value);
+    }
+
     public Set<Integer> getNationIds() {
         return damageByNation.keySet();
     }
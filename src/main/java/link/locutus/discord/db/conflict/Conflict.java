@@ -34,6 +34,10 @@ import link.locutus.discord.util.TimeUtil;
 import link.locutus.discord.web.jooby.AwsManager;
 import link.locutus.discord.web.jooby.JteUtil;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.text.ParseException;
 import java.util.ArrayList;
@@ -65,6 +69,7 @@ public class Conflict {
     private byte[] graphStatsGzip;
     private volatile boolean dirtyWars = false;
     private volatile boolean dirtyJson = true;
+    private long warDataHash;
     private final Map<String, DBTopic> announcements = new Object2ObjectLinkedOpenHashMap<>();
     private String casusBelli = "";
     private String statusDesc = "";
@@ -78,6 +83,90 @@ public class Conflict {
         dirtyJson = true;
     }
 
+    /**
+     * @return a hash of everything which decides which wars and attacks count towards this conflict
+     * (date range, participants and their individual start/end) and of the checkpoint format
+     */
+    public long getConfigHash() {
+        long hash = DamageStatGroup.getFormatHash();
+        hash = hash * 31 + turnStart;
+        hash = hash * 31 + turnEnd;
+        for (CoalitionSide side : new CoalitionSide[]{coalition1, coalition2}) {
+            List<Integer> aaIds = new ArrayList<>(side.getAllianceIds());
+            aaIds.sort(Integer::compareTo);
+            hash = hash * 31 + aaIds.size();
+            for (int aaId : aaIds) {
+                hash = hash * 31 + aaId;
+                hash = hash * 31 + startTime.getOrDefault(aaId, 0L);
+                hash = hash * 31 + endTime.getOrDefault(aaId, Long.MAX_VALUE);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @return the config hash the current war data was built with, or 0 if it was not built from a full load
+     */
+    public long getWarDataHash() {
+        return warDataHash;
+    }
+
+    /**
+     * Mark the current config as the one the war data is (being) built with
+     */
+    public void setWarDataHash(long hash) {
+        this.warDataHash = hash;
+    }
+
+    /**
+     * @return the compressed war and attack stats of both coalitions, for a checkpoint
+     */
+    public byte[] writeWarData() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(warsVsAlliance.size());
+            for (Map.Entry<Integer, Map<Integer, DamageStatGroup>> entry : warsVsAlliance.entrySet()) {
+                out.writeInt(entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for (Map.Entry<Integer, DamageStatGroup> entry2 : entry.getValue().entrySet()) {
+                    out.writeInt(entry2.getKey());
+                    entry2.getValue().write(out);
+                }
+            }
+            coalition1.writeWarData(out);
+            coalition2.writeWarData(out);
+        }
+        return JteUtil.compress(bytes.toByteArray());
+    }
+
+    /**
+     * Replace the war and attack stats with a checkpoint from {@link #writeWarData()}
+     */
+    public void readWarData(byte[] compressed, long hash) throws IOException {
+        clearWarData();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(JteUtil.decompress(compressed)))) {
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                int aaId1 = in.readInt();
+                int size2 = in.readInt();
+                Map<Integer, DamageStatGroup> byAlliance = new Int2ObjectOpenHashMap<>(size2);
+                for (int j = 0; j < size2; j++) {
+                    int aaId2 = in.readInt();
+                    DamageStatGroup group = new DamageStatGroup();
+                    group.read(in);
+                    byAlliance.put(aaId2, group);
+                }
+                warsVsAlliance.put(aaId1, byAlliance);
+            }
+            coalition1.readWarData(in);
+            coalition2.readWarData(in);
+        } catch (IOException | RuntimeException e) {
+            clearWarData();
+            throw e;
+        }
+        this.warDataHash = hash;
+    }
+
     public Conflict(int id, int ordinal, long createdByServer, ConflictCategory category, String name, String col1, String col2, String wiki, String cb, String status, long turnStart, long turnEnd) {
         this.id = id;
         this.ordinal = ordinal;
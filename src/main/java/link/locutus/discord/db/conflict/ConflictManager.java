@@ -12,6 +12,7 @@ import it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenHashMap;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
 import link.locutus.discord.Locutus;
+import link.locutus.discord.Logg;
 import link.locutus.discord.apiv1.domains.subdomains.attack.v3.AbstractCursor;
 import link.locutus.discord.apiv1.domains.subdomains.attack.v3.IAttack;
 import link.locutus.discord.apiv3.enums.AttackTypeSubCategory;
@@ -22,6 +23,7 @@ import link.locutus.discord.db.entities.DBAlliance;
 import link.locutus.discord.db.entities.DBNation;
 import link.locutus.discord.db.entities.DBTopic;
 import link.locutus.discord.db.entities.DBWar;
+import link.locutus.discord.db.entities.WarStatus;
 import link.locutus.discord.db.entities.conflict.ConflictCategory;
 import link.locutus.discord.db.entities.conflict.ConflictMetric;
 import link.locutus.discord.db.handlers.AttackQuery;
@@ -33,9 +35,14 @@ import link.locutus.discord.util.TimeUtil;
 import link.locutus.discord.util.scheduler.KeyValue;
 import link.locutus.discord.util.scheduler.ThrowingBiConsumer;
 import link.locutus.discord.util.scheduler.ThrowingConsumer;
+import link.locutus.discord.util.scheduler.ThrowingFunction;
 import link.locutus.discord.web.jooby.AwsManager;
 import link.locutus.discord.web.jooby.JteUtil;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.sql.*;
@@ -62,6 +69,19 @@ public class ConflictManager {
     private long lastTurn = 0;
     private final Map<Integer, Set<Integer>> activeConflictOrdByAllianceId = new Int2ObjectOpenHashMap<>();
     private final Map<Long, Map<Integer, int[]>> mapTurnAllianceConflictOrd = new Long2ObjectOpenHashMap<>();
+    // Checkpoint high-water marks, guarded by mapTurnAllianceConflictOrd
+    private int lastWarId;
+    private int lastAttackId;
+    // the status ordinal of each war in a conflict which is active
+    private final Int2ByteOpenHashMap activeWarStatus = new Int2ByteOpenHashMap();
+    // written before the active wars, as checkpoints without the status are rebuilt
+    private static final int ACTIVE_WARS_VERSION = -1;
+
+    /**
+     * The high-water marks a set of conflict checkpoints were saved at
+     * @param activeWars the status ordinal of the wars in a conflict which were active, and can still receive attacks or end
+     */
+    private record CheckpointState(int lastWarId, int lastAttackId, Int2ByteOpenHashMap activeWars) {}
 
     public ConflictManager(WarDB db) {
         this.db = db;
@@ -111,6 +131,10 @@ public class ConflictManager {
 
         // create table if not exists MANUAL_WARS war_id, conflict_id, int alliance, primary key (war_id)
         db.executeStmt("CREATE TABLE IF NOT EXISTS MANUAL_WARS (war_id INT PRIMARY KEY, conflict_id INT NOT NULL, alliance INT NOT NULL)");
+
+        // serialized conflict war stats, so startup only replays the wars and attacks after the checkpoint
+        db.executeStmt("CREATE TABLE IF NOT EXISTS conflict_checkpoints (conflict_id INT PRIMARY KEY, config_hash BIGINT NOT NULL, last_war_id INT NOT NULL, last_attack_id INT NOT NULL, data BLOB NOT NULL)");
+        db.executeStmt("CREATE TABLE IF NOT EXISTS conflict_checkpoint_state (id INT PRIMARY KEY, last_war_id INT NOT NULL, last_attack_id INT NOT NULL, active_wars BLOB NOT NULL)");
     }
 
     private synchronized void importData(Database sourceDb, Database targetDb, String tableName) throws SQLException {
@@ -316,7 +340,16 @@ public class ConflictManager {
     public boolean updateWar(DBWar previous, DBWar current, Predicate<Integer> allowedConflictords) {
         long turn = TimeUtil.getTurn(current.getDate());
         if (turn > lastTurn) initTurn();
-        return applyConflicts(allowedConflictords, turn, current.getAttacker_aa(), current.getDefender_aa(), f -> f.updateWar(previous, current, turn));
+        synchronized (mapTurnAllianceConflictOrd) {
+            boolean result = applyConflicts(allowedConflictords, turn, current.getAttacker_aa(), current.getDefender_aa(), f -> f.updateWar(previous, current, turn));
+            if (previous == null) lastWarId = Math.max(lastWarId, current.getWarId());
+            if (!current.isActive()) {
+                activeWarStatus.remove(current.getWarId());
+            } else if (result) {
+                activeWarStatus.put(current.getWarId(), (byte) current.getStatus().ordinal());
+            }
+            return result;
+        }
     }
 
     @Subscribe
@@ -335,7 +368,10 @@ public class ConflictManager {
     public void updateAttack(DBWar war, AbstractCursor attack, Predicate<Integer> allowed, Function<IAttack, AttackTypeSubCategory> getCached) {
         long turn = TimeUtil.getTurn(war.getDate());
         if (turn > lastTurn) initTurn();
-        applyConflicts(allowed, turn, war.getAttacker_aa(), war.getDefender_aa(), f -> f.updateAttack(war, attack, turn, getCached));
+        synchronized (mapTurnAllianceConflictOrd) {
+            applyConflicts(allowed, turn, war.getAttacker_aa(), war.getDefender_aa(), f -> f.updateAttack(war, attack, turn, getCached));
+            lastAttackId = Math.max(lastAttackId, attack.getWar_attack_id());
+        }
     }
 
     @Subscribe
@@ -353,6 +389,7 @@ public class ConflictManager {
             }
             pushIndex();
         }
+        saveCheckpoints();
     }
 
     private void recreateConflictsByAlliance() {
@@ -576,6 +613,9 @@ public class ConflictManager {
 
             long startMs, endMs;
             Predicate<Integer> allowedConflicts;
+            // conflicts restored from a checkpoint only need the wars and attacks after it
+            CheckpointState checkpoint = null;
+            boolean[] rebuildOrds = null;
             if (conflicts != null) {
                 long startTurn = Long.MAX_VALUE;
                 long endTurn = 0;
@@ -590,31 +630,76 @@ public class ConflictManager {
                 boolean[] allowedConflictOrdsArr = new boolean[conflictArr.length];
                 for (Conflict conflict : conflicts) {
                     allowedConflictOrdsArr[conflict.getOrdinal()] = true;
+                    if (clearBeforeUpdate) conflict.setWarDataHash(conflict.getConfigHash());
                 }
                 allowedConflicts = f -> allowedConflictOrdsArr[f];
             } else {
                 startMs = 0;
                 endMs = Long.MAX_VALUE;
                 allowedConflicts = Predicates.alwaysTrue();
+                for (Conflict conflict : conflictArr) {
+                    conflict.setWarDataHash(conflict.getConfigHash());
+                }
+                if (!clearBeforeUpdate) {
+                    rebuildOrds = new boolean[conflictArr.length];
+                    checkpoint = restoreCheckpoints(rebuildOrds);
+                }
+            }
+            // the conflicts replaying every war and attack
+            Predicate<Integer> rebuildConflicts;
+            boolean hasRebuild;
+            if (checkpoint == null) {
+                rebuildConflicts = allowedConflicts;
+                hasRebuild = true;
+            } else {
+                boolean[] rebuildOrdsFinal = rebuildOrds;
+                rebuildConflicts = f -> rebuildOrdsFinal[f];
+                boolean any = false;
+                for (boolean rebuild : rebuildOrds) any |= rebuild;
+                hasRebuild = any;
             }
+            int checkpointWarId = checkpoint == null ? -1 : checkpoint.lastWarId();
+            int checkpointAttackId = checkpoint == null ? -1 : checkpoint.lastAttackId();
+            Int2ByteOpenHashMap checkpointActiveWars = checkpoint == null ? new Int2ByteOpenHashMap() : checkpoint.activeWars();
+            Predicate<Integer> restoredConflicts = rebuildConflicts.negate();
 
             Set<DBWar> wars = new ObjectOpenHashSet<>();
+            Consumer<DBWar> loadWar = war -> {
+                if (war.getWarId() > checkpointWarId) {
+                    if (updateWar(null, war, allowedConflicts)) {
+                        wars.add(war);
+                    }
+                    return;
+                }
+                if (hasRebuild && updateWar(null, war, rebuildConflicts)) {
+                    wars.add(war);
+                }
+                if (checkpointActiveWars.containsKey(war.getWarId())) {
+                    WarStatus checkpointStatus = WarStatus.values[checkpointActiveWars.get(war.getWarId())];
+                    if (war.getStatus() == checkpointStatus) {
+                        synchronized (mapTurnAllianceConflictOrd) {
+                            activeWarStatus.put(war.getWarId(), (byte) checkpointStatus.ordinal());
+                        }
+                    } else {
+                        DBWar previous = new DBWar(war);
+                        previous.setStatus(checkpointStatus);
+                        updateWar(previous, war, restoredConflicts);
+                    }
+                    wars.add(war);
+                }
+            };
             for (DBWar war : this.db.getWars()) {
                 if (war.getDate() >= startMs && war.getDate() <= endMs) {
-                    if (updateWar(null, war, allowedConflicts)) {
 //                        if (war.isActive() && TimeUtil.getTurn(war.getDate()) + 61 < currentTurn) {
 //                            System.out.println("INVALID WAR EXPIRED " + war.getWarId() + " | " + war.getDate() + " | " + war.getStatus());
 //                        }
-                        wars.add(war);
-                    }
+                    loadWar.accept(war);
                 }
             }
 
             Set<DBWar> manualWars = loadManualWars(conflicts);
             for (DBWar war : manualWars) {
-                if (updateWar(null, war, allowedConflicts)) {
-                    wars.add(war);
-                }
+                loadWar.accept(war);
             }
 
             if (!wars.isEmpty()) {
@@ -638,9 +723,12 @@ public class ConflictManager {
                         return 20000;
                     }
                 };
-                db.iterateWarAttacks(wars, Predicates.alwaysTrue(), Predicates.alwaysTrue(), (war, attack) -> {
+                Predicate<AbstractCursor> attackFilter = hasRebuild ? Predicates.alwaysTrue() : f -> f.getWar_attack_id() > checkpointAttackId;
+                db.iterateWarAttacks(wars, Predicates.alwaysTrue(), attackFilter, (war, attack) -> {
                     if (TimeUtil.getTurn(war.getDate()) <= TimeUtil.getTurn(attack.getDate())) {
-                        updateAttack(war, attack, allowedConflicts, new Function<IAttack, AttackTypeSubCategory>() {
+                        // attacks before the checkpoint are already counted by the restored conflicts
+                        Predicate<Integer> allowed = attack.getWar_attack_id() > checkpointAttackId ? allowedConflicts : rebuildConflicts;
+                        updateAttack(war, attack, allowed, new Function<IAttack, AttackTypeSubCategory>() {
                             @Override
                             public AttackTypeSubCategory apply(IAttack a) {
                                 int id = a.getWar_attack_id();
@@ -679,12 +767,119 @@ public class ConflictManager {
                     }
                 });
             }
+            if (checkpoint != null) {
+                synchronized (mapTurnAllianceConflictOrd) {
+                    lastWarId = Math.max(lastWarId, checkpointWarId);
+                    lastAttackId = Math.max(lastAttackId, checkpointAttackId);
+                }
+            }
             conflictsLoaded = true;
+            saveCheckpoints();
         } catch (Throwable e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Restore the war data of each conflict from its checkpoint, if its participants and dates have not changed since
+     * @param rebuildOrds set to true for the conflicts which were not restored, and need a full rebuild
+     * @return the marks the checkpoints were saved at, or null if no conflict was restored
+     */
+    private CheckpointState restoreCheckpoints(boolean[] rebuildOrds) {
+        Arrays.fill(rebuildOrds, true);
+        CheckpointState state = db.select("SELECT last_war_id, last_attack_id, active_wars FROM conflict_checkpoint_state WHERE id = 1", stmt -> {
+        }, (ThrowingFunction<ResultSet, CheckpointState>) rs -> {
+            if (!rs.next()) return null;
+            Int2ByteOpenHashMap activeWars = new Int2ByteOpenHashMap();
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(JteUtil.decompress(rs.getBytes(3))))) {
+                // saved without the status of each war, so the previous status of wars which changed is not known
+                if (in.readInt() != ACTIVE_WARS_VERSION) return null;
+                int size = in.readInt();
+                for (int i = 0; i < size; i++) {
+                    activeWars.put(in.readInt(), in.readByte());
+                }
+            }
+            return new CheckpointState(rs.getInt(1), rs.getInt(2), activeWars);
+        });
+        if (state == null) return null;
+
+        long start = System.currentTimeMillis();
+        int[] numRestored = {0};
+        db.query("SELECT conflict_id, config_hash, data FROM conflict_checkpoints WHERE last_war_id = ? AND last_attack_id = ?", (ThrowingConsumer<PreparedStatement>) stmt -> {
+            stmt.setInt(1, state.lastWarId());
+            stmt.setInt(2, state.lastAttackId());
+        }, (ThrowingConsumer<ResultSet>) rs -> {
+            while (rs.next()) {
+                Conflict conflict = conflictById.get(rs.getInt(1));
+                long hash = rs.getLong(2);
+                if (conflict == null || conflict.getConfigHash() != hash) continue;
+                try {
+                    synchronized (mapTurnAllianceConflictOrd) {
+                        conflict.readWarData(rs.getBytes(3), hash);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    e.printStackTrace();
+                    continue;
+                }
+                rebuildOrds[conflict.getOrdinal()] = false;
+                numRestored[0]++;
+            }
+        });
+        if (numRestored[0] == 0) return null;
+        Logg.text("Restored " + numRestored[0] + "/" + conflictArr.length + " conflicts from checkpoint (war: " + state.lastWarId() + ", attack: " + state.lastAttackId() + ") in " + (System.currentTimeMillis() - start) + "ms");
+        return state;
+    }
+
+    /**
+     * Save the war data of every conflict built from a full load (or a checkpoint), along with the current high-water marks
+     * Conflicts whose participants or dates changed since their war data was built are saved with the old config hash, so are rebuilt on the next load
+     */
+    public void saveCheckpoints() {
+        if (!conflictsLoaded) return;
+        List<Map.Entry<Conflict, Long>> conflicts = new ArrayList<>();
+        Map<Conflict, byte[]> dataByConflict = new HashMap<>();
+        int warId, attackId;
+        byte[] activeWars;
+        try {
+            synchronized (mapTurnAllianceConflictOrd) {
+                warId = lastWarId;
+                attackId = lastAttackId;
+                for (Conflict conflict : conflictArr) {
+                    if (conflict == null || conflict.getId() <= 0 || conflict.getWarDataHash() == 0) continue;
+                    dataByConflict.put(conflict, conflict.writeWarData());
+                    conflicts.add(KeyValue.of(conflict, conflict.getWarDataHash()));
+                }
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (DataOutputStream out = new DataOutputStream(bytes)) {
+                    out.writeInt(ACTIVE_WARS_VERSION);
+                    out.writeInt(activeWarStatus.size());
+                    for (Int2ByteMap.Entry entry : activeWarStatus.int2ByteEntrySet()) {
+                        out.writeInt(entry.getIntKey());
+                        out.writeByte(entry.getByteValue());
+                    }
+                }
+                activeWars = JteUtil.compress(bytes.toByteArray());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        // rows only restore with a state of the same marks, so a partial write causes a rebuild and not double counting
+        db.executeStmt("DELETE FROM conflict_checkpoints");
+        db.executeBatch(conflicts, "INSERT OR REPLACE INTO conflict_checkpoints (conflict_id, config_hash, last_war_id, last_attack_id, data) VALUES (?, ?, ?, ?, ?)", (ThrowingBiConsumer<Map.Entry<Conflict, Long>, PreparedStatement>) (entry, stmt) -> {
+            stmt.setInt(1, entry.getKey().getId());
+            stmt.setLong(2, entry.getValue());
+            stmt.setInt(3, warId);
+            stmt.setInt(4, attackId);
+            stmt.setBytes(5, dataByConflict.get(entry.getKey()));
+        });
+        db.update("INSERT OR REPLACE INTO conflict_checkpoint_state (id, last_war_id, last_attack_id, active_wars) VALUES (1, ?, ?, ?)", (ThrowingConsumer<PreparedStatement>) stmt -> {
+            stmt.setInt(1, warId);
+            stmt.setInt(2, attackId);
+            stmt.setBytes(3, activeWars);
+        });
+    }
+
     private Set<DBWar> loadManualWars(Collection<Conflict> conflicts) {
         List<Integer> conflictIds = null;
         if (conflicts != null && conflicts.size() != conflictById.size()) {
@@ -1044,11 +1239,10 @@ public class ConflictManager {
 
     public void saveDataCsvAllianceNames() throws IOException, ParseException {
         Locutus.imp().getDataDumper(true).load().iterateAll(Predicates.alwaysTrue(),
-                (h, r) -> r.required(h.alliance_id, h.alliance),
+                (h, r) -> r.where(h.alliance_id, 1, Integer.MAX_VALUE).required(h.alliance),
                 null,
                 (day, r) -> {
-                    int aaId = r.header.alliance_id.get();
-                    if (aaId == 0) return;
+                    int aaId = r.header.alliance_id.getInt();
                     String name = r.header.alliance.get();
                     if (name != null && !name.isEmpty()) {
                         long date = TimeUtil.getTimeFromDay(day);
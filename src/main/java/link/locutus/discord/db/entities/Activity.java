@@ -1,5 +1,6 @@
 package link.locutus.discord.db.entities;
 
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 import link.locutus.discord.Locutus;
 import link.locutus.discord.util.TimeUtil;
 
@@ -9,7 +10,6 @@ import java.time.ZonedDateTime;
 import link.locutus.discord.util.scheduler.KeyValue;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
 import java.util.function.Function;
 
 public class Activity {
@@ -118,7 +118,10 @@ public class Activity {
         return total;
     }
 
-    private void load(Set<Long> activity, long minTurnAbs, long maxTurnAbs) {
+    /**
+     * @param activity the active turns, in order
+     */
+    private void load(LongArrayList activity, long minTurnAbs, long maxTurnAbs) {
         if (activity.isEmpty()) return;
         if (maxTurnAbs == Long.MAX_VALUE) maxTurnAbs = TimeUtil.getTurn();
 
@@ -126,38 +129,33 @@ public class Activity {
         int[] byDayTurnTotal = new int[12];
         int[] byWeekTurnTotal = new int[12 * 7];
 
-        long currentTurn = TimeUtil.getTurn();
-        ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
-        minTurnAbs = Math.max(minTurnAbs, activity.iterator().next());
+        minTurnAbs = Math.max(minTurnAbs, activity.getLong(0));
 
-        DayOfWeek lastDay = null;
-        DayOfWeek lastDayTotal = null;
+        // turns are 2 hours from the epoch (UTC), so the day of the week and turn of the day are arithmetic
+        int lastDayTotal = -1;
         for (long turn = minTurnAbs; turn <= maxTurnAbs; turn++) {
-            boolean active = activity.contains(turn);
-            long turnDiff = currentTurn - turn;
-            ZonedDateTime other = now.minusHours(turnDiff * 2);
-
-            DayOfWeek day = other.getDayOfWeek();
-            int dayTurn = other.getHour() / 2;
-            int weekTurn = dayTurn + day.ordinal() * 12;
-
+            int day = dayOfWeek(turn);
+            int dayTurn = (int) Math.floorMod(turn, 12L);
             if (day != lastDayTotal) {
-                byDayTotal[day.ordinal()]++;
+                byDayTotal[day]++;
                 lastDayTotal = day;
             }
-
             byDayTurnTotal[dayTurn]++;
-            byWeekTurnTotal[weekTurn]++;
-
-            if (active) {
-                if (day != lastDay) {
-                    byDay[day.ordinal()]++;
-                    lastDay = day;
-                }
+            byWeekTurnTotal[dayTurn + day * 12]++;
+        }
 
-                byDayTurn[dayTurn]++;
-                byWeekTurn[weekTurn]++;
+        int lastDay = -1;
+        for (int i = 0; i < activity.size(); i++) {
+            long turn = activity.getLong(i);
+            if (turn < minTurnAbs || turn > maxTurnAbs) continue;
+            int day = dayOfWeek(turn);
+            int dayTurn = (int) Math.floorMod(turn, 12L);
+            if (day != lastDay) {
+                byDay[day]++;
+                lastDay = day;
             }
+            byDayTurn[dayTurn]++;
+            byWeekTurn[dayTurn + day * 12]++;
         }
 
         for (int i = 0; i < byDay.length; i++) {
@@ -171,18 +169,21 @@ public class Activity {
         }
     }
 
+    /**
+     * @return the {@link DayOfWeek#ordinal()} of the turn, the epoch being a thursday
+     */
+    private static int dayOfWeek(long turn) {
+        return (int) Math.floorMod(Math.floorDiv(turn, 12L) + DayOfWeek.THURSDAY.ordinal(), 7L);
+    }
+
     public Activity(int nationId, long turnStartAbs, long turnEndAbs) {
-        Set<Long> activity = Locutus.imp().getNationDB().getActivity(nationId, turnStartAbs, turnEndAbs);
+        LongArrayList activity = Locutus.imp().getNationDB().getActivityStore().getTurns(nationId, turnStartAbs + 1, turnEndAbs);
         if (activity.isEmpty()) return;
         load(activity, turnStartAbs, turnEndAbs);
     }
 
     public Activity(int nationId) {
-        long turnStartAbs = 0;
-        Set<Long> activity = Locutus.imp().getNationDB().getActivity(nationId, turnStartAbs, Long.MAX_VALUE);
-        if (activity.isEmpty()) return;
-
-        load(activity, turnStartAbs, Long.MAX_VALUE);
+        this(nationId, 0, Long.MAX_VALUE);
     }
 
     public double getAverageByDay() {
@@ -12,6 +12,7 @@ import link.locutus.discord.apiv1.enums.MilitaryUnit;
 import link.locutus.discord.apiv1.enums.ResourceType;
 import link.locutus.discord.apiv1.enums.city.building.Building;
 import link.locutus.discord.apiv1.enums.city.building.Buildings;
+import link.locutus.discord.db.handlers.WarCostRollup;
 import link.locutus.discord.util.MathMan;
 import link.locutus.discord.util.PW;
 import link.locutus.discord.util.StringMan;
@@ -385,6 +386,41 @@ TriFunction<Function<Boolean, AttackCost>, AbstractCursor, T, Map.Entry<AttackCo
         }
     }
 
+    /**
+     * Same as {@link #addCost(AbstractCursor, DBWar, BiFunction, BiFunction)} for every attack in a rolled up cell
+     * The cell has no attacks, so the attack sets are not updated
+     */
+    public void addCost(WarCostRollup.Cell cell, boolean primary, boolean secondary) {
+        if (!primary && !secondary) return;
+        if (victories1 != null && cell.getType() == AttackType.VICTORY) {
+            if (primary) victories1.add(cell.getWarId());
+            else victories2.add(cell.getWarId());
+        }
+        if (this.wars != null) {
+            wars.add(cell.getWarId());
+        }
+        if (ids1 != null) {
+            (primary ? ids1 : ids2).add(cell.getAttackerId());
+            (primary ? ids2 : ids1).add(cell.getDefenderId());
+        }
+        ArrayUtil.apply(ArrayUtil.INT_ADD, primary ? unit1 : unit2, cell.getUnitLosses(true));
+        ArrayUtil.apply(ArrayUtil.INT_ADD, primary ? unit2 : unit1, cell.getUnitLosses(false));
+        ResourceType.add(primary ? unit1Cost : unit2Cost, cell.getUnitCost(true));
+        ResourceType.add(primary ? unit2Cost : unit1Cost, cell.getUnitCost(false));
+        ResourceType.add(primary ? loot1 : loot2, cell.getLoot(true));
+        ResourceType.add(primary ? loot2 : loot1, cell.getLoot(false));
+        ResourceType.add(primary ? consumption1 : consumption2, cell.getConsumption(true));
+        ResourceType.add(primary ? consumption2 : consumption1, cell.getConsumption(false));
+        ResourceType.add(primary ? buildingsCost2 : buildingsCost1, cell.getBuildingCost());
+        if (primary) {
+            infrn2 += cell.getInfraDestroyed();
+            if (buildings2 != null) ArrayUtil.apply(ArrayUtil.INT_ADD, buildings2, cell.getBuildingsDestroyed());
+        } else {
+            infrn1 += cell.getInfraDestroyed();
+            if (buildings1 != null) ArrayUtil.apply(ArrayUtil.INT_ADD, buildings1, cell.getBuildingsDestroyed());
+        }
+    }
+
     @Override
     public String toString() {
         return toString(true, true, true, true, true);
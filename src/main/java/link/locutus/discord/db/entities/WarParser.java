@@ -7,11 +7,14 @@ import link.locutus.discord.apiv1.domains.subdomains.attack.v3.AbstractCursor;
 import link.locutus.discord.apiv1.enums.AttackType;
 import link.locutus.discord.apiv1.enums.SuccessType;
 import link.locutus.discord.apiv1.enums.WarType;
+import link.locutus.discord.db.handlers.AttackQuery;
+import link.locutus.discord.db.handlers.WarCostRollup;
 import link.locutus.discord.pnw.NationOrAlliance;
 import link.locutus.discord.util.PW;
 import link.locutus.discord.util.StringMan;
 import link.locutus.discord.util.TimeUtil;
 import link.locutus.discord.util.discord.DiscordUtil;
+import link.locutus.discord.util.scheduler.TriConsumer;
 import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.User;
 
@@ -41,6 +44,8 @@ public class WarParser {
     private Map<Integer, DBWar> wars;
     private Consumer<BiConsumer<DBWar, AbstractCursor>> attacks;
     private BiPredicate<DBWar, AbstractCursor> filter;
+    private Set<AttackType> attackTypes;
+    private boolean customFilter;
 
     public static WarParser ofAANatobj(Collection<DBAlliance> coal1Alliances, Collection<DBNation> coal1Nations, Collection<DBAlliance> coal2Alliances, Collection<DBNation> coal2Nations, long start, long end) {
         return ofNatObj(coal1Alliances == null ? null : coal1Alliances.stream().map(DBAlliance::getAlliance_id).collect(Collectors.toSet()), coal1Nations, coal2Alliances == null ? null : coal2Alliances.stream().map(DBAlliance::getAlliance_id).collect(Collectors.toSet()), coal2Nations, start, end);
@@ -154,12 +159,24 @@ public class WarParser {
     }
 
     public void addFilter(BiPredicate<DBWar, AbstractCursor> filter) {
+        appendFilter(filter);
+        customFilter = true;
+    }
+
+    private void appendFilter(BiPredicate<DBWar, AbstractCursor> filter) {
         this.filter = this.filter == null ? filter : this.filter.and(filter);
     }
 
     public WarParser allowedAttackTypes(Set<AttackType> attackTypes) {
         if (attackTypes != null) {
-            addFilter((war, attack) -> attackTypes.contains(attack.getAttack_type()));
+            // kept separately as well, since the war cost rollup is keyed by attack type
+            if (this.attackTypes == null) {
+                this.attackTypes = attackTypes;
+            } else {
+                Set<AttackType> previous = this.attackTypes;
+                this.attackTypes = attackTypes.stream().filter(previous::contains).collect(Collectors.toSet());
+            }
+            appendFilter((war, attack) -> attackTypes.contains(attack.getAttack_type()));
         }
         return this;
     }
@@ -194,6 +211,77 @@ public class WarParser {
     }
 
 
+    /**
+     * Same attacks as {@link #getAttacks()}, folded in parallel into one result per task and then combined
+     */
+    public <T> T reduceAttacks(Supplier<T> supplier, TriConsumer<T, DBWar, AbstractCursor> accumulator, BinaryOperator<T> combiner) {
+        return reduceAttacks(start, end, supplier, accumulator, combiner);
+    }
+
+    private <T> T reduceAttacks(long start, long end, Supplier<T> supplier, TriConsumer<T, DBWar, AbstractCursor> accumulator, BinaryOperator<T> combiner) {
+        AttackQuery query = Locutus.imp().getWarDb().queryAttacks().withWars(getWars().values());
+        if (start != 0 || end != Long.MAX_VALUE) {
+            query.between(start, end);
+        }
+        BiPredicate<DBWar, AbstractCursor> filter = this.filter;
+        return query.reduceAttacks(supplier, filter == null ? accumulator : (result, war, attack) -> {
+            if (filter.test(war, attack)) accumulator.accept(result, war, attack);
+        }, combiner);
+    }
+
+    /**
+     * Same result as {@link #reduceAttacks}, but whole days are read from the {@link WarCostRollup} instead of decoding their attacks
+     * Only the partial days at either end of the range are read from the attacks
+     * Falls back to the attacks when a filter other than attack type is set, or the individual attacks are needed
+     */
+    private <T> T reduceCosts(boolean inclAttacks, Supplier<T> supplier, TriConsumer<T, DBWar, AbstractCursor> accumulator, TriConsumer<T, DBWar, WarCostRollup.Cell> cellAccumulator, BinaryOperator<T> combiner) {
+        WarCostRollup rollup = Locutus.imp().getWarDb().getWarCostRollup();
+        if (inclAttacks || customFilter || !rollup.isReady()) {
+            return reduceAttacks(supplier, accumulator, combiner);
+        }
+        Map<Integer, DBWar> wars = getWars();
+        Set<Integer> alliances = new IntOpenHashSet(coal1Alliances);
+        alliances.addAll(coal2Alliances);
+        Set<Integer> nations = new IntOpenHashSet(coal1Nations);
+        nations.addAll(coal2Nations);
+        if (wars.size() > WarCostRollup.WAR_ID_FILTER_LIMIT && alliances.isEmpty() && nations.isEmpty()) {
+            return reduceAttacks(supplier, accumulator, combiner);
+        }
+
+        long now = System.currentTimeMillis();
+        long startDay = WarCostRollup.getDay(start);
+        if (WarCostRollup.getDayStart(startDay) < start) startDay++;
+        long endDay = WarCostRollup.getDay(Math.min(end, now));
+        boolean toNow = end >= now;
+        if (!toNow && WarCostRollup.getDayStart(endDay + 1) - 1 > end) endDay--;
+        if (startDay > endDay) {
+            return reduceAttacks(supplier, accumulator, combiner);
+        }
+        long rollupStart = WarCostRollup.getDayStart(startDay);
+        long rollupEnd = WarCostRollup.getDayStart(endDay + 1) - 1;
+
+        T result = start < rollupStart ? reduceAttacks(start, rollupStart - 1, supplier, accumulator, combiner) : null;
+        T days = supplier.get();
+        rollup.iterate(startDay, endDay, wars, attackTypes, alliances, nations, (war, cell) -> cellAccumulator.accept(days, war, cell));
+        result = result == null ? days : combiner.apply(result, days);
+        if (!toNow && end > rollupEnd) {
+            result = combiner.apply(result, reduceAttacks(rollupEnd + 1, end, supplier, accumulator, combiner));
+        }
+        return result;
+    }
+
+    private static <K> Map<K, AttackCost> mergeCosts(Map<K, AttackCost> a, Map<K, AttackCost> b) {
+        for (Map.Entry<K, AttackCost> entry : b.entrySet()) {
+            AttackCost existing = a.get(entry.getKey());
+            if (existing == null) {
+                a.put(entry.getKey(), entry.getValue());
+            } else {
+                existing.addCost(entry.getValue());
+            }
+        }
+        return a;
+    }
+
     public Function<DBWar, Boolean> getIsPrimary() {
         return isPrimary;
     }
@@ -202,20 +290,24 @@ public class WarParser {
         return isSecondary;
     }
 
+    private boolean isAttackPrimary(DBWar war, int attackerId) {
+        if (war == null) return false;
+        boolean isWarPrimary = isPrimary.apply(war);
+        return (isWarPrimary ? war.getAttacker_id() : war.getDefender_id()) == attackerId;
+    }
+
+    private boolean isAttackSecondary(DBWar war, int attackerId) {
+        if (war == null) return false;
+        boolean isWarSecondary = isSecondary.apply(war);
+        return (isWarSecondary ? war.getAttacker_id() : war.getDefender_id()) == attackerId;
+    }
+
     public BiFunction<DBWar, AbstractCursor, Boolean> getAttackPrimary() {
-        return (war, attack) -> {
-            if (war == null) return false;
-            boolean isWarPrimary = isPrimary.apply(war);
-            return (isWarPrimary ? war.getAttacker_id() : war.getDefender_id()) == attack.getAttacker_id();
-        };
+        return (war, attack) -> isAttackPrimary(war, attack.getAttacker_id());
     }
 
     public BiFunction<DBWar, AbstractCursor, Boolean> getAttackSecondary() {
-        return (war, attack) -> {
-            if (war == null) return false;
-            boolean isWarSecondary = isSecondary.apply(war);
-            return (isWarSecondary ? war.getAttacker_id() : war.getDefender_id()) == attack.getAttacker_id();
-        };
+        return (war, attack) -> isAttackSecondary(war, attack.getAttacker_id());
     }
 
     public AttackTypeBreakdown toBreakdown() {
@@ -227,11 +319,15 @@ public class WarParser {
     }
 
     public AttackCost toWarCost(boolean buildings, boolean ids, boolean victories, boolean wars, boolean attacks) {
-        AttackCost cost = new AttackCost(nameA, nameB, buildings, ids, victories, wars, attacks);
-        getAttacks().accept((war, attack) -> {
-            cost.addCost(attack, war, getAttackPrimary(), getAttackSecondary());
-        });
-        return cost;
+        BiFunction<DBWar, AbstractCursor, Boolean> attPrimary = getAttackPrimary();
+        BiFunction<DBWar, AbstractCursor, Boolean> attSecondary = getAttackSecondary();
+        return reduceCosts(attacks, () -> new AttackCost(nameA, nameB, buildings, ids, victories, wars, attacks),
+                (cost, war, attack) -> cost.addCost(attack, war, attPrimary, attSecondary),
+                (cost, war, cell) -> cost.addCost(cell, isAttackPrimary(war, cell.getAttackerId()), isAttackSecondary(war, cell.getAttackerId())),
+                (a, b) -> {
+                    a.addCost(b);
+                    return a;
+                });
     }
 
     public <T> Map<T, AttackTypeBreakdown> groupBreakdownByAttack(Function<AbstractCursor, T> groupFunc) {
@@ -261,8 +357,7 @@ public class WarParser {
     public Map<Long, AttackCost> toWarCostByDay(boolean buildings, boolean ids, boolean victories, boolean wars, boolean attacks) {
         BiFunction<DBWar, AbstractCursor, Boolean> attPrimary = getAttackPrimary();
         BiFunction<DBWar, AbstractCursor, Boolean> attSecondary = getAttackSecondary();
-        Map<Long, AttackCost> warCostByDay = new LinkedHashMap<>();
-        getAttacks().accept((war, attack) -> {
+        return reduceCosts(attacks, LinkedHashMap::new, (Map<Long, AttackCost> warCostByDay, DBWar war, AbstractCursor attack) -> {
             if (attack.getDate() > System.currentTimeMillis()) {
                 Logg.info("attack id:" + attack.getWar_attack_id() + " is in future");
             }
@@ -270,15 +365,16 @@ public class WarParser {
             long day = turn / 12;
             AttackCost cost = warCostByDay.computeIfAbsent(day, f -> new AttackCost(nameA, nameB, buildings, ids, victories, wars, attacks));
             cost.addCost(attack, war, attPrimary, attSecondary);
-        });
-        return warCostByDay;
+        }, (warCostByDay, war, cell) -> {
+            AttackCost cost = warCostByDay.computeIfAbsent(cell.getDay(), f -> new AttackCost(nameA, nameB, buildings, ids, victories, wars, attacks));
+            cost.addCost(cell, isAttackPrimary(war, cell.getAttackerId()), isAttackSecondary(war, cell.getAttackerId()));
+        }, WarParser::mergeCosts);
     }
 
     public Map<Integer, AttackCost> toWarCostByNation(boolean buildings, boolean ids, boolean victories, boolean wars, boolean attacks) {
-        Map<Integer, AttackCost> warCostByNation = new HashMap<>();
         BiFunction<DBWar, AbstractCursor, Boolean> attPrimary = getAttackPrimary();
         BiFunction<DBWar, AbstractCursor, Boolean> attSecondary = getAttackSecondary();
-        getAttacks().accept((war, attack) -> {
+        return reduceCosts(attacks, HashMap::new, (Map<Integer, AttackCost> warCostByNation, DBWar war, AbstractCursor attack) -> {
             if (!attPrimary.apply(war, attack) && !attSecondary.apply(war, attack)) return;
             {
                 String other = attPrimary.apply(war, attack) ? nameB : nameA;
@@ -290,15 +386,27 @@ public class WarParser {
                 AttackCost cost = warCostByNation.computeIfAbsent(attack.getDefender_id(), f -> new AttackCost(PW.getName(attack.getDefender_id(), false), other, buildings, ids, victories, wars, attacks));
                 cost.addCost(attack, war, false);
             }
-        });
-        return warCostByNation;
+        }, (warCostByNation, war, cell) -> {
+            boolean primary = isAttackPrimary(war, cell.getAttackerId());
+            boolean secondary = isAttackSecondary(war, cell.getAttackerId());
+            if (!primary && !secondary) return;
+            {
+                String other = primary ? nameB : nameA;
+                AttackCost cost = warCostByNation.computeIfAbsent(cell.getAttackerId(), f -> new AttackCost(PW.getName(cell.getAttackerId(), false), other, buildings, ids, victories, wars, attacks));
+                cost.addCost(cell, true, false);
+            }
+            {
+                String other = secondary ? nameA : nameB;
+                AttackCost cost = warCostByNation.computeIfAbsent(cell.getDefenderId(), f -> new AttackCost(PW.getName(cell.getDefenderId(), false), other, buildings, ids, victories, wars, attacks));
+                cost.addCost(cell, false, true);
+            }
+        }, WarParser::mergeCosts);
     }
 
     public Map<Integer, AttackCost> toWarCostByAlliance(boolean buildings, boolean ids, boolean victories, boolean wars, boolean attacks) {
-        Map<Integer, AttackCost> warCostByAA = new HashMap<>();
         BiFunction<DBWar, AbstractCursor, Boolean> attPrimary = getAttackPrimary();
         BiFunction<DBWar, AbstractCursor, Boolean> attSecondary = getAttackSecondary();
-        getAttacks().accept((war, attack) -> {
+        return reduceCosts(attacks, HashMap::new, (Map<Integer, AttackCost> warCostByAA, DBWar war, AbstractCursor attack) -> {
             {
                 String other = attPrimary.apply(war, attack) ? nameB : nameA;
                 AttackCost cost = warCostByAA.computeIfAbsent(war.getAttacker_aa(), f -> new AttackCost(PW.getName(war.getAttacker_aa(), true), other, buildings, ids, victories, wars, attacks));
@@ -310,8 +418,19 @@ public class WarParser {
                 AttackCost cost = warCostByAA.computeIfAbsent(war.getDefender_aa(), f -> new AttackCost(PW.getName(war.getDefender_aa(), true), other, buildings, ids, victories, wars, attacks));
                 cost.addCost(attack, war, false);
             }
-        });
-        return warCostByAA;
+        }, (warCostByAA, war, cell) -> {
+            {
+                String other = isAttackPrimary(war, cell.getAttackerId()) ? nameB : nameA;
+                AttackCost cost = warCostByAA.computeIfAbsent(war.getAttacker_aa(), f -> new AttackCost(PW.getName(war.getAttacker_aa(), true), other, buildings, ids, victories, wars, attacks));
+                cost.addCost(cell, true, false);
+            }
+
+            {
+                String other = isAttackSecondary(war, cell.getAttackerId()) ? nameA : nameB;
+                AttackCost cost = warCostByAA.computeIfAbsent(war.getDefender_aa(), f -> new AttackCost(PW.getName(war.getDefender_aa(), true), other, buildings, ids, victories, wars, attacks));
+                cost.addCost(cell, false, true);
+            }
+        }, WarParser::mergeCosts);
     }
 
     public Map<Integer, AttackTypeBreakdown> toAttackTypeByNation() {
@@ -12,6 +12,9 @@ import link.locutus.discord.apiv3.enums.AttackTypeSubCategory;
 import link.locutus.discord.db.entities.DBWar;
 import link.locutus.discord.db.entities.WarStatus;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Locale;
 import java.util.Map;
@@ -219,6 +222,114 @@ public class DamageStatGroup {
         successTypes[attack.getSuccess().ordinal()]++;
     }
 
+    /**
+     * Write the stats for a conflict checkpoint, only the non zero array entries are written
+     * The array lengths are part of {@link #getFormatHash()}, so checkpoints are discarded when an enum changes
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeChar(totalWars);
+        out.writeChar(activeWars);
+        out.writeInt(attacks);
+        out.writeChar(warsWon);
+        out.writeChar(warsLost);
+        out.writeChar(warsExpired);
+        out.writeChar(warsPeaced);
+        out.writeLong(infraCents);
+        writeSparse(out, attackTypes);
+        writeSparse(out, attackSubTypes);
+        writeSparse(out, successTypes);
+        writeSparse(out, warTypes);
+        writeSparse(out, buildings);
+        writeSparse(out, totalCost);
+        writeSparse(out, consumption);
+        writeSparse(out, loot);
+        writeSparse(out, costByUnit);
+        int count = 0;
+        for (int value : units) if (value != 0) count++;
+        out.writeByte(count);
+        for (int i = 0; i < units.length; i++) {
+            if (units[i] == 0) continue;
+            out.writeByte(i);
+            out.writeInt(units[i]);
+        }
+    }
+
+    public void read(DataInput in) throws IOException {
+        clear();
+        totalWars = in.readChar();
+        activeWars = in.readChar();
+        attacks = in.readInt();
+        warsWon = in.readChar();
+        warsLost = in.readChar();
+        warsExpired = in.readChar();
+        warsPeaced = in.readChar();
+        infraCents = in.readLong();
+        readSparse(in, attackTypes);
+        readSparse(in, attackSubTypes);
+        readSparse(in, successTypes);
+        readSparse(in, warTypes);
+        readSparse(in, buildings);
+        readSparse(in, totalCost);
+        readSparse(in, consumption);
+        readSparse(in, loot);
+        readSparse(in, costByUnit);
+        int count = in.readUnsignedByte();
+        for (int i = 0; i < count; i++) {
+            units[in.readUnsignedByte()] = in.readInt();
+        }
+    }
+
+    private static void writeSparse(DataOutput out, char[] values) throws IOException {
+        int count = 0;
+        for (char value : values) if (value != 0) count++;
+        out.writeByte(count);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == 0) continue;
+            out.writeByte(i);
+            out.writeChar(values[i]);
+        }
+    }
+
+    private static void writeSparse(DataOutput out, double[] values) throws IOException {
+        int count = 0;
+        for (double value : values) if (value != 0) count++;
+        out.writeByte(count);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == 0) continue;
+            out.writeByte(i);
+            out.writeDouble(values[i]);
+        }
+    }
+
+    private static void readSparse(DataInput in, char[] values) throws IOException {
+        int count = in.readUnsignedByte();
+        for (int i = 0; i < count; i++) {
+            values[in.readUnsignedByte()] = in.readChar();
+        }
+    }
+
+    private static void readSparse(DataInput in, double[] values) throws IOException {
+        int count = in.readUnsignedByte();
+        for (int i = 0; i < count; i++) {
+            values[in.readUnsignedByte()] = in.readDouble();
+        }
+    }
+
+    /**
+     * @return a hash of the array lengths used by {@link #write(DataOutput)}
+     */
+    public static long getFormatHash() {
+        long hash = 1;
+        hash = hash * 31 + AttackType.values.length;
+        hash = hash * 31 + AttackTypeSubCategory.values.length;
+        hash = hash * 31 + SuccessType.values.length;
+        hash = hash * 31 + WarType.values.length;
+        hash = hash * 31 + ResourceType.values.length;
+        hash = hash * 31 + MilitaryUnit.values.length;
+        hash = hash * 31 + Buildings.values().length;
+        return hash;
+    }
+
     public double getInfra() {
         return infraCents * 0.01;
     }
@@ -12,8 +12,6 @@ import link.locutus.discord.apiv1.enums.city.building.Buildings;
 import link.locutus.discord.apiv1.enums.city.project.Project;
 import link.locutus.discord.apiv1.enums.city.project.Projects;
 import link.locutus.discord.apiv3.csv.DataDumpParser;
-import link.locutus.discord.apiv3.csv.file.CitiesFile;
-import link.locutus.discord.apiv3.csv.file.NationsFile;
 import link.locutus.discord.apiv3.csv.header.CityHeaderReader;
 import link.locutus.discord.apiv3.csv.header.NationHeaderReader;
 import link.locutus.discord.commands.manager.v2.table.TableNumberFormat;
@@ -22,11 +20,9 @@ import link.locutus.discord.db.handlers.AttackQuery;
 import link.locutus.discord.util.PW;
 import link.locutus.discord.util.TimeUtil;
 import link.locutus.discord.util.scheduler.KeyValue;
-import link.locutus.discord.util.scheduler.ThrowingBiConsumer;
 import link.locutus.discord.util.scheduler.TriConsumer;
 
 import java.io.IOException;
-import java.sql.PreparedStatement;
 import java.text.ParseException;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
@@ -67,24 +63,26 @@ public enum AllianceMetric implements IAllianceMetric {
             return (double) alliance.getNations().stream().filter(f -> f.getVm_turns() != 0 && f.getPosition() > Rank.APPLICANT.id).count();
         }
 
-        private final Map<Integer, Integer> vmByAA = new Int2IntOpenHashMap();
+        private final Int2IntOpenHashMap vmByAA = new Int2IntOpenHashMap();
 
         @Override
         public void setupReaders(DataDumpImporter importer) {
-            importer.setNationReader(this, (day, r) -> {
+            importer.setNationReader(this, h -> List.of(), (day, r) -> {
                 Rank position = r.header.alliance_position.get();
                 if (position.id <= Rank.APPLICANT.id) return;
-                int allianceId = r.header.alliance_id.get();
+                int allianceId = r.header.alliance_id.getInt();
                 if (allianceId == 0) return;
-                Integer vmTurns = r.header.vm_turns.get();
-                if (vmTurns == null || vmTurns == 0) return;
-                vmByAA.merge(allianceId, 1, Integer::sum);
+                if (r.header.vm_turns.getIndex() == -1 || r.header.vm_turns.getInt() == 0) return;
+                vmByAA.addTo(allianceId, 1);
             });
         }
 
         @Override
         public Map<Integer, Double> getDayValue(DataDumpImporter importer, long day) {
-            Map<Integer, Double> result = vmByAA.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, f -> (double) f.getValue()));
+            Int2DoubleOpenHashMap result = new Int2DoubleOpenHashMap(vmByAA.size());
+            for (Int2IntMap.Entry entry : vmByAA.int2IntEntrySet()) {
+                result.put(entry.getIntKey(), entry.getIntValue());
+            }
             vmByAA.clear();
             return result;
         }
@@ -107,24 +105,26 @@ public enum AllianceMetric implements IAllianceMetric {
             return nations.stream().filter(f -> f.getVm_turns() != 0 && f.getPosition() > Rank.APPLICANT.id).count() / (double) nations.size();
         }
 
-        private final Map<Integer, Integer> vmByAA = new Int2IntOpenHashMap();
+        private final Int2IntOpenHashMap vmByAA = new Int2IntOpenHashMap();
 
         @Override
         public void setupReaders(DataDumpImporter importer) {
-            importer.setNationReader(this, (day, r) -> {
+            importer.setNationReader(this, h -> List.of(), (day, r) -> {
                 Rank position = r.header.alliance_position.get();
                 if (position.id <= Rank.APPLICANT.id) return;
-                int allianceId = r.header.alliance_id.get();
+                int allianceId = r.header.alliance_id.getInt();
                 if (allianceId == 0) return;
-                Integer vm_turns = r.header.vm_turns.get();
-                if (vm_turns == null || vm_turns == 0) return;
-                vmByAA.merge(allianceId, 1, Integer::sum);
+                if (r.header.vm_turns.getIndex() == -1 || r.header.vm_turns.getInt() == 0) return;
+                vmByAA.addTo(allianceId, 1);
             });
         }
 
         @Override
         public Map<Integer, Double> getDayValue(DataDumpImporter importer, long day) {
-            Map<Integer, Double> result = vmByAA.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, f -> (double) f.getValue()));
+            Int2DoubleOpenHashMap result = new Int2DoubleOpenHashMap(vmByAA.size());
+            for (Int2IntMap.Entry entry : vmByAA.int2IntEntrySet()) {
+                result.put(entry.getIntKey(), entry.getIntValue());
+            }
             vmByAA.clear();
             return result;
         }
@@ -437,33 +437,18 @@ public enum AllianceMetric implements IAllianceMetric {
             return total;
         }
 
-        private final Map<Integer, Integer> allianceByNationId = new Int2IntOpenHashMap();
-        private final Map<Integer, Double> infraValueByAA = new Int2DoubleOpenHashMap();
+        private final Int2DoubleOpenHashMap infraValueByAA = new Int2DoubleOpenHashMap();
 
         @Override
         public void setupReaders(DataDumpImporter importer) {
-            importer.setNationReader(this, new BiConsumer<Long, NationHeaderReader>() {
-                @Override
-                public void accept(Long day, NationHeaderReader r) {
-                    Rank position = r.header.alliance_position.get();
-                    if (position.id <= Rank.APPLICANT.id) return;
-                    int allianceId = r.header.alliance_id.get();
-                    if (allianceId == 0) return;
-                    Integer vm_turns = r.header.vm_turns.get();
-                    if (vm_turns == null || vm_turns > 0) return;
-                    allianceByNationId.put(r.header.nation_id.get(), allianceId);
-                }
-            });
-
-            importer.setCityReader(this, new BiConsumer<Long, CityHeaderReader>() {
+            importer.setCityReader(this, h -> List.of(h.infrastructure), new BiConsumer<Long, CityHeaderReader>() {
                 @Override
                 public void accept(Long day, CityHeaderReader r) {
-                    int nationId = r.header.nation_id.get();
-                    Integer allianceId = allianceByNationId.get(nationId);
-                    if (allianceId == null || allianceId == 0) return;
-                    double infra = r.header.infrastructure.get();
+                    int allianceId = importer.getMemberAllianceId(r.header.nation_id.getInt());
+                    if (allianceId == 0) return;
+                    double infra = r.header.infrastructure.getDouble();
                     double value = PW.City.Infra.calculateInfra(0, infra);
-                    infraValueByAA.merge(allianceId, value, Double::sum);
+                    infraValueByAA.addTo(allianceId, value);
                 }
             });
 
@@ -472,8 +457,7 @@ public enum AllianceMetric implements IAllianceMetric {
 
         @Override
         public Map<Integer, Double> getDayValue(DataDumpImporter importer, long day) {
-            Map<Integer, Double> result = infraValueByAA.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-            allianceByNationId.clear();
+            Map<Integer, Double> result = new Int2DoubleOpenHashMap(infraValueByAA);
             infraValueByAA.clear();
             return result;
         }
@@ -496,41 +480,25 @@ public enum AllianceMetric implements IAllianceMetric {
             return total;
         }
 
-        private final Map<Integer, Integer> allianceByNationId = new Int2IntOpenHashMap();
-        private final Map<Integer, Double> landValueByAA = new Int2DoubleOpenHashMap();
+        private final Int2DoubleOpenHashMap landValueByAA = new Int2DoubleOpenHashMap();
 
         @Override
         public void setupReaders(DataDumpImporter importer) {
-            importer.setNationReader(this, new BiConsumer<Long, NationHeaderReader>() {
-                @Override
-                public void accept(Long day, NationHeaderReader r) {
-                    Rank position = r.header.alliance_position.get();
-                    if (position.id <= Rank.APPLICANT.id) return;
-                    int allianceId = r.header.alliance_id.get();
-                    if (allianceId == 0) return;
-                    Integer vm_turns = r.header.vm_turns.get();
-                    if (vm_turns == null || vm_turns > 0) return;
-                    allianceByNationId.put(r.header.nation_id.get(), allianceId);
-                }
-            });
-
-            importer.setCityReader(this, new BiConsumer<Long, CityHeaderReader>() {
+            importer.setCityReader(this, h -> List.of(h.land), new BiConsumer<Long, CityHeaderReader>() {
                 @Override
                 public void accept(Long day, CityHeaderReader r) {
-                    int nationId = r.header.nation_id.get();
-                    Integer allianceId = allianceByNationId.get(nationId);
-                    if (allianceId == null || allianceId == 0) return;
-                    double land = r.header.land.get();
+                    int allianceId = importer.getMemberAllianceId(r.header.nation_id.getInt());
+                    if (allianceId == 0) return;
+                    double land = r.header.land.getDouble();
                     double value = PW.City.Land.calculateLand(0, land);
-                    landValueByAA.merge(allianceId, value, Double::sum);
+                    landValueByAA.addTo(allianceId, value);
                 }
             });
         }
 
         @Override
         public Map<Integer, Double> getDayValue(DataDumpImporter importer, long day) {
-            Map<Integer, Double> result = landValueByAA.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-            allianceByNationId.clear();
+            Map<Integer, Double> result = new Int2DoubleOpenHashMap(landValueByAA);
             landValueByAA.clear();
             return result;
         }
@@ -560,22 +528,18 @@ public enum AllianceMetric implements IAllianceMetric {
             return (tankPct + soldierPct) / 2d;
         }
 
-        private final Map<Integer, Integer> soldiersByAA = new Int2IntOpenHashMap();
-        private final Map<Integer, Integer> tanksByAA = new Int2IntOpenHashMap();
-        private final Map<Integer, Integer> citiesByAA = new Int2IntOpenHashMap();
+        private final Int2IntOpenHashMap soldiersByAA = new Int2IntOpenHashMap();
+        private final Int2IntOpenHashMap tanksByAA = new Int2IntOpenHashMap();
+        private final Int2IntOpenHashMap citiesByAA = new Int2IntOpenHashMap();
 
         @Override
         public void setupReaders(DataDumpImporter importer) {
-            importer.setNationReader(this, (day, r) -> {
-                Rank position = r.header.alliance_position.get();
-                if (position.id <= Rank.APPLICANT.id) return;
-                int allianceId = r.header.alliance_id.get();
+            importer.setNationReader(this, h -> List.of(h.soldiers, h.tanks, h.cities), (day, r) -> {
+                int allianceId = importer.getMemberAllianceId();
                 if (allianceId == 0) return;
-                Integer vm_turns = r.header.vm_turns.get();
-                if (vm_turns == null || vm_turns > 0) return;
-                soldiersByAA.merge(allianceId, r.header.soldiers.get(), Integer::sum);
-                tanksByAA.merge(allianceId, r.header.tanks.get(), Integer::sum);
-                citiesByAA.merge(allianceId, r.header.cities.get(), Integer::sum);
+                soldiersByAA.addTo(allianceId, r.header.soldiers.getInt());
+                tanksByAA.addTo(allianceId, r.header.tanks.getInt());
+                citiesByAA.addTo(allianceId, r.header.cities.getInt());
             });
 
         }
@@ -584,12 +548,13 @@ public enum AllianceMetric implements IAllianceMetric {
         public Map<Integer, Double> getDayValue(DataDumpImporter importer, long day) {
             int tankCap = Buildings.FACTORY.cap(Predicates.alwaysFalse()) * Buildings.FACTORY.getUnitCap();
             int soldierCap = Buildings.BARRACKS.cap(Predicates.alwaysFalse()) * Buildings.BARRACKS.getUnitCap();
-            Map<Integer, Double> result = soldiersByAA.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, f -> {
-                int tanks = tanksByAA.get(f.getKey());
-                int soldiers = f.getValue();
-                int cities = citiesByAA.get(f.getKey());
-                return ((double) tanks / (cities * tankCap) + (double) soldiers / (cities * soldierCap)) / 2d;
-            }));
+            Int2DoubleOpenHashMap result = new Int2DoubleOpenHashMap(soldiersByAA.size());
+            for (Int2IntMap.Entry entry : soldiersByAA.int2IntEntrySet()) {
+                int tanks = tanksByAA.get(entry.getIntKey());
+                int soldiers = entry.getIntValue();
+                int cities = citiesByAA.get(entry.getIntKey());
+                result.put(entry.getIntKey(), ((double) tanks / (cities * tankCap) + (double) soldiers / (cities * soldierCap)) / 2d);
+            }
             soldiersByAA.clear();
             tanksByAA.clear();
             citiesByAA.clear();
@@ -1151,19 +1116,7 @@ public enum AllianceMetric implements IAllianceMetric {
 //    }
 
     public static void saveAll(List<AllianceMetricValue> values, boolean replace) {
-        if (values.isEmpty()) return;
-        int chunkSize = 10000;
-        for (int i = 0; i < values.size(); i += chunkSize) {
-            int end = Math.min(i + chunkSize, values.size());
-            List<AllianceMetricValue> subList = values.subList(i, end);
-            String keyWord = replace ? "REPLACE" : "IGNORE";
-            Locutus.imp().getNationDB().executeBatch(subList, "INSERT OR " + keyWord + " INTO `ALLIANCE_METRICS`(`alliance_id`, `metric`, `turn`, `value`) VALUES(?, ?, ?, ?)", (ThrowingBiConsumer<AllianceMetricValue, PreparedStatement>) (value, stmt) -> {
-                stmt.setInt(1, value.alliance);
-                stmt.setInt(2, value.metric.ordinal());
-                stmt.setLong(3, value.turn);
-                stmt.setDouble(4, value.value);
-            });
-        }
+        Locutus.imp().getNationDB().addAllianceMetrics(values, !replace);
     }
 
     private static Map.Entry<Integer, double[]> aaRevenueCache;
@@ -1289,14 +1242,8 @@ public enum AllianceMetric implements IAllianceMetric {
         BiConsumer<Long, NationHeaderReader> nationRows = importer.getNationReader();
         BiConsumer<Long, CityHeaderReader> cityRows = importer.getCityReader();
 
-        parser.iterateFiles(new TriConsumer<Long, NationsFile, CitiesFile>() {
-            @Override
-            public void accept(Long day, NationsFile nf, CitiesFile cf) {
-                if (!acceptDay.test(day)) return;
-
-            }
-        });
-        parser.iterateAll(acceptDay, null, null, nationRows, cityRows, new Consumer<Long>() {
+        // one scan per day for all the metrics, reading only the columns they declared
+        parser.iterateAll(acceptDay, importer.getNationColumns(), importer.getCityColumns(), nationRows, cityRows, new Consumer<Long>() {
             @Override
             public void accept(Long day) {
                 for (IAllianceMetric metric : metrics) {
@@ -1305,6 +1252,7 @@ public enum AllianceMetric implements IAllianceMetric {
                         metricDayData.accept(metric, day, value);
                     }
                 }
+                importer.clearDay();
             }
         });
 
@@ -1,8 +1,9 @@
 package link.locutus.discord.db.entities.metric;
 
 import com.google.common.base.Predicates;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
 import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
-import link.locutus.discord.apiv1.enums.Rank;
 import link.locutus.discord.apiv1.enums.city.building.Building;
 import link.locutus.discord.apiv1.enums.city.building.MilitaryBuilding;
 import link.locutus.discord.apiv3.csv.column.BuildingColumn;
@@ -17,7 +18,6 @@ import java.util.Map;
 import java.util.Set;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 
 public class BuildingPctMetric implements IAllianceMetric {
     private final Function<CityHeader, BuildingColumn> getHeader;
@@ -39,35 +39,26 @@ public class BuildingPctMetric implements IAllianceMetric {
         return count / (double) (cities * building.cap(Predicates.alwaysFalse()));
     }
 
-    private final Map<Integer, Integer> allianceByNationId = new Int2IntOpenHashMap();
-    private final Map<Integer, Integer> citiesByAA = new Int2IntOpenHashMap();
-    private final Map<Integer, Integer> buildingsByAA = new Int2IntOpenHashMap();
+    private final Int2IntOpenHashMap citiesByAA = new Int2IntOpenHashMap();
+    private final Int2IntOpenHashMap buildingsByAA = new Int2IntOpenHashMap();
 
     @Override
     public void setupReaders(IAllianceMetric metric, DataDumpImporter importer) {
-        importer.setNationReader(metric, new BiConsumer<Long, NationHeaderReader>() {
+        importer.setNationReader(metric, h -> List.of(h.cities), new BiConsumer<Long, NationHeaderReader>() {
             @Override
             public void accept(Long day, NationHeaderReader r) {
-                Rank position = r.header.alliance_position.get();
-                if (position.id <= Rank.APPLICANT.id) return;
-                int allianceId = r.header.alliance_id.get();
+                int allianceId = importer.getMemberAllianceId();
                 if (allianceId == 0) return;
-                Integer vm_turns = r.header.vm_turns.get();
-                if (vm_turns == null || vm_turns > 0) return;
-                allianceByNationId.put(r.header.nation_id.get(), allianceId);
-                int cities = r.header.cities.get();
-                citiesByAA.merge(allianceId, cities, Integer::sum);
+                citiesByAA.addTo(allianceId, r.header.cities.getInt());
             }
         });
 
-        importer.setCityReader(metric, new BiConsumer<Long, CityHeaderReader>() {
+        importer.setCityReader(metric, h -> List.of(getHeader.apply(h)), new BiConsumer<Long, CityHeaderReader>() {
             @Override
             public void accept(Long day, CityHeaderReader r) {
-                int nationId = r.header.nation_id.get();
-                Integer allianceId = allianceByNationId.get(nationId);
-                if (allianceId == null || allianceId == 0) return;
-                int num = getHeader.apply(r.header).get();
-                buildingsByAA.merge(allianceId, num, Integer::sum);
+                int allianceId = importer.getMemberAllianceId(r.header.nation_id.getInt());
+                if (allianceId == 0) return;
+                buildingsByAA.addTo(allianceId, getHeader.apply(r.header).getInt());
             }
         });
 
@@ -76,8 +67,12 @@ public class BuildingPctMetric implements IAllianceMetric {
     @Override
     public Map<Integer, Double> getDayValue(DataDumpImporter importer, long day) {
         int buildingsPerCity = building.cap(Predicates.alwaysFalse());
-        Map<Integer, Double> result = buildingsByAA.entrySet().stream().filter(f -> citiesByAA.containsKey(f.getKey())).collect(Collectors.toMap(Map.Entry::getKey, f -> (double) f.getValue() / (citiesByAA.get(f.getKey()) * buildingsPerCity)));
-        allianceByNationId.clear();
+        Int2DoubleOpenHashMap result = new Int2DoubleOpenHashMap(buildingsByAA.size());
+        for (Int2IntMap.Entry entry : buildingsByAA.int2IntEntrySet()) {
+            int cities = citiesByAA.get(entry.getIntKey());
+            if (cities == 0) continue;
+            result.put(entry.getIntKey(), (double) entry.getIntValue() / (cities * buildingsPerCity));
+        }
         citiesByAA.clear();
         buildingsByAA.clear();
         return result;
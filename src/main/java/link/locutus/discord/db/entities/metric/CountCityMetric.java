@@ -1,9 +1,9 @@
 package link.locutus.discord.db.entities.metric;
 
 import com.google.common.base.Predicates;
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
 import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
 import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
-import link.locutus.discord.apiv1.enums.Rank;
 import link.locutus.discord.apiv3.csv.column.NumberColumn;
 import link.locutus.discord.apiv3.csv.header.CityHeader;
 import link.locutus.discord.apiv3.csv.header.CityHeaderReader;
@@ -17,7 +17,6 @@ import java.util.Map;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 public class CountCityMetric implements IAllianceMetric {
     private final Function<DBCity, Double> countCity;
@@ -69,29 +68,21 @@ public class CountCityMetric implements IAllianceMetric {
         };
     }
 
-    private final Map<Integer, Integer> allianceByNationId = new Int2IntOpenHashMap();
-    private final Map<Integer, Double> countByAA = new Int2DoubleOpenHashMap();
-    private final Map<Integer, Integer> countModeByAA = new Int2IntOpenHashMap();
+    private final Int2DoubleOpenHashMap countByAA = new Int2DoubleOpenHashMap();
+    private final Int2IntOpenHashMap countModeByAA = new Int2IntOpenHashMap();
     @Override
     public void setupReaders(IAllianceMetric metric, DataDumpImporter importer) {
-        importer.setNationReader(metric, new BiConsumer<Long, NationHeaderReader>() {
+        importer.setNationReader(metric, h -> List.of(h.cities), new BiConsumer<Long, NationHeaderReader>() {
             @Override
             public void accept(Long day, NationHeaderReader r) {
-                Rank position = r.header.alliance_position.get();
-                if (position.id <= Rank.APPLICANT.id) return;
-                int allianceId = r.header.alliance_id.get();
+                int allianceId = importer.getMemberAllianceId();
                 if (allianceId == 0) return;
-                Integer vmTurns = r.header.vm_turns.get();
-                if (vmTurns == null || vmTurns > 0) return;
-                int nationId = r.header.nation_id.get();
-                allianceByNationId.put(nationId, allianceId);
                 switch (mode) {
                     case PER_NATION:
-                        countModeByAA.merge(allianceId, 1, Integer::sum);
+                        countModeByAA.addTo(allianceId, 1);
                         break;
                     case PER_CITY:
-                        int cities = r.header.cities.get();
-                        countModeByAA.merge(allianceId, cities, Integer::sum);
+                        countModeByAA.addTo(allianceId, r.header.cities.getInt());
                         break;
                     case TOTAL:
                         countModeByAA.put(allianceId, 1);
@@ -99,20 +90,19 @@ public class CountCityMetric implements IAllianceMetric {
             }
         });
 
-        importer.setCityReader(metric, new BiConsumer<Long, CityHeaderReader>() {
+        importer.setCityReader(metric, getHeader == null ? null : h -> List.of(getHeader.apply(h)), new BiConsumer<Long, CityHeaderReader>() {
             @Override
             public void accept(Long day, CityHeaderReader r) {
-                int nationId = r.header.nation_id.get();
-                Integer allianceId = allianceByNationId.get(nationId);
-                if (allianceId == null) return;
+                int allianceId = importer.getMemberAllianceId(r.header.nation_id.getInt());
+                if (allianceId == 0) return;
                 double value;
                 if (getHeader == null) {
                     DBCity city = r.getCity();
                     value = countCity.apply(city);
                 } else {
-                    value = getHeader.apply(r.header).get().doubleValue();
+                    value = getHeader.apply(r.header).getDouble();
                 }
-                countByAA.merge(allianceId, value, Double::sum);
+                countByAA.addTo(allianceId, value);
             }
         });
 
@@ -120,7 +110,12 @@ public class CountCityMetric implements IAllianceMetric {
 
     @Override
     public Map<Integer, Double> getDayValue(DataDumpImporter importer, long day) {
-        Map<Integer, Double> result = countByAA.entrySet().stream().filter(f -> countModeByAA.containsKey(f.getKey())).collect(Collectors.toMap(Map.Entry::getKey, f -> (double) f.getValue() / (double) countModeByAA.get(f.getKey())));
+        Int2DoubleOpenHashMap result = new Int2DoubleOpenHashMap(countByAA.size());
+        for (Int2DoubleMap.Entry entry : countByAA.int2DoubleEntrySet()) {
+            int count = countModeByAA.get(entry.getIntKey());
+            if (count == 0) continue;
+            result.put(entry.getIntKey(), entry.getDoubleValue() / count);
+        }
         countByAA.clear();
         countModeByAA.clear();
         return result;
@@ -1,10 +1,12 @@
 package link.locutus.discord.db.entities.metric;
 
 import com.google.common.base.Predicates;
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
 import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
 import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import link.locutus.discord.apiv1.enums.Rank;
+import link.locutus.discord.apiv3.csv.ColumnInfo;
 import link.locutus.discord.apiv3.csv.column.NumberColumn;
 import link.locutus.discord.apiv3.csv.header.CityHeaderReader;
 import link.locutus.discord.apiv3.csv.header.NationHeader;
@@ -19,7 +21,6 @@ import java.util.Map;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 public class CountNationMetric implements IAllianceMetric {
     private final Function<DBNation, Number> countNation;
@@ -86,8 +87,8 @@ public class CountNationMetric implements IAllianceMetric {
         };
     }
 
-    private final Map<Integer, Double> countByAA = new Int2DoubleOpenHashMap();
-    private final Map<Integer, Integer> countAllianceMetricModeByAA = new Int2IntOpenHashMap();
+    private final Int2DoubleOpenHashMap countByAA = new Int2DoubleOpenHashMap();
+    private final Int2IntOpenHashMap countAllianceMetricModeByAA = new Int2IntOpenHashMap();
 
     @Override
     public void setupReaders(IAllianceMetric metric, DataDumpImporter importer) {
@@ -132,13 +133,13 @@ public class CountNationMetric implements IAllianceMetric {
                         DBNationSnapshot nation = entry.getValue();
                         if (filter != null && !filter.test(nation)) continue;
                         double amt = countNation.apply(nation).doubleValue();
-                        countByAA.merge(nation.getAlliance_id(), amt, Double::sum);
+                        countByAA.addTo(nation.getAlliance_id(), amt);
                         switch (mode) {
                             case PER_NATION:
-                                countAllianceMetricModeByAA.merge(nation.getAlliance_id(), 1, Integer::sum);
+                                countAllianceMetricModeByAA.addTo(nation.getAlliance_id(), 1);
                                 break;
                             case PER_CITY:
-                                countAllianceMetricModeByAA.merge(nation.getAlliance_id(), nation.getCities(), Integer::sum);
+                                countAllianceMetricModeByAA.addTo(nation.getAlliance_id(), nation.getCities());
                                 break;
                             case TOTAL:
                                 countAllianceMetricModeByAA.put(nation.getAlliance_id(), 1);
@@ -149,36 +150,40 @@ public class CountNationMetric implements IAllianceMetric {
                 }
             };
         } else {
-            importer.setNationReader(metric, new BiConsumer<Long, NationHeaderReader>() {
+            Function<NationHeader, List<ColumnInfo<DBNation, ?>>> columns = getHeader == null ? null : h -> List.of(h.alliance_position, h.alliance_id, h.vm_turns, h.cities, getHeader.apply(h));
+            importer.setNationReader(metric, columns, new BiConsumer<Long, NationHeaderReader>() {
                 @Override
                 public void accept(Long day, NationHeaderReader r) {
-                    if (!includeApplicants) {
-                        Rank position = r.header.alliance_position.get();
-                        if (position.id <= Rank.APPLICANT.id) return;
+                    int allianceId;
+                    if (!includeApplicants && !includeVM) {
+                        allianceId = importer.getMemberAllianceId();
+                    } else {
+                        if (!includeApplicants) {
+                            Rank position = r.header.alliance_position.get();
+                            if (position.id <= Rank.APPLICANT.id) return;
+                        }
+                        allianceId = r.header.alliance_id.getInt();
+                        if (!includeVM) {
+                            if (r.header.vm_turns.getIndex() == -1 || r.header.vm_turns.getInt() > 0) return;
+                        }
                     }
-                    int allianceId = r.header.alliance_id.get();
                     if (allianceId == 0) return;
                     if (allianceFilter != null && !allianceFilter.test(allianceId)) return;
-                    if (!includeVM) {
-                        Integer vm_turns = r.header.vm_turns.get();
-                        if (vm_turns == null || vm_turns > 0) return;
-                    }
                     double amt;
                     if (getHeader != null) {
-                        amt = getHeader.apply(r.header).get().doubleValue();
+                        amt = getHeader.apply(r.header).getDouble();
                     } else {
                         DBNation nation = r.getNation(includeVM, true);
                         if (filter != null && !filter.test(nation)) return;
                         amt = countNation.apply(nation).doubleValue();
                     }
-                    countByAA.merge(allianceId, amt, Double::sum);
+                    countByAA.addTo(allianceId, amt);
                     switch (mode) {
                         case PER_NATION:
-                            countAllianceMetricModeByAA.merge(allianceId, 1, Integer::sum);
+                            countAllianceMetricModeByAA.addTo(allianceId, 1);
                             break;
                         case PER_CITY:
-                            int cities = r.header.cities.get();
-                            countAllianceMetricModeByAA.merge(allianceId, cities, Integer::sum);
+                            countAllianceMetricModeByAA.addTo(allianceId, r.header.cities.getInt());
                             break;
                         case TOTAL:
                             countAllianceMetricModeByAA.put(allianceId, 1);
@@ -192,7 +197,10 @@ public class CountNationMetric implements IAllianceMetric {
     @Override
     public Map<Integer, Double> getDayValue(DataDumpImporter importer, long day) {
         if (finalizeTask != null) finalizeTask.run();
-        Map<Integer, Double> result = countByAA.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, f -> (double) f.getValue() / (double) countAllianceMetricModeByAA.get(f.getKey())));
+        Int2DoubleOpenHashMap result = new Int2DoubleOpenHashMap(countByAA.size());
+        for (Int2DoubleMap.Entry entry : countByAA.int2DoubleEntrySet()) {
+            result.put(entry.getIntKey(), entry.getDoubleValue() / countAllianceMetricModeByAA.get(entry.getIntKey()));
+        }
         countByAA.clear();
         countAllianceMetricModeByAA.clear();
         return result;
@@ -1,19 +1,41 @@
 package link.locutus.discord.db.entities.metric;
 
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectLinkedOpenHashSet;
+import link.locutus.discord.apiv1.enums.Rank;
 import link.locutus.discord.apiv1.enums.ResourceType;
+import link.locutus.discord.apiv3.csv.ColumnInfo;
 import link.locutus.discord.apiv3.csv.DataDumpParser;
+import link.locutus.discord.apiv3.csv.file.DataFile;
+import link.locutus.discord.apiv3.csv.header.CityHeader;
 import link.locutus.discord.apiv3.csv.header.CityHeaderReader;
+import link.locutus.discord.apiv3.csv.header.NationHeader;
 import link.locutus.discord.apiv3.csv.header.NationHeaderReader;
+import link.locutus.discord.db.entities.DBCity;
+import link.locutus.discord.db.entities.DBNation;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+/**
+ * Runs the readers of many metrics in a single scan of each day.
+ * The columns the metrics declare are merged, so a day only decodes the columns some metric uses,
+ * and the alliance each nation counts towards (a member, not an applicant, and not in vacation mode) is resolved once per row,
+ * see {@link #getMemberAllianceId()}
+ */
 class DataDumpImporter {
     private final DataDumpParser parser;
     private Map<Integer, double[]> revenueCache;
 
+    private final Int2IntOpenHashMap memberAllianceByNation = new Int2IntOpenHashMap();
+    private int memberAllianceId;
+
     public DataDumpImporter(DataDumpParser parser) {
         this.parser = parser;
     }
@@ -24,33 +46,122 @@ class DataDumpImporter {
 
     Map<IAllianceMetric, BiConsumer<Long, NationHeaderReader>> nationReaders = new LinkedHashMap<>();
     Map<IAllianceMetric, BiConsumer<Long, CityHeaderReader>> cityReaders = new LinkedHashMap<>();
+    private final Map<IAllianceMetric, Function<NationHeader, List<ColumnInfo<DBNation, ?>>>> nationColumns = new LinkedHashMap<>();
+    private final Map<IAllianceMetric, Function<CityHeader, List<ColumnInfo<DBCity, ?>>>> cityColumns = new LinkedHashMap<>();
 
+    /**
+     * Set a reader which may use any nation column
+     */
     public void setNationReader(IAllianceMetric metric, BiConsumer<Long, NationHeaderReader> nationReader) {
+        setNationReader(metric, null, nationReader);
+    }
+
+    /**
+     * Set a reader which only uses the given nation columns, and the member columns of {@link #getMemberAllianceId()}
+     * @param columns the columns, or null for all columns
+     */
+    public void setNationReader(IAllianceMetric metric, Function<NationHeader, List<ColumnInfo<DBNation, ?>>> columns, BiConsumer<Long, NationHeaderReader> nationReader) {
         this.nationReaders.put(metric, nationReader);
+        this.nationColumns.put(metric, columns);
     }
 
+    /**
+     * Set a reader which may use any city column
+     */
     public void setCityReader(IAllianceMetric metric, BiConsumer<Long, CityHeaderReader> cityReader) {
+        setCityReader(metric, null, cityReader);
+    }
+
+    /**
+     * Set a reader which only uses the given city columns, and the city nation_id
+     * @param columns the columns, or null for all columns
+     */
+    public void setCityReader(IAllianceMetric metric, Function<CityHeader, List<ColumnInfo<DBCity, ?>>> columns, BiConsumer<Long, CityHeaderReader> cityReader) {
         this.cityReaders.put(metric, cityReader);
+        this.cityColumns.put(metric, columns);
     }
 
+    /**
+     * @return the reader for the nation rows, which is also needed by the city readers to resolve {@link #getMemberAllianceId(int)}
+     */
     public BiConsumer<Long, NationHeaderReader> getNationReader() {
-        if (nationReaders.isEmpty()) return null;
+        if (nationReaders.isEmpty() && cityReaders.isEmpty()) return null;
+        List<BiConsumer<Long, NationHeaderReader>> readers = new ArrayList<>(nationReaders.values());
         return (day, header) -> {
-            for (Map.Entry<IAllianceMetric, BiConsumer<Long, NationHeaderReader>> entry : nationReaders.entrySet()) {
-                entry.getValue().accept(day, header);
+            memberAllianceId = resolveMemberAlliance(header.header);
+            if (memberAllianceId != 0) {
+                memberAllianceByNation.put(header.header.nation_id.getInt(), memberAllianceId);
+            }
+            for (BiConsumer<Long, NationHeaderReader> reader : readers) {
+                reader.accept(day, header);
             }
         };
     }
 
     public BiConsumer<Long, CityHeaderReader> getCityReader() {
         if (cityReaders.isEmpty()) return null;
+        List<BiConsumer<Long, CityHeaderReader>> readers = new ArrayList<>(cityReaders.values());
         return (day, header) -> {
-            for (Map.Entry<IAllianceMetric, BiConsumer<Long, CityHeaderReader>> entry : cityReaders.entrySet()) {
-                entry.getValue().accept(day, header);
+            for (BiConsumer<Long, CityHeaderReader> reader : readers) {
+                reader.accept(day, header);
+            }
+        };
+    }
+
+    /**
+     * @return the nation columns to read, or null if a reader may use any column
+     */
+    public BiConsumer<NationHeader, DataFile<DBNation, NationHeader, NationHeaderReader>.Builder> getNationColumns() {
+        if (nationColumns.containsValue(null)) return null;
+        return (header, builder) -> {
+            Set<ColumnInfo<DBNation, ?>> columns = new ObjectLinkedOpenHashSet<>();
+            columns.add(header.nation_id);
+            columns.add(header.alliance_id);
+            columns.add(header.alliance_position);
+            columns.add(header.vm_turns);
+            for (Function<NationHeader, List<ColumnInfo<DBNation, ?>>> metricColumns : nationColumns.values()) {
+                columns.addAll(metricColumns.apply(header));
+            }
+            builder.optional(columns.toArray(new ColumnInfo[0]));
+        };
+    }
+
+    /**
+     * @return the city columns to read, or null if a reader may use any column
+     */
+    public BiConsumer<CityHeader, DataFile<DBCity, CityHeader, CityHeaderReader>.Builder> getCityColumns() {
+        if (cityColumns.isEmpty() || cityColumns.containsValue(null)) return null;
+        return (header, builder) -> {
+            Set<ColumnInfo<DBCity, ?>> columns = new ObjectLinkedOpenHashSet<>();
+            columns.add(header.nation_id);
+            for (Function<CityHeader, List<ColumnInfo<DBCity, ?>>> metricColumns : cityColumns.values()) {
+                columns.addAll(metricColumns.apply(header));
             }
+            builder.optional(columns.toArray(new ColumnInfo[0]));
         };
     }
 
+    private static int resolveMemberAlliance(NationHeader header) {
+        Rank position = header.alliance_position.get();
+        if (position == null || position.id <= Rank.APPLICANT.id) return 0;
+        if (header.vm_turns.getIndex() == -1 || header.vm_turns.getInt() > 0) return 0;
+        return header.alliance_id.getInt();
+    }
+
+    /**
+     * @return the alliance the nation of the current row counts towards, or 0 if it is not a member, or is in vacation mode
+     */
+    public int getMemberAllianceId() {
+        return memberAllianceId;
+    }
+
+    /**
+     * @return the alliance a nation read earlier in the day counts towards, or 0, see {@link #getMemberAllianceId()}
+     */
+    public int getMemberAllianceId(int nationId) {
+        return memberAllianceByNation.get(nationId);
+    }
+
     public void setRevenue(Map<Integer, double[]> result) {
         this.revenueCache = result;
     }
@@ -63,6 +174,14 @@ class DataDumpImporter {
         revenueCache = null;
     }
 
+    /**
+     * Reset the members resolved for the day, before the next day is read
+     */
+    public void clearDay() {
+        memberAllianceByNation.clear();
+        memberAllianceId = 0;
+    }
+
     public Map<Integer, Double> getRevenueCache(ResourceType resourceType) {
         if (revenueCache == null) return null;
         return revenueCache.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, f -> f.getValue()[resourceType.ordinal()]));
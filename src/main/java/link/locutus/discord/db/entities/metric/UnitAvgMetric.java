@@ -1,8 +1,9 @@
 package link.locutus.discord.db.entities.metric;
 
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
 import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
 import link.locutus.discord.apiv1.enums.MilitaryUnit;
-import link.locutus.discord.apiv1.enums.Rank;
 import link.locutus.discord.apiv3.csv.column.IntColumn;
 import link.locutus.discord.apiv3.csv.header.NationHeader;
 import link.locutus.discord.apiv3.csv.header.NationHeaderReader;
@@ -14,7 +15,6 @@ import java.util.Map;
 import java.util.Set;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 
 public class UnitAvgMetric implements IAllianceMetric {
     private final MilitaryUnit unit;
@@ -34,30 +34,28 @@ public class UnitAvgMetric implements IAllianceMetric {
         return total / nations.size();
     }
 
-    private final Map<Integer, Integer> unitsByAA = new Int2IntOpenHashMap();
-    private final Map<Integer, Integer> nationsByAA = new Int2IntOpenHashMap();
+    private final Int2IntOpenHashMap unitsByAA = new Int2IntOpenHashMap();
+    private final Int2IntOpenHashMap nationsByAA = new Int2IntOpenHashMap();
 
     @Override
     public void setupReaders(IAllianceMetric metric, DataDumpImporter importer) {
-        importer.setNationReader(metric, new BiConsumer<Long, NationHeaderReader>() {
+        importer.setNationReader(metric, h -> List.of(getHeader.apply(h)), new BiConsumer<Long, NationHeaderReader>() {
             @Override
             public void accept(Long day, NationHeaderReader r) {
-                Rank position = r.header.alliance_position.get();
-                if (position.id <= Rank.APPLICANT.id) return;
-                int allianceId = r.header.alliance_id.get();
+                int allianceId = importer.getMemberAllianceId();
                 if (allianceId == 0) return;
-                Integer vm_turns = r.header.vm_turns.get();
-                if (vm_turns == null || vm_turns > 0) return;
-                int units = getHeader.apply(r.header).get();
-                unitsByAA.merge(allianceId, units, Integer::sum);
-                nationsByAA.merge(allianceId, 1, Integer::sum);
+                unitsByAA.addTo(allianceId, getHeader.apply(r.header).getInt());
+                nationsByAA.addTo(allianceId, 1);
             }
         });
     }
 
     @Override
     public Map<Integer, Double> getDayValue(DataDumpImporter importer, long day) {
-        Map<Integer, Double> result = unitsByAA.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, f -> (double) f.getValue() / (nationsByAA.get(f.getKey()))));
+        Int2DoubleOpenHashMap result = new Int2DoubleOpenHashMap(unitsByAA.size());
+        for (Int2IntMap.Entry entry : unitsByAA.int2IntEntrySet()) {
+            result.put(entry.getIntKey(), (double) entry.getIntValue() / nationsByAA.get(entry.getIntKey()));
+        }
         unitsByAA.clear();
         nationsByAA.clear();
         return result;
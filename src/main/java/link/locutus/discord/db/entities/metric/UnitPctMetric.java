@@ -1,9 +1,10 @@
 package link.locutus.discord.db.entities.metric;
 
 import com.google.common.base.Predicates;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
 import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
 import link.locutus.discord.apiv1.enums.MilitaryUnit;
-import link.locutus.discord.apiv1.enums.Rank;
 import link.locutus.discord.apiv1.enums.city.building.MilitaryBuilding;
 import link.locutus.discord.apiv3.csv.column.IntColumn;
 import link.locutus.discord.apiv3.csv.header.NationHeader;
@@ -15,7 +16,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 
 public class UnitPctMetric implements IAllianceMetric {
     private final MilitaryUnit unit;
@@ -32,24 +32,18 @@ public class UnitPctMetric implements IAllianceMetric {
         return (double) total.getUnits(unit) / (total.getCities() * building.cap(Predicates.alwaysFalse()) * building.getUnitCap());
     }
 
-    private final Map<Integer, Integer> unitsByAA = new Int2IntOpenHashMap();
-    private final Map<Integer, Integer> citiesByAA = new Int2IntOpenHashMap();
+    private final Int2IntOpenHashMap unitsByAA = new Int2IntOpenHashMap();
+    private final Int2IntOpenHashMap citiesByAA = new Int2IntOpenHashMap();
 
     @Override
     public void setupReaders(IAllianceMetric metric, DataDumpImporter importer) {
-        importer.setNationReader(metric, new BiConsumer<Long, NationHeaderReader>() {
+        importer.setNationReader(metric, h -> List.of(getHeader.apply(h), h.cities), new BiConsumer<Long, NationHeaderReader>() {
             @Override
             public void accept(Long day, NationHeaderReader r) {
-                Rank position = r.header.alliance_position.get();
-                if (position.id <= Rank.APPLICANT.id) return;
-                int allianceId = r.header.alliance_id.get();
+                int allianceId = importer.getMemberAllianceId();
                 if (allianceId == 0) return;
-                Integer vm_turns = r.header.vm_turns.get();
-                if (vm_turns == null || vm_turns > 0) return;
-                int units = getHeader.apply(r.header).get();
-                unitsByAA.merge(allianceId, units, Integer::sum);
-                int cities = r.header.cities.get();
-                citiesByAA.merge(allianceId, cities, Integer::sum);
+                unitsByAA.addTo(allianceId, getHeader.apply(r.header).getInt());
+                citiesByAA.addTo(allianceId, r.header.cities.getInt());
             }
         });
     }
@@ -58,7 +52,10 @@ public class UnitPctMetric implements IAllianceMetric {
     public Map<Integer, Double> getDayValue(DataDumpImporter importer, long day) {
         MilitaryBuilding building = unit.getBuilding();
         int unitsPerCity = building.cap(Predicates.alwaysFalse()) * building.getUnitCap();
-        Map<Integer, Double> result = unitsByAA.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, f -> (double) f.getValue() / (citiesByAA.get(f.getKey()) * unitsPerCity)));
+        Int2DoubleOpenHashMap result = new Int2DoubleOpenHashMap(unitsByAA.size());
+        for (Int2IntMap.Entry entry : unitsByAA.int2IntEntrySet()) {
+            result.put(entry.getIntKey(), (double) entry.getIntValue() / (citiesByAA.get(entry.getIntKey()) * unitsPerCity));
+        }
         unitsByAA.clear();
         citiesByAA.clear();
         return result;
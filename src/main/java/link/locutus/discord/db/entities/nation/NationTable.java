@@ -0,0 +1,470 @@
+package link.locutus.discord.db.entities.nation;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import link.locutus.discord.commands.manager.v2.binding.bindings.MathOperation;
+import link.locutus.discord.db.entities.DBNation;
+import link.locutus.discord.util.TimeUtil;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A column per numeric nation field, indexed by slot, so that a filter over every nation is a loop over a primitive array
+ * instead of a placeholder call per {@link DBNation}.<br>
+ * Nations are added and removed by the {@link link.locutus.discord.db.NationDB}, which marks a nation dirty after updating it
+ * or queueing it to be saved. Dirty rows are re-read before the next selection.<br>
+ * Slots are also indexed by their integer score, with a Fenwick tree of the bucket sizes to skip empty buckets,
+ * so a score range is found in logarithmic time plus the number of nations in it, see {@link #getInScoreRange(double, double, Predicate)}
+ */
+public class NationTable {
+    public enum Column {
+        NATION_ID(DBNation::getNation_id, "nation_id", "id"),
+        ALLIANCE_ID(DBNation::getAlliance_id, "alliance_id"),
+        SCORE(DBNation::getScore, "score"),
+        CITIES(DBNation::getCities, "cities"),
+        SOLDIERS(DBNation::getSoldiers, "soldiers"),
+        TANKS(DBNation::getTanks, "tanks"),
+        AIRCRAFT(DBNation::getAircraft, "aircraft"),
+        SHIPS(DBNation::getShips, "ships"),
+        MISSILES(DBNation::getMissiles, "missiles"),
+        NUKES(DBNation::getNukes, "nukes"),
+        SPIES(DBNation::getSpies, "spies"),
+        POSITION(DBNation::getPosition, "position"),
+        TAX_ID(DBNation::getTax_id, "tax_id"),
+        // derived from the leaving turn and last active time, as they change without the nation being edited
+        VM_TURNS(DBNation::getVm_turns, "vm_turns"),
+        ACTIVE_M(f -> f.getActive_m(null), "active_m"),
+        // the color ordinal, without a name as the `{color}` placeholder compares by name
+        COLOR(f -> f.getColor() == null ? -1 : f.getColor().ordinal()),
+        ;
+
+        public static final Column[] values = values();
+
+        private final ToDoubleFunction<DBNation> getter;
+        private final String[] names;
+
+        Column(ToDoubleFunction<DBNation> getter, String... names) {
+            this.getter = getter;
+            this.names = names;
+        }
+
+        public double get(DBNation nation) {
+            return getter.applyAsDouble(nation);
+        }
+
+        private boolean isInt() {
+            return this != SCORE && this != VM_TURNS && this != ACTIVE_M;
+        }
+
+        /**
+         * @param name the placeholder name, e.g. `cities`
+         * @return the column, or null
+         */
+        public static Column parse(String name) {
+            name = name.toLowerCase(Locale.ROOT);
+            for (Column column : values) {
+                for (String alias : column.names) {
+                    if (alias.equals(name)) return column;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final Int2IntOpenHashMap slotById = new Int2IntOpenHashMap();
+    private final IntArrayList freeSlots = new IntArrayList();
+    private final IntOpenHashSet dirty = new IntOpenHashSet();
+
+    private int size;
+    private DBNation[] nations = new DBNation[0];
+    private final int[][] ints = new int[Column.values.length][];
+    private double[] score = new double[0];
+    private long[] leavingVm = new long[0];
+    private long[] lastActive = new long[0];
+
+    private int[][] scoreBuckets = new int[0][];
+    private int[] scoreBucketSize = new int[0];
+    // 1-indexed Fenwick tree of scoreBucketSize
+    private int[] scoreTree = new int[1];
+    private int[] slotBucket = new int[0];
+    private int[] slotBucketPos = new int[0];
+
+    public NationTable() {
+        slotById.defaultReturnValue(-1);
+        for (Column column : Column.values) {
+            if (column.isInt()) ints[column.ordinal()] = new int[0];
+        }
+    }
+
+    /**
+     * Add or replace the row of the nation
+     */
+    public synchronized void put(DBNation nation) {
+        int id = nation.getNation_id();
+        int slot = slotById.get(id);
+        if (slot == -1) {
+            if (!freeSlots.isEmpty()) {
+                slot = freeSlots.popInt();
+            } else {
+                if (size == nations.length) grow(Math.max(1024, size * 2));
+                slot = size++;
+            }
+            slotById.put(id, slot);
+        }
+        nations[slot] = nation;
+        write(slot, nation);
+    }
+
+    public synchronized void remove(int nationId) {
+        int slot = slotById.remove(nationId);
+        if (slot == -1) return;
+        unindexScore(slot);
+        nations[slot] = null;
+        freeSlots.add(slot);
+    }
+
+    /**
+     * Re-read the row of the nation before the next selection
+     */
+    public void markDirty(int nationId) {
+        synchronized (dirty) {
+            dirty.add(nationId);
+        }
+    }
+
+    public synchronized int size() {
+        return slotById.size();
+    }
+
+    private void grow(int capacity) {
+        nations = Arrays.copyOf(nations, capacity);
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null) ints[i] = Arrays.copyOf(ints[i], capacity);
+        }
+        score = Arrays.copyOf(score, capacity);
+        leavingVm = Arrays.copyOf(leavingVm, capacity);
+        lastActive = Arrays.copyOf(lastActive, capacity);
+        int previous = slotBucket.length;
+        slotBucket = Arrays.copyOf(slotBucket, capacity);
+        Arrays.fill(slotBucket, previous, capacity, -1);
+        slotBucketPos = Arrays.copyOf(slotBucketPos, capacity);
+    }
+
+    private void write(int slot, DBNation nation) {
+        for (Column column : Column.values) {
+            if (column.isInt()) ints[column.ordinal()][slot] = (int) column.get(nation);
+        }
+        DBNationGetter data = nation.data();
+        score[slot] = data._score();
+        indexScore(slot, score[slot]);
+        leavingVm[slot] = data._leavingVm();
+        lastActive[slot] = data._lastActiveMs();
+    }
+
+    private void refresh() {
+        int[] ids;
+        synchronized (dirty) {
+            if (dirty.isEmpty()) return;
+            ids = dirty.toIntArray();
+            dirty.clear();
+        }
+        for (int id : ids) {
+            int slot = slotById.get(id);
+            if (slot != -1) write(slot, nations[slot]);
+        }
+    }
+
+    /**
+     * @return the lowest value where `value op compareTo` holds, or the value compared to for {@link MathOperation#NOT_EQUAL}
+     */
+    private static double getMin(MathOperation op, double compareTo) {
+        return switch (op) {
+            case GREATER -> Math.nextUp(compareTo);
+            case GREATER_EQUAL, EQUAL, NOT_EQUAL -> compareTo;
+            case LESSER, LESSER_EQUAL -> Double.NEGATIVE_INFINITY;
+        };
+    }
+
+    private static double getMax(MathOperation op, double compareTo) {
+        return switch (op) {
+            case LESSER -> Math.nextDown(compareTo);
+            case LESSER_EQUAL, EQUAL, NOT_EQUAL -> compareTo;
+            case GREATER, GREATER_EQUAL -> Double.POSITIVE_INFINITY;
+        };
+    }
+
+    /**
+     * @return the ids of the nations where `column op value` holds
+     */
+    public synchronized BitSet select(Column column, MathOperation op, double value) {
+        refresh();
+        boolean negate = op == MathOperation.NOT_EQUAL;
+        double min = getMin(op, value);
+        double max = getMax(op, value);
+        int[] ids = ints[Column.NATION_ID.ordinal()];
+        BitSet result = new BitSet();
+        switch (column) {
+            case SCORE -> {
+                if (!negate) {
+                    forEachInScoreRange(min, max, slot -> result.set(ids[slot]));
+                    return result;
+                }
+                for (int i = 0; i < size; i++) {
+                    double v = score[i];
+                    if ((v >= min && v <= max) != negate && nations[i] != null) result.set(ids[i]);
+                }
+            }
+            case VM_TURNS -> {
+                long turn = TimeUtil.getTurn();
+                for (int i = 0; i < size; i++) {
+                    long leaving = leavingVm[i];
+                    long v = leaving <= turn ? 0 : leaving - turn;
+                    if ((v >= min && v <= max) != negate && nations[i] != null) result.set(ids[i]);
+                }
+            }
+            case ACTIVE_M -> {
+                long now = System.currentTimeMillis();
+                for (int i = 0; i < size; i++) {
+                    int v = (int) TimeUnit.MILLISECONDS.toMinutes(now - lastActive[i]);
+                    if ((v >= min && v <= max) != negate && nations[i] != null) result.set(ids[i]);
+                }
+            }
+            default -> {
+                if (min > Integer.MAX_VALUE || max < Integer.MIN_VALUE || Math.ceil(min) > Math.floor(max)) {
+                    // no int in the range
+                    if (negate) select(result, ids, Integer.MIN_VALUE, Integer.MAX_VALUE, false);
+                    return result;
+                }
+                int minInt = (int) Math.max(Integer.MIN_VALUE, Math.ceil(min));
+                int maxInt = (int) Math.min(Integer.MAX_VALUE, Math.floor(max));
+                select(result, ints[column.ordinal()], minInt, maxInt, negate);
+            }
+        }
+        return result;
+    }
+
+    private void select(BitSet result, int[] values, int min, int max, boolean negate) {
+        int[] ids = ints[Column.NATION_ID.ordinal()];
+        for (int i = 0; i < size; i++) {
+            int v = values[i];
+            if ((v >= min && v <= max) != negate && nations[i] != null) result.set(ids[i]);
+        }
+    }
+
+    private void indexScore(int slot, double value) {
+        int bucket = value > 0 ? (int) value : 0;
+        int previous = slotBucket[slot];
+        if (previous == bucket) return;
+        if (previous != -1) unindexScore(slot);
+        if (bucket >= scoreBucketSize.length) growScoreBuckets(bucket + 1);
+        int[] slots = scoreBuckets[bucket];
+        int n = scoreBucketSize[bucket];
+        if (slots == null) {
+            scoreBuckets[bucket] = slots = new int[4];
+        } else if (n == slots.length) {
+            scoreBuckets[bucket] = slots = Arrays.copyOf(slots, n * 2);
+        }
+        slots[n] = slot;
+        slotBucketPos[slot] = n;
+        slotBucket[slot] = bucket;
+        scoreBucketSize[bucket] = n + 1;
+        addToTree(bucket, 1);
+    }
+
+    private void unindexScore(int slot) {
+        int bucket = slotBucket[slot];
+        if (bucket == -1) return;
+        int[] slots = scoreBuckets[bucket];
+        int last = --scoreBucketSize[bucket];
+        int pos = slotBucketPos[slot];
+        slots[pos] = slots[last];
+        slotBucketPos[slots[pos]] = pos;
+        slotBucket[slot] = -1;
+        addToTree(bucket, -1);
+    }
+
+    private void growScoreBuckets(int minLength) {
+        int length = Math.max(minLength, Math.max(1024, scoreBucketSize.length * 2));
+        scoreBuckets = Arrays.copyOf(scoreBuckets, length);
+        scoreBucketSize = Arrays.copyOf(scoreBucketSize, length);
+        scoreTree = new int[length + 1];
+        for (int i = 0; i < length; i++) {
+            if (scoreBucketSize[i] != 0) addToTree(i, scoreBucketSize[i]);
+        }
+    }
+
+    private void addToTree(int bucket, int delta) {
+        for (int i = bucket + 1; i < scoreTree.length; i += i & -i) {
+            scoreTree[i] += delta;
+        }
+    }
+
+    /**
+     * @return the number of slots in the buckets below the bucket
+     */
+    private int countBelow(int bucket) {
+        int sum = 0;
+        for (int i = Math.min(bucket, scoreTree.length - 1); i > 0; i -= i & -i) {
+            sum += scoreTree[i];
+        }
+        return sum;
+    }
+
+    /**
+     * @return the first non-empty bucket at or after the bucket, or -1
+     */
+    private int nextBucket(int bucket) {
+        int target = countBelow(bucket) + 1;
+        int pos = 0;
+        for (int step = Integer.highestOneBit(scoreTree.length - 1); step > 0; step >>= 1) {
+            int next = pos + step;
+            if (next < scoreTree.length && scoreTree[next] < target) {
+                pos = next;
+                target -= scoreTree[next];
+            }
+        }
+        return pos < scoreBucketSize.length ? pos : -1;
+    }
+
+    private void forEachInScoreRange(double min, double max, IntConsumer slotConsumer) {
+        if (!(min <= max) || max < 0) return;
+        int maxBucket = (int) Math.min(max, Integer.MAX_VALUE - 1);
+        for (int bucket = nextBucket(min > 0 ? (int) min : 0); bucket != -1 && bucket <= maxBucket; bucket = nextBucket(bucket + 1)) {
+            int[] slots = scoreBuckets[bucket];
+            for (int i = 0, n = scoreBucketSize[bucket]; i < n; i++) {
+                int slot = slots[i];
+                double value = score[slot];
+                if (value >= min && value <= max) slotConsumer.accept(slot);
+            }
+        }
+    }
+
+    /**
+     * @param filter a test of each nation in the range, or null
+     * @return the nations with a score in [min, max] matching the filter
+     */
+    public synchronized List<DBNation> getInScoreRange(double min, double max, Predicate<DBNation> filter) {
+        refresh();
+        List<DBNation> result = new ObjectArrayList<>();
+        forEachInScoreRange(min, max, slot -> {
+            DBNation nation = nations[slot];
+            if (filter == null || filter.test(nation)) result.add(nation);
+        });
+        return result;
+    }
+
+    /**
+     * @return the number of nations with a score in [min, max]
+     */
+    public synchronized int countInScoreRange(double min, double max) {
+        refresh();
+        if (!(min <= max) || max < 0) return 0;
+        int minBucket = min > 0 ? (int) min : 0;
+        int maxBucket = (int) Math.min(max, scoreBucketSize.length - 1);
+        if (minBucket > maxBucket) return 0;
+        if (minBucket == maxBucket) return countInBucket(minBucket, min, max);
+        // the buckets between the first and last are entirely in range
+        int count = countBelow(maxBucket) - countBelow(minBucket + 1);
+        return count + countInBucket(minBucket, min, max) + countInBucket(maxBucket, min, max);
+    }
+
+    private int countInBucket(int bucket, double min, double max) {
+        int[] slots = scoreBuckets[bucket];
+        int count = 0;
+        for (int i = 0, n = scoreBucketSize[bucket]; i < n; i++) {
+            double value = score[slots[i]];
+            if (value >= min && value <= max) count++;
+        }
+        return count;
+    }
+
+    /**
+     * @param ids nation ids, e.g. from {@link #select(Column, MathOperation, double)}
+     * @return the nations in the table with the ids
+     */
+    public synchronized List<DBNation> getNations(BitSet ids) {
+        List<DBNation> result = new ObjectArrayList<>(ids.cardinality());
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            int slot = slotById.get(id);
+            if (slot != -1) result.add(nations[slot]);
+        }
+        return result;
+    }
+
+    /**
+     * A comparison of a column against a number, e.g. `{cities}>10`, which tests a nation with its getter instead of a placeholder call,
+     * and can select all nations from the {@link NationTable}, see {@link link.locutus.discord.commands.manager.v2.impl.pw.filter.NationQueryPlan}
+     */
+    public static final class Filter implements Predicate<DBNation> {
+        private static final Pattern PATTERN = Pattern.compile("\\{([a-zA-Z_]+)}\\s*(<=|>=|!=|=|>|<)\\s*(-?\\d+(?:\\.\\d+)?)");
+
+        private final Column column;
+        private final MathOperation op;
+        private final double value;
+        private final Predicate<Number> predicate;
+
+        public Filter(Column column, MathOperation op, double value) {
+            this.column = column;
+            this.op = op;
+            this.value = value;
+            this.predicate = op.getNumberPredicate(value);
+        }
+
+        /**
+         * @return the filter, or null if the input is not a single column compared to a number
+         */
+        public static Filter parse(String input) {
+            Matcher matcher = PATTERN.matcher(input.trim());
+            if (!matcher.matches()) return null;
+            Column column = Column.parse(matcher.group(1));
+            if (column == null) return null;
+            for (MathOperation op : MathOperation.values()) {
+                if (op.code.equals(matcher.group(2))) {
+                    return new Filter(column, op, Double.parseDouble(matcher.group(3)));
+                }
+            }
+            return null;
+        }
+
+        public BitSet select(NationTable table) {
+            return table.select(column, op, value);
+        }
+
+        public Column getColumn() {
+            return column;
+        }
+
+        public MathOperation getOperation() {
+            return op;
+        }
+
+        /**
+         * @return the range of values which pass, or null for {@link MathOperation#NOT_EQUAL}
+         */
+        public double[] getRange() {
+            if (op == MathOperation.NOT_EQUAL) return null;
+            return new double[]{getMin(op, value), getMax(op, value)};
+        }
+
+        @Override
+        public boolean test(DBNation nation) {
+            return nation != null && predicate.test(column.get(nation));
+        }
+
+        @Override
+        public String toString() {
+            return "{" + column.names[0] + "}" + op.code + value;
+        }
+    }
+}
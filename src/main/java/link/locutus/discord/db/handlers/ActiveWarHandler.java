@@ -1,5 +1,6 @@
 package link.locutus.discord.db.handlers;
 
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
@@ -18,104 +19,150 @@ import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 
+/**
+ * Active wars by nation and by war id
+ * The wars of each nation are an immutable array, so lookups by nation or war id never block the attack ingest thread.
+ * Changes take a lock, which also guards a dense array of the active wars for iterating them.
+ * A lookup may briefly see a war by its id and not yet (or no longer) by its nations, while a change is being applied
+ */
 public class ActiveWarHandler {
-    private final Map<Integer, DBWar[]> activeWars = new Int2ObjectOpenHashMap<>();
+    private static final DBWar[] NO_WARS = new DBWar[0];
+
+    private final ConcurrentIntArrayMap<DBWar[]> warsByNation = new ConcurrentIntArrayMap<>(1 << 20);
+    private final ConcurrentIntArrayMap<DBWar> warsById = new ConcurrentIntArrayMap<>(1 << 22);
     private final WarDB warDB;
-    private volatile int numActiveWars = 0;
+
+    // guarded by itself, the active wars in no particular order, and the position of each war id in it
+    private final Int2IntOpenHashMap denseIndex = new Int2IntOpenHashMap();
+    private DBWar[] dense = new DBWar[1024];
 
     public ActiveWarHandler(WarDB warDB) {
         this.warDB = warDB;
+        denseIndex.defaultReturnValue(-1);
+    }
+
+    private static int indexOf(DBWar[] wars, int warId) {
+        for (int i = 0; i < wars.length; i++) {
+            if (wars[i].warId == warId) return i;
+        }
+        return -1;
     }
 
     private void makeWarInactive(int nationId, int warId) {
-        synchronized (activeWars) {
-            DBWar[] wars = activeWars.get(nationId);
-            if (wars != null && wars.length > 0) {
-                Set<DBWar> newWars = new HashSet<>(Arrays.asList(wars));
-                int originalSize = newWars.size();
-                if (newWars.removeIf(f -> f.getWarId() == warId)) {
-                    if (newWars.isEmpty()) {
-                        activeWars.remove(nationId);
-                    } else {
-                        activeWars.put(nationId, newWars.toArray(new DBWar[0]));
-                    }
-                    numActiveWars += newWars.size() - originalSize;
-                }
-            }
+        DBWar[] wars = warsByNation.get(nationId);
+        if (wars == null) return;
+        int index = indexOf(wars, warId);
+        if (index == -1) return;
+        DBWar[] updated = null;
+        if (wars.length > 1) {
+            updated = new DBWar[wars.length - 1];
+            System.arraycopy(wars, 0, updated, 0, index);
+            System.arraycopy(wars, index + 1, updated, index, wars.length - index - 1);
         }
+        warsByNation.getAndSet(nationId, updated);
     }
 
     public boolean isEmpty() {
-        return activeWars.isEmpty();
+        synchronized (denseIndex) {
+            return denseIndex.isEmpty();
+        }
     }
+
     public void makeWarInactive(DBWar war) {
-        makeWarInactive(war.getAttacker_id(), war.warId);
-        makeWarInactive(war.getDefender_id(), war.warId);
+        synchronized (denseIndex) {
+            warsById.getAndSet(war.warId, null);
+            int index = denseIndex.remove(war.warId);
+            if (index != -1) {
+                // move the last war into the gap
+                int last = denseIndex.size();
+                if (index != last) {
+                    DBWar moved = dense[last];
+                    dense[index] = moved;
+                    denseIndex.put(moved.warId, index);
+                }
+                dense[last] = null;
+            }
+            makeWarInactive(war.getAttacker_id(), war.warId);
+            makeWarInactive(war.getDefender_id(), war.warId);
+        }
     }
 
     public DBWar getWar(int nationId, int warId) {
-        synchronized (activeWars) {
-            DBWar[] wars = activeWars.get(nationId);
-            if (wars != null) {
-                for (DBWar war : wars) {
-                    if (war.warId == warId) return war;
-                }
+        DBWar[] wars = warsByNation.get(nationId);
+        if (wars != null) {
+            for (DBWar war : wars) {
+                if (war.warId == warId) return war;
             }
         }
         return null;
     }
 
     private void addActiveWar(int nationId, DBWar war) {
-        if (!war.isActive()) return;
-        synchronized (activeWars) {
-            DBWar[] wars = activeWars.get(nationId);
-            if (wars == null) wars = new DBWar[0];
-            Set<DBWar> newWars = new HashSet<>(Arrays.asList(wars));
-            int originalSize = newWars.size();
-            newWars.removeIf(f -> f.getWarId() == war.getWarId());
-            newWars.add(war);
-            activeWars.put(nationId, newWars.toArray(new DBWar[0]));
-            numActiveWars += newWars.size() - originalSize;
+        DBWar[] wars = warsByNation.get(nationId);
+        DBWar[] updated;
+        if (wars == null) {
+            updated = new DBWar[]{war};
+        } else {
+            int index = indexOf(wars, war.warId);
+            if (index == -1) {
+                updated = Arrays.copyOf(wars, wars.length + 1);
+                updated[wars.length] = war;
+            } else {
+                updated = wars.clone();
+                updated[index] = war;
+            }
         }
+        warsByNation.getAndSet(nationId, updated);
     }
+
     public void addActiveWar(DBWar war) {
-        addActiveWar(war.getAttacker_id(), war);
-        addActiveWar(war.getDefender_id(), war);
+        if (!war.isActive()) return;
+        synchronized (denseIndex) {
+            warsById.getAndSet(war.warId, war);
+            int index = denseIndex.get(war.warId);
+            if (index == -1) {
+                index = denseIndex.size();
+                if (index == dense.length) dense = Arrays.copyOf(dense, dense.length << 1);
+                denseIndex.put(war.warId, index);
+            }
+            dense[index] = war;
+            addActiveWar(war.getAttacker_id(), war);
+            addActiveWar(war.getDefender_id(), war);
+        }
     }
 
     public ObjectOpenHashSet<DBWar> getActiveWarsById() {
-        ObjectOpenHashSet<DBWar> result = new ObjectOpenHashSet<>(numActiveWars >> 1);
-        synchronized (activeWars) {
-            for (DBWar[] nationWars : activeWars.values()) {
-                result.addAll(Arrays.asList(nationWars));
-            }
+        synchronized (denseIndex) {
+            int size = denseIndex.size();
+            ObjectOpenHashSet<DBWar> result = new ObjectOpenHashSet<>(size);
+            for (int i = 0; i < size; i++) result.add(dense[i]);
+            return result;
         }
-        return result;
     }
 
+    /**
+     * Visit each active war once, in no particular order
+     */
     public void iterateActiveWars(Consumer<DBWar> consumer) {
-        synchronized (activeWars) {
-            for (DBWar[] nationWars : activeWars.values()) {
-                for (DBWar war : nationWars) {
-                    consumer.accept(war);
-                }
-            }
+        DBWar[] copy;
+        synchronized (denseIndex) {
+            copy = Arrays.copyOf(dense, denseIndex.size());
         }
+        for (DBWar war : copy) consumer.accept(war);
     }
 
+    /**
+     * @param nationId the nations to include the wars of (attacker or defender), or null for all
+     * @param warPredicate the wars to include, or null for all
+     */
     public ObjectOpenHashSet<DBWar> getActiveWars(Predicate<Integer> nationId, Predicate<DBWar> warPredicate) {
         ObjectOpenHashSet<DBWar> result = new ObjectOpenHashSet<>();
-        synchronized (activeWars) {
-            for (Map.Entry<Integer, DBWar[]> entry : activeWars.entrySet()) {
-                if (nationId == null || nationId.test(entry.getKey())) {
-                    for (DBWar war : entry.getValue()) {
-                        if (warPredicate == null || warPredicate.test(war)) {
-                            result.add(war);
-                        }
-                    }
-                }
+        iterateActiveWars(war -> {
+            if (nationId != null && !nationId.test(war.getAttacker_id()) && !nationId.test(war.getDefender_id())) return;
+            if (warPredicate == null || warPredicate.test(war)) {
+                result.add(war);
             }
-        }
+        });
         return result;
     }
 
@@ -124,21 +171,20 @@ public class ActiveWarHandler {
     }
 
     public Set<DBWar> getActiveWars(int nationId) {
-        synchronized (activeWars) {
-            DBWar[] wars = activeWars.get(nationId);
-            return wars == null ? Collections.emptySet() : new ObjectOpenHashSet<>(wars);
-        }
+        DBWar[] wars = warsByNation.get(nationId);
+        return wars == null ? Collections.emptySet() : new ObjectOpenHashSet<>(wars);
+    }
+
+    /**
+     * @return the nation's active wars, the returned array must not be modified
+     */
+    public DBWar[] getActiveWarsArray(int nationId) {
+        DBWar[] wars = warsByNation.get(nationId);
+        return wars == null ? NO_WARS : wars;
     }
 
     public DBWar getWar(int warId) {
-        synchronized (activeWars) {
-            for (DBWar[] nationWars : activeWars.values()) {
-                for (DBWar war : nationWars) {
-                    if (war.warId == warId) return war;
-                }
-            }
-        }
-        return null;
+        return warsById.get(warId);
     }
 
     private final Object blockadeLock = new Object();
@@ -146,14 +192,14 @@ public class ActiveWarHandler {
     private final Map<Integer, Map<Integer, Long>> blockaderToDefender = new Int2ObjectOpenHashMap<>();
 
     public Set<Integer> getNationsBlockadedBy(int nationId) {
-        Set<DBWar> wars = getActiveWars(nationId);
-        if (wars.isEmpty()) return Collections.emptySet();
+        DBWar[] wars = getActiveWarsArray(nationId);
+        if (wars.length == 0) return Collections.emptySet();
         synchronized (blockadeLock) {
             // nations that are blockaded by nationId
             Map<Integer, Long> map = blockaderToDefender.getOrDefault(nationId, Collections.emptyMap());
             if (map.isEmpty()) return Collections.emptySet();
 
-            Set<Integer> result = new IntOpenHashSet(Math.min(map.size(), wars.size()));
+            Set<Integer> result = new IntOpenHashSet(Math.min(map.size(), wars.length));
             for (DBWar war : wars) {
                 int otherId = war.isAttacker(nationId) ? war.getDefender_id() : war.getAttacker_id();
                 if (map.containsKey(otherId)) {
@@ -165,14 +211,14 @@ public class ActiveWarHandler {
     }
 
     public Set<Integer> getNationsBlockading(int nationId) {
-        Set<DBWar> wars = getActiveWars(nationId);
-        if (wars.isEmpty()) return Collections.emptySet();
+        DBWar[] wars = getActiveWarsArray(nationId);
+        if (wars.length == 0) return Collections.emptySet();
         synchronized (blockadeLock) {
             // nations that are blockading nationId
             Map<Integer, Long> map = defenderToBlockader.getOrDefault(nationId, Collections.emptyMap());
             if (map.isEmpty()) return Collections.emptySet();
 
-            Set<Integer> result = new IntOpenHashSet(Math.min(map.size(), wars.size()));
+            Set<Integer> result = new IntOpenHashSet(Math.min(map.size(), wars.length));
             for (DBWar war : wars) {
                 int otherId = war.isAttacker(nationId) ? war.getDefender_id() : war.getAttacker_id();
                 if (map.containsKey(otherId)) {
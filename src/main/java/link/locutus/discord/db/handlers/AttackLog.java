@@ -0,0 +1,507 @@
+package link.locutus.discord.db.handlers;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectRBTreeMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectSortedMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import link.locutus.discord.Logg;
+import link.locutus.discord.db.entities.AttackEntry;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append only store of serialized attacks, used instead of the `attacks3` table when enabled.
+ * The log is a directory of numbered segment files, each a sequence of LZ4 compressed blocks.
+ * A block header holds the record count, the raw and compressed lengths, the CRC32 of the compressed bytes,
+ * and the min/max attack id and war id of its records. The headers are read into memory on open, as a sparse index.
+ * Each record is the attack id, war id, attacker id, defender id, date, a 2 byte length and the attack bytes.
+ * An attack which is saved again is appended again, and readers only see its latest copy, at the position of its first.
+ * Sealed segments are memory mapped, the segment being appended to is read through its channel.
+ * Thread safe, reads do not block appends
+ */
+public class AttackLog implements Closeable {
+    private static final int MAGIC = 0x41544B31;
+    private static final int HEADER_BYTES = 36;
+    private static final int RECORD_HEADER_BYTES = 26;
+    public static final int BLOCK_RECORDS = 4096;
+    private static final int BLOCK_RAW_BYTES = 1 << 20;
+    private static final long SEGMENT_BYTES = 64L << 20;
+    private static final String SUFFIX = ".log";
+
+    @FunctionalInterface
+    public interface RecordVisitor {
+        /**
+         * @return false to stop iterating
+         */
+        boolean accept(int attackId, int warId, int attackerId, int defenderId, long date, ByteBuffer data, int offset, int length);
+    }
+
+    private static final class Segment {
+        private final int number;
+        private final File file;
+        private final FileChannel channel;
+        private volatile MappedByteBuffer map;
+        private long size;
+
+        private Segment(int number, File file, boolean writable) throws IOException {
+            this.number = number;
+            this.file = file;
+            this.channel = writable ?
+                    FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE) :
+                    FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            this.size = channel.size();
+        }
+
+        private void seal() throws IOException {
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    private record Block(Segment segment, long offset, int count, int rawLength, int compressedLength, int crc,
+                         int minAttackId, int maxAttackId, int minWarId, int maxWarId) {
+        private boolean hasWar(int[] sortedWarIds) {
+            return overlaps(sortedWarIds, minWarId, maxWarId);
+        }
+    }
+
+    private final File directory;
+    private final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+    private final LZ4FastDecompressor decompressor = LZ4Factory.fastestInstance().fastDecompressor();
+    private final List<Segment> segments = new ObjectArrayList<>();
+    private volatile Block[] blocks = new Block[0];
+    // the latest copy of each attack which was appended out of order (i.e. saved again), as a full record
+    private final Int2ObjectOpenHashMap<byte[]> rewritten = new Int2ObjectOpenHashMap<>();
+    private Segment active;
+    private int maxAttackId;
+    private long numRecords;
+
+    public AttackLog(File directory) throws IOException {
+        this.directory = directory;
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Failed to create attack log directory " + directory);
+        }
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) files = new File[0];
+        Arrays.sort(files, (a, b) -> Integer.compare(getNumber(a), getNumber(b)));
+
+        ObjectArrayList<Block> allBlocks = new ObjectArrayList<>();
+        for (int i = 0; i < files.length; i++) {
+            boolean last = i == files.length - 1;
+            Segment segment = new Segment(getNumber(files[i]), files[i], last);
+            List<Block> segmentBlocks = scan(segment, last);
+            if (!last && segmentBlocks.size() > 1 && numRecords(segmentBlocks) / segmentBlocks.size() < BLOCK_RECORDS / 8) {
+                segment = compact(segment, segmentBlocks);
+                segmentBlocks = scan(segment, false);
+            }
+            if (!last) segment.seal();
+            segments.add(segment);
+            allBlocks.addAll(segmentBlocks);
+        }
+        if (segments.isEmpty()) {
+            segments.add(new Segment(0, getFile(0), true));
+        }
+        active = segments.get(segments.size() - 1);
+        for (Block block : allBlocks) {
+            index(block, null);
+        }
+        blocks = allBlocks.toArray(new Block[0]);
+        Logg.text("Opened attack log " + this);
+    }
+
+    private static int getNumber(File file) {
+        String name = file.getName();
+        return Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    private File getFile(int number) {
+        return new File(directory, String.format("%06d", number) + SUFFIX);
+    }
+
+    private static long numRecords(List<Block> blocks) {
+        long total = 0;
+        for (Block block : blocks) total += block.count();
+        return total;
+    }
+
+    static boolean overlaps(int[] sortedIds, int min, int max) {
+        int index = Arrays.binarySearch(sortedIds, min);
+        if (index >= 0) return true;
+        index = -index - 1;
+        return index < sortedIds.length && sortedIds[index] <= max;
+    }
+
+    /**
+     * Read the block headers of a segment
+     * @param truncate if an incomplete or corrupt block at the end is cut off (for the segment being appended to)
+     */
+    private List<Block> scan(Segment segment, boolean truncate) throws IOException {
+        List<Block> result = new ObjectArrayList<>();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        long position = 0;
+        while (position < segment.size) {
+            Block block = null;
+            if (position + HEADER_BYTES <= segment.size) {
+                header.clear();
+                readFully(segment.channel, header, position);
+                if (header.getInt(0) == MAGIC) {
+                    block = new Block(segment, position, header.getInt(4), header.getInt(8), header.getInt(12), header.getInt(16),
+                            header.getInt(20), header.getInt(24), header.getInt(28), header.getInt(32));
+                    if (block.compressedLength() < 0 || position + HEADER_BYTES + block.compressedLength() > segment.size) {
+                        block = null;
+                    }
+                }
+            }
+            // a torn write can only affect the last block
+            if (block != null && truncate && position + HEADER_BYTES + block.compressedLength() == segment.size) {
+                try {
+                    readCompressed(block);
+                } catch (IOException e) {
+                    block = null;
+                }
+            }
+            if (block == null) {
+                if (!truncate) {
+                    Logg.error("Corrupt attack log block in " + segment.file + " at " + position + ", ignoring the rest of the segment");
+                    break;
+                }
+                Logg.error("Truncating incomplete attack log block in " + segment.file + " at " + position);
+                segment.channel.truncate(position);
+                segment.size = position;
+                break;
+            }
+            result.add(block);
+            position += HEADER_BYTES + block.compressedLength();
+        }
+        return result;
+    }
+
+    /**
+     * Rewrite a segment of many small blocks (appended by live updates) into full blocks, keeping the latest copy of each attack
+     */
+    private Segment compact(Segment segment, List<Block> segmentBlocks) throws IOException {
+        Int2ObjectOpenHashMap<byte[]> latest = new Int2ObjectOpenHashMap<>();
+        ObjectArrayList<byte[]> records = new ObjectArrayList<>();
+        IntOpenHashSet seen = new IntOpenHashSet();
+        for (Block block : segmentBlocks) {
+            ByteBuffer raw = readBlock(block);
+            for (int position = 0; position < raw.limit(); position += recordLength(raw, position)) {
+                byte[] record = new byte[recordLength(raw, position)];
+                raw.get(position, record);
+                int attackId = raw.getInt(position);
+                if (seen.add(attackId)) records.add(record);
+                latest.put(attackId, record);
+            }
+        }
+        File tmp = new File(directory, segment.file.getName() + ".tmp");
+        Files.deleteIfExists(tmp.toPath());
+        Segment target = new Segment(segment.number, tmp, true);
+        try {
+            ObjectArrayList<byte[]> blockRecords = new ObjectArrayList<>(BLOCK_RECORDS);
+            int rawBytes = 0;
+            for (byte[] record : records) {
+                byte[] copy = latest.get(ByteBuffer.wrap(record).getInt(0));
+                if (blockRecords.size() >= BLOCK_RECORDS || rawBytes + copy.length > BLOCK_RAW_BYTES) {
+                    writeBlock(target, blockRecords);
+                    blockRecords.clear();
+                    rawBytes = 0;
+                }
+                blockRecords.add(copy);
+                rawBytes += copy.length;
+            }
+            if (!blockRecords.isEmpty()) writeBlock(target, blockRecords);
+            target.channel.force(true);
+        } finally {
+            target.channel.close();
+            segment.channel.close();
+        }
+        Files.move(tmp.toPath(), segment.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Logg.text("Compacted attack log segment " + segment.file.getName() + " from " + segmentBlocks.size() + " blocks");
+        return new Segment(segment.number, segment.file, false);
+    }
+
+    /**
+     * Track the max attack id, and the attacks which were appended again
+     * @param raw the block contents, if already decompressed
+     */
+    private void index(Block block, ByteBuffer raw) throws IOException {
+        numRecords += block.count();
+        if (block.minAttackId() <= maxAttackId) {
+            if (raw == null) raw = readBlock(block);
+            for (int position = 0; position < raw.limit(); position += recordLength(raw, position)) {
+                int attackId = raw.getInt(position);
+                if (attackId <= maxAttackId) {
+                    byte[] record = new byte[recordLength(raw, position)];
+                    raw.get(position, record);
+                    rewritten.put(attackId, record);
+                } else {
+                    maxAttackId = attackId;
+                }
+            }
+        }
+        maxAttackId = Math.max(maxAttackId, block.maxAttackId());
+    }
+
+    private static int recordLength(ByteBuffer raw, int position) {
+        return RECORD_HEADER_BYTES + (raw.getShort(position + 24) & 0xFFFF);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int read = channel.read(dst, position + dst.position());
+            if (read < 0) throw new EOFException("Unexpected end of attack log at " + (position + dst.position()));
+        }
+    }
+
+    private byte[] readCompressed(Block block) throws IOException {
+        Segment segment = block.segment();
+        byte[] compressed = new byte[block.compressedLength()];
+        long dataOffset = block.offset() + HEADER_BYTES;
+        MappedByteBuffer map = segment.map;
+        if (map != null && dataOffset + compressed.length <= map.capacity()) {
+            map.get((int) dataOffset, compressed);
+        } else {
+            readFully(segment.channel, ByteBuffer.wrap(compressed), dataOffset);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(compressed);
+        if ((int) crc.getValue() != block.crc()) {
+            throw new IOException("Attack log block checksum mismatch in " + segment.file + " at " + block.offset());
+        }
+        return compressed;
+    }
+
+    private ByteBuffer readBlock(Block block) throws IOException {
+        byte[] compressed = readCompressed(block);
+        byte[] raw = new byte[block.rawLength()];
+        decompressor.decompress(compressed, 0, raw, 0, raw.length);
+        return ByteBuffer.wrap(raw);
+    }
+
+    private Block writeBlock(Segment segment, List<byte[]> records) throws IOException {
+        int rawLength = 0;
+        for (byte[] record : records) rawLength += record.length;
+        ByteBuffer raw = ByteBuffer.allocate(rawLength);
+        int minAttackId = Integer.MAX_VALUE, maxAttackId = Integer.MIN_VALUE, minWarId = Integer.MAX_VALUE, maxWarId = Integer.MIN_VALUE;
+        for (byte[] record : records) {
+            ByteBuffer view = ByteBuffer.wrap(record);
+            int attackId = view.getInt(0);
+            int warId = view.getInt(4);
+            minAttackId = Math.min(minAttackId, attackId);
+            maxAttackId = Math.max(maxAttackId, attackId);
+            minWarId = Math.min(minWarId, warId);
+            maxWarId = Math.max(maxWarId, warId);
+            raw.put(record);
+        }
+        byte[] compressed = new byte[compressor.maxCompressedLength(rawLength)];
+        int compressedLength = compressor.compress(raw.array(), 0, rawLength, compressed, 0, compressed.length);
+        CRC32 crc = new CRC32();
+        crc.update(compressed, 0, compressedLength);
+
+        ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + compressedLength);
+        out.putInt(MAGIC).putInt(records.size()).putInt(rawLength).putInt(compressedLength).putInt((int) crc.getValue())
+                .putInt(minAttackId).putInt(maxAttackId).putInt(minWarId).putInt(maxWarId)
+                .put(compressed, 0, compressedLength)
+                .flip();
+        long offset = segment.size;
+        while (out.hasRemaining()) {
+            segment.channel.write(out, offset + out.position());
+        }
+        segment.size = offset + out.limit();
+        return new Block(segment, offset, records.size(), rawLength, compressedLength, (int) crc.getValue(), minAttackId, maxAttackId, minWarId, maxWarId);
+    }
+
+    private static byte[] toRecord(AttackEntry entry) {
+        byte[] data = entry.data();
+        if (data.length > 0xFFFF) {
+            throw new IllegalArgumentException("Attack data too large: " + data.length + " bytes for attack " + entry.id());
+        }
+        return ByteBuffer.allocate(RECORD_HEADER_BYTES + data.length)
+                .putInt(entry.id()).putInt(entry.war_id()).putInt(entry.attacker_id()).putInt(entry.defender_id())
+                .putLong(entry.date()).putShort((short) data.length).put(data)
+                .array();
+    }
+
+    /**
+     * Append the attacks as one or more blocks, and sync them to disk
+     */
+    public synchronized void append(Collection<AttackEntry> entries) throws IOException {
+        if (entries.isEmpty()) return;
+        ObjectArrayList<Block> added = new ObjectArrayList<>();
+        ObjectArrayList<byte[]> blockRecords = new ObjectArrayList<>(Math.min(entries.size(), BLOCK_RECORDS));
+        int rawBytes = 0;
+        for (AttackEntry entry : entries) {
+            byte[] record = toRecord(entry);
+            if (blockRecords.size() >= BLOCK_RECORDS || rawBytes + record.length > BLOCK_RAW_BYTES) {
+                added.add(writeBlock(active, blockRecords));
+                blockRecords.clear();
+                rawBytes = 0;
+            }
+            blockRecords.add(record);
+            rawBytes += record.length;
+        }
+        added.add(writeBlock(active, blockRecords));
+        active.channel.force(false);
+
+        synchronized (rewritten) {
+            for (Block block : added) {
+                index(block, null);
+            }
+        }
+        Block[] newBlocks = Arrays.copyOf(blocks, blocks.length + added.size());
+        for (int i = 0; i < added.size(); i++) {
+            newBlocks[blocks.length + i] = added.get(i);
+        }
+        blocks = newBlocks;
+
+        if (active.size >= SEGMENT_BYTES) {
+            active.seal();
+            active = new Segment(active.number + 1, getFile(active.number + 1), true);
+            segments.add(active);
+        }
+    }
+
+    private Int2ObjectOpenHashMap<byte[]> getRewritten() {
+        synchronized (rewritten) {
+            return rewritten.isEmpty() ? rewritten : new Int2ObjectOpenHashMap<>(rewritten);
+        }
+    }
+
+    private static boolean visit(ByteBuffer buffer, int position, RecordVisitor visitor) {
+        return visitor.accept(buffer.getInt(position), buffer.getInt(position + 4), buffer.getInt(position + 8), buffer.getInt(position + 12),
+                buffer.getLong(position + 16), buffer, position + RECORD_HEADER_BYTES, buffer.getShort(position + 24) & 0xFFFF);
+    }
+
+    /**
+     * Visit the latest copy of every attack, in the order they were first appended (which is by attack id, unless attacks were saved out of order)
+     * @param afterId only visit attacks with a greater id
+     * @param minWarId only visit attacks of wars with at least this id
+     */
+    public void forEach(int afterId, int minWarId, RecordVisitor visitor) throws IOException {
+        Block[] snapshot = blocks;
+        Int2ObjectOpenHashMap<byte[]> latest = getRewritten();
+        IntOpenHashSet visitedRewritten = new IntOpenHashSet();
+        for (Block block : snapshot) {
+            if (block.maxAttackId() <= afterId || block.maxWarId() < minWarId) continue;
+            ByteBuffer raw = readBlock(block);
+            for (int position = 0; position < raw.limit(); position += recordLength(raw, position)) {
+                int attackId = raw.getInt(position);
+                if (attackId <= afterId || raw.getInt(position + 4) < minWarId) continue;
+                byte[] record = latest.isEmpty() ? null : latest.get(attackId);
+                if (record == null) {
+                    if (!visit(raw, position, visitor)) return;
+                } else if (visitedRewritten.add(attackId)) {
+                    if (!visit(ByteBuffer.wrap(record), 0, visitor)) return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the latest copy of the attacks of each war, sorted by attack id, as length prefixed records (see {@link ColdAttackCache})
+     * Wars with no attacks are not visited
+     * @param warIds the wars, sorted by id
+     */
+    public void readWars(List<Integer> warIds, ColdAttackCache.WarVisitor visitor) throws IOException {
+        int[] sortedIds = warIds.stream().mapToInt(Integer::intValue).toArray();
+        IntOpenHashSet warIdSet = new IntOpenHashSet(sortedIds);
+        Int2ObjectOpenHashMap<Int2ObjectSortedMap<byte[]>> byWar = new Int2ObjectOpenHashMap<>();
+        for (Block block : blocks) {
+            if (!block.hasWar(sortedIds)) continue;
+            ByteBuffer raw = readBlock(block);
+            for (int position = 0; position < raw.limit(); position += recordLength(raw, position)) {
+                int warId = raw.getInt(position + 4);
+                if (!warIdSet.contains(warId)) continue;
+                int length = raw.getShort(position + 24) & 0xFFFF;
+                byte[] data = new byte[length];
+                raw.get(position + RECORD_HEADER_BYTES, data);
+                Int2ObjectSortedMap<byte[]> attacks = byWar.get(warId);
+                if (attacks == null) {
+                    attacks = new Int2ObjectRBTreeMap<>();
+                    byWar.put(warId, attacks);
+                }
+                attacks.put(raw.getInt(position), data);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int warId : sortedIds) {
+            Int2ObjectSortedMap<byte[]> attacks = byWar.get(warId);
+            if (attacks == null) continue;
+            out.reset();
+            for (byte[] data : attacks.values()) {
+                out.write(data.length >>> 8);
+                out.write(data.length);
+                out.write(data, 0, data.length);
+            }
+            visitor.accept(warId, out.toByteArray());
+        }
+    }
+
+    /**
+     * Visit the latest copy of each of the attacks, in order of attack id
+     */
+    public void readAttacks(Collection<Integer> attackIds, RecordVisitor visitor) throws IOException {
+        int[] sortedIds = attackIds.stream().mapToInt(Integer::intValue).sorted().toArray();
+        if (sortedIds.length == 0) return;
+        IntOpenHashSet idSet = new IntOpenHashSet(sortedIds);
+        Int2ObjectRBTreeMap<byte[]> found = new Int2ObjectRBTreeMap<>();
+        for (Block block : blocks) {
+            if (!overlaps(sortedIds, block.minAttackId(), block.maxAttackId())) continue;
+            ByteBuffer raw = readBlock(block);
+            for (int position = 0; position < raw.limit(); position += recordLength(raw, position)) {
+                int attackId = raw.getInt(position);
+                if (!idSet.contains(attackId)) continue;
+                byte[] record = new byte[recordLength(raw, position)];
+                raw.get(position, record);
+                found.put(attackId, record);
+            }
+        }
+        for (byte[] record : found.values()) {
+            if (!visit(ByteBuffer.wrap(record), 0, visitor)) return;
+        }
+    }
+
+    public synchronized int getMaxAttackId() {
+        return maxAttackId;
+    }
+
+    public boolean isEmpty() {
+        return blocks.length == 0;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (Segment segment : segments) {
+            segment.channel.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        long bytes = 0;
+        for (Segment segment : segments) bytes += segment.size;
+        return "AttackLog{segments=" + segments.size() + ", blocks=" + blocks.length + ", records=" + numRecords +
+                ", maxAttackId=" + maxAttackId + ", rewritten=" + rewritten.size() + ", bytes=" + bytes + "}";
+    }
+}
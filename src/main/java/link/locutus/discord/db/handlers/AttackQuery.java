@@ -9,6 +9,7 @@ import link.locutus.discord.db.WarDB;
 import link.locutus.discord.db.entities.AttackCost;
 import link.locutus.discord.db.entities.DBWar;
 import link.locutus.discord.util.TimeUtil;
+import link.locutus.discord.util.scheduler.TriConsumer;
 
 import java.util.Collection;
 import java.util.Collections;
@@ -16,8 +17,10 @@ import java.util.Map;
 import java.util.Set;
 import java.util.function.BiConsumer;
 import java.util.function.BiPredicate;
+import java.util.function.BinaryOperator;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 public class AttackQuery {
 
@@ -170,6 +173,22 @@ public class AttackQuery {
         getDb().iterateAttacks(wars, attackTypeFilter, preliminaryFilter, attackFilter, forEachAttack);
     }
 
+    /**
+     * Fold the attacks into per-task results on the attack pool, see {@link WarDB#iterateAttacksParallel}
+     */
+    public <T> T reduceAttacks(Supplier<T> supplier, TriConsumer<T, DBWar, AbstractCursor> accumulator, BinaryOperator<T> combiner) {
+        if (wars == null) {
+            withAllWars();
+        }
+        Predicate<AbstractCursor> attackFilterFinal = attackFilter;
+        TriConsumer<T, DBWar, AbstractCursor> accumulatorFinal = attackFilterFinal == null ? accumulator : (result, war, attack) -> {
+            if (attackFilterFinal.test(attack)) {
+                accumulator.accept(result, war, attack);
+            }
+        };
+        return getDb().iterateAttacksParallel(wars, attackTypeFilter, preliminaryFilter, supplier, accumulatorFinal, combiner);
+    }
+
     public AttackQuery withTypes(AttackType... types) {
         Set<AttackType> typeSet = new ObjectLinkedOpenHashSet<>();
         Collections.addAll(typeSet, types);
@@ -185,18 +204,12 @@ public class AttackQuery {
                              boolean victories,
                              boolean logWars,
                              boolean attacks) {
-        if (wars == null) {
-            withAllWars();
-        }
-        Predicate<AbstractCursor> attackFilterFinal = attackFilter == null ? Predicates.alwaysTrue() : attackFilter;
-        AttackCost cost = new AttackCost(nameA, nameB, buildings, ids, victories, logWars, attacks);
-        getDb().iterateAttacks(wars, attackTypeFilter, preliminaryFilter, (war, attack) -> {
-            if (!attackFilterFinal.test(attack)) {
-                return;
-            }
-            cost.addCost(attack, war, isPrimary.test(war, attack));
-        });
-        return cost;
+        return reduceAttacks(() -> new AttackCost(nameA, nameB, buildings, ids, victories, logWars, attacks),
+                (cost, war, attack) -> cost.addCost(attack, war, isPrimary.test(war, attack)),
+                (a, b) -> {
+                    a.addCost(b);
+                    return a;
+                });
     }
 }
 
@@ -0,0 +1,154 @@
+package link.locutus.discord.db.handlers;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import link.locutus.discord.db.entities.DBWar;
+import link.locutus.discord.util.TimeUtil;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Secondary index over the {@link PackedAttackStore}, keyed by (nation, turn bucket) and (alliance, turn bucket).
+ * Each entry references one attack as its war id and its position within the war, see {@link #getWarId(long)} and {@link #getIndex(long)}.
+ * Only attacks from the last {@link #WINDOW_TURNS} turns are indexed, and older buckets are dropped with {@link #removeBefore(long)},
+ * so the index stays small even when every attack is held in the store.
+ * Wars unloaded from the store must be removed with {@link #removeWar(int)}, so their positions are not reused by a later load of the war.
+ * Not thread safe, callers synchronize on the attack store
+ */
+public class AttackTimeIndex {
+    public static final int BUCKET_TURNS = 12;
+    public static final int WINDOW_TURNS = 120;
+
+    private final Long2ObjectOpenHashMap<LongArrayList> byNation = new Long2ObjectOpenHashMap<>();
+    private final Long2ObjectOpenHashMap<LongArrayList> byAlliance = new Long2ObjectOpenHashMap<>();
+    // the keys each war has entries under, to remove the war
+    private final Int2ObjectOpenHashMap<LongOpenHashSet> nationKeysByWar = new Int2ObjectOpenHashMap<>();
+    private final Int2ObjectOpenHashMap<LongOpenHashSet> allianceKeysByWar = new Int2ObjectOpenHashMap<>();
+
+    public static long getBucket(long date) {
+        return TimeUtil.getTurn(date) / BUCKET_TURNS;
+    }
+
+    private static long key(int id, long bucket) {
+        return ((long) id << 32) | (bucket & 0xFFFFFFFFL);
+    }
+
+    private static long entry(int warId, int index) {
+        return ((long) warId << 32) | (index & 0xFFFFFFFFL);
+    }
+
+    public static int getWarId(long entry) {
+        return (int) (entry >>> 32);
+    }
+
+    public static int getIndex(long entry) {
+        return (int) entry;
+    }
+
+    private static void add(Long2ObjectOpenHashMap<LongArrayList> map, Int2ObjectOpenHashMap<LongOpenHashSet> keysByWar, int id, long bucket, long entry) {
+        long key = key(id, bucket);
+        LongArrayList list = map.get(key);
+        if (list == null) {
+            list = new LongArrayList(4);
+            map.put(key, list);
+        }
+        list.add(entry);
+        LongOpenHashSet keys = keysByWar.get(getWarId(entry));
+        if (keys == null) {
+            keys = new LongOpenHashSet(4);
+            keysByWar.put(getWarId(entry), keys);
+        }
+        keys.add(key);
+    }
+
+    private static void removeWar(Long2ObjectOpenHashMap<LongArrayList> map, Int2ObjectOpenHashMap<LongOpenHashSet> keysByWar, int warId) {
+        LongOpenHashSet keys = keysByWar.remove(warId);
+        if (keys == null) return;
+        LongIterator iter = keys.iterator();
+        while (iter.hasNext()) {
+            long key = iter.nextLong();
+            LongArrayList list = map.get(key);
+            if (list == null) continue;
+            list.removeIf((long entry) -> getWarId(entry) == warId);
+            if (list.isEmpty()) map.remove(key);
+        }
+    }
+
+    /**
+     * Index an attack stored at the given position of its war
+     * @param war the war, if known, to index the attack under the alliances at war
+     */
+    public void add(int warId, int index, long date, int attackerId, int defenderId, DBWar war) {
+        if (TimeUtil.getTurn(date) < TimeUtil.getTurn() - WINDOW_TURNS) return;
+        long bucket = getBucket(date);
+        long entry = entry(warId, index);
+        add(byNation, nationKeysByWar, attackerId, bucket, entry);
+        if (defenderId != attackerId) add(byNation, nationKeysByWar, defenderId, bucket, entry);
+        if (war != null) {
+            if (war.getAttacker_aa() != 0) add(byAlliance, allianceKeysByWar, war.getAttacker_aa(), bucket, entry);
+            if (war.getDefender_aa() != 0 && war.getDefender_aa() != war.getAttacker_aa()) add(byAlliance, allianceKeysByWar, war.getDefender_aa(), bucket, entry);
+        }
+    }
+
+    /**
+     * Remove every entry of the war, e.g. when its attacks are unloaded from the store
+     */
+    public void removeWar(int warId) {
+        removeWar(byNation, nationKeysByWar, warId);
+        removeWar(byAlliance, allianceKeysByWar, warId);
+    }
+
+    private static LongOpenHashSet collect(Long2ObjectOpenHashMap<LongArrayList> map, Set<Integer> ids, long start, long end) {
+        long startBucket = getBucket(start);
+        long endBucket = getBucket(Math.min(end, TimeUtil.getTimeFromTurn(TimeUtil.getTurn() + 1)));
+        LongOpenHashSet result = new LongOpenHashSet();
+        for (int id : ids) {
+            for (long bucket = startBucket; bucket <= endBucket; bucket++) {
+                LongArrayList list = map.get(key(id, bucket));
+                if (list != null) result.addAll(list);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the attack entries in wars involving any of the nations, in buckets overlapping [start, end]
+     * The buckets are coarse, so callers still filter on the attack date
+     */
+    public LongOpenHashSet getByNations(Set<Integer> nationIds, long start, long end) {
+        return collect(byNation, nationIds, start, end);
+    }
+
+    /**
+     * @return the attack entries in wars involving any of the alliances, in buckets overlapping [start, end]
+     */
+    public LongOpenHashSet getByAlliances(Set<Integer> allianceIds, long start, long end) {
+        return collect(byAlliance, allianceIds, start, end);
+    }
+
+    /**
+     * Drop every bucket that ends before the given date
+     */
+    public void removeBefore(long date) {
+        long bucket = getBucket(date);
+        byNation.keySet().removeIf((long key) -> (int) key < bucket);
+        byAlliance.keySet().removeIf((long key) -> (int) key < bucket);
+        for (Int2ObjectOpenHashMap<LongOpenHashSet> keysByWar : List.of(nationKeysByWar, allianceKeysByWar)) {
+            keysByWar.values().removeIf(keys -> {
+                keys.removeIf((long key) -> (int) key < bucket);
+                return keys.isEmpty();
+            });
+        }
+    }
+
+    public void clear() {
+        byNation.clear();
+        byAlliance.clear();
+        nationKeysByWar.clear();
+        allianceKeysByWar.clear();
+    }
+}
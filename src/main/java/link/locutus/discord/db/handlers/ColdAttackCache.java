@@ -0,0 +1,254 @@
+package link.locutus.discord.db.handlers;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import link.locutus.discord.db.DBMainV2;
+import link.locutus.discord.util.StringMan;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size bounded cache of the serialized attacks of wars which are not held in the {@link PackedAttackStore}.
+ * Each entry is every attack of one war, in the same length prefixed record format as {@link PackedAttackStore.WarSlice}.
+ * Wars with no attacks are cached as an empty entry. Misses are read from `attacks3` (or the {@link AttackLog}) in batches sorted by war id.
+ * A war invalidated while it is being read is not cached, see {@link #invalidate(int)}.
+ * Thread safe
+ */
+public class ColdAttackCache {
+    public static final int FETCH_BATCH = 5_000;
+    private static final int ENTRY_OVERHEAD = 64;
+    private static final byte[] EMPTY = new byte[0];
+    private static final int GENERATION_STRIPES = 1024;
+
+    @FunctionalInterface
+    public interface WarVisitor {
+        void accept(int warId, byte[] records);
+    }
+
+    private final Cache<Integer, byte[]> cache;
+    private final AtomicLong bytes = new AtomicLong();
+    // incremented when a war is invalidated, by war id modulo the number of stripes
+    private final AtomicIntegerArray generations = new AtomicIntegerArray(GENERATION_STRIPES);
+    private volatile AttackLog attackLog;
+
+    /**
+     * @param maxBytes the memory budget, or 0 to only batch the reads without caching them
+     */
+    public ColdAttackCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            cache = null;
+            return;
+        }
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((Integer warId, byte[] records) -> records.length + ENTRY_OVERHEAD)
+                .removalListener(notification -> {
+                    byte[] records = notification.getValue();
+                    if (records != null && notification.getCause() != RemovalCause.REPLACED) {
+                        bytes.addAndGet(-(records.length + ENTRY_OVERHEAD));
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Read misses from the attack log instead of the database
+     */
+    public void setAttackLog(AttackLog attackLog) {
+        this.attackLog = attackLog;
+    }
+
+    public static void forEach(byte[] records, PackedAttackStore.AttackVisitor visitor) {
+        ByteBuffer view = ByteBuffer.wrap(records);
+        int position = 0;
+        while (position < records.length) {
+            int length = view.getShort(position) & 0xFFFF;
+            visitor.accept(view, position + 2, length);
+            position += 2 + length;
+        }
+    }
+
+    private static int stripe(int warId) {
+        return warId & (GENERATION_STRIPES - 1);
+    }
+
+    /**
+     * Remove the war, e.g. after its attacks are saved. A read of the war already in progress will not be cached
+     */
+    public void invalidate(int warId) {
+        if (cache == null) return;
+        generations.incrementAndGet(stripe(warId));
+        cache.invalidate(warId);
+    }
+
+    public void invalidateAll() {
+        if (cache == null) return;
+        for (int i = 0; i < GENERATION_STRIPES; i++) generations.incrementAndGet(i);
+        cache.invalidateAll();
+    }
+
+    private int[] getGenerations() {
+        int[] result = new int[GENERATION_STRIPES];
+        for (int i = 0; i < GENERATION_STRIPES; i++) result[i] = generations.get(i);
+        return result;
+    }
+
+    /**
+     * Cache the records of a war, unless it was invalidated since the generations were read (before reading the records)
+     */
+    private void put(int warId, byte[] records, int[] readGenerations) {
+        if (cache == null) return;
+        int stripe = stripe(warId);
+        if (generations.get(stripe) != readGenerations[stripe]) return;
+        byte[] previous = cache.asMap().put(warId, records);
+        bytes.addAndGet(previous == null ? records.length + ENTRY_OVERHEAD : records.length - previous.length);
+        // invalidated between the check and the put
+        if (generations.get(stripe) != readGenerations[stripe]) cache.invalidate(warId);
+    }
+
+    /**
+     * Visit the attacks of each war in order of war id, reading the wars not in the cache from the database
+     * @param warIds the wars to visit
+     */
+    public void iterate(DBMainV2 db, Collection<Integer> warIds, WarVisitor visitor) {
+        IntArrayList sorted = new IntArrayList(warIds);
+        Collections.sort(sorted);
+        IntArrayList missing = new IntArrayList();
+        IntArrayList hitIds = new IntArrayList();
+        List<byte[]> hits = new ArrayList<>();
+        for (int warId : sorted) {
+            byte[] records = cache == null ? null : cache.getIfPresent(warId);
+            if (records == null) {
+                missing.add(warId);
+            } else if (records.length > 0) {
+                hitIds.add(warId);
+                hits.add(records);
+            }
+        }
+        // visit the cached wars between the wars read from the database
+        int[] nextHit = {0};
+        WarVisitor merged = (warId, records) -> {
+            while (nextHit[0] < hitIds.size() && hitIds.getInt(nextHit[0]) < warId) {
+                visitor.accept(hitIds.getInt(nextHit[0]), hits.get(nextHit[0]++));
+            }
+            visitor.accept(warId, records);
+        };
+        for (int start = 0; start < missing.size(); start += FETCH_BATCH) {
+            fetch(db, missing.subList(start, Math.min(missing.size(), start + FETCH_BATCH)), merged);
+        }
+        while (nextHit[0] < hitIds.size()) {
+            visitor.accept(hitIds.getInt(nextHit[0]), hits.get(nextHit[0]++));
+        }
+    }
+
+    private void fetch(DBMainV2 db, List<Integer> warIds, WarVisitor visitor) {
+        int[] readGenerations = getGenerations();
+        AttackLog log = attackLog;
+        if (log != null) {
+            fetch(log, warIds, visitor, readGenerations);
+            return;
+        }
+        String whereClause = warIds.size() == 1 ? " WHERE `war_id` = " + warIds.get(0) : " WHERE `war_id` IN " + StringMan.getString(warIds);
+        String query = "SELECT war_id, data FROM `attacks3`" + whereClause + " ORDER BY `war_id` ASC, `id` ASC";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int index = 0;
+        int lastWarId = -1;
+        try (PreparedStatement stmt = db.prepareQuery(query)) {
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    int warId = rs.getInt(1);
+                    if (warId != lastWarId) {
+                        if (lastWarId != -1) complete(lastWarId, out, visitor, readGenerations);
+                        // wars in the batch without any attacks
+                        while (index < warIds.size() && warIds.get(index) < warId) {
+                            put(warIds.get(index++), EMPTY, readGenerations);
+                        }
+                        if (index < warIds.size() && warIds.get(index) == warId) index++;
+                        lastWarId = warId;
+                    }
+                    byte[] data = rs.getBytes(2);
+                    out.write(data.length >>> 8);
+                    out.write(data.length);
+                    out.write(data, 0, data.length);
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (lastWarId != -1) complete(lastWarId, out, visitor, readGenerations);
+        while (index < warIds.size()) {
+            put(warIds.get(index++), EMPTY, readGenerations);
+        }
+    }
+
+    private void fetch(AttackLog log, List<Integer> warIds, WarVisitor visitor, int[] readGenerations) {
+        int[] index = {0};
+        try {
+            log.readWars(warIds, (warId, records) -> {
+                // wars in the batch without any attacks
+                while (index[0] < warIds.size() && warIds.get(index[0]) < warId) {
+                    put(warIds.get(index[0]++), EMPTY, readGenerations);
+                }
+                if (index[0] < warIds.size() && warIds.get(index[0]) == warId) index[0]++;
+                put(warId, records, readGenerations);
+                visitor.accept(warId, records);
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        while (index[0] < warIds.size()) {
+            put(warIds.get(index[0]++), EMPTY, readGenerations);
+        }
+    }
+
+    private void complete(int warId, ByteArrayOutputStream out, WarVisitor visitor, int[] readGenerations) {
+        byte[] records = out.toByteArray();
+        out.reset();
+        put(warId, records, readGenerations);
+        visitor.accept(warId, records);
+    }
+
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    public long getNumWars() {
+        return cache == null ? 0 : cache.size();
+    }
+
+    /**
+     * @return the approximate memory used by cached entries
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public CacheStats getStats() {
+        return cache == null ? new CacheStats(0, 0, 0, 0, 0, 0) : cache.stats();
+    }
+
+    @Override
+    public String toString() {
+        CacheStats stats = getStats();
+        return "ColdAttackCache{wars=" + getNumWars() + ", bytes=" + getBytes() +
+                ", hits=" + stats.hitCount() + ", misses=" + stats.missCount() +
+                ", hitRate=" + String.format("%.3f", stats.hitRate()) + ", evictions=" + stats.evictionCount() + "}";
+    }
+}
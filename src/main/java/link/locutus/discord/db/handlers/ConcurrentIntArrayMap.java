@@ -0,0 +1,71 @@
+package link.locutus.discord.db.handlers;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Map of non negative int keys to values, stored in lazily allocated pages of {@link AtomicReferenceArray} slots.
+ * Reads are wait-free and see the latest value of a slot. Values should be immutable (e.g. copy-on-write arrays).
+ * Intended for dense id spaces such as nation and war ids, where a page covers {@link #PAGE_SIZE} consecutive ids.
+ * Allocating a page or growing the page table takes a lock. Each write to a slot is atomic, but the map does not order
+ * writes to different slots: a read-modify-write of a slot, or an update spanning several slots, must hold a lock of the caller,
+ * e.g. {@link ActiveWarHandler} writes while holding its dense index
+ */
+public class ConcurrentIntArrayMap<V> {
+    private static final int PAGE_SHIFT = 12;
+    public static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private volatile AtomicReferenceArray<AtomicReferenceArray<V>> pages;
+
+    /**
+     * @param expectedMaxKey the largest key expected, the page table grows past it as needed
+     */
+    public ConcurrentIntArrayMap(int expectedMaxKey) {
+        this.pages = new AtomicReferenceArray<>(Math.max(1, (expectedMaxKey >>> PAGE_SHIFT) + 1));
+    }
+
+    private AtomicReferenceArray<V> getPage(int key) {
+        if (key < 0) return null;
+        AtomicReferenceArray<AtomicReferenceArray<V>> table = pages;
+        int pageIndex = key >>> PAGE_SHIFT;
+        return pageIndex < table.length() ? table.get(pageIndex) : null;
+    }
+
+    private AtomicReferenceArray<V> getOrCreatePage(int key) {
+        if (key < 0) throw new IllegalArgumentException("Negative key: " + key);
+        AtomicReferenceArray<V> page = getPage(key);
+        if (page != null) return page;
+        synchronized (this) {
+            AtomicReferenceArray<AtomicReferenceArray<V>> table = pages;
+            int pageIndex = key >>> PAGE_SHIFT;
+            if (pageIndex >= table.length()) {
+                int newLength = Math.max(pageIndex + 1, table.length() + (table.length() >> 1));
+                AtomicReferenceArray<AtomicReferenceArray<V>> grown = new AtomicReferenceArray<>(newLength);
+                for (int i = 0; i < table.length(); i++) {
+                    grown.set(i, table.get(i));
+                }
+                pages = table = grown;
+            }
+            page = table.get(pageIndex);
+            if (page == null) {
+                page = new AtomicReferenceArray<>(PAGE_SIZE);
+                table.set(pageIndex, page);
+            }
+            return page;
+        }
+    }
+
+    public V get(int key) {
+        AtomicReferenceArray<V> page = getPage(key);
+        return page == null ? null : page.get(key & PAGE_MASK);
+    }
+
+    /**
+     * @param value the new value, or null to remove the key
+     * @return the previous value
+     */
+    public V getAndSet(int key, V value) {
+        AtomicReferenceArray<V> page = value == null ? getPage(key) : getOrCreatePage(key);
+        return page == null ? null : page.getAndSet(key & PAGE_MASK, value);
+    }
+}
@@ -0,0 +1,297 @@
+package link.locutus.discord.db.handlers;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Serialized attacks packed into off-heap arenas, one arena per range of war ids.
+ * Each record is a 2 byte length followed by the attack bytes, and each war keeps the offsets of its records.
+ * Not thread safe, callers synchronize on the store
+ */
+public class PackedAttackStore {
+    public static final int WAR_ID_SHIFT = 14;
+    private static final int INITIAL_CAPACITY = 1 << 16;
+    private static final int MAX_RECORD_LENGTH = 0xFFFF;
+
+    @FunctionalInterface
+    public interface AttackVisitor {
+        void accept(ByteBuffer arena, int offset, int length);
+    }
+
+    /**
+     * A reusable copy of one war's records, so they can be decoded outside the store's lock
+     */
+    public static final class WarSlice {
+        private byte[] data = new byte[1024];
+        private ByteBuffer view = ByteBuffer.wrap(data);
+        private int size;
+        private int count;
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > data.length) {
+                byte[] newData = new byte[Math.max(capacity, data.length << 1)];
+                System.arraycopy(data, 0, newData, 0, size);
+                data = newData;
+                view = ByteBuffer.wrap(data);
+            }
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public void forEach(AttackVisitor visitor) {
+            int position = 0;
+            while (position < size) {
+                int length = view.getShort(position) & 0xFFFF;
+                visitor.accept(view, position + 2, length);
+                position += 2 + length;
+            }
+        }
+    }
+
+    private final Int2ObjectOpenHashMap<Segment> segments = new Int2ObjectOpenHashMap<>();
+    private int numWars;
+    private long numAttacks;
+
+    private static final class Segment {
+        private ByteBuffer arena = ByteBuffer.allocateDirect(INITIAL_CAPACITY);
+        private int position;
+        private int deadBytes;
+        private final Int2ObjectOpenHashMap<IntArrayList> offsetsByWar = new Int2ObjectOpenHashMap<>();
+
+        private int append(byte[] data) {
+            return append(ByteBuffer.wrap(data), 0, data.length);
+        }
+
+        private int append(ByteBuffer data, int dataOffset, int length) {
+            int required = position + 2 + length;
+            if (required < 0) {
+                throw new IllegalStateException("Attack arena exceeds 2GB");
+            }
+            if (required > arena.capacity()) {
+                grow(required);
+            }
+            int offset = position;
+            arena.putShort(offset, (short) length);
+            arena.put(offset + 2, data, dataOffset, length);
+            position = required;
+            return offset;
+        }
+
+        private void grow(int required) {
+            long newCapacity = Math.min(Integer.MAX_VALUE, Math.max((long) arena.capacity() << 1, required));
+            ByteBuffer newArena = ByteBuffer.allocateDirect((int) newCapacity);
+            newArena.put(0, arena, 0, position);
+            arena = newArena;
+        }
+
+        private int length(int offset) {
+            return arena.getShort(offset) & 0xFFFF;
+        }
+
+        private void compact() {
+            int live = position - deadBytes;
+            ByteBuffer newArena = ByteBuffer.allocateDirect(Math.max(INITIAL_CAPACITY, live + (live >> 1)));
+            int newPosition = 0;
+            for (IntArrayList offsets : offsetsByWar.values()) {
+                for (int i = 0; i < offsets.size(); i++) {
+                    int offset = offsets.getInt(i);
+                    int recordLength = 2 + length(offset);
+                    newArena.put(newPosition, arena, offset, recordLength);
+                    offsets.set(i, newPosition);
+                    newPosition += recordLength;
+                }
+            }
+            arena = newArena;
+            position = newPosition;
+            deadBytes = 0;
+        }
+
+        private void markDead(int offset) {
+            deadBytes += 2 + length(offset);
+            if (deadBytes > INITIAL_CAPACITY && deadBytes > (position >> 1)) {
+                compact();
+            }
+        }
+    }
+
+    private Segment getSegment(int warId) {
+        return segments.get(warId >>> WAR_ID_SHIFT);
+    }
+
+    private IntArrayList getOffsets(int warId) {
+        Segment segment = getSegment(warId);
+        return segment == null ? null : segment.offsetsByWar.get(warId);
+    }
+
+    public boolean isEmpty() {
+        return numWars == 0;
+    }
+
+    public int getNumWars() {
+        return numWars;
+    }
+
+    public long getNumAttacks() {
+        return numAttacks;
+    }
+
+    public long getAllocatedBytes() {
+        long total = 0;
+        for (Segment segment : segments.values()) {
+            total += segment.arena.capacity();
+        }
+        return total;
+    }
+
+    public boolean containsWar(int warId) {
+        return getOffsets(warId) != null;
+    }
+
+    /**
+     * @return the number of attacks stored for the war, or -1 if the war is not loaded
+     */
+    public int size(int warId) {
+        IntArrayList offsets = getOffsets(warId);
+        return offsets == null ? -1 : offsets.size();
+    }
+
+    public void add(int warId, byte[] data) {
+        add(warId, ByteBuffer.wrap(data), 0, data.length);
+    }
+
+    public void add(int warId, ByteBuffer data, int offset, int length) {
+        if (length > MAX_RECORD_LENGTH) {
+            throw new IllegalArgumentException("Attack data too large: " + length + " bytes for war " + warId);
+        }
+        Segment segment = segments.computeIfAbsent(warId >>> WAR_ID_SHIFT, f -> new Segment());
+        IntArrayList offsets = segment.offsetsByWar.get(warId);
+        if (offsets == null) {
+            offsets = new IntArrayList(1);
+            segment.offsetsByWar.put(warId, offsets);
+            numWars++;
+        }
+        offsets.add(segment.append(data, offset, length));
+        numAttacks++;
+    }
+
+    public void set(int warId, int index, byte[] data) {
+        if (data.length > MAX_RECORD_LENGTH) {
+            throw new IllegalArgumentException("Attack data too large: " + data.length + " bytes for war " + warId);
+        }
+        Segment segment = getSegment(warId);
+        IntArrayList offsets = segment == null ? null : segment.offsetsByWar.get(warId);
+        if (offsets == null) {
+            throw new IndexOutOfBoundsException("No attacks for war " + warId);
+        }
+        int oldOffset = offsets.getInt(index);
+        offsets.set(index, segment.append(data));
+        segment.markDead(oldOffset);
+    }
+
+    /**
+     * @return false if the war is not loaded
+     */
+    public boolean forEach(int warId, AttackVisitor visitor) {
+        Segment segment = getSegment(warId);
+        IntArrayList offsets = segment == null ? null : segment.offsetsByWar.get(warId);
+        if (offsets == null) return false;
+        ByteBuffer arena = segment.arena;
+        for (int i = 0; i < offsets.size(); i++) {
+            int offset = offsets.getInt(i);
+            visitor.accept(arena, offset + 2, segment.length(offset));
+        }
+        return true;
+    }
+
+    /**
+     * Visit a single attack by its position within the war
+     * @return false if the war is not loaded or has no attack at that position
+     */
+    public boolean visit(int warId, int index, AttackVisitor visitor) {
+        Segment segment = getSegment(warId);
+        IntArrayList offsets = segment == null ? null : segment.offsetsByWar.get(warId);
+        if (offsets == null || index < 0 || index >= offsets.size()) return false;
+        int offset = offsets.getInt(index);
+        visitor.accept(segment.arena, offset + 2, segment.length(offset));
+        return true;
+    }
+
+    /**
+     * Copy the records of a war into the slice, replacing its previous contents
+     * @return false if the war is not loaded
+     */
+    public boolean copyWar(int warId, WarSlice slice) {
+        slice.size = 0;
+        slice.count = 0;
+        Segment segment = getSegment(warId);
+        IntArrayList offsets = segment == null ? null : segment.offsetsByWar.get(warId);
+        if (offsets == null) return false;
+        for (int i = 0; i < offsets.size(); i++) {
+            int offset = offsets.getInt(i);
+            int recordLength = 2 + segment.length(offset);
+            slice.ensureCapacity(slice.size + recordLength);
+            segment.arena.get(offset, slice.data, slice.size, recordLength);
+            slice.size += recordLength;
+        }
+        slice.count = offsets.size();
+        return true;
+    }
+
+    public byte[] get(int warId, int index) {
+        Segment segment = getSegment(warId);
+        IntArrayList offsets = segment == null ? null : segment.offsetsByWar.get(warId);
+        if (offsets == null) {
+            throw new IndexOutOfBoundsException("No attacks for war " + warId);
+        }
+        int offset = offsets.getInt(index);
+        byte[] data = new byte[segment.length(offset)];
+        segment.arena.get(offset + 2, data);
+        return data;
+    }
+
+    public boolean removeWar(int warId) {
+        int segmentId = warId >>> WAR_ID_SHIFT;
+        Segment segment = segments.get(segmentId);
+        if (segment == null) return false;
+        IntArrayList offsets = segment.offsetsByWar.remove(warId);
+        if (offsets == null) return false;
+        numWars--;
+        numAttacks -= offsets.size();
+        if (segment.offsetsByWar.isEmpty()) {
+            segments.remove(segmentId);
+            return true;
+        }
+        for (int i = 0; i < offsets.size(); i++) {
+            segment.deadBytes += 2 + segment.length(offsets.getInt(i));
+        }
+        if (segment.deadBytes > INITIAL_CAPACITY && segment.deadBytes > (segment.position >> 1)) {
+            segment.compact();
+        }
+        return true;
+    }
+
+    public IntSet getWarIds() {
+        IntOpenHashSet result = new IntOpenHashSet(numWars);
+        for (Segment segment : segments.values()) {
+            result.addAll(segment.offsetsByWar.keySet());
+        }
+        return result;
+    }
+
+    public void clear() {
+        segments.clear();
+        numWars = 0;
+        numAttacks = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "PackedAttackStore{wars=" + numWars + ", attacks=" + numAttacks + ", segments=" + segments.size() + ", bytes=" + getAllocatedBytes() + "}";
+    }
+}
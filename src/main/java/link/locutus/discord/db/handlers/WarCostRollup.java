@@ -0,0 +1,493 @@
+package link.locutus.discord.db.handlers;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import link.locutus.discord.Logg;
+import link.locutus.discord.apiv1.domains.subdomains.attack.v3.AbstractCursor;
+import link.locutus.discord.apiv1.domains.subdomains.attack.v3.AttackCursorFactory;
+import link.locutus.discord.apiv1.enums.AttackType;
+import link.locutus.discord.apiv1.enums.MilitaryUnit;
+import link.locutus.discord.apiv1.enums.ResourceType;
+import link.locutus.discord.apiv1.enums.city.building.Buildings;
+import link.locutus.discord.db.WarDB;
+import link.locutus.discord.db.entities.DBWar;
+import link.locutus.discord.util.StringMan;
+import link.locutus.discord.util.TimeUtil;
+import link.locutus.discord.util.io.BitBuffer;
+import link.locutus.discord.util.scheduler.ThrowingBiConsumer;
+import link.locutus.discord.util.scheduler.ThrowingConsumer;
+import link.locutus.discord.util.scheduler.ThrowingFunction;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Attack costs pre-aggregated per day, war, attacking nation and attack type, stored in the `WAR_COST_DAILY` table.
+ * Each row also records the nations and alliances on either side, so rows can be selected by day and participant without decoding attacks.
+ * The table is backfilled once from the saved attacks, then kept up to date from {@link WarDB#saveAttacks}.
+ * The id of the last attack folded in is kept in `war_metadata`
+ */
+public class WarCostRollup {
+    private static final String HIGH_WATER_KEY = "war_cost_rollup_attack_id";
+    private static final int BACKFILL_BATCH = 50_000;
+    public static final int WAR_ID_FILTER_LIMIT = 10_000;
+    private static final int MERGE_WAR_BATCH = 500;
+
+    private final WarDB db;
+    private final BitBuffer buffer = new BitBuffer(4096);
+    private volatile boolean ready;
+    private int highWaterId;
+
+    public WarCostRollup(WarDB db) {
+        this.db = db;
+    }
+
+    private record CellKey(long day, int warId, int attackerId, AttackType type) {
+    }
+
+    /**
+     * The summed costs of every attack by one nation, of one type, in one war, on one day
+     * Side 1 is the attacking nation, side 2 the defending nation
+     */
+    public static final class Cell {
+        private final long day;
+        private final int warId;
+        private final int attackerId;
+        private final int defenderId;
+        private final int attackerAA;
+        private final int defenderAA;
+        private final AttackType type;
+
+        private int numAttacks;
+        private final int[] attUnits = new int[MilitaryUnit.values.length];
+        private final int[] defUnits = new int[MilitaryUnit.values.length];
+        private final double[] attUnitCost = ResourceType.getBuffer();
+        private final double[] defUnitCost = ResourceType.getBuffer();
+        private final double[] attLoot = ResourceType.getBuffer();
+        private final double[] defLoot = ResourceType.getBuffer();
+        private final double[] attConsumption = ResourceType.getBuffer();
+        private final double[] defConsumption = ResourceType.getBuffer();
+        private final double[] defBuildingCost = ResourceType.getBuffer();
+        private final int[] defBuildings = Buildings.getBuffer();
+        private double defInfra;
+
+        private Cell(long day, int warId, int attackerId, int defenderId, int attackerAA, int defenderAA, AttackType type) {
+            this.day = day;
+            this.warId = warId;
+            this.attackerId = attackerId;
+            this.defenderId = defenderId;
+            this.attackerAA = attackerAA;
+            this.defenderAA = defenderAA;
+            this.type = type;
+        }
+
+        private static Cell of(AbstractCursor attack, DBWar war) {
+            boolean isWarAttacker = attack.getAttacker_id() == war.getAttacker_id();
+            return new Cell(getDay(attack.getDate()), war.getWarId(), attack.getAttacker_id(), attack.getDefender_id(),
+                    isWarAttacker ? war.getAttacker_aa() : war.getDefender_aa(),
+                    isWarAttacker ? war.getDefender_aa() : war.getAttacker_aa(),
+                    attack.getAttack_type());
+        }
+
+        private void add(AbstractCursor attack, DBWar war) {
+            numAttacks++;
+            attack.addAttUnitLosses(attUnits);
+            attack.addDefUnitLosses(defUnits);
+            attack.addAttUnitCosts(attUnitCost, war);
+            attack.addDefUnitCosts(defUnitCost, war);
+            attack.addAttLoot(attLoot);
+            attack.addDefLoot(defLoot);
+            attack.addAttConsumption(attConsumption);
+            attack.addDefConsumption(defConsumption);
+            attack.addBuildingCosts(defBuildingCost);
+            attack.addBuildingsDestroyed(defBuildings);
+            defInfra += attack.getInfra_destroyed_value();
+        }
+
+        private void add(Cell other, int sign) {
+            numAttacks += other.numAttacks * sign;
+            add(attUnits, other.attUnits, sign);
+            add(defUnits, other.defUnits, sign);
+            add(attUnitCost, other.attUnitCost, sign);
+            add(defUnitCost, other.defUnitCost, sign);
+            add(attLoot, other.attLoot, sign);
+            add(defLoot, other.defLoot, sign);
+            add(attConsumption, other.attConsumption, sign);
+            add(defConsumption, other.defConsumption, sign);
+            add(defBuildingCost, other.defBuildingCost, sign);
+            add(defBuildings, other.defBuildings, sign);
+            defInfra += other.defInfra * sign;
+        }
+
+        private static void add(int[] a, int[] b, int sign) {
+            for (int i = 0; i < a.length; i++) a[i] += b[i] * sign;
+        }
+
+        private static void add(double[] a, double[] b, int sign) {
+            for (int i = 0; i < a.length; i++) a[i] += b[i] * sign;
+        }
+
+        private static void write(BitBuffer buffer, int[] values) {
+            for (int value : values) {
+                buffer.writeBit(value != 0);
+                if (value != 0) buffer.writeVarInt(value);
+            }
+        }
+
+        private static void write(BitBuffer buffer, double[] values) {
+            for (double value : values) {
+                buffer.writeBit(value != 0);
+                if (value != 0) buffer.writeDouble(value);
+            }
+        }
+
+        private static void read(BitBuffer buffer, int[] values) {
+            for (int i = 0; i < values.length; i++) {
+                if (buffer.readBit()) values[i] = buffer.readVarInt();
+            }
+        }
+
+        private static void read(BitBuffer buffer, double[] values) {
+            for (int i = 0; i < values.length; i++) {
+                if (buffer.readBit()) values[i] = buffer.readDouble();
+            }
+        }
+
+        private byte[] toBytes(BitBuffer buffer) {
+            buffer.reset();
+            buffer.writeVarInt(numAttacks);
+            buffer.writeDouble(defInfra);
+            write(buffer, attUnits);
+            write(buffer, defUnits);
+            write(buffer, attUnitCost);
+            write(buffer, defUnitCost);
+            write(buffer, attLoot);
+            write(buffer, defLoot);
+            write(buffer, attConsumption);
+            write(buffer, defConsumption);
+            write(buffer, defBuildingCost);
+            write(buffer, defBuildings);
+            return buffer.getWrittenBytes();
+        }
+
+        private Cell load(BitBuffer buffer, byte[] data) {
+            buffer.setBytes(data);
+            numAttacks = buffer.readVarInt();
+            defInfra = buffer.readDouble();
+            read(buffer, attUnits);
+            read(buffer, defUnits);
+            read(buffer, attUnitCost);
+            read(buffer, defUnitCost);
+            read(buffer, attLoot);
+            read(buffer, defLoot);
+            read(buffer, attConsumption);
+            read(buffer, defConsumption);
+            read(buffer, defBuildingCost);
+            read(buffer, defBuildings);
+            return this;
+        }
+
+        public long getDay() {
+            return day;
+        }
+
+        public int getWarId() {
+            return warId;
+        }
+
+        public int getAttackerId() {
+            return attackerId;
+        }
+
+        public int getDefenderId() {
+            return defenderId;
+        }
+
+        public AttackType getType() {
+            return type;
+        }
+
+        public int getNumAttacks() {
+            return numAttacks;
+        }
+
+        public int[] getUnitLosses(boolean attacker) {
+            return attacker ? attUnits : defUnits;
+        }
+
+        public double[] getUnitCost(boolean attacker) {
+            return attacker ? attUnitCost : defUnitCost;
+        }
+
+        public double[] getLoot(boolean attacker) {
+            return attacker ? attLoot : defLoot;
+        }
+
+        public double[] getConsumption(boolean attacker) {
+            return attacker ? attConsumption : defConsumption;
+        }
+
+        /**
+         * @return the value of the defender's buildings destroyed
+         */
+        public double[] getBuildingCost() {
+            return defBuildingCost;
+        }
+
+        /**
+         * @return the defender's buildings destroyed, by building ordinal
+         */
+        public int[] getBuildingsDestroyed() {
+            return defBuildings;
+        }
+
+        /**
+         * @return the value of the defender's infra destroyed
+         */
+        public double getInfraDestroyed() {
+            return defInfra;
+        }
+    }
+
+    public static long getDay(long date) {
+        return TimeUtil.getTurn(date) / 12;
+    }
+
+    public static long getDayStart(long day) {
+        return TimeUtil.getTimeFromTurn(day * 12);
+    }
+
+    public void createTables() {
+        db.executeStmt("CREATE TABLE IF NOT EXISTS `WAR_COST_DAILY` (`day` INT NOT NULL, `war_id` INT NOT NULL, `attacker_id` INT NOT NULL, `defender_id` INT NOT NULL, " +
+                "`attacker_aa` INT NOT NULL, `defender_aa` INT NOT NULL, `attack_type` INT NOT NULL, `data` BLOB NOT NULL, " +
+                "PRIMARY KEY(`day`, `war_id`, `attacker_id`, `attack_type`))");
+        db.executeStmt("CREATE INDEX IF NOT EXISTS index_war_cost_daily_war_id ON WAR_COST_DAILY (war_id);");
+        db.executeStmt("CREATE TABLE IF NOT EXISTS war_metadata (key TEXT PRIMARY KEY, value TEXT)");
+    }
+
+    /**
+     * @return true once every saved attack has been folded into the table
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Fold every attack newer than the high water mark into the table, then start accepting live updates
+     */
+    public void backfill() {
+        int lastId;
+        synchronized (this) {
+            if (ready) return;
+            String value = db.select("SELECT value FROM war_metadata WHERE key = ?",
+                    (ThrowingConsumer<PreparedStatement>) stmt -> stmt.setString(1, HIGH_WATER_KEY),
+                    (ThrowingFunction<ResultSet, String>) rs -> rs.next() ? rs.getString("value") : null);
+            highWaterId = value == null ? 0 : Integer.parseInt(value);
+            lastId = highWaterId;
+        }
+        AttackCursorFactory factory = new AttackCursorFactory(db);
+        long total = 0;
+        int count;
+        while ((count = foldBatch(factory, lastId)) > 0) {
+            total += count;
+            lastId = highWaterId;
+        }
+        // attacks saved since the last read are not passed to update() until ready, so read them while holding the lock update() waits on
+        synchronized (this) {
+            while ((count = foldBatch(factory, highWaterId)) > 0) {
+                total += count;
+            }
+            ready = true;
+            Logg.text("War cost rollup up to date at attack " + highWaterId + " (" + total + " attacks added)");
+        }
+    }
+
+    /**
+     * Fold the next batch of saved attacks after the given id into the table
+     * @return the number of attacks read
+     */
+    private int foldBatch(AttackCursorFactory factory, int fromId) {
+        Map<CellKey, Cell> delta = new Object2ObjectOpenHashMap<>();
+        int[] maxId = {fromId};
+        int[] count = {0};
+        db.iterateAttackData(fromId, BACKFILL_BATCH, (attackId, warId, attackerId, defenderId, date, data, offset, length) -> {
+            count[0]++;
+            maxId[0] = Math.max(maxId[0], attackId);
+            DBWar war = db.getWar(warId);
+            if (war == null) return true;
+            AbstractCursor attack = factory.load(war, data, offset, length, true);
+            if (attack != null) add(delta, attack, war, 1);
+            return true;
+        });
+        if (count[0] == 0) return 0;
+        synchronized (this) {
+            merge(delta);
+            setHighWater(maxId[0]);
+        }
+        return count[0];
+    }
+
+    /**
+     * The saved version of attacks which are counted in the table, for attacks about to be re-saved whose war is not held in memory
+     * Must be called before the attacks are saved, and passed to {@link #update(Collection, Collection)} as replaced
+     */
+    public synchronized List<AbstractCursor> getSavedVersions(Collection<AbstractCursor> attacks) {
+        if (!ready) return List.of();
+        Set<Integer> ids = new IntOpenHashSet();
+        for (AbstractCursor attack : attacks) {
+            if (attack.getWar_attack_id() <= highWaterId) ids.add(attack.getWar_attack_id());
+        }
+        if (ids.isEmpty()) return List.of();
+        return new ArrayList<>(db.getAttacksById(ids));
+    }
+
+    /**
+     * Fold newly saved attacks into the table, and replace the costs of attacks which were re-saved
+     * Does nothing until the backfill completes, as the backfill reads the same attacks from the database
+     * @param added attacks which were saved, including the new version of replaced attacks
+     * @param replaced the previous version of attacks which were overwritten
+     */
+    public synchronized void update(Collection<AbstractCursor> added, Collection<AbstractCursor> replaced) {
+        if (!ready) return;
+        Map<CellKey, Cell> delta = new Object2ObjectOpenHashMap<>();
+        IntOpenHashSet replacedIds = new IntOpenHashSet();
+        for (AbstractCursor attack : replaced) {
+            if (attack.getWar_attack_id() > highWaterId) continue;
+            DBWar war = db.getWar(attack.getWar_id());
+            if (war == null) continue;
+            add(delta, attack, war, -1);
+            replacedIds.add(attack.getWar_attack_id());
+        }
+        int maxId = highWaterId;
+        for (AbstractCursor attack : added) {
+            // attacks at or below the high water mark are already counted, unless their old version was subtracted above
+            if (attack.getWar_attack_id() <= highWaterId && !replacedIds.contains(attack.getWar_attack_id())) continue;
+            DBWar war = db.getWar(attack.getWar_id());
+            if (war == null) continue;
+            add(delta, attack, war, 1);
+            maxId = Math.max(maxId, attack.getWar_attack_id());
+        }
+        if (delta.isEmpty()) return;
+        merge(delta);
+        if (maxId != highWaterId) setHighWater(maxId);
+    }
+
+    private static void add(Map<CellKey, Cell> delta, AbstractCursor attack, DBWar war, int sign) {
+        CellKey key = new CellKey(getDay(attack.getDate()), war.getWarId(), attack.getAttacker_id(), attack.getAttack_type());
+        Cell cell = delta.computeIfAbsent(key, f -> Cell.of(attack, war));
+        if (sign > 0) {
+            cell.add(attack, war);
+        } else {
+            Cell removed = Cell.of(attack, war);
+            removed.add(attack, war);
+            cell.add(removed, -1);
+        }
+    }
+
+    private void setHighWater(int id) {
+        highWaterId = id;
+        db.update("INSERT OR REPLACE INTO war_metadata (key, value) VALUES (?, ?)",
+                (ThrowingConsumer<PreparedStatement>) stmt -> {
+                    stmt.setString(1, HIGH_WATER_KEY);
+                    stmt.setString(2, Integer.toString(id));
+                });
+    }
+
+    private void merge(Map<CellKey, Cell> delta) {
+        // read the existing cells with one ranged query per batch of wars, instead of a query per cell
+        IntOpenHashSet warIdSet = new IntOpenHashSet();
+        long minDay = Long.MAX_VALUE;
+        long maxDay = Long.MIN_VALUE;
+        for (CellKey key : delta.keySet()) {
+            warIdSet.add(key.warId());
+            minDay = Math.min(minDay, key.day());
+            maxDay = Math.max(maxDay, key.day());
+        }
+        int[] warIds = warIdSet.toIntArray();
+        Arrays.sort(warIds);
+        for (int start = 0; start < warIds.length; start += MERGE_WAR_BATCH) {
+            int[] batch = Arrays.copyOfRange(warIds, start, Math.min(warIds.length, start + MERGE_WAR_BATCH));
+            String query = "SELECT day, war_id, attacker_id, attack_type, data FROM `WAR_COST_DAILY` WHERE `day` >= ? AND `day` <= ? AND `war_id` IN " + StringMan.getString(IntArrayList.wrap(batch));
+            try (PreparedStatement stmt = db.prepareQuery(query)) {
+                stmt.setLong(1, minDay);
+                stmt.setLong(2, maxDay);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        Cell cell = delta.get(new CellKey(rs.getLong(1), rs.getInt(2), rs.getInt(3), AttackType.values[rs.getInt(4)]));
+                        if (cell == null) continue;
+                        Cell existing = new Cell(cell.day, cell.warId, cell.attackerId, cell.defenderId, cell.attackerAA, cell.defenderAA, cell.type);
+                        cell.add(existing.load(buffer, rs.getBytes(5)), 1);
+                    }
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        List<Cell> toSave = new ArrayList<>(delta.values());
+        db.executeBatch(toSave, "INSERT OR REPLACE INTO `WAR_COST_DAILY` (`day`, `war_id`, `attacker_id`, `defender_id`, `attacker_aa`, `defender_aa`, `attack_type`, `data`) VALUES (?, ?, ?, ?, ?, ?, ?, ?)",
+                (ThrowingBiConsumer<Cell, PreparedStatement>) (cell, stmt) -> {
+                    stmt.setLong(1, cell.day);
+                    stmt.setInt(2, cell.warId);
+                    stmt.setInt(3, cell.attackerId);
+                    stmt.setInt(4, cell.defenderId);
+                    stmt.setInt(5, cell.attackerAA);
+                    stmt.setInt(6, cell.defenderAA);
+                    stmt.setInt(7, cell.type.ordinal());
+                    stmt.setBytes(8, cell.toBytes(buffer));
+                });
+    }
+
+    /**
+     * Visit the rolled up costs of the given wars between two days (inclusive)
+     * @param wars the wars to include, by id
+     * @param attackTypes the attack types to include, or null for all
+     * @param allianceIds alliances at least one side of each war belongs to, used to narrow the scan when there are many wars, or null
+     * @param nationIds nations at least one side of each war belongs to, used with allianceIds, or null
+     */
+    public void iterate(long startDay, long endDay, Map<Integer, DBWar> wars, Set<AttackType> attackTypes, Collection<Integer> allianceIds, Collection<Integer> nationIds, BiConsumer<DBWar, Cell> consumer) {
+        if (wars.isEmpty() || startDay > endDay) return;
+        StringBuilder query = new StringBuilder("SELECT day, war_id, attacker_id, defender_id, attacker_aa, defender_aa, attack_type, data FROM `WAR_COST_DAILY` WHERE `day` >= ? AND `day` <= ?");
+        if (wars.size() <= WAR_ID_FILTER_LIMIT) {
+            query.append(" AND `war_id` IN ").append(StringMan.getString(wars.keySet()));
+        } else {
+            List<String> conditions = new ArrayList<>();
+            if (allianceIds != null && !allianceIds.isEmpty()) {
+                String ids = StringMan.getString(allianceIds);
+                conditions.add("`attacker_aa` IN " + ids);
+                conditions.add("`defender_aa` IN " + ids);
+            }
+            if (nationIds != null && !nationIds.isEmpty()) {
+                String ids = StringMan.getString(nationIds);
+                conditions.add("`attacker_id` IN " + ids);
+                conditions.add("`defender_id` IN " + ids);
+            }
+            if (!conditions.isEmpty()) {
+                query.append(" AND (").append(StringMan.join(conditions, " OR ")).append(")");
+            }
+        }
+        query.append(" ORDER BY `day` ASC");
+        BitBuffer readBuffer = new BitBuffer(4096);
+        db.query(query.toString(), (ThrowingConsumer<PreparedStatement>) stmt -> {
+            stmt.setLong(1, startDay);
+            stmt.setLong(2, endDay);
+        }, (ThrowingConsumer<ResultSet>) rs -> {
+            while (rs.next()) {
+                DBWar war = wars.get(rs.getInt(2));
+                if (war == null) continue;
+                AttackType type = AttackType.values[rs.getInt(7)];
+                if (attackTypes != null && !attackTypes.contains(type)) continue;
+                Cell cell = new Cell(rs.getLong(1), war.getWarId(), rs.getInt(3), rs.getInt(4), rs.getInt(5), rs.getInt(6), type);
+                consumer.accept(war, cell.load(readBuffer, rs.getBytes(8)));
+            }
+        });
+    }
+}
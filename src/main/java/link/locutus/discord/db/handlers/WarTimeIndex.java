@@ -0,0 +1,208 @@
+package link.locutus.discord.db.handlers;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import link.locutus.discord.db.entities.DBWar;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.function.Consumer;
+
+/**
+ * Wars sorted by declaration date, globally, per alliance and per nation, so a time window is two binary searches
+ * and a query costs time proportional to the wars returned rather than every war of the participants.
+ * A war ends at most {@link #WAR_TURNS} turns after it is declared, so a war active at some time in [start, end] is declared in
+ * (start - WAR_TURNS, end], and windows over war duration are a declaration window widened by that much.
+ * Wars with no alliance are not indexed by alliance.
+ * Thread safe
+ */
+public class WarTimeIndex {
+    public static final int WAR_TURNS = 60;
+
+    private static final DBWar[] EMPTY = new DBWar[0];
+    private static final Comparator<DBWar> ORDER = Comparator.comparingLong(DBWar::getDate).thenComparingInt(DBWar::getWarId);
+
+    private static final class WarList {
+        private DBWar[] wars = EMPTY;
+        private int size;
+        private boolean sorted = true;
+
+        private void append(DBWar war) {
+            if (size == wars.length) {
+                wars = Arrays.copyOf(wars, Math.max(4, size + (size >> 1)));
+            }
+            if (sorted && size > 0 && ORDER.compare(wars[size - 1], war) >= 0) {
+                sorted = false;
+            }
+            wars[size++] = war;
+        }
+
+        /**
+         * Insert a war, or replace the instance with the same id
+         */
+        private void add(DBWar war) {
+            if (size > 0) {
+                DBWar last = wars[size - 1];
+                int cmp = ORDER.compare(last, war);
+                if (cmp > 0) {
+                    int index = Arrays.binarySearch(wars, 0, size, war, ORDER);
+                    if (index >= 0) {
+                        wars[index] = war;
+                        return;
+                    }
+                    index = -index - 1;
+                    if (size == wars.length) wars = Arrays.copyOf(wars, size + (size >> 1) + 1);
+                    System.arraycopy(wars, index, wars, index + 1, size - index);
+                    wars[index] = war;
+                    size++;
+                    return;
+                } else if (cmp == 0) {
+                    wars[size - 1] = war;
+                    return;
+                }
+            }
+            append(war);
+        }
+
+        /**
+         * Sort after bulk appends, keeping the last instance of each war
+         */
+        private void normalize() {
+            if (sorted) return;
+            Arrays.sort(wars, 0, size, ORDER);
+            int write = 0;
+            for (int read = 0; read < size; read++) {
+                if (write > 0 && wars[write - 1].getWarId() == wars[read].getWarId()) {
+                    wars[write - 1] = wars[read];
+                } else {
+                    wars[write++] = wars[read];
+                }
+            }
+            Arrays.fill(wars, write, size, null);
+            size = write;
+            sorted = true;
+        }
+
+        /**
+         * @return the first index with a date greater than or equal to `date`
+         */
+        private int lowerBound(long date) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (wars[mid].getDate() < date) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private int startIndex(long start) {
+            return start == Long.MAX_VALUE ? size : lowerBound(start + 1);
+        }
+
+        private int count(long start, long end) {
+            return Math.max(0, lowerBound(end) - startIndex(start));
+        }
+
+        private void forEach(long start, long end, Consumer<DBWar> consumer) {
+            int to = lowerBound(end);
+            for (int i = startIndex(start); i < to; i++) {
+                consumer.accept(wars[i]);
+            }
+        }
+    }
+
+    private final WarList all = new WarList();
+    private final Int2ObjectOpenHashMap<WarList> byAlliance = new Int2ObjectOpenHashMap<>();
+    private final Int2ObjectOpenHashMap<WarList> byNation = new Int2ObjectOpenHashMap<>();
+
+    private static WarList getOrCreate(Int2ObjectOpenHashMap<WarList> map, int id) {
+        WarList list = map.get(id);
+        if (list == null) {
+            list = new WarList();
+            map.put(id, list);
+        }
+        return list;
+    }
+
+    public synchronized void add(DBWar war) {
+        all.add(war);
+        if (war.getAttacker_aa() != 0) getOrCreate(byAlliance, war.getAttacker_aa()).add(war);
+        if (war.getDefender_aa() != 0 && war.getDefender_aa() != war.getAttacker_aa()) getOrCreate(byAlliance, war.getDefender_aa()).add(war);
+        getOrCreate(byNation, war.getAttacker_id()).add(war);
+        if (war.getDefender_id() != war.getAttacker_id()) getOrCreate(byNation, war.getDefender_id()).add(war);
+    }
+
+    public synchronized void addAll(Collection<DBWar> wars) {
+        for (DBWar war : wars) {
+            all.append(war);
+            if (war.getAttacker_aa() != 0) getOrCreate(byAlliance, war.getAttacker_aa()).append(war);
+            if (war.getDefender_aa() != 0 && war.getDefender_aa() != war.getAttacker_aa()) getOrCreate(byAlliance, war.getDefender_aa()).append(war);
+            getOrCreate(byNation, war.getAttacker_id()).append(war);
+            if (war.getDefender_id() != war.getAttacker_id()) getOrCreate(byNation, war.getDefender_id()).append(war);
+        }
+        all.normalize();
+        byAlliance.values().forEach(WarList::normalize);
+        byNation.values().forEach(WarList::normalize);
+    }
+
+    public synchronized void clear() {
+        all.wars = EMPTY;
+        all.size = 0;
+        all.sorted = true;
+        byAlliance.clear();
+        byNation.clear();
+    }
+
+    /**
+     * Visit the wars declared after `start` and before `end` (both exclusive), in order of date
+     */
+    public synchronized void forEach(long start, long end, Consumer<DBWar> consumer) {
+        all.forEach(start, end, consumer);
+    }
+
+    /**
+     * Visit the wars of the alliances and nations declared after `start` and before `end` (both exclusive)
+     * A war involving several of the ids is visited once per id
+     * @param alliances the alliance ids, or null
+     * @param nations the nation ids, or null
+     */
+    public synchronized void forEach(Collection<Integer> alliances, Collection<Integer> nations, long start, long end, Consumer<DBWar> consumer) {
+        if (alliances != null) {
+            for (int id : alliances) {
+                WarList list = byAlliance.get(id);
+                if (list != null) list.forEach(start, end, consumer);
+            }
+        }
+        if (nations != null) {
+            for (int id : nations) {
+                WarList list = byNation.get(id);
+                if (list != null) list.forEach(start, end, consumer);
+            }
+        }
+    }
+
+    /**
+     * @return the number of entries {@link #forEach(Collection, Collection, long, long, Consumer)} would visit, without visiting them
+     */
+    public synchronized long count(Collection<Integer> alliances, Collection<Integer> nations, long start, long end) {
+        long total = 0;
+        if (alliances != null) {
+            for (int id : alliances) {
+                WarList list = byAlliance.get(id);
+                if (list != null) total += list.count(start, end);
+            }
+        }
+        if (nations != null) {
+            for (int id : nations) {
+                WarList list = byNation.get(id);
+                if (list != null) total += list.count(start, end);
+            }
+        }
+        return total;
+    }
+}
@@ -1,27 +1,40 @@
 package link.locutus.discord.pnw;
 
+import it.unimi.dsi.fastutil.ints.IntArrays;
 import link.locutus.discord.db.entities.DBNation;
 import link.locutus.discord.util.scheduler.KeyValue;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
+/**
+ * Each value covers the integer scores from `score * minFactor` to `score * maxFactor` (rounded).<br>
+ * Values are kept in arrays sorted by score, so the values covering a score are a slice found with a binary search instead of a list per score.
+ * For the live nations, see {@link link.locutus.discord.db.NationDB#getNationsInScoreRange(double, double, Predicate)}
+ */
 public class NationScoreMap<T> {
-    private final List<T>[] scoreMap;
+    private final List<T> values;
+    // non-decreasing, as the values are sorted by score
+    private final int[] rangeMin;
+    private final int[] rangeMax;
     private final int minScore;
     private final int maxScore;
 
     public NationScoreMap(Collection<T> nations, Function<T, Double> scoreFunc, double minFactor, double maxFactor) {
+        int n = nations.size();
+        Object[] unsorted = nations.toArray();
+        double[] scores = new double[n];
         double minDble = Integer.MAX_VALUE;
         double maxDble = Integer.MIN_VALUE;
-        for (T nation : nations) {
-            double score = scoreFunc.apply(nation);
+        for (int i = 0; i < n; i++) {
+            double score = scoreFunc.apply((T) unsorted[i]);
+            scores[i] = score;
             double scoreMin = score * minFactor;
             double scoreMax = score * maxFactor;
             if (scoreMin < minDble) minDble = scoreMin;
@@ -29,28 +42,54 @@ public class NationScoreMap<T> {
         }
         this.minScore = (int) Math.round(minDble);
         this.maxScore = (int) Math.round(maxDble);
-        scoreMap = new List[maxScore - minScore + 1];
-        for (T nation : nations) {
-            double score = scoreFunc.apply(nation);
-            int scoreMin = (int) Math.round(score * minFactor);
-            int scoreMax = (int) Math.round(score * maxFactor);
-            for (int i = scoreMin; i <= scoreMax; i++) {
-                int j = i - minScore;
-                List<T> list = scoreMap[j];
-                if (list == null) {
-                    scoreMap[j] = list = new LinkedList<>();
-                }
-                list.add(nation);
-            }
+
+        int[] sorted = new int[n];
+        for (int i = 0; i < n; i++) sorted[i] = i;
+        IntArrays.quickSort(sorted, (a, b) -> Double.compare(scores[a], scores[b]));
+
+        Object[] values = new Object[n];
+        this.rangeMin = new int[n];
+        this.rangeMax = new int[n];
+        for (int i = 0; i < n; i++) {
+            int j = sorted[i];
+            values[i] = unsorted[j];
+            rangeMin[i] = (int) Math.round(scores[j] * minFactor);
+            rangeMax[i] = (int) Math.round(scores[j] * maxFactor);
+        }
+        this.values = Collections.unmodifiableList(Arrays.asList((T[]) values));
+    }
+
+    /**
+     * @return the first index where arr[i] >= value
+     */
+    private static int lowerBound(int[] arr, int value) {
+        int low = 0;
+        int high = arr.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (arr[mid] < value) low = mid + 1;
+            else high = mid;
         }
+        return low;
+    }
+
+    /**
+     * @return the first index where arr[i] > value
+     */
+    private static int upperBound(int[] arr, int value) {
+        return value == Integer.MAX_VALUE ? arr.length : lowerBound(arr, value + 1);
     }
 
+    /**
+     * @return an unmodifiable view of the values covering the score, sorted by score
+     */
     public List<T> get(int score) {
         if (score < minScore) return Collections.emptyList();
         if (score > maxScore) return Collections.emptyList();
-        List<T> list = scoreMap[score - minScore];
-        if (list == null) Collections.emptyList();
-        return list;
+        int start = lowerBound(rangeMax, score);
+        int end = upperBound(rangeMin, score);
+        if (start >= end) return Collections.emptyList();
+        return values.subList(start, end);
     }
 
     public static Map.Entry<Double, Double> getMinMaxScore(Collection<DBNation> nations, double minFactor, double maxFactor) {
@@ -74,21 +113,21 @@ public class NationScoreMap<T> {
         return minScore;
     }
 
+    /**
+     * @return the number of matching values covering each score from min to max (inclusive), summed
+     */
     public BiFunction<Integer, Integer, Integer> getSummedFunction(Predicate<T> filter) {
-        long[] summedCount = new long[scoreMap.length];
-        long sum = 0;
-        for (int i = 0; i < scoreMap.length; i++) {
-            List<T> list = scoreMap[i];
-            int size;
-            if (list == null || list.isEmpty()) {
-                size = 0;
-            } else if (filter == null){
-                size = list.size();
-            } else {
-                size = (int) list.stream().filter(filter).count();
+        // the change in matching values at each score, then the count at each score, then the running total
+        long[] summedCount = new long[(int) Math.max(0, (long) maxScore - minScore + 2)];
+        for (int i = 0; i < rangeMin.length; i++) {
+            if (filter != null && !filter.test(values.get(i))) continue;
+            summedCount[rangeMin[i] - minScore]++;
+            summedCount[rangeMax[i] - minScore + 1]--;
+        }
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 1; i < summedCount.length; i++) {
+                summedCount[i] += summedCount[i - 1];
             }
-            sum += size;
-            summedCount[i] = sum;
         }
         // return sum (inclusive min, inclusive max)
         return (min, max) -> {
@@ -103,4 +142,3 @@ public class NationScoreMap<T> {
         };
     }
 }
-
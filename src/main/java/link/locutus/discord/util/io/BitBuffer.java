@@ -2,6 +2,9 @@ package link.locutus.discord.util.io;
 
 import link.locutus.discord.util.IOUtil;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 public class BitBuffer {
     static void testReadWriteRandom() {
         BitBuffer bitBuffer = new BitBuffer(1024 * 1024); // 1 MB buffer
@@ -259,6 +262,16 @@ public class BitBuffer {
         bitsInBuffer = 0;
     }
 
+    public void setBytes(ByteBuffer data, int index, int length) {
+        int len = Math.min(length, byteArray.length);
+        data.get(index, byteArray, 0, len);
+        int end = Math.min(byteArray.length, (len + Long.BYTES - 1) & -Long.BYTES);
+        Arrays.fill(byteArray, len, end, (byte) 0);
+        offset = 0;
+        buffer = 0;
+        bitsInBuffer = 0;
+    }
+
     public void writeVarInt(int value) {
         while ((value & -128) != 0) {
             writeByte(value & 127 | 128);